@@ -0,0 +1,145 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import dmg.cells.nucleus.CellMessage;
+
+/**
+ * Writes cell messages as length prefixed frames.
+ *
+ * Each frame holds a single serialized cell message. Unlike plain Java
+ * serialization, a class descriptor is written at most once per tunnel:
+ * later occurrences refer to it by a numeric identifier. Classes in the
+ * {@link MessageTypeRegistry} are never described at all if both ends
+ * agreed on the registry during the handshake.
+ *
+ * The sink must be discarded once writing a message failed, as the
+ * descriptor table may then be out of sync with the peer.
+ */
+class CompactObjectSink implements LocationMgrTunnel.ObjectSink
+{
+    /** Tag of a descriptor that follows in full. */
+    static final byte NEW_DESCRIPTOR = 0;
+
+    /** Tag of a descriptor previously sent on the same tunnel. */
+    static final byte CACHED_DESCRIPTOR = 1;
+
+    /** Tag of a descriptor in the message type registry. */
+    static final byte REGISTERED_DESCRIPTOR = 2;
+
+    private final DataOutputStream _out;
+    private final MessageTypeRegistry _registry;
+    private final Map<Class<?>, Integer> _descriptors = new HashMap<>();
+    private final Buffer _buffer = new Buffer();
+
+    /**
+     * @param out the stream to write frames to
+     * @param registry the registry agreed upon with the peer, or null
+     *                 if no registry is shared
+     */
+    CompactObjectSink(OutputStream out, MessageTypeRegistry registry)
+    {
+        _out = new DataOutputStream(out);
+        _registry = registry;
+    }
+
+    @Override
+    public void writeObject(CellMessage message) throws IOException
+    {
+        _buffer.reset();
+        try (ObjectOutputStream out = new DescriptorCachingOutputStream(_buffer)) {
+            out.writeObject(message);
+        }
+        _out.writeInt(_buffer.size());
+        _buffer.writeTo(_out);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        _out.flush();
+    }
+
+    /**
+     * Frame buffer that is reused for all messages.
+     */
+    private static class Buffer extends ByteArrayOutputStream
+    {
+        Buffer()
+        {
+            super(1024);
+        }
+
+        @Override
+        public void reset()
+        {
+            /* Don't hold on to the memory of an exceptionally large message.
+             */
+            if (buf.length > 65536) {
+                buf = new byte[1024];
+            }
+            super.reset();
+        }
+    }
+
+    private class DescriptorCachingOutputStream extends ObjectOutputStream
+    {
+        DescriptorCachingOutputStream(OutputStream out) throws IOException
+        {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException
+        {
+            /* Frames never stand on their own, so the header is redundant.
+             */
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException
+        {
+            Class<?> type = desc.forClass();
+            int id = (_registry == null) ? -1 : _registry.getId(type);
+            if (id > -1) {
+                writeByte(REGISTERED_DESCRIPTOR);
+                writeInt(id);
+                return;
+            }
+
+            Integer cached = _descriptors.get(type);
+            if (cached != null) {
+                writeByte(CACHED_DESCRIPTOR);
+                writeInt(cached);
+            } else {
+                writeByte(NEW_DESCRIPTOR);
+                super.writeClassDescriptor(desc);
+                _descriptors.put(type, _descriptors.size());
+            }
+        }
+    }
+}
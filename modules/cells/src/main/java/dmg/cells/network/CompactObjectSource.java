@@ -0,0 +1,114 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dmg.cells.nucleus.CellMessage;
+
+import static dmg.cells.network.CompactObjectSink.CACHED_DESCRIPTOR;
+import static dmg.cells.network.CompactObjectSink.NEW_DESCRIPTOR;
+import static dmg.cells.network.CompactObjectSink.REGISTERED_DESCRIPTOR;
+
+/**
+ * Reads cell messages written by {@link CompactObjectSink}.
+ */
+class CompactObjectSource implements LocationMgrTunnel.ObjectSource
+{
+    /**
+     * Upper limit on the size of a single frame. Protects against
+     * allocating huge buffers when reading from a corrupted stream.
+     */
+    private static final int MAX_FRAME_SIZE = 256 << 20;
+
+    private final DataInputStream _in;
+    private final MessageTypeRegistry _registry;
+    private final List<ObjectStreamClass> _descriptors = new ArrayList<>();
+
+    /**
+     * @param in the stream to read frames from
+     * @param registry the registry agreed upon with the peer, or null
+     *                 if no registry is shared
+     */
+    CompactObjectSource(InputStream in, MessageTypeRegistry registry)
+    {
+        _in = new DataInputStream(in);
+        _registry = registry;
+    }
+
+    @Override
+    public CellMessage readObject() throws IOException, ClassNotFoundException
+    {
+        int length = _in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        _in.readFully(frame);
+        try (ObjectInputStream in = new DescriptorCachingInputStream(new ByteArrayInputStream(frame))) {
+            return (CellMessage) in.readObject();
+        }
+    }
+
+    private class DescriptorCachingInputStream extends ObjectInputStream
+    {
+        DescriptorCachingInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException
+        {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException
+        {
+            byte tag = readByte();
+            switch (tag) {
+            case NEW_DESCRIPTOR:
+                ObjectStreamClass desc = super.readClassDescriptor();
+                _descriptors.add(desc);
+                return desc;
+            case CACHED_DESCRIPTOR:
+                int cached = readInt();
+                if (cached < 0 || cached >= _descriptors.size()) {
+                    throw new StreamCorruptedException("Unknown class descriptor: " + cached);
+                }
+                return _descriptors.get(cached);
+            case REGISTERED_DESCRIPTOR:
+                int id = readInt();
+                if (_registry == null || id < 0 || id >= _registry.size()) {
+                    throw new StreamCorruptedException("Unknown message type: " + id);
+                }
+                return _registry.getDescriptor(id);
+            default:
+                throw new StreamCorruptedException("Invalid class descriptor tag: " + tag);
+            }
+        }
+    }
+}
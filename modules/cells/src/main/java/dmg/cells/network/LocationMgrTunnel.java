@@ -17,6 +17,8 @@
  */
 package dmg.cells.network;
 
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,8 +33,15 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 
 import dmg.cells.nucleus.CellAdapter;
@@ -46,6 +55,7 @@ import dmg.cells.nucleus.CellTunnelInfo;
 import dmg.cells.nucleus.MessageEvent;
 import dmg.cells.nucleus.NoRouteToCellException;
 import dmg.cells.nucleus.RoutedMessageEvent;
+import dmg.util.Releases;
 import dmg.util.StreamEngine;
 
 import org.dcache.util.Args;
@@ -64,6 +74,19 @@ public class LocationMgrTunnel
     private static final Logger _log =
         LoggerFactory.getLogger(LocationMgrTunnel.class);
 
+    /**
+     * Size of the output buffer. Once that many bytes of messages are
+     * pending, they are written to the socket regardless of whether more
+     * messages are queued.
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * Maximum time in nanoseconds a message written to the output buffer
+     * is held back while waiting for further messages.
+     */
+    private static final long MAX_BATCH_DELAY = TimeUnit.MILLISECONDS.toNanos(2);
+
     private final CellNucleus  _nucleus;
 
     private CellDomainInfo  _localDomainInfo;
@@ -73,9 +96,13 @@ public class LocationMgrTunnel
     private Thread _thread;
     private final Socket _socket;
 
+    private final CountingOutputStream _countingOut;
+    private final CountingInputStream _countingIn;
     private final OutputStream _rawOut;
     private final InputStream _rawIn;
 
+    private Codec _codec;
+    private boolean _isRegistryShared;
     private ObjectSource _input;
     private ObjectSink _output;
 
@@ -85,17 +112,51 @@ public class LocationMgrTunnel
     private LongAdder _messagesToTunnel = new LongAdder();
     private LongAdder _messagesToSystem = new LongAdder();
 
+    /**
+     * Messages written to the output buffer but not yet flushed. Only
+     * accessed by the message delivery thread.
+     */
+    private final List<CellMessage> _unflushed = new ArrayList<>();
+    private long _batchStart;
+
+    /**
+     * Sequence number of the current batch. Only accessed by the message
+     * delivery thread.
+     */
+    private long _batch;
+
+    /**
+     * Schedules the flush of batches that are not completed by further
+     * messages.
+     */
+    private final ScheduledExecutorService _flushTimer;
+
+    /**
+     * Bytes written to the socket as of the last flush. Only accessed by
+     * the message delivery thread.
+     */
+    private long _flushedBytes;
+
+    private final LongAdder _batches = new LongAdder();
+    private final LongAdder _batchedMessages = new LongAdder();
+    private final LongAdder _flushTime = new LongAdder();
+    private volatile int _largestBatch;
+    private volatile long _longestFlush;
+
     public LocationMgrTunnel(String cellName, StreamEngine engine, Args args)
     {
         super(cellName, "System", args);
         _nucleus = getNucleus();
         _socket = engine.getSocket();
-        _rawOut = new BufferedOutputStream(engine.getOutputStream());
-        _rawIn = new BufferedInputStream(engine.getInputStream());
+        _countingOut = new CountingOutputStream(engine.getOutputStream());
+        _countingIn = new CountingInputStream(engine.getInputStream());
+        _rawOut = new BufferedOutputStream(_countingOut, MAX_BATCH_BYTES);
+        _rawIn = new BufferedInputStream(_countingIn);
         CellDomainRole role = args.hasOption("role") ? CellDomainRole.valueOf(
                 args.getOption("role").toUpperCase()) : CellDomainRole.SATELLITE;
         _localDomainInfo = new CellDomainInfo(_nucleus.getCellDomainName(),
                                               Version.of(LocationMgrTunnel.class).getVersion(), role);
+        _flushTimer = Executors.newSingleThreadScheduledExecutor(_nucleus);
     }
 
     @Override
@@ -103,6 +164,7 @@ public class LocationMgrTunnel
     {
         _socket.setTcpNoDelay(true);
         handshake();
+        _flushedBytes = _countingOut.getCount();
         _tunnels.add(this);
     }
 
@@ -119,6 +181,7 @@ public class LocationMgrTunnel
     {
         _log.info("Closing tunnel to {}", getRemoteDomainName());
         _tunnels.remove(this);
+        _flushTimer.shutdown();
         try {
             try {
                 _socket.shutdownOutput();
@@ -169,13 +232,67 @@ public class LocationMgrTunnel
 
             _allowForwardingOfRemoteMessages = (_remoteDomainInfo.getRole() != CellDomainRole.CORE);
 
-            _input = new JavaObjectSource(in);
-            _output = new JavaObjectSink(out);
+            if (_remoteDomainInfo.getRelease() >= Releases.RELEASE_2_17) {
+                negotiateCodec(in, out);
+            } else {
+                _codec = Codec.JAVA;
+            }
+
+            switch (_codec) {
+            case COMPACT:
+                MessageTypeRegistry registry = _isRegistryShared ? MessageTypeRegistry.getInstance() : null;
+                _input = new CompactObjectSource(_rawIn, registry);
+                _output = new CompactObjectSink(_rawOut, registry);
+                break;
+            case JAVA:
+                _input = new JavaObjectSource(in);
+                _output = new JavaObjectSink(out);
+                break;
+            }
         } catch (ClassNotFoundException e) {
             throw new IOException("Cannot deserialize object. This is most likely due to a version mismatch.", e);
         }
 
-        _log.debug("Established tunnel to {}", getRemoteDomainName());
+        _log.debug("Established tunnel to {} using {} encoding", getRemoteDomainName(), _codec);
+    }
+
+    /**
+     * Exchanges the supported message encodings with the peer. Both ends
+     * select the first encoding in {@link Codec} order that is supported
+     * by both of them. Encodings unknown to this domain are ignored, thus
+     * allowing future releases to add encodings.
+     */
+    private void negotiateCodec(ObjectInputStream in, ObjectOutputStream out) throws IOException
+    {
+        MessageTypeRegistry registry = MessageTypeRegistry.getInstance();
+
+        Codec[] codecs = Codec.values();
+        out.writeInt(codecs.length);
+        for (Codec codec : codecs) {
+            out.writeUTF(codec.name());
+        }
+        out.writeLong(registry.getFingerprint());
+        out.flush();
+
+        EnumSet<Codec> remoteCodecs = EnumSet.noneOf(Codec.class);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            for (Codec codec : codecs) {
+                if (codec.name().equals(name)) {
+                    remoteCodecs.add(codec);
+                }
+            }
+        }
+        _isRegistryShared = (in.readLong() == registry.getFingerprint());
+
+        for (Codec codec : codecs) {
+            if (remoteCodecs.contains(codec)) {
+                _codec = codec;
+                return;
+            }
+        }
+        throw new IOException("No common message encoding with " + getRemoteDomainName());
     }
 
     @Override
@@ -197,31 +314,127 @@ public class LocationMgrTunnel
         }
     }
 
+    /**
+     * Writes routed messages to the peer.
+     *
+     * Messages are written to the output buffer and the buffer is only
+     * flushed once no further messages are queued for the tunnel, or once
+     * the oldest unflushed message has been held back for too long. Under
+     * load many small messages are thus sent with a single system call.
+     * Queued events do not necessarily arrive here, e.g. replies to
+     * callbacks do not, thus a batch that is not flushed right away is
+     * flushed on the message thread once it has been held back for
+     * MAX_BATCH_DELAY.
+     *
+     * Once full, the output buffer writes to the socket on its own. The
+     * batch is then completed right away, such that the unflushed messages
+     * are exactly those still held in the buffer.
+     */
     @Override
     public void messageArrived(MessageEvent me)
     {
+        boolean isNewBatch = false;
         if (me instanceof RoutedMessageEvent) {
             CellMessage msg = me.getMessage();
             try {
                 _messagesToTunnel.increment();
+                if (_unflushed.isEmpty()) {
+                    _batchStart = System.nanoTime();
+                    _batch++;
+                    isNewBatch = true;
+                }
+                _unflushed.add(msg);
                 _output.writeObject(msg);
             } catch (IOException e) {
                 _log.warn("Error while sending message: " + e.getMessage());
-                CellMessage envelope = new CellMessage(msg.getSourcePath().revert(),
-                        new NoRouteToCellException(msg, "Communication failure. Message could not be delivered."));
-                envelope.setLastUOID(msg.getUOID());
-                _nucleus.sendMessage(envelope, true, true);
+                failUnflushed();
                 kill();
+                return;
             }
         } else {
             super.messageArrived(me);
         }
+
+        if (!_unflushed.isEmpty() &&
+                (_nucleus.getEventQueueSize() == 0 || _countingOut.getCount() != _flushedBytes ||
+                 System.nanoTime() - _batchStart >= MAX_BATCH_DELAY)) {
+            flushBatch();
+        } else if (isNewBatch) {
+            scheduleFlush(_batch);
+        }
+    }
+
+    /**
+     * Flushes the given batch on the message thread after MAX_BATCH_DELAY,
+     * unless it has been flushed by then.
+     */
+    private void scheduleFlush(long batch)
+    {
+        _flushTimer.schedule(() -> {
+            try {
+                invokeOnMessageThread(() -> {
+                    if (_batch == batch && !_unflushed.isEmpty()) {
+                        flushBatch();
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // Tunnel is shutting down
+            }
+        }, MAX_BATCH_DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    private void flushBatch()
+    {
+        try {
+            flush();
+        } catch (IOException e) {
+            _log.warn("Error while sending message: " + e.getMessage());
+            failUnflushed();
+            kill();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        long start = System.nanoTime();
+        _output.flush();
+        long duration = System.nanoTime() - start;
+        _flushedBytes = _countingOut.getCount();
+
+        int size = _unflushed.size();
+        _unflushed.clear();
+        _batches.increment();
+        _batchedMessages.add(size);
+        _flushTime.add(duration);
+        if (size > _largestBatch) {
+            _largestBatch = size;
+        }
+        if (duration > _longestFlush) {
+            _longestFlush = duration;
+        }
+    }
+
+    /**
+     * Notifies the senders of all unflushed messages that their message
+     * may not have been delivered.
+     */
+    private void failUnflushed()
+    {
+        for (CellMessage msg : _unflushed) {
+            CellMessage envelope = new CellMessage(msg.getSourcePath().revert(),
+                    new NoRouteToCellException(msg, "Communication failure. Message could not be delivered."));
+            envelope.setLastUOID(msg.getUOID());
+            _nucleus.sendMessage(envelope, true, true);
+        }
+        _unflushed.clear();
     }
 
     @Override
     public CellTunnelInfo getCellTunnelInfo()
     {
-        return new CellTunnelInfo(getNucleus().getThisAddress(), _localDomainInfo, _remoteDomainInfo);
+        return new CellTunnelInfo(getNucleus().getThisAddress(), _localDomainInfo, _remoteDomainInfo,
+                                  _batchedMessages.sum(), _batches.sum(), _largestBatch,
+                                  _flushTime.sum(), _longestFlush);
     }
 
     private String getRemoteDomainName()
@@ -241,9 +454,21 @@ public class LocationMgrTunnel
     public void getInfo(PrintWriter pw)
     {
         pw.println("Tunnel        : " + getCellName());
+        pw.println("Encoding      : " + _codec + (_isRegistryShared ? " (shared type registry)" : ""));
         pw.println("Messages delivered to");
         pw.println("   Peer       : " + _messagesToTunnel);
         pw.println("   Local      : " + _messagesToSystem);
+        pw.println("Bytes delivered to");
+        pw.println("   Peer       : " + _countingOut.getCount());
+        pw.println("   Local      : " + _countingIn.getCount());
+        CellTunnelInfo info = getCellTunnelInfo();
+        pw.println("Writes to peer");
+        pw.println("   Batches    : " + info.getBatches());
+        pw.println(String.format("   Batch size : %.1f avg, %d max",
+                                 info.getMeanBatchSize(), info.getLargestBatch()));
+        pw.println(String.format("   Flush time : %d \u00B5s avg, %d \u00B5s max",
+                                 TimeUnit.NANOSECONDS.toMicros(info.getMeanFlushTime()),
+                                 TimeUnit.NANOSECONDS.toMicros(info.getLongestFlush())));
         pw.println("Local domain");
         pw.println("   Name       : " + _localDomainInfo.getCellDomainName());
         pw.println("   Version    : " + _localDomainInfo.getVersion());
@@ -317,21 +542,39 @@ public class LocationMgrTunnel
         }
     }
 
-    private interface ObjectSource
+    /**
+     * Message encodings supported by the tunnel, in order of preference.
+     */
+    private enum Codec
+    {
+        /** Length prefixed frames with cached class descriptors. */
+        COMPACT,
+
+        /** Plain Java serialization; supported by all releases. */
+        JAVA
+    }
+
+    interface ObjectSource
     {
         CellMessage readObject() throws IOException, ClassNotFoundException;
     }
 
-    private interface ObjectSink
+    interface ObjectSink
     {
+        /**
+         * Writes a message. The message may be held in a buffer until
+         * the sink is flushed.
+         */
         void writeObject(CellMessage message) throws IOException;
+
+        void flush() throws IOException;
     }
 
-    private static class JavaObjectSource implements ObjectSource
+    static class JavaObjectSource implements ObjectSource
     {
         private ObjectInputStream in;
 
-        private JavaObjectSource(ObjectInputStream in)
+        JavaObjectSource(ObjectInputStream in)
         {
             this.in = in;
         }
@@ -343,11 +586,11 @@ public class LocationMgrTunnel
         }
     }
 
-    private static class JavaObjectSink implements ObjectSink
+    static class JavaObjectSink implements ObjectSink
     {
         private ObjectOutputStream out;
 
-        private JavaObjectSink(ObjectOutputStream out)
+        JavaObjectSink(ObjectOutputStream out)
         {
             this.out = out;
         }
@@ -365,6 +608,11 @@ public class LocationMgrTunnel
              */
             out.writeObject(message);
             out.reset();
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
             out.flush();
         }
     }
@@ -0,0 +1,135 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+import dmg.cells.nucleus.UOID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Table of envelope classes that are encoded by a numeric identifier
+ * rather than by their class descriptor.
+ *
+ * Only the classes of the CellMessage envelope are registered. The
+ * payload of a message is serialized by CellGlue before the message
+ * reaches a tunnel and is written as a plain byte array.
+ *
+ * Identifiers are assigned in class name order. Two domains may only
+ * rely on identifiers if their fingerprints are equal, i.e. if both
+ * registered the same classes with the same serializable form.
+ */
+final class MessageTypeRegistry
+{
+    private static final MessageTypeRegistry INSTANCE = load();
+
+    private final ImmutableList<ObjectStreamClass> _descriptors;
+    private final ImmutableMap<Class<?>, Integer> _ids;
+    private final long _fingerprint;
+
+    MessageTypeRegistry(Collection<Class<? extends Serializable>> types)
+    {
+        TreeMap<String, ObjectStreamClass> sorted = new TreeMap<>();
+        for (Class<?> type : types) {
+            ObjectStreamClass descriptor = ObjectStreamClass.lookup(type);
+            if (descriptor != null) {
+                sorted.put(type.getName(), descriptor);
+            }
+        }
+
+        ImmutableMap.Builder<Class<?>, Integer> ids = ImmutableMap.builder();
+        Hasher hasher = Hashing.sha256().newHasher();
+        int id = 0;
+        for (ObjectStreamClass descriptor : sorted.values()) {
+            ids.put(descriptor.forClass(), id++);
+            hasher.putString(descriptor.getName(), UTF_8);
+            hasher.putLong(descriptor.getSerialVersionUID());
+            for (ObjectStreamField field : descriptor.getFields()) {
+                hasher.putString(field.getName(), UTF_8);
+                hasher.putChar(field.getTypeCode());
+                if (!field.isPrimitive()) {
+                    hasher.putString(field.getTypeString(), UTF_8);
+                }
+            }
+        }
+        _descriptors = ImmutableList.copyOf(sorted.values());
+        _ids = ids.build();
+        _fingerprint = hasher.hash().asLong();
+    }
+
+    static MessageTypeRegistry getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a fingerprint of the registered classes and their
+     * serializable fields.
+     */
+    long getFingerprint()
+    {
+        return _fingerprint;
+    }
+
+    int size()
+    {
+        return _descriptors.size();
+    }
+
+    /**
+     * Returns the identifier of a class, or -1 if the class is not
+     * registered.
+     */
+    int getId(Class<?> type)
+    {
+        Integer id = _ids.get(type);
+        return (id == null) ? -1 : id;
+    }
+
+    ObjectStreamClass getDescriptor(int id)
+    {
+        return _descriptors.get(id);
+    }
+
+    private static MessageTypeRegistry load()
+    {
+        List<Class<? extends Serializable>> types = new ArrayList<>();
+        types.add(CellMessage.class);
+        types.add(CellPath.class);
+        types.add(CellAddressCore.class);
+        types.add(UOID.class);
+        types.add(ArrayList.class);
+        types.add(byte[].class);
+        return new MessageTypeRegistry(types);
+    }
+}
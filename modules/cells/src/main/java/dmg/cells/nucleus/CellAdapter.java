@@ -79,6 +79,7 @@ public class CellAdapter
             LoggerFactory.getLogger(CellAdapter.class);
     public static final String MAX_MESSAGE_THREADS = "cell.max-message-threads";
     public static final String MAX_MESSAGES_QUEUED = "cell.max-messages-queued";
+    public static final String MESSAGE_THREAD_MODE = "cell.message-thread-mode";
 
     private final CellVersion _version = new CellVersion(Version.of(this));
 
@@ -182,7 +183,12 @@ public class CellAdapter
             setCommandExceptionEnabled(false);
         }
 
-        _nucleus = new CellNucleus(this, cellName, cellType, executor);
+        CellNucleus.MessageThreadMode mode = CellNucleus.MessageThreadMode.PLATFORM;
+        if (!Strings.isNullOrEmpty(_args.getOption(MESSAGE_THREAD_MODE))) {
+            mode = CellNucleus.MessageThreadMode.valueOf(_args.getOption(MESSAGE_THREAD_MODE).toUpperCase());
+        }
+
+        _nucleus = new CellNucleus(this, cellName, cellType, executor, mode);
         if (!Strings.isNullOrEmpty(_args.getOption(MAX_MESSAGE_THREADS))) {
             _nucleus.setMaximumPoolSize(_args.getIntOption(MAX_MESSAGE_THREADS));
         }
@@ -654,6 +660,11 @@ public class CellAdapter
                 StringBuilder sb = new StringBuilder();
                 sb.append(getInfo()).append("\n");
                 Map<UOID,CellLock > map = _nucleus.getWaitQueue();
+                sb.append("Requests in flight : ").append(map.size()).append("\n");
+                sb.append("Requests timed out : ").append(_nucleus.getRequestsTimedOut()).append("\n");
+                sb.append("Message threads    : ")
+                        .append(_nucleus.getMessageThreadMode().toString().toLowerCase())
+                        .append(" (max ").append(_nucleus.getMaximumPoolSize()).append(")\n");
                 if (! map.isEmpty()) {
                     sb.append("\nWe are waiting for the following messages\n");
                 }
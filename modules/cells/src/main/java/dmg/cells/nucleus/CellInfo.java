@@ -23,6 +23,8 @@ public class CellInfo implements Serializable {
   private int    _eventQueueSize;
   private int    _threadCount;
   private long   _expectedQueueTime;
+  private int    _requestsInFlight;
+  private long   _requestsTimedOut;
   private CellVersion _version = new CellVersion() ;
 
   private static final String [] _stateNames =
@@ -40,6 +42,8 @@ public class CellInfo implements Serializable {
      _state          = info._state ;
      _eventQueueSize = info._eventQueueSize ;
      _expectedQueueTime = info._expectedQueueTime;
+     _requestsInFlight = info._requestsInFlight;
+     _requestsTimedOut = info._requestsTimedOut;
      _threadCount    = info._threadCount ;
      _version        = info._version ;
   }
@@ -55,6 +59,8 @@ public class CellInfo implements Serializable {
   public void setEventQueueSize( int size ){ _eventQueueSize = size ; }
   public void setExpectedQueueTime(long millis) { _expectedQueueTime = millis; }
   public void setThreadCount( int threadCount ){ _threadCount = threadCount ; }
+  public void setRequestsInFlight(int count) { _requestsInFlight = count; }
+  public void setRequestsTimedOut(long count) { _requestsTimedOut = count; }
   public void setState( int state ){
      _state = ( state < 0 ) || ( _state >= _stateNames.length )  ?
               _stateNames.length : state  ;
@@ -89,6 +95,17 @@ public class CellInfo implements Serializable {
   public Date   getCreationTime(){ return _creationTime ; }
   public String getDomainName(){ return _domainName ; }
   public int    getThreadCount(){ return _threadCount ; }
+
+  /**
+   * Returns the number of requests sent by the cell that await a reply.
+   */
+  public int    getRequestsInFlight() { return _requestsInFlight; }
+
+  /**
+   * Returns the number of requests sent by the cell that timed out
+   * without a reply.
+   */
+  public long   getRequestsTimedOut() { return _requestsTimedOut; }
   //
   // and some needfull things
   //
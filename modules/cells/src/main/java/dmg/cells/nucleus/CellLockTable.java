@@ -0,0 +1,205 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.nucleus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Table of callbacks for requests awaiting a reply.
+ *
+ * Callbacks are keyed by the UOID of the request. In addition, callbacks with
+ * a finite timeout are kept in a hashed timer wheel: the wheel is an array of
+ * slots, each slot covering one tick of time. A callback is placed in the slot
+ * of the tick in which it expires, modulo the size of the wheel. Expiring
+ * callbacks thus only inspects the slots of the ticks that passed since the
+ * last invocation rather than all outstanding requests.
+ *
+ * Registration, lookup and removal are thread safe and do not block each other
+ * beyond what ConcurrentHashMap implies. Expiry must not be called concurrently
+ * with itself.
+ */
+class CellLockTable
+{
+    /**
+     * Resolution of the timer wheel in milliseconds.
+     */
+    static final long TICK = 1000;
+
+    /**
+     * Number of slots in the timer wheel. Callbacks with a timeout beyond the
+     * span of the wheel are inspected once per revolution.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    private final ConcurrentHashMap<UOID, CellLock> _locks = new ConcurrentHashMap<>();
+
+    private final Set<CellLock>[] _wheel;
+
+    /**
+     * Callbacks that were registered after the slot of their tick had already been
+     * processed, e.g. callbacks put back after they failed to execute.
+     */
+    private final Set<CellLock> _overdue = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder _expired = new LongAdder();
+
+    /**
+     * The last tick whose slot has been or is being processed.
+     */
+    private volatile long _lastTick;
+
+    @SuppressWarnings("unchecked")
+    CellLockTable()
+    {
+        _wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            _wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        _lastTick = System.currentTimeMillis() / TICK - 1;
+    }
+
+    /**
+     * Registers a callback under the UOID of its request, replacing any
+     * callback previously registered for it.
+     */
+    void put(CellLock lock)
+    {
+        CellLock previous = _locks.put(lock.getMessage().getUOID(), lock);
+        if (previous != null && previous != lock) {
+            unschedule(previous);
+        }
+        long timeout = lock.getTimeout();
+        if (timeout != Long.MAX_VALUE) {
+            long tick = timeout / TICK;
+            if (tick > _lastTick) {
+                slot(tick).add(lock);
+                /* Expiry may have started processing the slot before the
+                 * callback was added to it.
+                 */
+                if (tick <= _lastTick && slot(tick).remove(lock)) {
+                    _overdue.add(lock);
+                }
+            } else {
+                _overdue.add(lock);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the callback registered for a request, or null if
+     * no such callback exists.
+     */
+    CellLock remove(UOID uoid)
+    {
+        CellLock lock = _locks.remove(uoid);
+        if (lock != null) {
+            unschedule(lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Removes and returns all callbacks that expired before {@code now}.
+     *
+     * A callback is only removed if it is still the one registered for its
+     * request, thus a callback registered concurrently for the same request
+     * is not expired in place of the one that timed out.
+     */
+    Collection<CellLock> expire(long now)
+    {
+        Collection<CellLock> expired = new ArrayList<>();
+
+        Iterator<CellLock> overdue = _overdue.iterator();
+        while (overdue.hasNext()) {
+            CellLock lock = overdue.next();
+            overdue.remove();
+            if (_locks.remove(lock.getMessage().getUOID(), lock)) {
+                expired.add(lock);
+            }
+        }
+
+        /* Only ticks that have passed completely are processed. All callbacks of
+         * those ticks have a timeout before now, except those that expire in a
+         * later revolution of the wheel.
+         */
+        long lastTick = now / TICK - 1;
+        long firstTick = Math.max(_lastTick + 1, lastTick - WHEEL_SIZE + 1);
+
+        /* Published before the slots are processed, such that a concurrent
+         * put either adds its callback before the slot is read or notices
+         * that the slot is being processed.
+         */
+        _lastTick = Math.max(_lastTick, lastTick);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            Iterator<CellLock> i = slot(tick).iterator();
+            while (i.hasNext()) {
+                CellLock lock = i.next();
+                if (lock.getTimeout() < now) {
+                    i.remove();
+                    if (_locks.remove(lock.getMessage().getUOID(), lock)) {
+                        expired.add(lock);
+                    }
+                }
+            }
+        }
+
+        _expired.add(expired.size());
+        return expired;
+    }
+
+    /**
+     * Returns the number of requests awaiting a reply.
+     */
+    int size()
+    {
+        return _locks.size();
+    }
+
+    /**
+     * Returns the number of requests that timed out since the table was created.
+     */
+    long getExpiredCount()
+    {
+        return _expired.sum();
+    }
+
+    Map<UOID, CellLock> toMap()
+    {
+        return new HashMap<>(_locks);
+    }
+
+    private void unschedule(CellLock lock)
+    {
+        long timeout = lock.getTimeout();
+        if (timeout != Long.MAX_VALUE && !slot(timeout / TICK).remove(lock)) {
+            _overdue.remove(lock);
+        }
+    }
+
+    private Set<CellLock> slot(long tick)
+    {
+        return _wheel[(int) (tick % WHEEL_SIZE)];
+    }
+}
@@ -20,8 +20,6 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -44,6 +42,7 @@ import dmg.util.logback.RootFilterThresholds;
 
 import org.dcache.util.BoundedCachedExecutor;
 import org.dcache.util.BoundedExecutor;
+import org.dcache.util.VirtualThreads;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.consumingIterable;
@@ -62,6 +61,26 @@ public class CellNucleus implements ThreadFactory
     private static final Logger LOGGER =
             LoggerFactory.getLogger(CellNucleus.class);
 
+    /**
+     * The kind of threads on which messages are delivered to a cell.
+     */
+    public enum MessageThreadMode
+    {
+        /**
+         * Messages are delivered on platform threads of the thread group of
+         * the cell. Idle threads are cached.
+         */
+        PLATFORM,
+
+        /**
+         * Messages are delivered on virtual threads, one per message. A message
+         * handler blocking on a reply does not occupy an operating system
+         * thread, thus the maximum number of message threads may be raised
+         * considerably. Requires Java 21 or newer.
+         */
+        VIRTUAL
+    }
+
     private static final int PINBOARD_DEFAULT_SIZE = 200;
     private static final  int    INITIAL  =  0;
     private static final  int    ACTIVE   =  1;
@@ -77,11 +96,11 @@ public class CellNucleus implements ThreadFactory
 
     private final AtomicInteger _state = new AtomicInteger(INITIAL);
 
-    //  have to be synchronized map
-    private final  Map<UOID, CellLock> _waitHash = new HashMap<>();
+    private final CellLockTable _waitHash = new CellLockTable();
     private String _cellClass;
 
     private final BoundedExecutor _messageExecutor;
+    private final MessageThreadMode _messageThreadMode;
     private final AtomicInteger _eventQueueSize = new AtomicInteger();
 
     /**
@@ -97,6 +116,11 @@ public class CellNucleus implements ThreadFactory
      */
     private final TimerTask _timeoutTask;
 
+    /**
+     * Task for executing deferred tasks.
+     */
+    private final TimerTask _maintenanceTask;
+
     private Pinboard _pinboard;
     private FilterThresholdSet _loggingThresholds;
     private final Queue<Runnable> _deferredTasks = Queues.synchronizedQueue(new ArrayDeque<>());
@@ -104,6 +128,19 @@ public class CellNucleus implements ThreadFactory
     private final CellCuratorFramework _curatorFramework;
 
     public CellNucleus(Cell cell, String name, String type, Executor executor)
+    {
+        this(cell, name, type, executor, MessageThreadMode.PLATFORM);
+    }
+
+    /**
+     * Creates a nucleus for a cell.
+     *
+     * @param executor executor from which to source message delivery threads,
+     *                 or null if the nucleus should create its own threads
+     * @param mode kind of threads the nucleus creates for message delivery;
+     *             ignored if {@code executor} is not null
+     */
+    public CellNucleus(Cell cell, String name, String type, Executor executor, MessageThreadMode mode)
     {
         setPinboard(new Pinboard(PINBOARD_DEFAULT_SIZE));
 
@@ -146,7 +183,21 @@ public class CellNucleus implements ThreadFactory
 
         _threads = new ThreadGroup(__cellGlue.getMasterThreadGroup(), _cellName + "-threads");
 
-        _messageExecutor = (executor == null) ? new BoundedCachedExecutor(this, 1) : new BoundedExecutor(executor, 1);
+        if (executor != null) {
+            _messageThreadMode = MessageThreadMode.PLATFORM;
+            _messageExecutor = new BoundedExecutor(executor, 1);
+        } else if (mode == MessageThreadMode.VIRTUAL && VirtualThreads.isAvailable()) {
+            _messageThreadMode = MessageThreadMode.VIRTUAL;
+            _messageExecutor = new BoundedCachedExecutor(
+                    VirtualThreads.newThreadPerTaskExecutor(_cellName + "-v"), 1);
+        } else {
+            if (mode == MessageThreadMode.VIRTUAL) {
+                LOGGER.warn("Virtual threads are not supported by this JVM; " +
+                            "cell {} uses platform threads.", _cellName);
+            }
+            _messageThreadMode = MessageThreadMode.PLATFORM;
+            _messageExecutor = new BoundedCachedExecutor(this, 1);
+        }
 
         CuratorFramework curatorFramework = __cellGlue.getCuratorFramework();
         _curatorFramework = (curatorFramework != null)
@@ -154,6 +205,21 @@ public class CellNucleus implements ThreadFactory
                             : null;
 
         _timeoutTask = new TimerTask() {
+            @Override
+            public void run()
+            {
+                try (CDC ignored = CDC.reset(CellNucleus.this)) {
+                    try {
+                        expireCallbacks();
+                    } catch (Throwable e) {
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                    }
+                }
+            }
+        };
+
+        _maintenanceTask = new TimerTask() {
             @Override
             public void run()
             {
@@ -283,6 +349,8 @@ public class CellNucleus implements ThreadFactory
             info.setExpectedQueueTime((eventQueueSize == 0) ? 0 : _lastQueueTime);
             info.setState(_state.get());
             info.setThreadCount(_threads.activeCount());
+            info.setRequestsInFlight(_waitHash.size());
+            info.setRequestsTimedOut(_waitHash.getExpiredCount());
         } catch(Exception e) {
             info.setEventQueueSize(0);
             info.setState(0);
@@ -331,6 +399,11 @@ public class CellNucleus implements ThreadFactory
         return _messageExecutor.getMaximumQueueSize();
     }
 
+    public MessageThreadMode getMessageThreadMode()
+    {
+        return _messageThreadMode;
+    }
+
     public void  sendMessage(CellMessage msg,
                              boolean locally,
                              boolean remotely)
@@ -411,34 +484,21 @@ public class CellNucleus implements ThreadFactory
 
     public Map<UOID,CellLock > getWaitQueue()
     {
-        synchronized (_waitHash) {
-            return new HashMap<>(_waitHash);
-        }
+        return _waitHash.toMap();
     }
 
-    private int executeMaintenanceTasks()
+    /**
+     * Returns the number of requests sent by this cell that timed out
+     * without a reply.
+     */
+    long getRequestsTimedOut()
     {
-        Collection<CellLock> expired = new ArrayList<>();
-        long now = System.currentTimeMillis();
-        int size;
-
-        synchronized (_waitHash) {
-            Iterator<CellLock> i = _waitHash.values().iterator();
-            while (i.hasNext()) {
-                CellLock lock =  i.next();
-                if (lock.getTimeout() < now) {
-                    expired.add(lock);
-                    i.remove();
-                }
-            }
-            size = _waitHash.size();
-        }
+        return _waitHash.getExpiredCount();
+    }
 
-        //
-        // _waitHash can't be used here. Otherwise
-        // we will end up in a deadlock (NO LOCKS WHILE CALLING CALLBACKS)
-        //
-        for (final CellLock lock: expired) {
+    private void expireCallbacks()
+    {
+        for (final CellLock lock: _waitHash.expire(System.currentTimeMillis())) {
             try (CDC ignored = lock.getCdc().restore()) {
                 try {
                     lock.getExecutor().execute(() -> {
@@ -450,18 +510,14 @@ public class CellNucleus implements ThreadFactory
                             /* May happen when the callback itself tries to schedule the call
                              * on an executor. Put the request back and let it time out.
                              */
-                            synchronized (_waitHash) {
-                                _waitHash.put(envelope.getUOID(), lock);
-                            }
+                            _waitHash.put(lock);
                             LOGGER.warn("Failed to invoke callback: {}", e.toString());
                         }
                     });
                 } catch (RejectedExecutionException e) {
                     /* Put it back and deal with it later.
                      */
-                    synchronized (_waitHash) {
-                        _waitHash.put(lock.getMessage().getUOID(), lock);
-                    }
+                    _waitHash.put(lock);
                     LOGGER.warn("Failed to invoke callback: {}", e.toString());
                 } catch (RuntimeException e) {
                     /* Don't let a problem in the callback prevent us from
@@ -472,13 +528,14 @@ public class CellNucleus implements ThreadFactory
                 }
             }
         }
+    }
 
+    private void executeMaintenanceTasks()
+    {
         // Execute delayed operations
         for (Runnable task : consumingIterable(_deferredTasks)) {
             task.run();
         }
-
-        return size;
     }
 
     /**
@@ -524,21 +581,15 @@ public class CellNucleus implements ThreadFactory
         final CellLock lock = new CellLock(msg, callback, executor, timeout);
 
         EventLogger.sendBegin(this, msg, "callback");
-        synchronized (_waitHash) {
-            _waitHash.put(uoid, lock);
-        }
+        _waitHash.put(lock);
         try {
             __cellGlue.sendMessage(msg, local, remote);
         } catch (SerializationException e) {
-            synchronized (_waitHash) {
-                _waitHash.remove(uoid);
-            }
+            _waitHash.remove(uoid);
             EventLogger.sendEnd(msg);
             throw e;
         } catch (RuntimeException e) {
-            synchronized (_waitHash) {
-                _waitHash.remove(uoid);
-            }
+            _waitHash.remove(uoid);
             try {
                 executor.execute(() -> {
                     try {
@@ -548,18 +599,14 @@ public class CellNucleus implements ThreadFactory
                         /* May happen when the callback itself tries to schedule the call
                          * on an executor. Put the request back and let it time out.
                          */
-                        synchronized (_waitHash) {
-                            _waitHash.put(uoid, lock);
-                        }
+                        _waitHash.put(lock);
                         LOGGER.error("Failed to invoke callback: {}", e1.toString());
                     }
                 });
             } catch (RejectedExecutionException e1) {
                 /* Put it back and let it time out.
                  */
-                synchronized (_waitHash) {
-                    _waitHash.put(uoid, lock);
-                }
+                _waitHash.put(lock);
                 LOGGER.error("Failed to invoke callback: {}", e1.toString());
             }
         }
@@ -822,7 +869,7 @@ public class CellNucleus implements ThreadFactory
         return __cellGlue.getUnique();
     }
 
-    int getEventQueueSize()
+    public int getEventQueueSize()
     {
         return _eventQueueSize.get();
     }
@@ -832,10 +879,7 @@ public class CellNucleus implements ThreadFactory
         CellMessage msg = ce.getMessage();
         LOGGER.trace("addToEventQueue : message arrived : {}", msg);
 
-        CellLock lock;
-        synchronized (_waitHash) {
-            lock = _waitHash.remove(msg.getLastUOID());
-        }
+        CellLock lock = _waitHash.remove(msg.getLastUOID());
 
         if (lock != null) {
             //
@@ -849,9 +893,7 @@ public class CellNucleus implements ThreadFactory
                 _eventQueueSize.decrementAndGet();
                 /* Put it back; the timeout handler will eventually take care of it.
                  */
-                synchronized (_waitHash) {
-                    _waitHash.put(msg.getLastUOID(), lock);
-                }
+                _waitHash.put(lock);
                 LOGGER.error("Dropping reply: {}", e.getMessage());
             }
         } else {
@@ -906,7 +948,8 @@ public class CellNucleus implements ThreadFactory
 
     private Void doStart() throws Exception
     {
-        _timer.schedule(_timeoutTask, 20000, 20000);
+        _timer.schedule(_timeoutTask, CellLockTable.TICK, CellLockTable.TICK);
+        _timer.schedule(_maintenanceTask, 20000, 20000);
         StartEvent event = new StartEvent(new CellPath(_cellName), 0);
         _cell.prepareStartup(event);
         __cellGlue.addCell(_cellName, this);
@@ -936,6 +979,9 @@ public class CellNucleus implements ThreadFactory
             if (_timeoutTask != null) {
                 _timeoutTask.cancel();
             }
+            if (_maintenanceTask != null) {
+                _maintenanceTask.cancel();
+            }
 
             /* Shut down cell.
              */
@@ -1039,9 +1085,7 @@ public class CellNucleus implements ThreadFactory
                         /* May happen when the callback itself tries to schedule the call
                          * on an executor. Put the request back and let it time out.
                          */
-                        synchronized (_waitHash) {
-                            _waitHash.put(request.getUOID(), _lock);
-                        }
+                        _waitHash.put(_lock);
                         LOGGER.error("Failed to invoke callback: {}", e.toString());
                     }
                     LOGGER.trace("addToEventQueue : callback done for : {}", _message);
@@ -32,11 +32,39 @@ public class CellTunnelInfo implements Serializable
     private final CellDomainInfo _local;
     private final CellAddressCore _tunnel;
 
+    /* Statistics about writes to the peer. Messages are written in batches,
+     * each batch ending with a flush of the output stream.
+     */
+    private final long _batchedMessages;
+    private final long _batches;
+    private final int _largestBatch;
+    private final long _flushTime;
+    private final long _longestFlush;
+
     public CellTunnelInfo(CellAddressCore tunnel, CellDomainInfo local, CellDomainInfo remote)
+    {
+        this(tunnel, local, remote, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * @param batchedMessages number of messages written in batches
+     * @param batches number of batches written
+     * @param largestBatch number of messages in the largest batch
+     * @param flushTime accumulated time in nanoseconds spent flushing batches
+     * @param longestFlush time in nanoseconds of the slowest flush
+     */
+    public CellTunnelInfo(CellAddressCore tunnel, CellDomainInfo local, CellDomainInfo remote,
+                          long batchedMessages, long batches, int largestBatch,
+                          long flushTime, long longestFlush)
     {
         _remote = remote;
         _local = local;
         _tunnel = tunnel;
+        _batchedMessages = batchedMessages;
+        _batches = batches;
+        _largestBatch = largestBatch;
+        _flushTime = flushTime;
+        _longestFlush = longestFlush;
     }
 
     public CellDomainInfo getRemoteCellDomainInfo()
@@ -54,6 +82,37 @@ public class CellTunnelInfo implements Serializable
         return _tunnel;
     }
 
+    public long getBatches()
+    {
+        return _batches;
+    }
+
+    public double getMeanBatchSize()
+    {
+        return (_batches == 0) ? 0 : (double) _batchedMessages / _batches;
+    }
+
+    public int getLargestBatch()
+    {
+        return _largestBatch;
+    }
+
+    /**
+     * Returns the mean time in nanoseconds to flush a batch.
+     */
+    public long getMeanFlushTime()
+    {
+        return (_batches == 0) ? 0 : _flushTime / _batches;
+    }
+
+    /**
+     * Returns the time in nanoseconds of the slowest flush.
+     */
+    public long getLongestFlush()
+    {
+        return _longestFlush;
+    }
+
     public String toString()
     {
         return _tunnel + " L[" + (_local != null ? _local.toString() : "Unknown") +
@@ -28,6 +28,7 @@ public abstract class Releases
     public static final short RELEASE_2_14 = 0x020E;
     public static final short RELEASE_2_15 = 0x020F;
     public static final short RELEASE_2_16 = 0x0210;
+    public static final short RELEASE_2_17 = 0x0211;
 
     public static short getRelease(String version)
     {
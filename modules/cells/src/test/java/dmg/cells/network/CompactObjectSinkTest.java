@@ -0,0 +1,156 @@
+package dmg.cells.network;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class CompactObjectSinkTest
+{
+    private ByteArrayOutputStream _wire;
+
+    @Before
+    public void setUp()
+    {
+        _wire = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void shouldDecodeWhatWasEncoded() throws Exception
+    {
+        CompactObjectSink sink = new CompactObjectSink(_wire, null);
+        CellMessage message = new CellMessage(new CellPath("PoolManager@dCacheDomain"), new Payload("foo", 42));
+        message.setTtl(1000);
+        sink.writeObject(message.encode());
+
+        CompactObjectSource source = new CompactObjectSource(new ByteArrayInputStream(_wire.toByteArray()), null);
+        CellMessage decoded = source.readObject().decode();
+
+        assertThat(decoded.getUOID(), is(message.getUOID()));
+        assertThat(decoded.getTtl(), is(1000L));
+        assertThat(decoded.getDestinationPath().toString(), is(message.getDestinationPath().toString()));
+        assertThat(decoded.getMessageObject(), is(equalTo((Serializable) new Payload("foo", 42))));
+    }
+
+    @Test
+    public void shouldNotRepeatClassDescriptors() throws Exception
+    {
+        CompactObjectSink sink = new CompactObjectSink(_wire, null);
+        sink.writeObject(message(1));
+        int first = _wire.size();
+        sink.writeObject(message(2));
+        int second = _wire.size() - first;
+
+        assertThat(second, is(lessThan(first)));
+
+        CompactObjectSource source = new CompactObjectSource(new ByteArrayInputStream(_wire.toByteArray()), null);
+        assertThat(source.readObject().decode().getMessageObject(), is(equalTo((Serializable) new Payload("foo", 1))));
+        assertThat(source.readObject().decode().getMessageObject(), is(equalTo((Serializable) new Payload("foo", 2))));
+    }
+
+    @Test
+    public void shouldEncodeRegisteredTypesByIdentifier() throws Exception
+    {
+        MessageTypeRegistry registry = MessageTypeRegistry.getInstance();
+        new CompactObjectSink(_wire, null)
+                .writeObject(message(1));
+        int unregistered = _wire.size();
+        _wire.reset();
+
+        new CompactObjectSink(_wire, registry)
+                .writeObject(message(1));
+
+        assertThat(_wire.size(), is(lessThan(unregistered)));
+
+        CompactObjectSource source = new CompactObjectSource(new ByteArrayInputStream(_wire.toByteArray()), registry);
+        assertThat(source.readObject().decode().getMessageObject(), is(equalTo((Serializable) new Payload("foo", 1))));
+    }
+
+    @Test
+    public void registriesWithSameTypesShouldHaveSameFingerprint()
+    {
+        MessageTypeRegistry a = new MessageTypeRegistry(ImmutableList.of(Payload.class, OtherPayload.class));
+        MessageTypeRegistry b = new MessageTypeRegistry(ImmutableList.of(OtherPayload.class, Payload.class));
+
+        assertThat(a.getFingerprint(), is(b.getFingerprint()));
+        assertThat(a.getId(Payload.class), is(b.getId(Payload.class)));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void shouldRejectRegisteredTypeWithoutRegistry() throws Exception
+    {
+        MessageTypeRegistry registry = MessageTypeRegistry.getInstance();
+        new CompactObjectSink(_wire, registry)
+                .writeObject(message(1));
+
+        new CompactObjectSource(new ByteArrayInputStream(_wire.toByteArray()), null).readObject();
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldFailOnTruncatedFrame() throws Exception
+    {
+        new CompactObjectSink(_wire, null)
+                .writeObject(message(1));
+        byte[] bytes = _wire.toByteArray();
+
+        new CompactObjectSource(new ByteArrayInputStream(bytes, 0, bytes.length - 1), null).readObject();
+    }
+
+    /**
+     * Returns a message as it reaches a tunnel, i.e. with a serialized payload.
+     */
+    private static CellMessage message(int value)
+    {
+        return new CellMessage(new CellPath("a@b"), new Payload("foo", value)).encode();
+    }
+
+    private static class Payload implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String _name;
+        private final int _value;
+
+        Payload(String name, int value)
+        {
+            _name = name;
+            _value = value;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Payload)) {
+                return false;
+            }
+            Payload other = (Payload) o;
+            return _name.equals(other._name) && _value == other._value;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _name.hashCode() ^ _value;
+        }
+    }
+
+    private static class OtherPayload implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long _value;
+    }
+}
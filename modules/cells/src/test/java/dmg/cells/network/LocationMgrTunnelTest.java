@@ -0,0 +1,120 @@
+package dmg.cells.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Future;
+
+import dmg.cells.nucleus.CellAdapter;
+import dmg.cells.nucleus.CellDomainInfo;
+import dmg.cells.nucleus.CellDomainRole;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellMessageAnswerable;
+import dmg.cells.nucleus.CellNucleus;
+import dmg.cells.nucleus.CellPath;
+import dmg.cells.nucleus.SystemCell;
+import dmg.util.DummyStreamEngine;
+
+import org.dcache.util.Args;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class LocationMgrTunnelTest
+{
+    private static final String PEER_DOMAIN = "peer";
+
+    /** Release prior to 2.17, such that the tunnel uses Java serialization. */
+    private static final String PEER_VERSION = "2.16.0";
+
+    private Socket peer;
+    private ObjectInputStream peerIn;
+    private LocationMgrTunnel tunnel;
+    private CellAdapter echo;
+    private CellAdapter sender;
+
+    @BeforeClass
+    public static void setUpDomain()
+    {
+        SystemCell.create("test", null);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Socket socket;
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            peer = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            socket = server.accept();
+        }
+        peer.setSoTimeout(10000);
+
+        tunnel = new LocationMgrTunnel("tunnel", new DummyStreamEngine(socket), new Args(""));
+        Future<Void> started = tunnel.start();
+        ObjectOutputStream peerOut = new ObjectOutputStream(peer.getOutputStream());
+        peerOut.writeObject(new CellDomainInfo(PEER_DOMAIN, PEER_VERSION, CellDomainRole.CORE));
+        peerOut.flush();
+        peerIn = new ObjectInputStream(peer.getInputStream());
+        peerIn.readObject();
+        started.get();
+
+        echo = new CellAdapter("echo", "") {
+            @Override
+            public void messageArrived(CellMessage msg)
+            {
+                msg.revertDirection();
+                sendMessage(msg);
+            }
+        };
+        echo.start().get();
+
+        sender = new CellAdapter("sender", "");
+        sender.start().get();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        sender.getNucleus().kill();
+        echo.getNucleus().kill();
+        tunnel.getNucleus().kill();
+        peer.close();
+    }
+
+    @Test
+    public void shouldFlushSingleMessageOnIdleTunnel() throws Exception
+    {
+        /* The callback of the reply is never run, thus the reply keeps the
+         * event queue of the tunnel occupied without ever being delivered
+         * to it.
+         */
+        CellNucleus nucleus = tunnel.getNucleus();
+        nucleus.sendMessage(new CellMessage(new CellPath("echo"), "ping"), true, true,
+                            mock(CellMessageAnswerable.class), task -> {}, 60000);
+        for (int i = 0; i < 1000 && nucleus.getEventQueueSize() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(nucleus.getEventQueueSize(), is(1));
+
+        /* Each message is sent once the previous one was received. The
+         * first message is likely held back for longer than the batch delay
+         * while the classes needed to serialize it are loaded.
+         */
+        for (int i = 0; i < 3; i++) {
+            sender.sendMessage(new CellMessage(new CellPath("target", PEER_DOMAIN), i));
+
+            Object received = peerIn.readObject();
+            assertThat(received, is(instanceOf(CellMessage.class)));
+            assertThat(((CellMessage) received).decode().getMessageObject(), is(i));
+        }
+    }
+}
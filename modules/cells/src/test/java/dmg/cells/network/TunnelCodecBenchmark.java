@@ -0,0 +1,194 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.network;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+/**
+ * Compares the Java serialization and the compact tunnel encodings in
+ * terms of messages per second and bytes per message.
+ *
+ * Messages are encoded before they are written, as CellGlue serializes
+ * the payload before a message reaches a tunnel. The encode benchmark
+ * reports the bytes written as an auxiliary counter; dividing its rate
+ * by the rate of messages gives the bytes per message.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dmg.cells.network.TunnelCodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TunnelCodecBenchmark
+{
+    private static final int BATCH = 1000;
+
+    @Param({"JAVA", "COMPACT", "COMPACT_REGISTERED"})
+    public String codec;
+
+    private CellMessage[] messages;
+    private CountingOutputStream counter;
+    private LocationMgrTunnel.ObjectSink sink;
+    private byte[] encoded;
+    private MessageTypeRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        registry = codec.equals("COMPACT_REGISTERED")
+                   ? MessageTypeRegistry.getInstance()
+                   : null;
+
+        messages = new CellMessage[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            messages[i] = new CellMessage(new CellPath("PnfsManager@dCacheDomain"), new Request(i)).encode();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LocationMgrTunnel.ObjectSink encoder = createSink(out);
+        for (CellMessage message : messages) {
+            encoder.writeObject(message);
+        }
+        encoder.flush();
+        encoded = out.toByteArray();
+
+        counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        sink = createSink(counter);
+    }
+
+    /**
+     * Counts the bytes and messages written by the encode benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Volume
+    {
+        public long bytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            bytes = 0;
+            messages = 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void encode(Volume volume) throws IOException
+    {
+        long before = counter.getCount();
+        for (CellMessage message : messages) {
+            sink.writeObject(message);
+        }
+        sink.flush();
+        volume.bytes += counter.getCount() - before;
+        volume.messages += BATCH;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decode(Blackhole blackhole) throws IOException, ClassNotFoundException
+    {
+        LocationMgrTunnel.ObjectSource source = createSource(new ByteArrayInputStream(encoded));
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(source.readObject());
+        }
+    }
+
+    private LocationMgrTunnel.ObjectSink createSink(OutputStream out) throws IOException
+    {
+        return codec.equals("JAVA")
+               ? new LocationMgrTunnel.JavaObjectSink(new ObjectOutputStream(out))
+               : new CompactObjectSink(out, registry);
+    }
+
+    private LocationMgrTunnel.ObjectSource createSource(InputStream in) throws IOException
+    {
+        return codec.equals("JAVA")
+               ? new LocationMgrTunnel.JavaObjectSource(new ObjectInputStream(in))
+               : new CompactObjectSource(in, registry);
+    }
+
+    /**
+     * Resembles a typical name space lookup request.
+     */
+    private static class Request implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String _path;
+        private final String _id;
+        private final long _requestId;
+        private final boolean _isReply;
+        private final Map<String, String> _attributes = new HashMap<>();
+
+        Request(long requestId)
+        {
+            _path = "/pnfs/example.org/data/experiment/run/" + requestId;
+            _id = "0000D2A1B34C5E6F7A8B9C0D1E2F3A4B5C6D";
+            _requestId = requestId;
+            _isReply = false;
+            _attributes.put("storageClass", "experiment:raw@osm");
+            _attributes.put("accessLatency", "NEARLINE");
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(TunnelCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
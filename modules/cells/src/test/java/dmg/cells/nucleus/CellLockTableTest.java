@@ -0,0 +1,139 @@
+package dmg.cells.nucleus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class CellLockTableTest
+{
+    private CellLockTable table;
+
+    @Before
+    public void setUp()
+    {
+        table = new CellLockTable();
+    }
+
+    @Test
+    public void shouldReturnRegisteredLock()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+
+        assertThat(table.size(), is(1));
+        assertThat(table.remove(lock.getMessage().getUOID()), is(lock));
+        assertThat(table.size(), is(0));
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownRequest()
+    {
+        assertThat(table.remove(new UOID()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotExpireBeforeTimeout()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+
+        assertThat(table.expire(System.currentTimeMillis() + 30000), is(empty()));
+        assertThat(table.size(), is(1));
+    }
+
+    @Test
+    public void shouldExpireAfterTimeout()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 1), contains(lock));
+        assertThat(table.size(), is(0));
+        assertThat(table.getExpiredCount(), is(1L));
+    }
+
+    @Test
+    public void shouldExpireTimeoutsBeyondWheelSpan()
+    {
+        CellLock lock = newLock(3600000);
+        table.put(lock);
+
+        assertThat(table.expire(System.currentTimeMillis() + 1800000), is(empty()));
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 1), contains(lock));
+    }
+
+    @Test
+    public void shouldNotExpireAnsweredRequest()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+        table.remove(lock.getMessage().getUOID());
+
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 1), is(empty()));
+        assertThat(table.getExpiredCount(), is(0L));
+    }
+
+    @Test
+    public void shouldNeverExpireInfiniteTimeout()
+    {
+        CellLock lock = newLock(Long.MAX_VALUE);
+        table.put(lock);
+
+        assertThat(table.expire(System.currentTimeMillis() + 365L * 24 * 3600 * 1000), is(empty()));
+        assertThat(table.size(), is(1));
+    }
+
+    @Test
+    public void shouldExpireLockPutBackAfterItsTimeout()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+        long now = lock.getTimeout() + CellLockTable.TICK + 1;
+        assertThat(table.expire(now), contains(lock));
+
+        table.put(lock);
+
+        assertThat(table.expire(now + 1), contains(lock));
+        assertThat(table.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotExpireLockRefreshedForSameRequest()
+    {
+        CellLock lock = newLock(60000);
+        table.put(lock);
+        CellLock refreshed = new CellLock(lock.getMessage(), mock(CellMessageAnswerable.class),
+                                          directExecutor(), 3600000);
+        table.put(refreshed);
+
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 1), is(empty()));
+        assertThat(table.size(), is(1));
+        assertThat(table.remove(lock.getMessage().getUOID()), is(refreshed));
+    }
+
+    @Test
+    public void shouldExpireLockPutIntoProcessedSlot()
+    {
+        CellLock lock = newLock(60000);
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 1), is(empty()));
+
+        table.put(lock);
+
+        assertThat(table.expire(lock.getTimeout() + CellLockTable.TICK + 2), contains(lock));
+    }
+
+    private static CellLock newLock(long timeout)
+    {
+        CellMessage message = new CellMessage(new CellPath("destination"), mock(Serializable.class));
+        return new CellLock(message, mock(CellMessageAnswerable.class), directExecutor(), timeout);
+    }
+}
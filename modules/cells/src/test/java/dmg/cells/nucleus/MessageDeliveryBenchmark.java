@@ -0,0 +1,140 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dmg.cells.nucleus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures request/reply throughput and latency between a pair of cells
+ * in the same domain, with the server cell delivering messages on either
+ * platform or virtual threads.
+ *
+ * The server blocks for a while before replying to each request, imitating
+ * a message handler that calls sendAndWait on another service. Many client
+ * threads keep the server busy, so the number of concurrently blocked
+ * handlers is limited by the message thread bound of the server.
+ *
+ * Virtual threads require Java 21 or newer; on older JVMs the virtual mode
+ * falls back to platform threads.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dmg.cells.nucleus.MessageDeliveryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(512)
+@Fork(1)
+public class MessageDeliveryBenchmark
+{
+    private static final long TIMEOUT = 60000;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    /**
+     * Upper bound on the number of message threads of the server cell.
+     */
+    @Param({"512"})
+    public int threads;
+
+    /**
+     * Time in milliseconds the server blocks for each request.
+     */
+    @Param({"5"})
+    public long delay;
+
+    private ServerCell server;
+    private CellAdapter client;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        SystemCell.create("benchmark", null).start().get();
+        server = new ServerCell("server", "-" + CellAdapter.MAX_MESSAGE_THREADS + "=" + threads +
+                                          " -" + CellAdapter.MESSAGE_THREAD_MODE + "=" + mode, delay);
+        server.start().get();
+        client = new CellAdapter("client", "");
+        client.start().get();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.kill();
+        server.kill();
+    }
+
+    @Benchmark
+    public Object requestReply() throws Exception
+    {
+        CellMessage reply = client.getNucleus().sendAndWait(new CellMessage(new CellPath("server"), 0), TIMEOUT);
+        if (reply == null) {
+            throw new IllegalStateException("Request timed out.");
+        }
+        return reply.getMessageObject();
+    }
+
+    private static class ServerCell extends CellAdapter
+    {
+        private final long _delay;
+
+        ServerCell(String name, String args, long delay)
+        {
+            super(name, args);
+            _delay = delay;
+        }
+
+        @Override
+        public void messageArrived(CellMessage msg)
+        {
+            try {
+                Thread.sleep(_delay);
+                msg.revertDirection();
+                msg.setMessageObject(1);
+                sendMessage(msg);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(MessageDeliveryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of directory entries, mapping a parent inode number and a name to
+ * the inode number of the entry. Names known not to exist are cached as
+ * negative entries.
+ *
+ * The cache only reflects modifications made through the owning file
+ * system instance, which invalidates the affected entries once the
+ * modification is committed. Modifications by other instances sharing the
+ * database become visible when entries expire.
+ *
+ * A lookup that misses the cache and loads the entry from the database
+ * races with concurrent invalidations: the loaded value may be stale by
+ * the time it is added. To prevent this, callers obtain a stamp before
+ * loading the entry. The stamp changes whenever an entry with the same
+ * name is invalidated, in which case the loaded value is discarded.
+ */
+class DirectoryEntryCache
+{
+    /**
+     * Inode number of negative entries.
+     */
+    static final long NOT_FOUND = -1;
+
+    private static final int STRIPES = 64;
+
+    private final Cache<Key, Long> _entries;
+    private final AtomicLongArray _stamps = new AtomicLongArray(STRIPES);
+    private final LongAdder _negativeHits = new LongAdder();
+    private final long _maximumSize;
+    private final long _lifetime;
+    private final TimeUnit _unit;
+
+    DirectoryEntryCache(long maximumSize, long lifetime, TimeUnit unit)
+    {
+        _maximumSize = maximumSize;
+        _lifetime = lifetime;
+        _unit = unit;
+        _entries = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(lifetime, unit)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the inode number of the entry, {@link #NOT_FOUND} if the entry
+     * is known not to exist, or null if the entry is not cached.
+     */
+    Long lookup(long parent, String name)
+    {
+        Long ino = _entries.getIfPresent(new Key(parent, name));
+        if (ino != null && ino == NOT_FOUND) {
+            _negativeHits.increment();
+        }
+        return ino;
+    }
+
+    /**
+     * Returns a stamp to pass to {@link #put} for entries with the given name.
+     */
+    long stamp(String name)
+    {
+        return _stamps.get(stripe(name));
+    }
+
+    /**
+     * Adds an entry loaded from the database, unless an entry with the same
+     * name was invalidated after the stamp was obtained.
+     */
+    void put(long stamp, long parent, String name, long ino)
+    {
+        if (_maximumSize > 0 && _stamps.get(stripe(name)) == stamp) {
+            _entries.put(new Key(parent, name), ino);
+        }
+    }
+
+    void invalidate(long parent, String name)
+    {
+        _stamps.incrementAndGet(stripe(name));
+        _entries.invalidate(new Key(parent, name));
+    }
+
+    long size()
+    {
+        return _entries.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        CacheStats stats = _entries.stats();
+        return String.format("%d entries (max %d, lifetime %d %s), %d hits (%d negative), %d misses, hit rate %.1f%%, %d evictions",
+                             _entries.size(), _maximumSize, _lifetime, _unit.name().toLowerCase(),
+                             stats.hitCount(), _negativeHits.sum(), stats.missCount(),
+                             stats.hitRate() * 100, stats.evictionCount());
+    }
+
+    private static int stripe(String name)
+    {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private static final class Key
+    {
+        private final long _parent;
+        private final String _name;
+
+        Key(long parent, String name)
+        {
+            _parent = parent;
+            _name = name;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return _parent == that._parent && _name.equals(that._name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Long.hashCode(_parent) + _name.hashCode();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the tags of directories, keyed by the inode number of the
+ * directory.
+ *
+ * A directory shares the tag inodes it inherited from its parent until it
+ * modifies them. Updating a tag thus changes the tag of all directories
+ * that inherited it and which may be cached under different keys. Since
+ * tags rarely change, the cache is versioned rather than invalidating
+ * individual entries: every modification of a tag increments the version,
+ * which invalidates all entries cached with an earlier version.
+ *
+ * As for {@link DirectoryEntryCache}, callers obtain the version before
+ * loading tags from the database so that tags loaded concurrently to a
+ * modification are discarded. Modifications by other instances sharing
+ * the database become visible when entries expire.
+ */
+class DirectoryTagCache
+{
+    private final Cache<Long, Entry> _entries;
+    private final AtomicLong _version = new AtomicLong();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _invalidations = new LongAdder();
+    private final long _maximumSize;
+    private final long _lifetime;
+    private final TimeUnit _unit;
+
+    DirectoryTagCache(long maximumSize, long lifetime, TimeUnit unit)
+    {
+        _maximumSize = maximumSize;
+        _lifetime = lifetime;
+        _unit = unit;
+        _entries = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(lifetime, unit)
+                .build();
+    }
+
+    /**
+     * Returns the tags of the directory, or null if they are not cached.
+     * The returned map and values may be modified by the caller.
+     */
+    Map<String, byte[]> lookup(long ino)
+    {
+        Entry entry = _entries.getIfPresent(ino);
+        if (entry == null || entry._version != _version.get()) {
+            _misses.increment();
+            return null;
+        }
+        _hits.increment();
+        Map<String, byte[]> tags = new HashMap<>();
+        entry._tags.forEach((name, value) -> tags.put(name, value.clone()));
+        return tags;
+    }
+
+    /**
+     * Returns a version to pass to {@link #put}.
+     */
+    long version()
+    {
+        return _version.get();
+    }
+
+    /**
+     * Adds tags loaded from the database, unless tags were modified after
+     * the version was obtained.
+     */
+    void put(long version, long ino, Map<String, byte[]> tags)
+    {
+        if (_maximumSize > 0 && _version.get() == version) {
+            ImmutableMap.Builder<String, byte[]> copy = ImmutableMap.builder();
+            tags.forEach((name, value) -> copy.put(name, value.clone()));
+            _entries.put(ino, new Entry(version, copy.build()));
+        }
+    }
+
+    /**
+     * Invalidates all entries. Called after tags have been modified.
+     */
+    void invalidateAll()
+    {
+        _invalidations.increment();
+        _version.incrementAndGet();
+        _entries.invalidateAll();
+    }
+
+    @Override
+    public String toString()
+    {
+        long hits = _hits.sum();
+        long misses = _misses.sum();
+        return String.format("%d entries (max %d, lifetime %d %s), %d hits, %d misses, hit rate %.1f%%, %d invalidations",
+                             _entries.size(), _maximumSize, _lifetime, _unit.name().toLowerCase(),
+                             hits, misses, (hits + misses == 0) ? 0.0 : 100.0 * hits / (hits + misses),
+                             _invalidations.sum());
+    }
+
+    private static final class Entry
+    {
+        private final long _version;
+        private final ImmutableMap<String, byte[]> _tags;
+
+        Entry(long version, ImmutableMap<String, byte[]> tags)
+        {
+            _version = version;
+            _tags = tags;
+        }
+    }
+}
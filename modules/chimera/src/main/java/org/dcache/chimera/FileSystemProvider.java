@@ -17,6 +17,7 @@
 package org.dcache.chimera;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -86,6 +87,20 @@ public interface FileSystemProvider extends Closeable {
     DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir)
             throws ChimeraFsException;
 
+    /**
+     * Returns a page of the entries of a directory, ordered by name. The
+     * entries "." and ".." are not included. A directory is listed page by
+     * page by passing the name of the last entry of the previous page.
+     *
+     * @param dir Inode of the directory.
+     * @param after Name after which to start, or null to start with the first entry.
+     * @param limit Maximum number of entries to return.
+     * @return the entries, including their stat information
+     * @throws ChimeraFsException
+     */
+    List<HimeraDirectoryEntry> listDir(FsInode dir, String after, int limit)
+            throws ChimeraFsException;
+
     void remove(String path) throws ChimeraFsException;
 
     /**
@@ -110,6 +125,12 @@ public interface FileSystemProvider extends Closeable {
     Stat stat(FsInode inode, int level)
             throws ChimeraFsException;
 
+    /**
+     * Returns the stat of each of the given inodes in a single operation.
+     * Inodes that do not exist are absent from the result.
+     */
+    Map<FsInode, Stat> stat(Collection<FsInode> inodes) throws ChimeraFsException;
+
     FsInode mkdir(String path) throws ChimeraFsException;
 
     FsInode mkdir(FsInode parent, String name)
@@ -171,6 +192,13 @@ public interface FileSystemProvider extends Closeable {
      */
     FsInode id2inode(String id, StatCacheOption stat) throws ChimeraFsException;
 
+    /**
+     * Returns the inodes of the given ids in a single operation. The stat
+     * cache of the inodes is pre-filled. Ids that do not exist are absent
+     * from the result.
+     */
+    Map<String, FsInode> id2inodes(Collection<String> ids) throws ChimeraFsException;
+
     List<FsInode> path2inodes(String path)
         throws ChimeraFsException;
 
@@ -249,6 +277,26 @@ public interface FileSystemProvider extends Closeable {
     void clearInodeLocation(FsInode inode, int type,
                             String location) throws ChimeraFsException;
 
+    /**
+     * Returns the locations of all types of each of the given inodes in a
+     * single operation. Inodes without locations are mapped to an empty list.
+     */
+    Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<FsInode> inodes)
+            throws ChimeraFsException;
+
+    /**
+     * Adds the location to each of the given inodes in a single transaction.
+     * Inodes that do not exist are ignored.
+     */
+    void addInodeLocation(Collection<FsInode> inodes, int type,
+                          String location) throws ChimeraFsException;
+
+    /**
+     * Removes the location from each of the given inodes in a single transaction.
+     */
+    void clearInodeLocation(Collection<FsInode> inodes, int type,
+                            String location) throws ChimeraFsException;
+
     String[] tags(FsInode inode) throws ChimeraFsException;
 
     Map<String, byte[]> getAllTags(FsInode inode) throws ChimeraFsException;
@@ -16,7 +16,10 @@
  */
 package org.dcache.chimera;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
@@ -35,7 +38,6 @@ import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import javax.sql.DataSource;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
@@ -45,16 +47,21 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.ServiceLoader;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import diskCacheV111.util.AccessLatency;
 import diskCacheV111.util.RetentionPolicy;
@@ -99,8 +106,43 @@ public class FsSqlDriver {
 
     final JdbcTemplate _jdbc;
 
+    /**
+     * Replica for queries that tolerate replication lag, or null.
+     */
+    private volatile ReadReplica _replica;
+
     private final long _root;
 
+    /**
+     * Inode columns selected for each path element by joined path queries.
+     */
+    private static final String[] INODE_COLUMNS = {
+            "inumber", "ipnfsid", "icrtime", "igeneration", "iretention_policy", "iaccess_latency",
+            "isize", "iatime", "ictime", "imtime", "iuid", "igid", "imode", "itype", "inlink"
+    };
+
+    private static final int DEFAULT_MAX_JOINED_PATH_ELEMENTS = 16;
+
+    /**
+     * Maximum number of values in the IN lists of bulk operations. Larger
+     * requests are split into several statements. Some databases limit the
+     * length of such lists.
+     */
+    static final int MAX_BULK_SIZE = 500;
+
+    private static final String[] JOINED_PATH_QUERIES = new String[DEFAULT_MAX_JOINED_PATH_ELEMENTS + 1];
+
+    static {
+        for (int n = 2; n <= DEFAULT_MAX_JOINED_PATH_ELEMENTS; n++) {
+            JOINED_PATH_QUERIES[n] = buildJoinedPathQuery(n);
+        }
+    }
+
+    /**
+     * Maximum number of path elements resolved by a single query.
+     */
+    private volatile int _maxJoinedPathElements = DEFAULT_MAX_JOINED_PATH_ELEMENTS;
+
     /**
      *  this is a utility class which is issues SQL queries on database
      *
@@ -108,7 +150,7 @@ public class FsSqlDriver {
     protected FsSqlDriver(DataSource dataSource) throws ChimeraFsException
     {
         _ioMode = Boolean.valueOf(System.getProperty("chimera.inodeIoMode")) ? IOMODE_ENABLE : IOMODE_DISABLE;
-        _jdbc = new JdbcTemplate(dataSource);
+        _jdbc = new MeteredJdbcTemplate(dataSource);
         _jdbc.setExceptionTranslator(new SQLErrorCodeSQLExceptionTranslator(dataSource) {
             @Override
             protected DataAccessException customTranslate(String task, String sql, SQLException sqlEx)
@@ -131,6 +173,27 @@ public class FsSqlDriver {
         return _root;
     }
 
+    void setReadReplica(ReadReplica replica)
+    {
+        _replica = replica;
+    }
+
+    ReadReplica getReadReplica()
+    {
+        return _replica;
+    }
+
+    /**
+     * Runs a query that tolerates replication lag. The query is sent to the
+     * read replica if one is configured and the replica policy permits it.
+     * Results for which isMissing is true are confirmed on the primary.
+     */
+    private <T> T queryLagTolerant(Function<JdbcTemplate, T> query, Predicate<? super T> isMissing)
+    {
+        ReadReplica replica = _replica;
+        return (replica == null) ? query.apply(_jdbc) : replica.query(_jdbc, query, isMissing);
+    }
+
     /**
      * Get FsStat for a given filesystem.
      * @return fsStat
@@ -182,18 +245,18 @@ public class FsSqlDriver {
 
     Long getInumber(String id)
     {
-        return _jdbc.query(
+        return queryLagTolerant(jdbc -> jdbc.query(
                 "SELECT inumber FROM t_inodes WHERE ipnfsid = ?",
                 ps -> ps.setString(1, id),
-                rs -> rs.next() ? rs.getLong("inumber") : null);
+                rs -> rs.next() ? rs.getLong("inumber") : null), Objects::isNull);
     }
 
     String getId(FsInode inode)
     {
-        return _jdbc.query(
+        return queryLagTolerant(jdbc -> jdbc.query(
                 "SELECT ipnfsid FROM t_inodes WHERE inumber=?",
                 ps -> ps.setLong(1, inode.ino()),
-                rs -> rs.next() ? rs.getString("ipnfsid") : null);
+                rs -> rs.next() ? rs.getString("ipnfsid") : null), Objects::isNull);
     }
 
     /**
@@ -204,11 +267,42 @@ public class FsSqlDriver {
      * @return
      */
     String[] listDir(FsInode dir) {
-        List<String> directoryList = _jdbc.queryForList("SELECT iname FROM t_dirs WHERE iparent=?",
-                                                        String.class, dir.ino());
+        List<String> directoryList =
+                queryLagTolerant(jdbc -> jdbc.queryForList("SELECT iname FROM t_dirs WHERE iparent=?",
+                                                           String.class, dir.ino()),
+                                 names -> false);
         return Stream.concat(Stream.of(".", ".."), directoryList.stream()).toArray(String[]::new);
     }
 
+    /**
+     * Returns up to limit entries of a directory with a name larger than after,
+     * ordered by name. Names and stat information are fetched by a single query,
+     * which uses the primary key of t_dirs to resume listing after the given name.
+     *
+     * @param dir
+     * @param after name after which to start, or null to start with the first entry
+     * @param limit maximum number of entries to return
+     * @return
+     */
+    List<HimeraDirectoryEntry> listDir(FsInode dir, String after, int limit) {
+        return queryLagTolerant(jdbc -> jdbc.query(con -> {
+                               PreparedStatement ps = con.prepareStatement(
+                                       "SELECT i.*, d.iname FROM t_inodes i JOIN t_dirs d ON i.inumber = d.ichild " +
+                                       "WHERE d.iparent=? AND d.iname > ? ORDER BY d.iname");
+                               ps.setMaxRows(limit);
+                               ps.setFetchSize(Math.min(limit, 1000));
+                               ps.setLong(1, dir.ino());
+                               ps.setString(2, (after == null) ? "" : after);
+                               return ps;
+                           },
+                           (rs, rowNum) -> {
+                               Stat stat = toStat(rs);
+                               FsInode inode = new FsInode(dir.getFs(), stat.getIno(), FsInodeType.INODE, 0, stat);
+                               inode.setParent(dir);
+                               return new HimeraDirectoryEntry(rs.getString("iname"), inode, stat);
+                           }), entries -> false);
+    }
+
     /**
      * the same as listDir, but array of {@HimeraDirectoryEntry} is returned, which contains
      * file attributes as well.
@@ -331,7 +425,12 @@ public class FsSqlDriver {
         return true;
     }
 
-    void remove(FsInode inode) {
+    /**
+     * Removes all links to the inode.
+     *
+     * @return the names of the removed links indexed by the inode number of their directory
+     */
+    ListMultimap<Long, String> remove(FsInode inode) {
         if (inode.isDirectory()) {
             removeTag(inode);
         }
@@ -342,26 +441,29 @@ public class FsSqlDriver {
         _jdbc.update("UPDATE t_inodes SET inlink=0 WHERE inumber=?", inode.ino());
 
         /* Remove all hard-links. */
-        List<Long> parents =
-                _jdbc.queryForList(
-                        "SELECT iparent FROM t_dirs WHERE ichild=?",
-                        Long.class, inode.ino());
-        for (Long parent : parents) {
+        ListMultimap<Long, String> links = ArrayListMultimap.create();
+        _jdbc.query("SELECT iparent, iname FROM t_dirs WHERE ichild=?",
+                    ps -> ps.setLong(1, inode.ino()),
+                    rs -> {
+                        links.put(rs.getLong("iparent"), rs.getString("iname"));
+                    });
+        for (Long parent : links.keys()) {
             decNlink(new FsInode(inode.getFs(), parent));
         }
         int n = _jdbc.update("DELETE FROM t_dirs WHERE ichild=?", inode.ino());
-        if (n != parents.size()) {
-            throw new JdbcUpdateAffectedIncorrectNumberOfRowsException("DELETE FROM t_dirs WHERE ichild=?", parents.size(), n);
+        if (n != links.size()) {
+            throw new JdbcUpdateAffectedIncorrectNumberOfRowsException("DELETE FROM t_dirs WHERE ichild=?", links.size(), n);
         }
 
         removeInodeIfUnlinked(inode);
+        return links;
     }
 
     public Stat stat(String id) {
-        return _jdbc.query(
+        return queryLagTolerant(jdbc -> jdbc.query(
                 "SELECT * FROM t_inodes WHERE ipnfsid=?",
                 ps -> ps.setString(1, id),
-                rs -> rs.next() ? toStat(rs) : null);
+                rs -> rs.next() ? toStat(rs) : null), Objects::isNull);
     }
 
     public Stat stat(FsInode inode) {
@@ -370,10 +472,10 @@ public class FsSqlDriver {
 
     public Stat stat(FsInode inode, int level) {
         if (level == 0) {
-            return _jdbc.query(
+            return queryLagTolerant(jdbc -> jdbc.query(
                     "SELECT * FROM t_inodes WHERE inumber=?",
                     ps -> ps.setLong(1, inode.ino()),
-                    rs -> rs.next() ? toStat(rs) : null);
+                    rs -> rs.next() ? toStat(rs) : null), Objects::isNull);
         } else {
             return _jdbc.query(
                     "SELECT * FROM t_level_" + level + " WHERE inumber=?",
@@ -382,29 +484,87 @@ public class FsSqlDriver {
         }
     }
 
+    /**
+     * Returns the inodes of the given PNFS IDs with the stat cache filled. IDs
+     * that do not exist are absent from the result.
+     */
+    Map<String, FsInode> id2inodes(FileSystemProvider fs, Collection<String> ids) {
+        Map<String, FsInode> inodes = new HashMap<>();
+        for (List<String> chunk : Lists.partition(new ArrayList<>(new LinkedHashSet<>(ids)), MAX_BULK_SIZE)) {
+            inodes.putAll(queryLagTolerant(jdbc -> {
+                Map<String, FsInode> found = new HashMap<>();
+                jdbc.query("SELECT * FROM t_inodes WHERE ipnfsid IN (" + placeholders(chunk.size()) + ")",
+                           ps -> {
+                               int i = 1;
+                               for (String id : chunk) {
+                                   ps.setString(i++, id);
+                               }
+                           },
+                           rs -> {
+                               Stat stat = toStat(rs);
+                               found.put(stat.getId(), new FsInode(fs, stat.getIno(), FsInodeType.INODE, 0, stat));
+                           });
+                return found;
+            }, found -> found.size() < chunk.size()));
+        }
+        return inodes;
+    }
+
+    /**
+     * Returns the stat of the given inodes. Inodes that do not exist are
+     * absent from the result.
+     */
+    Map<FsInode, Stat> stat(Collection<FsInode> inodes) {
+        Map<FsInode, Stat> stats = new HashMap<>();
+        for (List<FsInode> chunk : Lists.partition(new ArrayList<>(new LinkedHashSet<>(inodes)), MAX_BULK_SIZE)) {
+            ListMultimap<Long, FsInode> byIno = Multimaps.index(chunk, FsInode::ino);
+            stats.putAll(queryLagTolerant(jdbc -> {
+                Map<FsInode, Stat> found = new HashMap<>();
+                jdbc.query("SELECT * FROM t_inodes WHERE inumber IN (" + placeholders(byIno.keySet().size()) + ")",
+                           ps -> setInumbers(ps, 1, byIno.keySet()),
+                           rs -> {
+                               Stat stat = toStat(rs);
+                               for (FsInode inode : byIno.get(stat.getIno())) {
+                                   found.put(inode, stat);
+                               }
+                           });
+                return found;
+            }, found -> found.size() < chunk.size()));
+        }
+        return stats;
+    }
+
     private Stat toStat(ResultSet rs) throws SQLException
+    {
+        return toStat(rs, "");
+    }
+
+    /**
+     * Reads the inode columns whose labels carry the given suffix.
+     */
+    private Stat toStat(ResultSet rs, String suffix) throws SQLException
     {
         Stat stat = new Stat();
-        stat.setIno(rs.getLong("inumber"));
-        stat.setId(rs.getString("ipnfsid"));
-        stat.setCrTime(rs.getTimestamp("icrtime").getTime());
-        stat.setGeneration(rs.getLong("igeneration"));
-        int rp = rs.getInt("iretention_policy");
+        stat.setIno(rs.getLong("inumber" + suffix));
+        stat.setId(rs.getString("ipnfsid" + suffix));
+        stat.setCrTime(rs.getTimestamp("icrtime" + suffix).getTime());
+        stat.setGeneration(rs.getLong("igeneration" + suffix));
+        int rp = rs.getInt("iretention_policy" + suffix);
         if (!rs.wasNull()) {
             stat.setRetentionPolicy(RetentionPolicy.getRetentionPolicy(rp));
         }
-        int al = rs.getInt("iaccess_latency");
+        int al = rs.getInt("iaccess_latency" + suffix);
         if (!rs.wasNull()) {
             stat.setAccessLatency(AccessLatency.getAccessLatency(al));
         }
-        stat.setSize(rs.getLong("isize"));
-        stat.setATime(rs.getTimestamp("iatime").getTime());
-        stat.setCTime(rs.getTimestamp("ictime").getTime());
-        stat.setMTime(rs.getTimestamp("imtime").getTime());
-        stat.setUid(rs.getInt("iuid"));
-        stat.setGid(rs.getInt("igid"));
-        stat.setMode(rs.getInt("imode") | rs.getInt("itype"));
-        stat.setNlink(rs.getInt("inlink"));
+        stat.setSize(rs.getLong("isize" + suffix));
+        stat.setATime(rs.getTimestamp("iatime" + suffix).getTime());
+        stat.setCTime(rs.getTimestamp("ictime" + suffix).getTime());
+        stat.setMTime(rs.getTimestamp("imtime" + suffix).getTime());
+        stat.setUid(rs.getInt("iuid" + suffix));
+        stat.setGid(rs.getInt("igid" + suffix));
+        stat.setMode(rs.getInt("imode" + suffix) | rs.getInt("itype" + suffix));
+        stat.setNlink(rs.getInt("inlink" + suffix));
         stat.setDev(17);
         stat.setRdev(13);
         return stat;
@@ -504,7 +664,7 @@ public class FsSqlDriver {
             return (dir == null) ? parent : dir;
         default:
             if (stat == STAT) {
-                return _jdbc.query(
+                return queryLagTolerant(jdbc -> jdbc.query(
                         "SELECT c.* FROM t_dirs d JOIN t_inodes c ON d.ichild = c.inumber " +
                         "WHERE d.iparent = ? AND d.iname = ?",
                         ps -> {
@@ -512,14 +672,16 @@ public class FsSqlDriver {
                             ps.setString(2, name);
                         },
                         rs -> rs.next() ? new FsInode(parent.getFs(), rs.getLong("inumber"),
-                                                      FsInodeType.INODE, 0, toStat(rs)) : null);
+                                                      FsInodeType.INODE, 0, toStat(rs)) : null),
+                                        Objects::isNull);
             } else {
-                return _jdbc.query("SELECT ichild FROM t_dirs WHERE iparent=? AND iname=?",
+                return queryLagTolerant(jdbc -> jdbc.query("SELECT ichild FROM t_dirs WHERE iparent=? AND iname=?",
                                    ps -> {
                                        ps.setLong(1, parent.ino());
                                        ps.setString(2, name);
                                    },
-                                   rs -> rs.next() ? new FsInode(parent.getFs(), rs.getLong("ichild")) : null);
+                                   rs -> rs.next() ? new FsInode(parent.getFs(), rs.getLong("ichild")) : null),
+                                        Objects::isNull);
             }
         }
     }
@@ -914,7 +1076,7 @@ public class FsSqlDriver {
      * @return
      */
     List<StorageLocatable> getInodeLocations(FsInode inode, int type) {
-        return _jdbc.query("SELECT ilocation,ipriority,ictime,iatime  FROM t_locationinfo " +
+        return queryLagTolerant(jdbc -> jdbc.query("SELECT ilocation,ipriority,ictime,iatime  FROM t_locationinfo " +
                            "WHERE itype=? AND inumber=? AND istate=1 ORDER BY ipriority DESC",
                            ps -> {
                                ps.setInt(1, type);
@@ -926,7 +1088,7 @@ public class FsSqlDriver {
                                int priority = rs.getInt("ipriority");
                                String location = rs.getString("ilocation");
                                return new StorageGenericLocation(type, priority, location, ctime, atime, true);
-                           });
+                           }), List::isEmpty);
     }
 
     /**
@@ -938,7 +1100,7 @@ public class FsSqlDriver {
      * @return
      */
     List<StorageLocatable> getInodeLocations(FsInode inode) {
-        return _jdbc.query("SELECT itype,ilocation,ipriority,ictime,iatime FROM t_locationinfo " +
+        return queryLagTolerant(jdbc -> jdbc.query("SELECT itype,ilocation,ipriority,ictime,iatime FROM t_locationinfo " +
                            "WHERE inumber=? AND istate=1 ORDER BY ipriority DESC",
                            ps -> {
                                ps.setLong(1, inode.ino());
@@ -950,7 +1112,7 @@ public class FsSqlDriver {
                                int priority = rs.getInt("ipriority");
                                String location = rs.getString("ilocation");
                                return new StorageGenericLocation(type, priority, location, ctime, atime, true);
-                           });
+                           }), List::isEmpty);
     }
 
 
@@ -998,6 +1160,124 @@ public class FsSqlDriver {
                      });
     }
 
+    /**
+     *
+     *  returns the locations of all types for each of the inodes. Only
+     *  'online' locations are returned. Inodes without locations, including
+     *  inodes that do not exist, are mapped to an empty list.
+     *
+     * @param inodes
+     * @return
+     */
+    Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<FsInode> inodes) {
+        Map<FsInode, List<StorageLocatable>> locations = new HashMap<>();
+        for (List<FsInode> chunk : Lists.partition(new ArrayList<>(new LinkedHashSet<>(inodes)), MAX_BULK_SIZE)) {
+            ListMultimap<Long, FsInode> byIno = Multimaps.index(chunk, FsInode::ino);
+            /* Files without locations are common in bulk requests (e.g. directories
+             * in a listing), so an empty location list is not confirmed on the primary.
+             */
+            locations.putAll(queryLagTolerant(jdbc -> {
+                Map<FsInode, List<StorageLocatable>> found = new HashMap<>();
+                chunk.forEach(inode -> found.put(inode, new ArrayList<>()));
+                jdbc.query("SELECT inumber,itype,ilocation,ipriority,ictime,iatime FROM t_locationinfo " +
+                           "WHERE inumber IN (" + placeholders(byIno.keySet().size()) + ") AND istate=1 " +
+                           "ORDER BY ipriority DESC",
+                           ps -> setInumbers(ps, 1, byIno.keySet()),
+                           rs -> {
+                               int type = rs.getInt("itype");
+                               long ctime = rs.getTimestamp("ictime").getTime();
+                               long atime = rs.getTimestamp("iatime").getTime();
+                               int priority = rs.getInt("ipriority");
+                               String location = rs.getString("ilocation");
+                               StorageLocatable l = new StorageGenericLocation(type, priority, location, ctime, atime, true);
+                               for (FsInode inode : byIno.get(rs.getLong("inumber"))) {
+                                   found.get(inode).add(l);
+                               }
+                           });
+                return found;
+            }, found -> false));
+        }
+        return locations;
+    }
+
+    /**
+     *
+     * adds a new location for each of the inodes. Inodes that do not exist
+     * are ignored.
+     *
+     * @param inodes
+     * @param type
+     * @param location
+     */
+    void addInodeLocation(Collection<FsInode> inodes, int type, String location) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (Collection<Long> chunk : inumbers(inodes)) {
+            _jdbc.update("INSERT INTO t_locationinfo (inumber,itype,ilocation,ipriority,ictime,iatime,istate) " +
+                         "SELECT inumber,?,?,?,?,?,? FROM t_inodes i " +
+                         "WHERE inumber IN (" + placeholders(chunk.size()) + ") AND NOT EXISTS " +
+                         "(SELECT 1 FROM t_locationinfo l WHERE l.inumber=i.inumber AND l.itype=? AND l.ilocation=?)",
+                         ps -> {
+                             ps.setInt(1, type);
+                             ps.setString(2, location);
+                             ps.setInt(3, 10); // default priority
+                             ps.setTimestamp(4, now);
+                             ps.setTimestamp(5, now);
+                             ps.setInt(6, 1); // online
+                             int i = setInumbers(ps, 7, chunk);
+                             ps.setInt(i++, type);
+                             ps.setString(i, location);
+                         });
+        }
+    }
+
+    /**
+     *
+     *  remove the location for each of the inodes
+     *
+     * @param inodes
+     * @param type
+     * @param location
+     */
+    void clearInodeLocation(Collection<FsInode> inodes, int type, String location) {
+        for (Collection<Long> chunk : inumbers(inodes)) {
+            _jdbc.update("DELETE FROM t_locationinfo WHERE itype=? AND ilocation=? " +
+                         "AND inumber IN (" + placeholders(chunk.size()) + ")",
+                         ps -> {
+                             ps.setInt(1, type);
+                             ps.setString(2, location);
+                             setInumbers(ps, 3, chunk);
+                         });
+        }
+    }
+
+    /**
+     * Returns the distinct inode numbers of the inodes, partitioned into
+     * chunks of at most {@link #MAX_BULK_SIZE} elements.
+     */
+    protected static List<List<Long>> inumbers(Collection<FsInode> inodes) {
+        List<Long> inumbers = inodes.stream().map(FsInode::ino).distinct().collect(toList());
+        return Lists.partition(inumbers, MAX_BULK_SIZE);
+    }
+
+    /**
+     * Returns a comma separated list of {@code n} parameter placeholders.
+     */
+    protected static String placeholders(int n) {
+        return String.join(",", Collections.nCopies(n, "?"));
+    }
+
+    /**
+     * Binds the inode numbers to consecutive parameters starting at {@code index}
+     * and returns the index of the next parameter.
+     */
+    protected static int setInumbers(PreparedStatement ps, int index, Collection<Long> inumbers)
+            throws SQLException {
+        for (long ino : inumbers) {
+            ps.setLong(index++, ino);
+        }
+        return index;
+    }
+
     String[] tags(FsInode inode) {
         List<String> tags = _jdbc.queryForList("SELECT itagname FROM t_tags where inumber=?",
                                                String.class, inode.ino());
@@ -1005,25 +1285,27 @@ public class FsSqlDriver {
     }
 
     Map<String,byte[]> getAllTags(FsInode inode) {
-        Map<String,byte[]> tags = new HashMap<>();
-        _jdbc.query("SELECT t.itagname, i.ivalue, i.isize " +
-                    "FROM t_tags t JOIN t_tags_inodes i ON t.itagid = i.itagid WHERE t.inumber=?",
-                    ps -> {
-                        ps.setLong(1, inode.ino());
-                    },
-                    rs -> {
-                        try (InputStream in = rs.getBinaryStream("ivalue")) {
-                            byte[] data = new byte[Ints.saturatedCast(rs.getLong("isize"))];
-                            // we get null if filed id NULL, e.g not set
-                            if (in != null) {
-                                ByteStreams.readFully(in, data);
-                                tags.put(rs.getString("itagname"), data);
-                            }
-                        } catch (IOException e) {
-                            throw new LobRetrievalFailureException(e.getMessage(), e);
-                        }
-                    });
-        return tags;
+        return queryLagTolerant(jdbc -> {
+            Map<String,byte[]> tags = new HashMap<>();
+            jdbc.query("SELECT t.itagname, i.ivalue, i.isize " +
+                       "FROM t_tags t JOIN t_tags_inodes i ON t.itagid = i.itagid WHERE t.inumber=?",
+                       ps -> {
+                           ps.setLong(1, inode.ino());
+                       },
+                       rs -> {
+                           try (InputStream in = rs.getBinaryStream("ivalue")) {
+                               byte[] data = new byte[Ints.saturatedCast(rs.getLong("isize"))];
+                               // we get null if filed id NULL, e.g not set
+                               if (in != null) {
+                                   ByteStreams.readFully(in, data);
+                                   tags.put(rs.getString("itagname"), data);
+                               }
+                           } catch (IOException e) {
+                               throw new LobRetrievalFailureException(e.getMessage(), e);
+                           }
+                       });
+            return tags;
+        }, Map::isEmpty);
     }
 
     /**
@@ -1472,54 +1754,8 @@ public class FsSqlDriver {
      */
     FsInode path2inode(FsInode root, String path) throws ChimeraFsException
     {
-        File pathFile = new File(path);
-        List<String> pathElemts = new ArrayList<>();
-
-        do {
-            String fileName = pathFile.getName();
-            if (fileName.length() != 0) {
-                /*
-                 * skip multiple '/'
-                 */
-                pathElemts.add(pathFile.getName());
-            }
-
-            pathFile = pathFile.getParentFile();
-        } while (pathFile != null);
-
-        FsInode parentInode = root;
-        FsInode inode = root;
-        /*
-         * while list in reverse order, we have too go backward
-         */
-        for (int i = pathElemts.size(); i > 0; i--) {
-            String f = pathElemts.get(i - 1);
-            inode = inodeOf(parentInode, f, STAT);
-
-            if (inode == null) {
-                /*
-                 * element not found stop walking
-                 */
-                break;
-            }
-
-            /*
-             * if is a link, then resolve it
-             */
-            Stat s = inode.statCache();
-            if (UnixPermission.getType(s.getMode()) == UnixPermission.S_IFLNK) {
-                byte[] b = new byte[(int) s.getSize()];
-                int n = read(inode, 0, 0, b, 0, b.length);
-                String link = new String(b, 0, n);
-                if (link.charAt(0) == File.separatorChar) {
-                    parentInode = new FsInode(parentInode.getFs(), _root);
-                }
-                inode = path2inode(parentInode, link);
-            }
-            parentInode = inode;
-        }
-
-        return inode;
+        List<FsInode> inodes = resolve(root, pathElements(path), false);
+        return inodes.isEmpty() ? null : inodes.get(inodes.size() - 1);
     }
 
     /**
@@ -1531,49 +1767,111 @@ public class FsSqlDriver {
      */
     List<FsInode> path2inodes(FsInode root, String path) throws ChimeraFsException
     {
-        File pathFile = new File(path);
-        List<String> pathElements = new ArrayList<>();
-
-        do {
-            String fileName = pathFile.getName();
-            if (fileName.length() != 0) {
-                /* Skip multiple file separators.
-                 */
-                pathElements.add(pathFile.getName());
-            }
-            pathFile = pathFile.getParentFile();
-        } while (pathFile != null);
+        return resolve(root, pathElements(path), true);
+    }
 
-        FsInode parentInode = root;
-        FsInode inode;
+    /**
+     * Sets the maximum number of path elements resolved by a single query.
+     * A value of one resolves the path one element at a time.
+     */
+    void setMaxJoinedPathElements(int max)
+    {
+        if (max < 1) {
+            throw new IllegalArgumentException("At least one path element must be resolved per query.");
+        }
+        _maxJoinedPathElements = max;
+    }
 
-        List<FsInode> inodes = new ArrayList<>(pathElements.size() + 1);
-        inodes.add(root);
+    private static List<String> pathElements(String path)
+    {
+        List<String> elements = new ArrayList<>();
+        for (String element : path.split("/")) {
+            /* Skip multiple file separators.
+             */
+            if (!element.isEmpty()) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
 
-        /* Path elements are in reverse order.
-         */
-        for (String f: Lists.reverse(pathElements)) {
-            inode = inodeOf(parentInode, f, STAT);
+    /**
+     * Resolves the path elements starting at <i>root</i>.
+     *
+     * Consecutive path elements are resolved with a single query joining
+     * t_dirs once per element. The joined query does not follow symbolic
+     * links and does not handle "." and "..". It returns the longest prefix
+     * of the elements that exists. If the prefix ends in a symbolic link,
+     * the link is followed and resolution continues with the remaining
+     * elements; otherwise the path does not exist. Thus a missing path
+     * never costs more queries than resolving it one element at a time.
+     *
+     * @param intermediate whether the inodes of all elements are returned;
+     *                     if false, only the last inode of the returned list
+     *                     is meaningful
+     * @return the inodes of the path starting with <i>root</i>, or an empty
+     *         list if the path does not exist
+     */
+    private List<FsInode> resolve(FsInode root, List<String> elements, boolean intermediate)
+            throws ChimeraFsException
+    {
+        List<FsInode> inodes = new ArrayList<>(elements.size() + 1);
+        inodes.add(root);
 
-            if (inode == null) {
-                return Collections.emptyList();
+        FsInode parentInode = root;
+        int i = 0;
+        while (i < elements.size()) {
+            int n = 1;
+            if (isJoinable(elements.get(i))) {
+                int max = _maxJoinedPathElements;
+                while (n < max && i + n < elements.size() && isJoinable(elements.get(i + n))) {
+                    n++;
+                }
             }
 
-            inodes.add(inode);
+            FsInode inode;
+            if (n > 1) {
+                List<FsInode> joined = inodesOf(parentInode, elements.subList(i, i + n));
+                if (joined.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                inode = joined.get(joined.size() - 1);
+                if (joined.size() < n && !isLink(inode)) {
+                    return Collections.emptyList();
+                }
+                if (intermediate) {
+                    inodes.addAll(joined);
+                } else {
+                    inodes.add(inode);
+                }
+                if (joined.size() > 1) {
+                    /* A relative link is resolved against the directory
+                     * containing it.
+                     */
+                    parentInode = joined.get(joined.size() - 2);
+                }
+                i += joined.size();
+            } else {
+                inode = inodeOf(parentInode, elements.get(i), STAT);
+                if (inode == null) {
+                    return Collections.emptyList();
+                }
+                inodes.add(inode);
+                i++;
+            }
 
             /* If inode is a link then resolve it.
              */
-            Stat s = inode.statCache();
-            if (UnixPermission.getType(s.getMode()) == UnixPermission.S_IFLNK) {
+            if (isLink(inode)) {
+                Stat s = inode.statCache();
                 byte[] b = new byte[(int) s.getSize()];
-                int n = read(inode, 0, 0, b, 0, b.length);
-                String link = new String(b, 0, n);
+                int len = read(inode, 0, 0, b, 0, b.length);
+                String link = new String(b, 0, len);
                 if (link.charAt(0) == '/') {
                     parentInode = new FsInode(parentInode.getFs(), _root);
                     inodes.add(parentInode);
                 }
-                List<FsInode> linkInodes =
-                    path2inodes(parentInode, link);
+                List<FsInode> linkInodes = resolve(parentInode, pathElements(link), intermediate);
                 if (linkInodes.isEmpty()) {
                     return Collections.emptyList();
                 }
@@ -1586,6 +1884,84 @@ public class FsSqlDriver {
         return inodes;
     }
 
+    private static boolean isJoinable(String name)
+    {
+        return !name.equals(".") && !name.equals("..");
+    }
+
+    private static boolean isLink(FsInode inode) throws ChimeraFsException
+    {
+        return UnixPermission.getType(inode.statCache().getMode()) == UnixPermission.S_IFLNK;
+    }
+
+    /**
+     * Resolves a sequence of path elements with a single query. Symbolic
+     * links are not followed.
+     *
+     * @return the inodes of the longest prefix of the path elements that
+     *         exists, or an empty list if the first element does not exist
+     */
+    private List<FsInode> inodesOf(FsInode parent, List<String> names)
+    {
+        int n = names.size();
+        return _jdbc.query(joinedPathQuery(n),
+                           ps -> {
+                               ps.setLong(1, parent.ino());
+                               for (int i = 0; i < n; i++) {
+                                   ps.setString(i + 2, names.get(i));
+                               }
+                           },
+                           rs -> {
+                               if (!rs.next()) {
+                                   return Collections.emptyList();
+                               }
+                               List<FsInode> inodes = new ArrayList<>(n);
+                               for (int i = 1; i <= n; i++) {
+                                   String suffix = "_" + i;
+                                   rs.getLong("inumber" + suffix);
+                                   if (rs.wasNull()) {
+                                       break;
+                                   }
+                                   inodes.add(new FsInode(parent.getFs(), rs.getLong("inumber" + suffix),
+                                                          FsInodeType.INODE, 0, toStat(rs, suffix)));
+                               }
+                               return inodes;
+                           });
+    }
+
+    /**
+     * Returns a query resolving {@code n} path elements by joining t_dirs
+     * once per element. The inode columns of the i-th element are labelled
+     * with the suffix "_i". All but the first element are outer joined, so
+     * the columns of the elements following the longest existing prefix
+     * are null.
+     */
+    private static String joinedPathQuery(int n)
+    {
+        return (n < JOINED_PATH_QUERIES.length) ? JOINED_PATH_QUERIES[n] : buildJoinedPathQuery(n);
+    }
+
+    private static String buildJoinedPathQuery(int n)
+    {
+        StringBuilder select = new StringBuilder("SELECT ");
+        StringBuilder from = new StringBuilder(" FROM t_dirs d1 JOIN t_inodes c1 ON c1.inumber = d1.ichild"
+                                               + " AND d1.iparent = ? AND d1.iname = ?");
+        for (int i = 2; i <= n; i++) {
+            from.append(" LEFT JOIN t_dirs d").append(i)
+                    .append(" ON d").append(i).append(".iparent = d").append(i - 1).append(".ichild")
+                    .append(" AND d").append(i).append(".iname = ?");
+            from.append(" LEFT JOIN t_inodes c").append(i)
+                    .append(" ON c").append(i).append(".inumber = d").append(i).append(".ichild");
+        }
+        for (int i = 1; i <= n; i++) {
+            for (String column : INODE_COLUMNS) {
+                select.append('c').append(i).append('.').append(column).append(" AS ").append(column).append('_').append(i).append(", ");
+            }
+        }
+        select.setLength(select.length() - 2);
+        return select.append(from).toString();
+    }
+
     /**
      * Get inode's Access Control List. An empty list is returned if there are no ACL assigned
      * to the <code>inode</code>.
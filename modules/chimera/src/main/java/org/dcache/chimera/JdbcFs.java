@@ -21,6 +21,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ListMultimap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +34,8 @@ import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 
@@ -41,6 +44,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
@@ -148,6 +153,25 @@ public class JdbcFs implements FileSystemProvider {
                     .maximumSize(100000)
                     .build();
 
+    /* Directory entries looked up through this instance. Entries are invalidated when
+     * modified through this instance and expire to pick up modifications by others.
+     */
+    private long _dentryCacheSize = 100000;
+    private long _dentryCacheLifetime = 10;
+    private TimeUnit _dentryCacheLifetimeUnit = TimeUnit.SECONDS;
+    private volatile DirectoryEntryCache _dentryCache =
+            new DirectoryEntryCache(_dentryCacheSize, _dentryCacheLifetime, _dentryCacheLifetimeUnit);
+
+    /* Tags of directories looked up through this instance. Entries are invalidated
+     * when tags are modified through this instance and expire to pick up modifications
+     * by others.
+     */
+    private long _tagCacheSize = 10000;
+    private long _tagCacheLifetime = 60;
+    private TimeUnit _tagCacheLifetimeUnit = TimeUnit.SECONDS;
+    private volatile DirectoryTagCache _tagCache =
+            new DirectoryTagCache(_tagCacheSize, _tagCacheLifetime, _tagCacheLifetimeUnit);
+
     /**
      * current fs id
      */
@@ -182,6 +206,73 @@ public class JdbcFs implements FileSystemProvider {
         _sqlDriver = FsSqlDriver.getDriverInstance(dataSource);
     }
 
+    /**
+     * Sets the maximum number of cached directory entries. Zero disables the cache.
+     */
+    public synchronized void setDirectoryEntryCacheSize(long size)
+    {
+        _dentryCacheSize = size;
+        _dentryCache = new DirectoryEntryCache(_dentryCacheSize, _dentryCacheLifetime, _dentryCacheLifetimeUnit);
+    }
+
+    /**
+     * Sets how long directory entries are cached. Bounds how long modifications
+     * by other instances sharing the database may go unnoticed.
+     */
+    public synchronized void setDirectoryEntryCacheLifetime(long lifetime)
+    {
+        _dentryCacheLifetime = lifetime;
+        _dentryCache = new DirectoryEntryCache(_dentryCacheSize, _dentryCacheLifetime, _dentryCacheLifetimeUnit);
+    }
+
+    public synchronized void setDirectoryEntryCacheLifetimeUnit(TimeUnit unit)
+    {
+        _dentryCacheLifetimeUnit = unit;
+        _dentryCache = new DirectoryEntryCache(_dentryCacheSize, _dentryCacheLifetime, _dentryCacheLifetimeUnit);
+    }
+
+    /**
+     * Sets the maximum number of directories of which tags are cached. Zero
+     * disables the cache.
+     */
+    public synchronized void setTagCacheSize(long size)
+    {
+        _tagCacheSize = size;
+        _tagCache = new DirectoryTagCache(_tagCacheSize, _tagCacheLifetime, _tagCacheLifetimeUnit);
+    }
+
+    /**
+     * Sets how long tags are cached. Bounds how long modifications by other
+     * instances sharing the database may go unnoticed.
+     */
+    public synchronized void setTagCacheLifetime(long lifetime)
+    {
+        _tagCacheLifetime = lifetime;
+        _tagCache = new DirectoryTagCache(_tagCacheSize, _tagCacheLifetime, _tagCacheLifetimeUnit);
+    }
+
+    public synchronized void setTagCacheLifetimeUnit(TimeUnit unit)
+    {
+        _tagCacheLifetimeUnit = unit;
+        _tagCache = new DirectoryTagCache(_tagCacheSize, _tagCacheLifetime, _tagCacheLifetimeUnit);
+    }
+
+    /**
+     * Sets a read-only replica of the database, e.g. a PostgreSQL hot standby.
+     * Lookups, stat, listings, locations and tags are sent to the replica
+     * when called in a read-only scope without an actual transaction, such
+     * as a method annotated with
+     * {@code @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)}.
+     * Null disables the use of a replica.
+     */
+    public void setReadReplica(DataSource dataSource)
+    {
+        _sqlDriver.setReadReplica(
+                (dataSource == null)
+                ? null
+                : new ReadReplica(dataSource, _sqlDriver._jdbc.getExceptionTranslator()));
+    }
+
     private FsInode getWormID() throws ChimeraFsException {
 
         return this.path2inode("/admin/etc/config");
@@ -211,6 +302,76 @@ public class JdbcFs implements FileSystemProvider {
         return result;
     }
 
+    /**
+     * Runs the callback in a transaction that modifies the directory entry
+     * <i>name</i> in <i>parent</i>. The cached directory entry is invalidated
+     * once the transaction has completed.
+     */
+    private <T> T inTransaction(FsInode parent, String name, FallibleTransactionCallback<T> callback)
+            throws ChimeraFsException
+    {
+        try {
+            return inTransaction(status -> {
+                invalidateDirectoryEntry(parent.ino(), name);
+                return callback.doInTransaction(status);
+            });
+        } finally {
+            _dentryCache.invalidate(parent.ino(), name);
+        }
+    }
+
+    /**
+     * Invalidates a cached directory entry. If called within a transaction,
+     * the entry is invalidated again once the outermost transaction has
+     * completed. Until then concurrent lookups see the state before the
+     * commit and may cache it.
+     */
+    private void invalidateDirectoryEntry(long parent, String name)
+    {
+        _dentryCache.invalidate(parent, name);
+        afterCompletion(() -> _dentryCache.invalidate(parent, name));
+    }
+
+    /**
+     * Runs the action once the transaction bound to the current thread has
+     * completed, whether committed or rolled back. Does nothing if there is
+     * no transaction.
+     */
+    private static void afterCompletion(Runnable action)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCompletion(int status)
+                {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the callback in a transaction that modifies tags. Cached tags are
+     * invalidated once the transaction has completed.
+     */
+    private <T> T inTagTransaction(FallibleTransactionCallback<T> callback)
+            throws ChimeraFsException
+    {
+        try {
+            return inTransaction(status -> {
+                /* Concurrent readers may cache the old tags until the
+                 * outermost transaction has completed.
+                 */
+                _tagCache.invalidateAll();
+                afterCompletion(() -> _tagCache.invalidateAll());
+                return callback.doInTransaction(status);
+            });
+        } finally {
+            _tagCache.invalidateAll();
+        }
+    }
+
     /**
      * Perform a rollback, handling rollback exceptions properly.
      * @param status object representing the transaction
@@ -256,7 +417,7 @@ public class JdbcFs implements FileSystemProvider {
 
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction(parent, name, status -> {
             FsInode inode;
             try {
                 Stat stat = parent.statCache();
@@ -291,7 +452,7 @@ public class JdbcFs implements FileSystemProvider {
 
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction(parent, name, status -> {
             try {
                 _sqlDriver.createEntryInParent(parent, name, inode);
                 _sqlDriver.incNlink(inode);
@@ -384,7 +545,7 @@ public class JdbcFs implements FileSystemProvider {
         checkNameLength(name);
         checkArgument(UnixPermission.getType(type) != UnixPermission.S_IFDIR);
 
-        return inTransaction(status -> {
+        return inTransaction(parent, name, status -> {
             try {
                 Stat parentStat = parent.statCache();
                 if (parentStat == null) {
@@ -426,7 +587,7 @@ public class JdbcFs implements FileSystemProvider {
         checkNameLength(name);
         checkArgument((type & UnixPermission.S_IFDIR) == 0);
 
-        inTransaction(status -> {
+        inTransaction(parent, name, status -> {
             try {
                 if (!parent.exists()) {
                     throw new FileNotFoundHimeraFsException("parent=" + parent.toString());
@@ -467,6 +628,11 @@ public class JdbcFs implements FileSystemProvider {
         return _sqlDriver.newDirectoryStream(dir);
     }
 
+    @Override
+    public List<HimeraDirectoryEntry> listDir(FsInode dir, String after, int limit) throws ChimeraFsException {
+        return _sqlDriver.listDir(dir, after, limit);
+    }
+
     @Override
     public void remove(String path) throws ChimeraFsException {
 
@@ -477,9 +643,9 @@ public class JdbcFs implements FileSystemProvider {
             throw new InvalidArgumentChimeraException("Cannot delete file system root.");
         }
 
-        inTransaction(status -> {
-            FsInode parent = path2inode(parentPath);
-            String name = filePath.getName();
+        FsInode parent = path2inode(parentPath);
+        String name = filePath.getName();
+        inTransaction(parent, name, status -> {
             FsInode inode = _sqlDriver.inodeOf(parent, name, STAT);
             if (inode == null || !_sqlDriver.remove(parent, name, inode)) {
                 throw new FileNotFoundHimeraFsException(path);
@@ -490,7 +656,7 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public void remove(FsInode directory, String name, FsInode inode) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction(directory, name, status -> {
             if (!_sqlDriver.remove(directory, name, inode)) {
                 throw new FileNotFoundHimeraFsException(name);
             }
@@ -500,7 +666,7 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public void remove(FsInode inode) throws ChimeraFsException {
-        inTransaction(status -> {
+        ListMultimap<Long, String> links = inTransaction(status -> {
             if (inode.type() != FsInodeType.INODE) {
                 // now allowed
                 throw new InvalidArgumentChimeraException("Not a file.");
@@ -514,9 +680,11 @@ public class JdbcFs implements FileSystemProvider {
             if (inode.isDirectory() && inode.statCache().getNlink() > 2) {
                 throw new DirNotEmptyHimeraFsException("Directory is not empty");
             }
-            _sqlDriver.remove(inode);
-            return null;
+            ListMultimap<Long, String> removed = _sqlDriver.remove(inode);
+            removed.entries().forEach(link -> invalidateDirectoryEntry(link.getKey(), link.getValue()));
+            return removed;
         });
+        links.entries().forEach(link -> _dentryCache.invalidate(link.getKey(), link.getValue()));
     }
 
     @Override
@@ -542,6 +710,16 @@ public class JdbcFs implements FileSystemProvider {
         return stat;
     }
 
+    @Override
+    public Map<FsInode, Stat> stat(Collection<FsInode> inodes) throws ChimeraFsException {
+        Map<FsInode, Stat> stats = _sqlDriver.stat(inodes);
+        for (Stat stat : stats.values()) {
+            _inoCache.put(stat.getId(), stat.getIno());
+            _idCache.put(stat.getIno(), stat.getId());
+        }
+        return stats;
+    }
+
     @Override
     public FsInode mkdir(String path) throws ChimeraFsException {
         int li = path.lastIndexOf('/');
@@ -559,7 +737,7 @@ public class JdbcFs implements FileSystemProvider {
     public FsInode mkdir(FsInode parent, String name, int owner, int group, int mode) throws ChimeraFsException {
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction(parent, name, status -> {
             try {
                 if (!parent.isDirectory()) {
                     throw new NotDirChimeraException(parent);
@@ -603,7 +781,7 @@ public class JdbcFs implements FileSystemProvider {
     {
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction(parent, name, status -> {
             try {
                 if (!parent.isDirectory()) {
                     throw new NotDirChimeraException(parent);
@@ -635,9 +813,34 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public FsInode path2inode(String path, FsInode startFrom) throws ChimeraFsException {
-        FsInode inode = _sqlDriver.path2inode(startFrom, path);
+        FsInode inode = null;
+
+        /* Resolve the directories leading to the last path element through the
+         * directory entry cache and only query the database for the last element.
+         */
+        List<String> elements = pathElements(path);
+        DirectoryEntryCache cache = _dentryCache;
+        FsInode parent = startFrom;
+        int i = 0;
+        while (i < elements.size() - 1 && isCacheable(elements.get(i))) {
+            Long ino = cache.lookup(parent.ino(), elements.get(i));
+            if (ino == null || ino == DirectoryEntryCache.NOT_FOUND) {
+                break;
+            }
+            parent = new FsInode(this, ino);
+            i++;
+        }
+        if (i > 0 && i == elements.size() - 1) {
+            inode = _sqlDriver.path2inode(parent, elements.get(i));
+        }
+
+        /* Cache miss or stale cache entries.
+         */
         if (inode == null) {
-            throw new FileNotFoundHimeraFsException(path);
+            inode = _sqlDriver.path2inode(startFrom, path);
+            if (inode == null) {
+                throw new FileNotFoundHimeraFsException(path);
+            }
         }
         fillIdCaches(inode);
         return inode;
@@ -687,6 +890,13 @@ public class JdbcFs implements FileSystemProvider {
         }
     }
 
+    @Override
+    public Map<String, FsInode> id2inodes(Collection<String> ids) throws ChimeraFsException {
+        Map<String, FsInode> inodes = _sqlDriver.id2inodes(this, ids);
+        inodes.values().forEach(this::fillIdCaches);
+        return inodes;
+    }
+
     @Override
     public List<FsInode> path2inodes(String path) throws ChimeraFsException {
         return path2inodes(path, new RootInode(this, _sqlDriver.getRootInumber()));
@@ -696,14 +906,87 @@ public class JdbcFs implements FileSystemProvider {
     public List<FsInode> path2inodes(String path, FsInode startFrom)
         throws ChimeraFsException
     {
+        List<String> elements = pathElements(path);
+        DirectoryEntryCache cache = _dentryCache;
+        long[] stamps = new long[elements.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = cache.stamp(elements.get(i));
+        }
+
         List<FsInode> inodes = _sqlDriver.path2inodes(startFrom, path);
         if (inodes.isEmpty()) {
             throw new FileNotFoundHimeraFsException(path);
         }
         fillIdCaches(inodes.get(inodes.size() - 1));
+
+        /* Up to the first symbolic link, the inodes correspond to the path elements.
+         */
+        for (int i = 0; i < elements.size() && i + 1 < inodes.size(); i++) {
+            String name = elements.get(i);
+            FsInode inode = inodes.get(i + 1);
+            Stat stat = inode.getStatCache();
+            if (!isCacheable(name) || stat == null || UnixPermission.getType(stat.getMode()) == UnixPermission.S_IFLNK) {
+                break;
+            }
+            cache.put(stamps[i], inodes.get(i).ino(), name, inode.ino());
+        }
         return inodes;
     }
 
+    /**
+     * Looks up a directory entry through the directory entry cache. Symbolic
+     * links are not cached.
+     *
+     * @return the inode of the entry or null if the entry does not exist
+     */
+    private FsInode lookup(FsInode parent, String name, StatCacheOption cacheOption)
+    {
+        if (!isCacheable(name)) {
+            return _sqlDriver.inodeOf(parent, name, cacheOption);
+        }
+
+        DirectoryEntryCache cache = _dentryCache;
+        Long ino = cache.lookup(parent.ino(), name);
+        if (ino != null) {
+            if (ino == DirectoryEntryCache.NOT_FOUND) {
+                return null;
+            }
+            if (cacheOption == NO_STAT) {
+                return new FsInode(this, ino);
+            }
+            Stat stat = _sqlDriver.stat(new FsInode(this, ino));
+            if (stat != null) {
+                return new FsInode(this, ino, FsInodeType.INODE, 0, stat);
+            }
+            invalidateDirectoryEntry(parent.ino(), name);
+        }
+
+        long stamp = cache.stamp(name);
+        FsInode inode = _sqlDriver.inodeOf(parent, name, STAT);
+        if (inode == null) {
+            cache.put(stamp, parent.ino(), name, DirectoryEntryCache.NOT_FOUND);
+        } else if (UnixPermission.getType(inode.getStatCache().getMode()) != UnixPermission.S_IFLNK) {
+            cache.put(stamp, parent.ino(), name, inode.ino());
+        }
+        return inode;
+    }
+
+    private static boolean isCacheable(String name)
+    {
+        return !name.equals(".") && !name.equals("..");
+    }
+
+    private static List<String> pathElements(String path)
+    {
+        List<String> elements = new ArrayList<>();
+        for (String element : path.split("/")) {
+            if (!element.isEmpty()) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
     @Override
     public FsInode inodeOf(FsInode parent, String name, StatCacheOption cacheOption) throws ChimeraFsException {
         // only if it's PNFS command
@@ -911,7 +1194,7 @@ public class JdbcFs implements FileSystemProvider {
 
         }
 
-        FsInode inode = _sqlDriver.inodeOf(parent, name, cacheOption);
+        FsInode inode = lookup(parent, name, cacheOption);
         if (inode == null) {
             throw new FileNotFoundHimeraFsException(name);
         }
@@ -1048,36 +1331,41 @@ public class JdbcFs implements FileSystemProvider {
     public boolean rename(FsInode inode, FsInode srcDir, String source, FsInode destDir, String dest) throws ChimeraFsException {
         checkNameLength(dest);
 
-        return inTransaction(status -> {
-            if (!destDir.isDirectory()) {
-                throw new NotDirChimeraException(destDir);
-            }
+        try {
+            return inTransaction(destDir, dest, status -> {
+                invalidateDirectoryEntry(srcDir.ino(), source);
+                if (!destDir.isDirectory()) {
+                    throw new NotDirChimeraException(destDir);
+                }
 
-            FsInode destInode = _sqlDriver.inodeOf(destDir, dest, STAT);
+                FsInode destInode = _sqlDriver.inodeOf(destDir, dest, STAT);
 
-            if (destInode != null) {
-                if (destInode.equals(inode)) {
-                    // according to POSIX, we are done
-                    return false;
-                }
+                if (destInode != null) {
+                    if (destInode.equals(inode)) {
+                        // according to POSIX, we are done
+                        return false;
+                    }
 
-               /* Renaming into existing is only allowed for the same type of entry.
-                */
-                if (inode.isDirectory() != destInode.isDirectory()) {
-                    throw new FileExistsChimeraFsException(dest);
-                }
+                   /* Renaming into existing is only allowed for the same type of entry.
+                    */
+                    if (inode.isDirectory() != destInode.isDirectory()) {
+                        throw new FileExistsChimeraFsException(dest);
+                    }
 
-                if (!_sqlDriver.remove(destDir, dest, destInode)) {
-                    // Concurrent modification - retry
-                    return rename(inode, srcDir, source, destDir, dest);
+                    if (!_sqlDriver.remove(destDir, dest, destInode)) {
+                        // Concurrent modification - retry
+                        return rename(inode, srcDir, source, destDir, dest);
+                    }
                 }
-            }
 
-            if (!_sqlDriver.rename(inode, srcDir, source, destDir, dest)) {
-                throw new FileNotFoundHimeraFsException(source);
-            }
-            return true;
-        });
+                if (!_sqlDriver.rename(inode, srcDir, source, destDir, dest)) {
+                    throw new FileNotFoundHimeraFsException(source);
+                }
+                return true;
+            });
+        } finally {
+            _dentryCache.invalidate(srcDir.ino(), source);
+        }
     }
 
     /////////////////////////////////////////////////////////////////////
@@ -1115,6 +1403,30 @@ public class JdbcFs implements FileSystemProvider {
         });
     }
 
+    @Override
+    public Map<FsInode, List<StorageLocatable>> getInodeLocations(Collection<FsInode> inodes)
+            throws ChimeraFsException {
+        return _sqlDriver.getInodeLocations(inodes);
+    }
+
+    @Override
+    public void addInodeLocation(Collection<FsInode> inodes, int type, String location)
+            throws ChimeraFsException {
+        inTransaction(status -> {
+            _sqlDriver.addInodeLocation(inodes, type, location);
+            return null;
+        });
+    }
+
+    @Override
+    public void clearInodeLocation(Collection<FsInode> inodes, int type, String location)
+            throws ChimeraFsException {
+        inTransaction(status -> {
+            _sqlDriver.clearInodeLocation(inodes, type, location);
+            return null;
+        });
+    }
+
     /////////////////////////////////////////////////////////////////////
     ////
     ////   Directory tags handling
@@ -1127,7 +1439,14 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public Map<String, byte[]> getAllTags(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.getAllTags(inode);
+        DirectoryTagCache cache = _tagCache;
+        Map<String, byte[]> tags = cache.lookup(inode.ino());
+        if (tags == null) {
+            long version = cache.version();
+            tags = _sqlDriver.getAllTags(inode);
+            cache.put(version, inode.ino(), tags);
+        }
+        return tags;
     }
 
     @Override
@@ -1137,7 +1456,7 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public void createTag(FsInode inode, String name, int uid, int gid, int mode) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTagTransaction(status -> {
             try {
                 _sqlDriver.createTag(inode, name, uid, gid, mode);
                 return null;
@@ -1149,13 +1468,13 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public int setTag(FsInode inode, String tagName, byte[] data, int offset, int len) throws ChimeraFsException {
-        return inTransaction(status -> _sqlDriver.setTag(inode, tagName, data, offset, len));
+        return inTagTransaction(status -> _sqlDriver.setTag(inode, tagName, data, offset, len));
     }
 
     @Override
     public void removeTag(FsInode dir, String tagName) throws ChimeraFsException
     {
-        inTransaction(status -> {
+        inTagTransaction(status -> {
             _sqlDriver.removeTag(dir, tagName);
             return null;
         });
@@ -1163,7 +1482,7 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public void removeTag(FsInode dir) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTagTransaction(status -> {
             _sqlDriver.removeTag(dir);
             return null;
         });
@@ -1171,6 +1490,12 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public int getTag(FsInode inode, String tagName, byte[] data, int offset, int len) throws ChimeraFsException {
+        byte[] value = getAllTags(inode).get(tagName);
+        if (value != null) {
+            int n = Math.min(len, value.length);
+            System.arraycopy(value, 0, data, offset, n);
+            return n;
+        }
         return _sqlDriver.getTag(inode, tagName, data, offset, len);
     }
 
@@ -1347,6 +1672,13 @@ public class JdbcFs implements FileSystemProvider {
             sb.append("rootID    : ").append(e.getMessage()).append("\n");
         }
         sb.append("FsId      : ").append(_fsId).append("\n");
+        sb.append("Dentries  : ").append(_dentryCache).append("\n");
+        sb.append("Tags      : ").append(_tagCache).append("\n");
+        sb.append("Primary   : ").append(_sqlDriver._jdbc).append("\n");
+        ReadReplica replica = _sqlDriver.getReadReplica();
+        if (replica != null) {
+            sb.append("Replica   : ").append(replica).append("\n");
+        }
         return sb.toString();
     }
 
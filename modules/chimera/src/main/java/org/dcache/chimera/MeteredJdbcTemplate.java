@@ -0,0 +1,114 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.CallableStatementCallback;
+import org.springframework.jdbc.core.CallableStatementCreator;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.StatementCallback;
+
+import javax.sql.DataSource;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.commons.stats.LatencyHistogram;
+
+/**
+ * JdbcTemplate that counts the statements executed against its DataSource
+ * and records their latency. All query and update methods of JdbcTemplate
+ * funnel into the execute methods overridden here.
+ */
+class MeteredJdbcTemplate extends JdbcTemplate
+{
+    private final LatencyHistogram _latencies = new LatencyHistogram();
+    private final long _created = System.nanoTime();
+
+    MeteredJdbcTemplate(DataSource dataSource)
+    {
+        super(dataSource);
+    }
+
+    @Override
+    public <T> T execute(ConnectionCallback<T> action) throws DataAccessException
+    {
+        long start = System.nanoTime();
+        try {
+            return super.execute(action);
+        } finally {
+            record(start);
+        }
+    }
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException
+    {
+        long start = System.nanoTime();
+        try {
+            return super.execute(action);
+        } finally {
+            record(start);
+        }
+    }
+
+    @Override
+    public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action)
+            throws DataAccessException
+    {
+        long start = System.nanoTime();
+        try {
+            return super.execute(psc, action);
+        } finally {
+            record(start);
+        }
+    }
+
+    @Override
+    public <T> T execute(CallableStatementCreator csc, CallableStatementCallback<T> action)
+            throws DataAccessException
+    {
+        long start = System.nanoTime();
+        try {
+            return super.execute(csc, action);
+        } finally {
+            record(start);
+        }
+    }
+
+    private void record(long start)
+    {
+        _latencies.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    long getStatementCount()
+    {
+        return _latencies.getCount();
+    }
+
+    @Override
+    public String toString()
+    {
+        long count = _latencies.getCount();
+        double seconds = (System.nanoTime() - _created) / 1e9;
+        return String.format("%d statements (%.1f/s), latency 50%% %d ms, 99%% %d ms, max %d ms",
+                             count, count / seconds, _latencies.getPercentile(50),
+                             _latencies.getPercentile(99), _latencies.getMax());
+    }
+}
@@ -23,6 +23,7 @@ import org.springframework.dao.DuplicateKeyException;
 import javax.sql.DataSource;
 
 import java.sql.Timestamp;
+import java.util.Collection;
 
 import org.dcache.chimera.store.InodeStorageInformation;
 
@@ -90,6 +91,25 @@ public class PgSQL95FsSqlDriver extends PgSQLFsSqlDriver {
                      });
     }
 
+    @Override
+    void addInodeLocation(Collection<FsInode> inodes, int type, String location) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (Collection<Long> chunk : inumbers(inodes)) {
+            _jdbc.update("INSERT INTO t_locationinfo (inumber,itype,ilocation,ipriority,ictime,iatime,istate) " +
+                         "SELECT inumber,?,?,?,?,?,? FROM t_inodes WHERE inumber IN (" + placeholders(chunk.size()) + ") " +
+                         "ON CONFLICT ON CONSTRAINT t_locationinfo_pkey DO NOTHING",
+                         ps -> {
+                             ps.setInt(1, type);
+                             ps.setString(2, location);
+                             ps.setInt(3, 10); // default priority
+                             ps.setTimestamp(4, now);
+                             ps.setTimestamp(5, now);
+                             ps.setInt(6, 1); // online
+                             setInumbers(ps, 7, chunk);
+                         });
+        }
+    }
+
     @Override
     void setStorageInfo(FsInode inode, InodeStorageInformation storageInfo) {
         _jdbc.update("INSERT INTO t_storageinfo VALUES (?,?,?,?) " +
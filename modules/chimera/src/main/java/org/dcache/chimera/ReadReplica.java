@@ -0,0 +1,96 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Read-only replica of the Chimera database, e.g. a PostgreSQL hot standby,
+ * used for queries that tolerate replication lag.
+ *
+ * Callers opt in explicitly: the replica is only used by code demarcated
+ * as read-only without an actual transaction, e.g. by
+ * {@code @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)}.
+ * Staleness is further bounded by the following policy:
+ *
+ * <ul>
+ * <li>Queries within an actual transaction always use the primary
+ *     database, as they must observe the transaction's own modifications.</li>
+ * <li>A query whose result suggests that an entry does not exist is
+ *     repeated on the primary, as the entry may not have been replicated
+ *     yet. Thus the replica never causes spurious lookup failures.</li>
+ * <li>If the replica cannot be reached, the primary is used.</li>
+ * </ul>
+ */
+class ReadReplica
+{
+    private final MeteredJdbcTemplate _jdbc;
+
+    private final LongAdder _missed = new LongAdder();
+    private final LongAdder _failed = new LongAdder();
+
+    ReadReplica(DataSource dataSource, SQLExceptionTranslator translator)
+    {
+        _jdbc = new MeteredJdbcTemplate(dataSource);
+        _jdbc.setExceptionTranslator(translator);
+    }
+
+    private static boolean isUsable()
+    {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() &&
+               !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * Runs a query on the replica if the caller tolerates replication lag,
+     * and otherwise or if the result is missing on the primary.
+     *
+     * @param primary template of the primary database
+     * @param query the query to run
+     * @param isMissing whether a result may be missing due to replication lag
+     */
+    <T> T query(JdbcTemplate primary, Function<JdbcTemplate, T> query, Predicate<? super T> isMissing)
+    {
+        if (isUsable()) {
+            try {
+                T result = query.apply(_jdbc);
+                if (!isMissing.test(result)) {
+                    return result;
+                }
+                _missed.increment();
+            } catch (DataAccessResourceFailureException e) {
+                _failed.increment();
+            }
+        }
+        return query.apply(primary);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s; %d missed, %d failed", _jdbc, _missed.sum(), _failed.sum());
+    }
+}
@@ -12,8 +12,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
@@ -31,6 +33,7 @@ import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
 
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
@@ -106,6 +109,36 @@ public class BasicTest extends ChimeraTestCaseHelper {
         assertThat(_fs.getAllTags(dir1), hasEntry("tag", bytes));
     }
 
+    @Test
+    public void testUpdateOfInheritedTagIsVisibleInCachedSubdirectory() throws Exception {
+        FsInode parent = _rootInode.mkdir("junit");
+        _fs.createTag(parent, "tag");
+        _fs.setTag(parent, "tag", "old".getBytes(), 0, 3);
+        FsInode child = parent.mkdir("child");
+
+        assertThat(_fs.getAllTags(child), hasEntry("tag", "old".getBytes()));
+        assertThat(_fs.getAllTags(parent), hasEntry("tag", "old".getBytes()));
+
+        _fs.setTag(parent, "tag", "new".getBytes(), 0, 3);
+
+        assertThat(_fs.getAllTags(child), hasEntry("tag", "new".getBytes()));
+        byte[] data = new byte[10];
+        assertThat(_fs.getTag(child, "tag", data, 0, data.length), is(3));
+        assertThat(new String(data, 0, 3), is("new"));
+    }
+
+    @Test
+    public void testRemovedTagIsNotCached() throws Exception {
+        FsInode dir = _rootInode.mkdir("junit");
+        _fs.createTag(dir, "tag");
+        _fs.setTag(dir, "tag", "value".getBytes(), 0, 5);
+        assertThat(_fs.getAllTags(dir).keySet(), contains("tag"));
+
+        _fs.removeTag(dir, "tag");
+
+        assertThat(_fs.getAllTags(dir).isEmpty(), is(true));
+    }
+
     @Test
     public void testCreateFile() throws Exception {
         FsInode base = _rootInode.mkdir("junit");
@@ -645,6 +678,108 @@ public class BasicTest extends ChimeraTestCaseHelper {
         _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "/dev/null");
     }
 
+    @Test
+    public void testBulkAddAndClearLocation() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        List<FsInode> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(base.create("file" + i, 0, 0, 0644));
+        }
+        _fs.addInodeLocation(files.get(0), StorageGenericLocation.DISK, "pool1");
+
+        _fs.addInodeLocation(files, StorageGenericLocation.DISK, "pool1");
+        _fs.addInodeLocation(files, StorageGenericLocation.DISK, "pool2");
+        _fs.clearInodeLocation(files.subList(0, 2), StorageGenericLocation.DISK, "pool1");
+
+        Map<FsInode, List<StorageLocatable>> locations = _fs.getInodeLocations(files);
+        assertEquals(3, locations.size());
+        assertEquals(Collections.singletonList("pool2"), locationsOf(locations.get(files.get(0))));
+        assertEquals(Collections.singletonList("pool2"), locationsOf(locations.get(files.get(1))));
+        assertEquals(Lists.newArrayList("pool1", "pool2"), locationsOf(locations.get(files.get(2))));
+        assertEquals(locations.get(files.get(2)).size(), _fs.getInodeLocations(files.get(2)).size());
+    }
+
+    @Test
+    public void testBulkAddLocationIgnoresNonexisting() throws Exception {
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        FsInode missing = new FsInode(_fs, Long.MAX_VALUE);
+
+        _fs.addInodeLocation(Lists.newArrayList(file, missing), StorageGenericLocation.DISK, "pool1");
+
+        Map<FsInode, List<StorageLocatable>> locations =
+                _fs.getInodeLocations(Lists.newArrayList(file, missing));
+        assertEquals(Collections.singletonList("pool1"), locationsOf(locations.get(file)));
+        assertTrue(locations.get(missing).isEmpty());
+    }
+
+    @Test
+    public void testBulkLocationsExceedingChunkSize() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        List<FsInode> files = new ArrayList<>();
+        for (int i = 0; i < FsSqlDriver.MAX_BULK_SIZE + 10; i++) {
+            files.add(base.create("file" + i, 0, 0, 0644));
+        }
+
+        _fs.addInodeLocation(files, StorageGenericLocation.DISK, "pool1");
+        assertTrue(_fs.getInodeLocations(files).values().stream().allMatch(l -> l.size() == 1));
+
+        _fs.clearInodeLocation(files, StorageGenericLocation.DISK, "pool1");
+        assertTrue(_fs.getInodeLocations(files).values().stream().allMatch(List::isEmpty));
+    }
+
+    @Test
+    public void testBulkId2Inodes() throws Exception {
+        FsInode file1 = _rootInode.create("file1", 0, 0, 0644);
+        FsInode file2 = _rootInode.create("file2", 0, 0, 0644);
+
+        Map<String, FsInode> inodes = _fs.id2inodes(Lists.newArrayList(file1.getId(), file2.getId(), "0000FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF"));
+
+        assertEquals(2, inodes.size());
+        assertEquals(file1, inodes.get(file1.getId()));
+        assertEquals(file2, inodes.get(file2.getId()));
+        assertEquals(file2.getId(), inodes.get(file2.getId()).getStatCache().getId());
+    }
+
+    @Test
+    public void testBulkStat() throws Exception {
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        FsInode dir = _rootInode.mkdir("dir");
+        FsInode missing = new FsInode(_fs, Long.MAX_VALUE);
+
+        Map<FsInode, Stat> stats = _fs.stat(Lists.newArrayList(file, dir, missing));
+
+        assertEquals(2, stats.size());
+        assertEquals(file.stat().getIno(), stats.get(file).getIno());
+        assertEquals(dir.stat().getMode(), stats.get(dir).getMode());
+    }
+
+    @Test
+    public void testListDirInPages() throws Exception {
+        FsInode dir = _rootInode.mkdir("dir");
+        for (String name : new String[] { "c", "e", "b", "d" }) {
+            dir.create(name, 0, 0, 0644);
+        }
+        FsInode a = dir.create("a", 0, 0, 0644);
+
+        List<HimeraDirectoryEntry> first = _fs.listDir(dir, null, 2);
+        List<HimeraDirectoryEntry> second = _fs.listDir(dir, "b", 2);
+        List<HimeraDirectoryEntry> last = _fs.listDir(dir, "d", 2);
+
+        assertEquals(Arrays.asList("a", "b"), namesOf(first));
+        assertEquals(Arrays.asList("c", "d"), namesOf(second));
+        assertEquals(Arrays.asList("e"), namesOf(last));
+        assertTrue(_fs.listDir(dir, "e", 2).isEmpty());
+        assertEquals(a.getId(), first.get(0).getStat().getId());
+    }
+
+    private static List<String> namesOf(List<HimeraDirectoryEntry> entries) {
+        return entries.stream().map(HimeraDirectoryEntry::getName).collect(Collectors.toList());
+    }
+
+    private static List<String> locationsOf(List<StorageLocatable> locations) {
+        return locations.stream().map(StorageLocatable::location).sorted().collect(Collectors.toList());
+    }
+
     @Test(expected = FileNotFoundHimeraFsException.class)
     public void testSetSizeNotExist() throws Exception {
 
@@ -789,6 +924,160 @@ public class BasicTest extends ChimeraTestCaseHelper {
                      inodes);
     }
 
+    @Test
+    public void testPathToIdsDeepPath() throws Exception
+    {
+        List<FsInode> expected = Lists.newArrayList(_rootInode);
+        StringBuilder path = new StringBuilder();
+        FsInode dirInode = _rootInode;
+        for (int i = 0; i < 40; i++) {
+            dirInode = dirInode.mkdir("dir" + i, 0, 0, 0755);
+            expected.add(dirInode);
+            path.append("/dir").append(i);
+        }
+
+        assertEquals(dirInode, _fs.path2inode(path.toString(), _rootInode));
+        assertEquals(expected, _fs.path2inodes(path.toString(), _rootInode));
+    }
+
+    @Test
+    public void testPathToIdsLinkInTheMiddle() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode fileInode = subdirInode.create("aFile", 0, 0, 0644);
+        FsInode otherInode = _rootInode.mkdir("otherDir", 0, 0, 0755);
+        FsInode linkInode = otherInode.createLink("aLink", 0, 0, 055, "../testDir".getBytes());
+
+        assertEquals(fileInode, _fs.path2inode("/otherDir/aLink/testDir2/aFile", _rootInode));
+        assertEquals(Lists.newArrayList(_rootInode, otherInode, linkInode, _rootInode,
+                                        dirInode, subdirInode, fileInode),
+                     _fs.path2inodes("/otherDir/aLink/testDir2/aFile", _rootInode));
+    }
+
+    @Test
+    public void testPathToIdsRelativeLinkAtEnd() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode targetInode = subdirInode.mkdir("target", 0, 0, 0755);
+        FsInode fileInode = targetInode.create("aFile", 0, 0, 0644);
+        FsInode linkInode = subdirInode.createLink("aLink", 0, 0, 055, "target".getBytes());
+
+        assertEquals(targetInode, _fs.path2inode("/testDir/testDir2/aLink", _rootInode));
+        assertEquals(fileInode, _fs.path2inode("/testDir/testDir2/aLink/aFile", _rootInode));
+        assertEquals(Lists.newArrayList(_rootInode, dirInode, subdirInode, linkInode, targetInode, fileInode),
+                     _fs.path2inodes("/testDir/testDir2/aLink/aFile", _rootInode));
+    }
+
+    @Test
+    public void testPathToIdsAbsoluteLinkAtEnd() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode otherInode = _rootInode.mkdir("otherDir", 0, 0, 0755);
+        FsInode fileInode = otherInode.create("aFile", 0, 0, 0644);
+        FsInode linkInode = subdirInode.createLink("aLink", 0, 0, 055, "/otherDir".getBytes());
+
+        assertEquals(otherInode, _fs.path2inode("/testDir/testDir2/aLink", _rootInode));
+        assertEquals(fileInode, _fs.path2inode("/testDir/testDir2/aLink/aFile", _rootInode));
+        assertEquals(Lists.newArrayList(_rootInode, dirInode, subdirInode, linkInode, _rootInode,
+                                        otherInode, fileInode),
+                     _fs.path2inodes("/testDir/testDir2/aLink/aFile", _rootInode));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPathToIdThroughFile() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        dirInode.create("aFile", 0, 0, 0644);
+
+        _fs.path2inode("/testDir/aFile/other", _rootInode);
+    }
+
+    @Test
+    public void testPathToIdsWithDots() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode fileInode = dirInode.create("aFile", 0, 0, 0644);
+
+        assertEquals(fileInode, _fs.path2inode("/testDir/./testDir2/../aFile", _rootInode));
+        assertEquals(Lists.newArrayList(_rootInode, dirInode, dirInode, subdirInode, dirInode, fileInode),
+                     _fs.path2inodes("/testDir/./testDir2/../aFile", _rootInode));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPathToIdNonExisting() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        dirInode.mkdir("testDir2", 0, 0, 0755);
+
+        _fs.path2inode("/testDir/testDir2/missing/aFile", _rootInode);
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPathToIdsNonExisting() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        dirInode.mkdir("testDir2", 0, 0, 0755);
+
+        _fs.path2inodes("/testDir/testDir2/missing/aFile", _rootInode);
+    }
+
+    @Test
+    public void testLookupAfterCreateOfMissingEntry() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        try {
+            dirInode.inodeOf("aFile", NO_STAT);
+            fail("Lookup of missing entry succeeded");
+        } catch (FileNotFoundHimeraFsException expected) {
+        }
+        FsInode fileInode = dirInode.create("aFile", 0, 0, 0644);
+        assertEquals(fileInode, dirInode.inodeOf("aFile", NO_STAT));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testLookupAfterRemoveByInode() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode fileInode = dirInode.create("aFile", 0, 0, 0644);
+        assertEquals(fileInode, dirInode.inodeOf("aFile", NO_STAT));
+        _fs.remove(fileInode);
+        dirInode.inodeOf("aFile", NO_STAT);
+    }
+
+    @Test
+    public void testPathToIdAfterRenameOfParent() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode fileInode = subdirInode.create("aFile", 0, 0, 0644);
+        assertEquals(fileInode, _fs.path2inodes("/testDir/testDir2/aFile").get(3));
+        assertEquals(fileInode, _fs.path2inode("/testDir/testDir2/aFile"));
+
+        _fs.rename(subdirInode, dirInode, "testDir2", _rootInode, "testDir3");
+        assertEquals(fileInode, _fs.path2inode("/testDir3/aFile"));
+        try {
+            _fs.path2inode("/testDir/testDir2/aFile");
+            fail("Lookup of renamed path succeeded");
+        } catch (FileNotFoundHimeraFsException expected) {
+        }
+    }
+
+    @Test
+    public void testPathToIdDoesNotCacheLinks() throws Exception
+    {
+        FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
+        FsInode subdirInode = dirInode.mkdir("testDir2", 0, 0, 0755);
+        FsInode fileInode = subdirInode.create("aFile", 0, 0, 0644);
+        _rootInode.createLink("aLink", 0, 0, 0755, "testDir/testDir2".getBytes());
+
+        assertEquals(fileInode, _fs.path2inodes("/aLink/aFile").get(4));
+        assertEquals(fileInode, _fs.path2inode("/aLink/aFile"));
+    }
+
     @Test
     public void testUpdateCtimeOnSetOwner() throws Exception {
         FsInode dirInode = _rootInode.mkdir("testDir", 0, 0, 0755);
@@ -24,6 +24,7 @@ public abstract class ChimeraTestCaseHelper {
 
     protected FileSystemProvider _fs;
     protected FsInode _rootInode;
+    protected PlatformTransactionManager _txManager;
     private HikariDataSource _dataSource;
 
     @Before
@@ -34,12 +35,20 @@ public abstract class ChimeraTestCaseHelper {
             dbProperties.load(input);
         }
 
-        _dataSource = FsFactory.getDataSource(
+        _dataSource = createDatabase(
                 dbProperties.getProperty("chimera.db.url"),
                 dbProperties.getProperty("chimera.db.user"),
                 dbProperties.getProperty("chimera.db.password"));
 
-        try (Connection conn = _dataSource.getConnection()) {
+        _txManager =  new DataSourceTransactionManager(_dataSource);
+        _fs = new JdbcFs(_dataSource, _txManager);
+        _rootInode = _fs.path2inode("/");
+    }
+
+    protected static HikariDataSource createDatabase(String url, String user, String password) throws Exception {
+        HikariDataSource dataSource = FsFactory.getDataSource(url, user, password);
+
+        try (Connection conn = dataSource.getConnection()) {
             conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
 
             Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
@@ -48,10 +57,7 @@ public abstract class ChimeraTestCaseHelper {
 
             liquibase.update("");
         }
-
-        PlatformTransactionManager txManager =  new DataSourceTransactionManager(_dataSource);
-        _fs = new JdbcFs(_dataSource, txManager);
-        _rootInode = _fs.path2inode("/");
+        return dataSource;
     }
 
     @After
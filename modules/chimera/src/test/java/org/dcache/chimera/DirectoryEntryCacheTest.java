@@ -0,0 +1,60 @@
+package org.dcache.chimera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DirectoryEntryCacheTest
+{
+    private DirectoryEntryCache _cache;
+
+    @Before
+    public void setUp()
+    {
+        _cache = new DirectoryEntryCache(100, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testPositiveEntry()
+    {
+        _cache.put(_cache.stamp("a"), 1, "a", 2);
+        assertEquals(Long.valueOf(2), _cache.lookup(1, "a"));
+        assertNull(_cache.lookup(2, "a"));
+        assertNull(_cache.lookup(1, "b"));
+    }
+
+    @Test
+    public void testNegativeEntry()
+    {
+        _cache.put(_cache.stamp("a"), 1, "a", DirectoryEntryCache.NOT_FOUND);
+        assertEquals(Long.valueOf(DirectoryEntryCache.NOT_FOUND), _cache.lookup(1, "a"));
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        _cache.put(_cache.stamp("a"), 1, "a", 2);
+        _cache.invalidate(1, "a");
+        assertNull(_cache.lookup(1, "a"));
+    }
+
+    @Test
+    public void testPutAfterConcurrentInvalidationIsDiscarded()
+    {
+        long stamp = _cache.stamp("a");
+        _cache.invalidate(1, "a");
+        _cache.put(stamp, 1, "a", 2);
+        assertNull(_cache.lookup(1, "a"));
+    }
+
+    @Test
+    public void testDisabledCache()
+    {
+        DirectoryEntryCache cache = new DirectoryEntryCache(0, 1, TimeUnit.MINUTES);
+        cache.put(cache.stamp("a"), 1, "a", 2);
+        assertNull(cache.lookup(1, "a"));
+    }
+}
@@ -0,0 +1,452 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.chimera;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dcache.chimera.posix.Stat;
+
+/**
+ * Load generator for Chimera namespace operations.
+ *
+ * Generates a synthetic namespace of {@code depth} levels of directories,
+ * each containing {@code fanout} subdirectories, with {@code files} files in
+ * every leaf directory. Each operation type (create, stat, lookup, list,
+ * remove, setattr) is measured on its own, and the {@code mixed} group runs
+ * all of them concurrently in a fixed ratio. Directories are listed page by
+ * page with keyset queries of {@code pageSize} entries, like doors do.
+ *
+ * The {@code listPage} benchmark reads a single page at a random position of
+ * one large directory of {@code largeDirectorySize} files. It is only
+ * populated for that benchmark; exclude it with {@code -e listPage} to skip
+ * the time it takes to create the entries.
+ *
+ * The namespace is generated in an in-memory H2 or HSQLDB database by
+ * default. To measure a PostgreSQL instance, pass a scratch database with
+ * {@code -p url=jdbc:postgresql://localhost/bench -p user=... -p password=...}.
+ * The namespace is generated below a unique directory and is not removed
+ * afterwards.
+ *
+ * Embedded databases abort conflicting concurrent transactions rather than
+ * waiting for locks. Such updates are retried, and the number of retries is
+ * reported as the secondary result {@code retries}.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dcache.chimera.NamespaceBenchmark}. The benchmark is
+ * run twice, first reporting throughput in operations per second and then
+ * reporting latency percentiles in microseconds. Any JMH option may be
+ * passed in {@code -Dexec.args}; use {@code -t} to set the number of
+ * threads for individual operations and {@code -tg} to set the thread
+ * distribution of the mixed workload.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NamespaceBenchmark
+{
+    @Param({"jdbc:h2:mem:benchmark", "jdbc:hsqldb:mem:benchmark"})
+    public String url;
+
+    @Param({"sa"})
+    public String user;
+
+    @Param({""})
+    public String password;
+
+    @Param({"3"})
+    public int depth;
+
+    @Param({"8"})
+    public int fanout;
+
+    @Param({"64"})
+    public int files;
+
+    /**
+     * Size of the directory entry cache of JdbcFs. Disabled by default such
+     * that lookups reach the database.
+     */
+    @Param({"0"})
+    public long dentryCacheSize;
+
+    @Param({"16"})
+    public int connections;
+
+    @Param({"5000"})
+    public int pageSize;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private HikariDataSource dataSource;
+    private JdbcFs fs;
+    private FsInode[] directories;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(connections);
+        dataSource = new HikariDataSource(config);
+        try (Connection conn = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                          new ClassLoaderResourceAccessor(), database).update("");
+        }
+
+        fs = new JdbcFs(dataSource, new DataSourceTransactionManager(dataSource));
+        fs.setDirectoryEntryCacheSize(dentryCacheSize);
+
+        List<FsInode> level = new ArrayList<>();
+        level.add(fs.mkdir(fs.path2inode("/"), "benchmark-" + UUID.randomUUID()));
+        for (int i = 0; i < depth; i++) {
+            List<FsInode> next = new ArrayList<>(level.size() * fanout);
+            for (FsInode parent : level) {
+                for (int j = 0; j < fanout; j++) {
+                    next.add(fs.mkdir(parent, "dir" + j));
+                }
+            }
+            level = next;
+        }
+        for (FsInode dir : level) {
+            for (int j = 0; j < files; j++) {
+                fs.createFile(dir, "file" + j);
+            }
+        }
+        directories = level.toArray(new FsInode[level.size()]);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        if (url.startsWith("jdbc:h2:mem:") || url.startsWith("jdbc:hsqldb:mem:")) {
+            try (Connection conn = dataSource.getConnection();
+                 Statement statement = conn.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+        }
+        dataSource.close();
+    }
+
+    /**
+     * Number of updates retried by a benchmark thread. Reported by JMH as a
+     * secondary result, in the same unit as the primary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Retries
+    {
+        public long retries;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            retries = 0;
+        }
+    }
+
+    /**
+     * A file created before each invocation, to be removed by the benchmark.
+     * Setting up per invocation is only acceptable because a namespace
+     * operation takes much longer than the bookkeeping of JMH. Retries
+     * while setting up are not part of the measurement and are not counted.
+     */
+    @State(Scope.Thread)
+    public static class Victim
+    {
+        FsInode dir;
+        String name;
+        FsInode inode;
+
+        @Setup(Level.Invocation)
+        public void create(NamespaceBenchmark benchmark) throws ChimeraFsException
+        {
+            dir = benchmark.randomDirectory();
+            name = benchmark.uniqueName();
+            inode = retry(new Retries(), () -> benchmark.fs.createFile(dir, name));
+        }
+    }
+
+    /**
+     * A single directory with a large number of files, named such that any
+     * entry name may be used as the cookie of a page.
+     */
+    @State(Scope.Benchmark)
+    public static class LargeDirectory
+    {
+        @Param({"1000000"})
+        public int largeDirectorySize;
+
+        FsInode dir;
+
+        @Setup
+        public void create(NamespaceBenchmark benchmark) throws ChimeraFsException
+        {
+            dir = benchmark.fs.mkdir(benchmark.directories[0], "large");
+            for (int i = 0; i < largeDirectorySize; i++) {
+                benchmark.fs.createFile(dir, entryName(i));
+            }
+        }
+
+        String randomEntryName()
+        {
+            return entryName(ThreadLocalRandom.current().nextInt(largeDirectorySize));
+        }
+
+        private static String entryName(int i)
+        {
+            return String.format("entry%09d", i);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Update<T>
+    {
+        T apply() throws ChimeraFsException;
+    }
+
+    private static <T> T retry(Retries retries, Update<T> update) throws ChimeraFsException
+    {
+        while (true) {
+            try {
+                return update.apply();
+            } catch (ChimeraFsException e) {
+                if (!(e.getCause() instanceof TransientDataAccessException)) {
+                    throw e;
+                }
+                retries.retries++;
+            }
+        }
+    }
+
+    private FsInode randomDirectory()
+    {
+        return directories[ThreadLocalRandom.current().nextInt(directories.length)];
+    }
+
+    private String randomFileName()
+    {
+        return "file" + ThreadLocalRandom.current().nextInt(files);
+    }
+
+    private String uniqueName()
+    {
+        return "new" + sequence.incrementAndGet();
+    }
+
+    private FsInode randomFile() throws ChimeraFsException
+    {
+        return fs.inodeOf(randomDirectory(), randomFileName(), FileSystemProvider.StatCacheOption.NO_STAT);
+    }
+
+    private FsInode doCreate(Retries retries) throws ChimeraFsException
+    {
+        FsInode dir = randomDirectory();
+        String name = uniqueName();
+        return retry(retries, () -> fs.createFile(dir, name));
+    }
+
+    private Stat doStat() throws ChimeraFsException
+    {
+        return fs.stat(randomFile());
+    }
+
+    private FsInode doLookup() throws ChimeraFsException
+    {
+        return fs.inodeOf(randomDirectory(), randomFileName(), FileSystemProvider.StatCacheOption.STAT);
+    }
+
+    private void doList(Blackhole blackhole) throws ChimeraFsException
+    {
+        FsInode dir = randomDirectory();
+        String after = null;
+        List<HimeraDirectoryEntry> page;
+        do {
+            page = fs.listDir(dir, after, pageSize);
+            for (HimeraDirectoryEntry entry : page) {
+                blackhole.consume(entry);
+                after = entry.getName();
+            }
+        } while (page.size() == pageSize);
+    }
+
+    private void doRemove(Victim victim, Retries retries) throws ChimeraFsException
+    {
+        retry(retries, () -> {
+            fs.remove(victim.dir, victim.name, victim.inode);
+            return null;
+        });
+    }
+
+    private void doSetattr(Retries retries) throws ChimeraFsException
+    {
+        Stat stat = new Stat();
+        stat.setMode(ThreadLocalRandom.current().nextBoolean() ? 0644 : 0600);
+        stat.setMTime(System.currentTimeMillis());
+        FsInode inode = randomFile();
+        retry(retries, () -> {
+            fs.setInodeAttributes(inode, 0, stat);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public FsInode create(Retries retries) throws ChimeraFsException
+    {
+        return doCreate(retries);
+    }
+
+    @Benchmark
+    public Stat stat() throws ChimeraFsException
+    {
+        return doStat();
+    }
+
+    @Benchmark
+    public FsInode lookup() throws ChimeraFsException
+    {
+        return doLookup();
+    }
+
+    @Benchmark
+    public void list(Blackhole blackhole) throws ChimeraFsException
+    {
+        doList(blackhole);
+    }
+
+    @Benchmark
+    public List<HimeraDirectoryEntry> listPage(LargeDirectory large) throws ChimeraFsException
+    {
+        return fs.listDir(large.dir, large.randomEntryName(), pageSize);
+    }
+
+    @Benchmark
+    public void remove(Victim victim, Retries retries) throws ChimeraFsException
+    {
+        doRemove(victim, retries);
+    }
+
+    @Benchmark
+    public void setattr(Retries retries) throws ChimeraFsException
+    {
+        doSetattr(retries);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public FsInode mixedCreate(Retries retries) throws ChimeraFsException
+    {
+        return doCreate(retries);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public Stat mixedStat() throws ChimeraFsException
+    {
+        return doStat();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public FsInode mixedLookup() throws ChimeraFsException
+    {
+        return doLookup();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedList(Blackhole blackhole) throws ChimeraFsException
+    {
+        doList(blackhole);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedRemove(Victim victim, Retries retries) throws ChimeraFsException
+    {
+        doRemove(victim, retries);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedSetattr(Retries retries) throws ChimeraFsException
+    {
+        doSetattr(retries);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        run(options, Mode.Throughput, TimeUnit.SECONDS);
+        run(options, Mode.SampleTime, TimeUnit.MICROSECONDS);
+    }
+
+    private static void run(CommandLineOptions options, Mode mode, TimeUnit unit) throws Exception
+    {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options).mode(mode).timeUnit(unit);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(NamespaceBenchmark.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
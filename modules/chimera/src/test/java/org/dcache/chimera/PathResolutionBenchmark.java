@@ -0,0 +1,130 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resolving paths in a generated deep namespace, one path element
+ * per query versus several path elements per query. The namespace is a
+ * chain of {@code depth} directories, each containing a few siblings, with
+ * a file at the bottom.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dcache.chimera.PathResolutionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PathResolutionBenchmark
+{
+    private static final int SIBLINGS = 8;
+
+    @Param({"8", "32"})
+    public int depth;
+
+    @Param({"1", "16"})
+    public int joined;
+
+    private HikariDataSource dataSource;
+    private FsSqlDriver driver;
+    private FsInode root;
+    private String path;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        dataSource = FsFactory.getDataSource("jdbc:h2:mem:benchmark", "sa", "");
+        try (Connection conn = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                          new ClassLoaderResourceAccessor(), database).update("");
+        }
+
+        JdbcFs fs = new JdbcFs(dataSource, new DataSourceTransactionManager(dataSource));
+        root = fs.path2inode("/");
+
+        StringBuilder builder = new StringBuilder();
+        FsInode dir = root;
+        for (int i = 0; i < depth; i++) {
+            for (int j = 1; j < SIBLINGS; j++) {
+                dir.mkdir("sibling" + j, 0, 0, 0755);
+            }
+            dir = dir.mkdir("dir" + i, 0, 0, 0755);
+            builder.append("/dir").append(i);
+        }
+        dir.create("file", 0, 0, 0644);
+        path = builder.append("/file").toString();
+
+        driver = FsSqlDriver.getDriverInstance(dataSource);
+        driver.setMaxJoinedPathElements(joined);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        Connection conn = dataSource.getConnection();
+        conn.createStatement().execute("SHUTDOWN");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public FsInode path2inode() throws ChimeraFsException
+    {
+        return driver.path2inode(root, path);
+    }
+
+    @Benchmark
+    public List<FsInode> path2inodes() throws ChimeraFsException
+    {
+        return driver.path2inodes(root, path);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(PathResolutionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package org.dcache.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class ReadReplicaTest extends ChimeraTestCaseHelper
+{
+    private HikariDataSource _replicaDataSource;
+    private JdbcFs _replica;
+    private FsInode _dir;
+
+    @Before
+    public void setUpReplica() throws Exception
+    {
+        /* The replica is a separate database so the tests can tell which one
+         * served a query, as if replication were lagging behind. Both contain
+         * the same directory, but different files.
+         */
+        _replicaDataSource = createDatabase("jdbc:h2:mem:replica", "sa", "");
+        _replica = new JdbcFs(_replicaDataSource, new DataSourceTransactionManager(_replicaDataSource));
+        _replica.createFile(_replica.mkdir("/test"), "replicated");
+
+        _dir = _fs.mkdir("/test");
+        _fs.createFile(_dir, "new");
+        ((JdbcFs) _fs).setReadReplica(_replicaDataSource);
+    }
+
+    @After
+    public void tearDownReplica() throws Exception
+    {
+        Connection conn = _replicaDataSource.getConnection();
+        conn.createStatement().execute("SHUTDOWN;");
+        _replicaDataSource.close();
+    }
+
+    @Test
+    public void shouldListFromReplicaWhenReadOnly() throws Exception
+    {
+        List<String> names = readOnly(status -> namesOf(listDir()));
+
+        assertThat(names, contains("replicated"));
+    }
+
+    @Test
+    public void shouldListFromPrimaryWhenNotReadOnly() throws Exception
+    {
+        assertThat(namesOf(_fs.listDir(_dir, null, 10)), contains("new"));
+    }
+
+    @Test
+    public void shouldListFromPrimaryWithinTransaction() throws Exception
+    {
+        TransactionTemplate transaction = new TransactionTemplate(_txManager);
+
+        List<String> names = transaction.execute(status -> readOnly(inner -> namesOf(listDir())));
+
+        assertThat(names, contains("new"));
+    }
+
+    @Test
+    public void shouldConfirmMissingEntryOnPrimary() throws Exception
+    {
+        FsInode inode = readOnly(status -> {
+            try {
+                return _fs.inodeOf(_dir, "new", FileSystemProvider.StatCacheOption.STAT);
+            } catch (ChimeraFsException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertThat(inode, is(notNullValue()));
+        assertThat(((JdbcFs) _fs).getInfo(), containsString("1 missed"));
+    }
+
+    /**
+     * Runs the callback as a caller tolerating replication lag would, i.e.
+     * read-only and without starting a transaction.
+     */
+    private <T> T readOnly(TransactionCallback<T> callback)
+    {
+        TransactionTemplate template = new TransactionTemplate(_txManager);
+        template.setReadOnly(true);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_SUPPORTS);
+        return template.execute(callback);
+    }
+
+    private List<HimeraDirectoryEntry> listDir()
+    {
+        try {
+            return _fs.listDir(_dir, null, 10);
+        } catch (ChimeraFsException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> namesOf(List<HimeraDirectoryEntry> entries)
+    {
+        return entries.stream().map(HimeraDirectoryEntry::getName).collect(toList());
+    }
+}
@@ -0,0 +1,141 @@
+package org.dcache.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests the caches of JdbcFs when file system calls are part of a longer
+ * transaction, as in PnfsManager. Concurrent lookups from other threads
+ * see the state before the commit. They must not leave that state in the
+ * caches once the transaction has committed.
+ */
+public class TransactionalCacheTest
+{
+    private HikariDataSource _dataSource;
+    private PlatformTransactionManager _txManager;
+    private FileSystemProvider _fs;
+    private FsInode _rootInode;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        /* Multi version concurrency control allows other threads to read
+         * while the outer transaction holds locks.
+         */
+        _dataSource = ChimeraTestCaseHelper.createDatabase("jdbc:h2:mem:transactional;MVCC=TRUE", "sa", "");
+        _txManager = new DataSourceTransactionManager(_dataSource);
+        _fs = new JdbcFs(_dataSource, _txManager);
+        _rootInode = _fs.path2inode("/");
+        _executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        _executor.shutdown();
+        Connection conn = _dataSource.getConnection();
+        conn.createStatement().execute("SHUTDOWN");
+        _dataSource.close();
+    }
+
+    @Test
+    public void testConcurrentLookupDoesNotCacheUncommittedCreate() throws Exception
+    {
+        FsInode dir = _rootInode.mkdir("junit");
+
+        inOuterTransaction(() -> {
+            dir.create("aFile", 0, 0, 0644);
+            assertThat(concurrently(() -> exists(dir, "aFile")), is(false));
+        });
+
+        assertThat(exists(dir, "aFile"), is(true));
+    }
+
+    @Test
+    public void testConcurrentLookupDoesNotCacheUncommittedRemove() throws Exception
+    {
+        FsInode dir = _rootInode.mkdir("junit");
+        dir.create("aFile", 0, 0, 0644);
+        assertThat(exists(dir, "aFile"), is(true));
+
+        inOuterTransaction(() -> {
+            _fs.remove(dir, "aFile", _fs.inodeOf(dir, "aFile", FileSystemProvider.StatCacheOption.NO_STAT));
+            assertThat(concurrently(() -> exists(dir, "aFile")), is(true));
+        });
+
+        assertThat(exists(dir, "aFile"), is(false));
+    }
+
+    @Test
+    public void testConcurrentTagLookupDoesNotCacheUncommittedValue() throws Exception
+    {
+        FsInode parent = _rootInode.mkdir("junit");
+        _fs.createTag(parent, "tag");
+        _fs.setTag(parent, "tag", "old".getBytes(), 0, 3);
+        FsInode child = parent.mkdir("child");
+        assertThat(new String(_fs.getAllTags(child).get("tag")), is("old"));
+
+        inOuterTransaction(() -> {
+            _fs.setTag(parent, "tag", "new".getBytes(), 0, 3);
+            assertThat(concurrently(() -> new String(_fs.getAllTags(child).get("tag"))), is("old"));
+        });
+
+        assertThat(new String(_fs.getAllTags(child).get("tag")), is("new"));
+    }
+
+    private boolean exists(FsInode dir, String name) throws ChimeraFsException
+    {
+        try {
+            _fs.inodeOf(dir, name, FileSystemProvider.StatCacheOption.NO_STAT);
+            return true;
+        } catch (FileNotFoundHimeraFsException e) {
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the task in a transaction spanning several file system calls.
+     */
+    private void inOuterTransaction(Task task)
+    {
+        new TransactionTemplate(_txManager).execute(status -> {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Calls the file system from another thread, outside the transaction
+     * of the calling thread.
+     */
+    private <T> T concurrently(Callable<T> task) throws Exception
+    {
+        return _executor.submit(task).get();
+    }
+}
@@ -0,0 +1,83 @@
+package org.dcache.commons.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in milliseconds, used to estimate percentiles.
+ *
+ * Latencies are counted in buckets with exponentially growing bounds
+ * (1, 2, 5, 10, 20, 50, ... milliseconds), so a percentile is reported as
+ * the upper bound of the bucket containing it. Recording is lock free and
+ * suitable for hot paths.
+ */
+public class LatencyHistogram
+{
+    private static final long[] BOUNDS;
+
+    static {
+        long[] bounds = new long[3 * 9 + 1];
+        long decade = 1;
+        for (int i = 0; i < bounds.length - 1; i += 3) {
+            bounds[i] = decade;
+            bounds[i + 1] = 2 * decade;
+            bounds[i + 2] = 5 * decade;
+            decade *= 10;
+        }
+        bounds[bounds.length - 1] = Long.MAX_VALUE;
+        BOUNDS = bounds;
+    }
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BOUNDS.length);
+    private final AtomicLong _max = new AtomicLong();
+
+    public void update(long latency)
+    {
+        int i = 0;
+        while (latency > BOUNDS[i]) {
+            i++;
+        }
+        _counts.incrementAndGet(i);
+        long max;
+        do {
+            max = _max.get();
+        } while (latency > max && !_max.compareAndSet(max, latency));
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            count += _counts.get(i);
+        }
+        return count;
+    }
+
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile, or zero if no latency
+     * has been recorded.
+     *
+     * @param percentile value between 0 and 100
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += _counts.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+}
@@ -49,13 +49,13 @@ public class BoundedCachedExecutor extends BoundedExecutor
         this(Executors.newCachedThreadPool(threadFactory), maxThreads, maxQueued);
     }
 
-    protected BoundedCachedExecutor(ExecutorService executor, int maxThreads)
+    public BoundedCachedExecutor(ExecutorService executor, int maxThreads)
     {
         super(executor, maxThreads);
         this.executor = executor;
     }
 
-    protected BoundedCachedExecutor(ExecutorService executor, int maxThreads, int maxQueued)
+    public BoundedCachedExecutor(ExecutorService executor, int maxThreads, int maxQueued)
     {
         super(executor, maxThreads, maxQueued);
         this.executor = executor;
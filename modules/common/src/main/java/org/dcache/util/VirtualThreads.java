@@ -0,0 +1,110 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.util;
+
+import com.google.common.base.Throwables;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Utility methods for virtual threads.
+ *
+ * Virtual threads are only available on Java 21 and newer. As dCache is
+ * compiled for an older release, the API is accessed through reflection.
+ * Callers must check {@link #isAvailable} before using the other methods.
+ */
+public final class VirtualThreads
+{
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = ofVirtual.getReturnType();
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * Returns true if the running JVM supports virtual threads.
+     */
+    public static boolean isAvailable()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns a factory for virtual threads named by {@code prefix} followed
+     * by a counter.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ThreadFactory newThreadFactory(String prefix)
+    {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer.");
+        }
+        Object builder = invoke(OF_VIRTUAL, null);
+        builder = invoke(NAME, builder, prefix, 0L);
+        return (ThreadFactory) invoke(FACTORY, builder);
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix)
+    {
+        return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null, newThreadFactory(prefix));
+    }
+
+    private static Object invoke(Method method, Object target, Object... args)
+    {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not accessible: " + e, e);
+        } catch (InvocationTargetException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.dcache.commons.stats;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest
+{
+    private final LatencyHistogram _histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldReturnZeroWhenEmpty()
+    {
+        assertThat(_histogram.getCount(), is(0L));
+        assertThat(_histogram.getPercentile(50), is(0L));
+    }
+
+    @Test
+    public void shouldReturnUpperBoundOfBucket()
+    {
+        for (int i = 0; i < 90; i++) {
+            _histogram.update(3);
+        }
+        for (int i = 0; i < 10; i++) {
+            _histogram.update(400);
+        }
+
+        assertThat(_histogram.getCount(), is(100L));
+        assertThat(_histogram.getPercentile(50), is(5L));
+        assertThat(_histogram.getPercentile(90), is(5L));
+        assertThat(_histogram.getPercentile(99), is(400L));
+        assertThat(_histogram.getMax(), is(400L));
+    }
+
+    @Test
+    public void shouldNotExceedMaximum()
+    {
+        _histogram.update(12);
+
+        assertThat(_histogram.getPercentile(99), is(12L));
+    }
+}
@@ -2,6 +2,7 @@ package org.dcache.chimera.namespace;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -22,8 +23,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +85,7 @@ import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.nullToEmpty;
+import static java.util.stream.Collectors.toList;
 import static org.dcache.acl.enums.AccessType.ACCESS_ALLOWED;
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.STAT;
@@ -673,6 +677,56 @@ public class ChimeraNameSpaceProvider
         }
     }
 
+    @Override
+    public Collection<PnfsId> addCacheLocation(Subject subject, Collection<PnfsId> pnfsIds, String cacheLocation)
+            throws CacheException
+    {
+        _log.debug("add cache location {} for {} files", cacheLocation, pnfsIds.size());
+
+        try {
+            Map<String, FsInode> inodes = _fs.id2inodes(Collections2.transform(pnfsIds, PnfsId::getId));
+            _fs.addInodeLocation(inodes.values(), StorageGenericLocation.DISK, cacheLocation);
+            return missing(pnfsIds, inodes);
+        } catch (ChimeraFsException e) {
+            _log.error("Exception in addCacheLocation {}", e);
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e.getMessage());
+        }
+    }
+
+    @Override
+    public Collection<PnfsId> clearCacheLocation(Subject subject, Collection<PnfsId> pnfsIds, String cacheLocation,
+                                                 boolean removeIfLast) throws CacheException
+    {
+        _log.debug("clearCacheLocation : {} for {} files", cacheLocation, pnfsIds.size());
+
+        try {
+            Map<String, FsInode> inodes = _fs.id2inodes(Collections2.transform(pnfsIds, PnfsId::getId));
+            _fs.clearInodeLocation(inodes.values(), StorageGenericLocation.DISK, cacheLocation);
+
+            if (removeIfLast) {
+                for (Map.Entry<FsInode, List<StorageLocatable>> e : _fs.getInodeLocations(inodes.values()).entrySet()) {
+                    if (e.getValue().stream().noneMatch(l -> l.type() == StorageGenericLocation.DISK)) {
+                        _log.debug("last location cleaned. removing file {}", e.getKey());
+                        try {
+                            _fs.remove(e.getKey());
+                        } catch (FileNotFoundHimeraFsException ignored) {
+                            // removed concurrently
+                        }
+                    }
+                }
+            }
+            return missing(pnfsIds, inodes);
+        } catch (ChimeraFsException e){
+            _log.error("Exception in clearCacheLocation for {} files : {}", pnfsIds.size(), e);
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e.getMessage());
+        }
+    }
+
+    private static Collection<PnfsId> missing(Collection<PnfsId> pnfsIds, Map<String, FsInode> inodes)
+    {
+        return pnfsIds.stream().filter(id -> !inodes.containsKey(id.getId())).collect(toList());
+    }
+
     @Override
     public String pnfsidToPath(Subject subject, PnfsId pnfsId) throws CacheException {
         try {
@@ -886,37 +940,79 @@ public class ChimeraNameSpaceProvider
         throws CacheException
     {
         try {
-            ExtendedInode inode = new ExtendedInode(_fs, pnfsId, STAT);
+            return getFileAttributes(subject, new ExtendedInode(_fs, pnfsId, STAT), attr);
+        } catch (FileNotFoundHimeraFsException e) {
+            throw new FileNotFoundCacheException("No such file or directory: " + pnfsId);
+        } catch (IOException e) {
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
+                                     e.getMessage());
+        }
+    }
 
-            if (Subjects.isRoot(subject)) {
-                return getFileAttributes(inode, attr);
-            }
+    @Override
+    public Map<PnfsId, FileAttributes> getFileAttributes(Subject subject, Collection<PnfsId> pnfsIds,
+                                                         Set<FileAttribute> attr)
+        throws CacheException
+    {
+        try {
+            Map<String, FsInode> inodes = _fs.id2inodes(Collections2.transform(pnfsIds, PnfsId::getId));
 
-            /* If we have to authorize the check then we fetch
-             * permission handler attributes in addition to the
-             * attributes requested by the caller.
+            /* Locations are needed for sizes too, to detect new files.
              */
-            Set<FileAttribute> required = EnumSet.noneOf(FileAttribute.class);
-            required.addAll(_permissionHandler.getRequiredAttributes());
-            required.addAll(attr);
-            FileAttributes fileAttributes =
-                getFileAttributes(inode, required);
-
-            /* The permission check is performed after we fetched the
-             * attributes to avoid fetching the attributes twice.
-             */
-            if (_permissionHandler.canGetAttributes(subject, fileAttributes, attr) != ACCESS_ALLOWED) {
-                throw new PermissionDeniedCacheException("Access denied: " + pnfsId);
+            Map<FsInode, List<StorageLocatable>> locations =
+                    (attr.contains(FileAttribute.LOCATIONS) || attr.contains(FileAttribute.SIZE))
+                    ? _fs.getInodeLocations(inodes.values())
+                    : Collections.emptyMap();
+
+            Map<PnfsId, FileAttributes> attributes = new HashMap<>();
+            for (PnfsId pnfsId : pnfsIds) {
+                FsInode fsInode = inodes.get(pnfsId.getId());
+                if (fsInode != null) {
+                    ExtendedInode inode = new ExtendedInode(_fs, fsInode);
+                    List<StorageLocatable> l = locations.get(fsInode);
+                    if (l != null) {
+                        inode.setLocations(l);
+                    }
+                    try {
+                        attributes.put(pnfsId, getFileAttributes(subject, inode, attr));
+                    } catch (FileNotFoundHimeraFsException | PermissionDeniedCacheException ignored) {
+                        // caller queries the file individually to learn why it is missing
+                    }
+                }
             }
-            return fileAttributes;
-        } catch (FileNotFoundHimeraFsException e) {
-            throw new FileNotFoundCacheException("No such file or directory: " + pnfsId);
+            return attributes;
         } catch (IOException e) {
             throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
                                      e.getMessage());
         }
     }
 
+    private FileAttributes getFileAttributes(Subject subject, ExtendedInode inode, Set<FileAttribute> attr)
+        throws ChimeraFsException, CacheException
+    {
+        if (Subjects.isRoot(subject)) {
+            return getFileAttributes(inode, attr);
+        }
+
+        /* If we have to authorize the check then we fetch
+         * permission handler attributes in addition to the
+         * attributes requested by the caller.
+         */
+        Set<FileAttribute> required = EnumSet.noneOf(FileAttribute.class);
+        required.addAll(_permissionHandler.getRequiredAttributes());
+        required.addAll(attr);
+        FileAttributes fileAttributes =
+            getFileAttributes(inode, required);
+
+        /* The permission check is performed after we fetched the
+         * attributes to avoid fetching the attributes twice.
+         */
+        if (_permissionHandler.canGetAttributes(subject, fileAttributes, attr) != ACCESS_ALLOWED) {
+            throw new PermissionDeniedCacheException("Access denied: " + inode.getPnfsId());
+        }
+        return fileAttributes;
+    }
+
     @Override
     public FileAttributes setFileAttributes(Subject subject, PnfsId pnfsId,
                                   FileAttributes attr, Set<FileAttribute> acquire)
@@ -1044,21 +1140,7 @@ public class ChimeraNameSpaceProvider
     {
         try {
             Pattern pattern = (glob == null) ? null : glob.toPattern();
-            ExtendedInode dir = pathToInode(subject, path);
-            if (!dir.isDirectory()) {
-                throw new NotDirCacheException("Not a directory: " + path);
-            }
-
-            if (!Subjects.isRoot(subject)) {
-                FileAttributes attributes =
-                    getFileAttributesForPermissionHandler(dir);
-                if (!dir.isDirectory()) {
-                    throw new NotDirCacheException("Not a directory");
-                } else if (_permissionHandler.canListDir(subject, attributes) != ACCESS_ALLOWED) {
-                    throw new PermissionDeniedCacheException("Access denied: " +
-                                                             path);
-                }
-            }
+            ExtendedInode dir = lookupDirectoryForListing(subject, path);
 
             int counter = 0;
             try (DirectoryStreamB<HimeraDirectoryEntry> dirStream = dir
@@ -1094,6 +1176,84 @@ public class ChimeraNameSpaceProvider
         }
     }
 
+    @Override
+    public String list(Subject subject, String path, Glob glob, String cookie, int limit,
+                       Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException
+    {
+        try {
+            Pattern pattern = (glob == null) ? null : glob.toPattern();
+            ExtendedInode dir = lookupDirectoryForListing(subject, path);
+
+            /* Pages are read in name order straight from the directory
+             * index, so the cost of a page does not depend on its offset
+             * in the directory. Locations are needed for sizes too and are
+             * fetched in bulk for each page.
+             */
+            boolean needsLocations =
+                    attrs.contains(FileAttribute.LOCATIONS) || attrs.contains(FileAttribute.SIZE);
+            String last = cookie;
+            int count = 0;
+            while (count < limit) {
+                List<HimeraDirectoryEntry> page = _fs.listDir(dir, last, limit - count);
+                if (page.isEmpty()) {
+                    return null;
+                }
+                Map<FsInode, List<StorageLocatable>> locations =
+                        needsLocations
+                        ? _fs.getInodeLocations(Lists.transform(page, HimeraDirectoryEntry::getInode))
+                        : Collections.emptyMap();
+                for (HimeraDirectoryEntry entry : page) {
+                    last = entry.getName();
+                    if (pattern == null || pattern.matcher(last).matches()) {
+                        try {
+                            FileAttributes fa = null;
+                            if (!attrs.isEmpty()) {
+                                ExtendedInode inode = new ExtendedInode(_fs, entry.getInode());
+                                List<StorageLocatable> l = locations.get(entry.getInode());
+                                if (l != null) {
+                                    inode.setLocations(l);
+                                }
+                                fa = getFileAttributes(inode, attrs);
+                            }
+                            handler.addEntry(last, fa);
+                        } catch (FileNotFoundHimeraFsException e) {
+                            /* Not an error; files may be deleted during the
+                             * list operation.
+                             */
+                        }
+                    }
+                    count++;
+                }
+            }
+            return last;
+        } catch (FileNotFoundHimeraFsException e) {
+            throw new FileNotFoundCacheException("No such file or directory: " + path);
+        } catch (IOException e) {
+            _log.error("Exception in list: {}", e);
+            throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e.getMessage());
+        }
+    }
+
+    private ExtendedInode lookupDirectoryForListing(Subject subject, String path)
+            throws CacheException, ChimeraFsException
+    {
+        ExtendedInode dir = pathToInode(subject, path);
+        if (!dir.isDirectory()) {
+            throw new NotDirCacheException("Not a directory: " + path);
+        }
+
+        if (!Subjects.isRoot(subject)) {
+            FileAttributes attributes =
+                getFileAttributesForPermissionHandler(dir);
+            if (_permissionHandler.canListDir(subject, attributes) != ACCESS_ALLOWED) {
+                throw new PermissionDeniedCacheException("Access denied: " +
+                                                         path);
+            }
+        }
+        return dir;
+    }
+
     private ExtendedInode mkdir(Subject subject, ExtendedInode parent, String name, int uid, int gid, int mode)
             throws ChimeraFsException, CacheException
     {
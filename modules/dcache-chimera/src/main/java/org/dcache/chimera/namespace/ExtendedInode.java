@@ -190,6 +190,15 @@ public class ExtendedInode extends FsInode
         return locations;
     }
 
+    /**
+     * Pre-fills the locations of all types, e.g. after fetching the locations
+     * of several inodes in a single operation.
+     */
+    void setLocations(List<StorageLocatable> locations)
+    {
+        this.locations = ImmutableList.copyOf(locations);
+    }
+
     public ImmutableMap<String,String> getFlags() throws ChimeraFsException
     {
         if (flags == null) {
@@ -6,17 +6,23 @@ import liquibase.Liquibase;
 import liquibase.database.Database;
 import liquibase.database.DatabaseFactory;
 import liquibase.database.jvm.JdbcConnection;
+import com.zaxxer.hikari.HikariDataSource;
 import liquibase.resource.ClassLoaderResourceAccessor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Properties;
@@ -54,12 +60,16 @@ import org.dcache.chimera.posix.Stat;
 import org.dcache.namespace.CreateOption;
 import org.dcache.namespace.FileAttribute;
 import org.dcache.namespace.PosixPermissionHandler;
+import org.dcache.util.aspects.PerInstanceAnnotationTransactionBeanPostProcessor;
 import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsBatchMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
 import static org.dcache.namespace.FileAttribute.*;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.*;
 
 public class PnfsManagerTest
@@ -77,6 +87,7 @@ public class PnfsManagerTest
     private PnfsManagerV3 _pnfsManager;
     private Connection _conn;
     private FileSystemProvider _fs;
+    private HikariDataSource _dataSource;
 
     @Before
     public void setUp() throws Exception {
@@ -104,10 +115,12 @@ public class PnfsManagerTest
          */
 
         liquibase.update("");
-        _fs = FsFactory.createFileSystem(
+        _dataSource = FsFactory.getDataSource(
                 dbProperties.getProperty("chimera.db.url"),
                 dbProperties.getProperty("chimera.db.user"),
                 dbProperties.getProperty("chimera.db.password"));
+        PlatformTransactionManager txManager = new DataSourceTransactionManager(_dataSource);
+        _fs = new JdbcFs(_dataSource, txManager);
 
         ChimeraNameSpaceProvider chimera = new ChimeraNameSpaceProvider();
         chimera.setExtractor(new ChimeraOsmStorageInfoExtractor(StorageInfo.DEFAULT_ACCESS_LATENCY,
@@ -123,6 +136,10 @@ public class PnfsManagerTest
 
 
         _pnfsManager = new PnfsManagerV3();
+        PerInstanceAnnotationTransactionBeanPostProcessor transactions =
+                new PerInstanceAnnotationTransactionBeanPostProcessor();
+        transactions.setTransactionManager(txManager);
+        transactions.postProcessBeforeInitialization(_pnfsManager, "pnfs-manager");
         _pnfsManager.setThreads(1);
         _pnfsManager.setListThreads(1);
         _pnfsManager.setThreadGroups(1);
@@ -664,6 +681,119 @@ public class PnfsManagerTest
         assertTrue("atime is updated, but shouldn't", stat_after.getATime() == stat_before.getATime());
     }
 
+    @Test
+    public void testBatchAddAndClearCacheLocations() throws ChimeraFsException {
+
+        PnfsId file1 = new PnfsId(_fs.createFile("/file1").getId());
+        PnfsId file2 = new PnfsId(_fs.createFile("/file2").getId());
+        PnfsId missing = new PnfsId(FsInode.generateNewID());
+
+        PnfsAddCacheLocationMessage add1 = new PnfsAddCacheLocationMessage(file1, "aPool");
+        PnfsAddCacheLocationMessage add2 = new PnfsAddCacheLocationMessage(file2, "aPool");
+        PnfsAddCacheLocationMessage addMissing = new PnfsAddCacheLocationMessage(missing, "aPool");
+        PnfsCreateEntryMessage create = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatch");
+        process(new PnfsBatchMessage(Arrays.asList(add1, add2, addMissing, create)));
+
+        assertThat(add1.getReturnCode(), is(0));
+        assertThat(add2.getReturnCode(), is(0));
+        assertThat(addMissing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+        assertThat(create.getReturnCode(), is(0));
+
+        PnfsGetFileAttributes get1 = new PnfsGetFileAttributes(file1, EnumSet.of(LOCATIONS, SIZE));
+        PnfsGetFileAttributes get2 = new PnfsGetFileAttributes(file2, EnumSet.of(LOCATIONS, SIZE));
+        PnfsGetFileAttributes getMissing = new PnfsGetFileAttributes(missing, EnumSet.of(LOCATIONS, SIZE));
+        process(new PnfsBatchMessage(Arrays.asList(get1, get2, getMissing)));
+
+        assertThat(get1.getReturnCode(), is(0));
+        assertThat(get1.getFileAttributes().getLocations(), contains("aPool"));
+        assertThat(get1.getFileAttributes().getSize(), is(0L));
+        assertThat(get2.getReturnCode(), is(0));
+        assertThat(get2.getFileAttributes().getLocations(), contains("aPool"));
+        assertThat(getMissing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+
+        PnfsClearCacheLocationMessage clear1 = new PnfsClearCacheLocationMessage(file1, "aPool", true);
+        PnfsClearCacheLocationMessage clear2 = new PnfsClearCacheLocationMessage(file2, "aPool", false);
+        process(new PnfsBatchMessage(Arrays.asList(clear1, clear2)));
+
+        assertThat(clear1.getReturnCode(), is(0));
+        assertThat(clear2.getReturnCode(), is(0));
+        assertNotExists("/file1");
+
+        PnfsGetCacheLocationsMessage locations = new PnfsGetCacheLocationsMessage(file2);
+        _pnfsManager.getCacheLocations(locations);
+        assertThat(locations.getCacheLocations().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testBatchFailureDoesNotRollBackOtherRequests() throws ChimeraFsException {
+
+        PnfsId file1 = new PnfsId(_fs.createFile("/file1").getId());
+        PnfsId file2 = new PnfsId(_fs.createFile("/file2").getId());
+        _pnfsManager.createEntry(new PnfsCreateEntryMessage("/pnfs/testRoot/testBatchFailure"));
+
+        PnfsAddCacheLocationMessage add1 = new PnfsAddCacheLocationMessage(file1, "aPool");
+        PnfsCreateEntryMessage create = new PnfsCreateEntryMessage("/pnfs/testRoot/testBatchFailure");
+        PnfsAddCacheLocationMessage add2 = new PnfsAddCacheLocationMessage(file2, "otherPool");
+        process(new PnfsBatchMessage(Arrays.asList(add1, create, add2)));
+
+        assertThat(add1.getReturnCode(), is(0));
+        assertThat(create.getReturnCode(), is(CacheException.FILE_EXISTS));
+        assertThat(add2.getReturnCode(), is(0));
+
+        PnfsGetCacheLocationsMessage locations1 = new PnfsGetCacheLocationsMessage(file1);
+        _pnfsManager.getCacheLocations(locations1);
+        assertThat(locations1.getCacheLocations(), contains("aPool"));
+
+        PnfsGetCacheLocationsMessage locations2 = new PnfsGetCacheLocationsMessage(file2);
+        _pnfsManager.getCacheLocations(locations2);
+        assertThat(locations2.getCacheLocations(), contains("otherPool"));
+    }
+
+    @Test
+    public void testBatchRejectsNestedBatch() {
+
+        PnfsBatchMessage nested = new PnfsBatchMessage(Collections.emptyList());
+        process(new PnfsBatchMessage(Collections.singletonList(nested)));
+
+        assertThat(nested.getReturnCode(), is(CacheException.INVALID_ARGS));
+    }
+
+    @Test
+    public void testListDirectoryInPages() throws Exception
+    {
+        _pnfsManager.createDirectory(new PnfsCreateDirectoryMessage("/pnfs/testRoot/testListDirectoryInPages"));
+        for (String name : Arrays.asList("c", "a", "d", "b", "e")) {
+            PnfsCreateEntryMessage message = new PnfsCreateEntryMessage("/pnfs/testRoot/testListDirectoryInPages/" + name);
+            _pnfsManager.createEntry(message);
+            assertThat(message.getReturnCode(), is(0));
+        }
+
+        NameSpaceProvider provider = _pnfsManager.getNameSpaceProvider();
+        List<String> names = new ArrayList<>();
+        String cookie = provider.list(Subjects.ROOT, "/pnfs/testRoot/testListDirectoryInPages", null,
+                                      null, 2, EnumSet.of(SIZE), (name, attrs) -> names.add(name));
+        assertThat(names, contains("a", "b"));
+        assertThat(cookie, is("b"));
+
+        names.clear();
+        cookie = provider.list(Subjects.ROOT, "/pnfs/testRoot/testListDirectoryInPages", null,
+                               cookie, 2, EnumSet.of(SIZE), (name, attrs) -> names.add(name));
+        assertThat(names, contains("c", "d"));
+
+        names.clear();
+        cookie = provider.list(Subjects.ROOT, "/pnfs/testRoot/testListDirectoryInPages", null,
+                               cookie, 2, EnumSet.of(SIZE), (name, attrs) -> names.add(name));
+        assertThat(names, contains("e"));
+        assertThat(cookie, is(nullValue()));
+    }
+
+    private void process(PnfsBatchMessage batch)
+    {
+        batch.setReplyRequired(false);
+        _pnfsManager.processPnfsMessage(null, batch);
+        assertThat(batch.getReturnCode(), is(0));
+    }
+
     private void assertNotExists(String path) throws ChimeraFsException
     {
         try {
@@ -678,6 +808,7 @@ public class PnfsManagerTest
     {
         _pnfsManager.shutdown();
         _fs.close();
+        _dataSource.close();
         _conn.createStatement().execute("SHUTDOWN;");
         _conn.close();
     }
@@ -329,6 +329,8 @@ public class FtpDoorSettings
 
     public PnfsHandler createPnfsHandler(CellEndpoint cellEndpoint)
     {
-        return new PnfsHandler(new CellStub(cellEndpoint, pnfsManager, pnfsTimeout, pnfsTimeoutUnit));
+        PnfsHandler handler = new PnfsHandler(new CellStub(cellEndpoint, pnfsManager, pnfsTimeout, pnfsTimeoutUnit));
+        handler.setLagTolerant(true);
+        return handler;
     }
 }
\ No newline at end of file
@@ -26,6 +26,33 @@ public class PoolCostInfo implements Serializable {
         _space = new PoolSpaceInfo(0, 0, 0, 0);
     }
 
+    /**
+     * Creates a deep copy of the given cost information.
+     */
+    public PoolCostInfo(PoolCostInfo info)
+    {
+        _poolName = info._poolName;
+        _defaultQueueName = info._defaultQueueName;
+        _store = copyOf(info._store);
+        _restore = copyOf(info._restore);
+        _mover = copyOf(info._mover);
+        _p2p = copyOf(info._p2p);
+        _p2pClient = copyOf(info._p2pClient);
+        for (NamedPoolQueueInfo queue : info._extendedMoverHash.values()) {
+            _extendedMoverHash.put(queue.getName(), new NamedPoolQueueInfo(queue.getName(), queue));
+        }
+        _space = new PoolSpaceInfo(info._space);
+        _moverCostFactor = info._moverCostFactor;
+    }
+
+    private PoolQueueInfo copyOf(PoolQueueInfo queue)
+    {
+        return (queue == null)
+               ? null
+               : new PoolQueueInfo(queue.getActive(), queue.getMaxActive(), queue.getQueued(),
+                                   queue.getReaders(), queue.getWriters());
+    }
+
     public String getPoolName(){ return _poolName ; }
     public class NamedPoolQueueInfo extends PoolQueueInfo {
 
@@ -133,6 +160,17 @@ public class PoolCostInfo implements Serializable {
            _removable = removable ;
            _lru       = lru ;
         }
+        private PoolSpaceInfo(PoolSpaceInfo space)
+        {
+            _total     = space._total;
+            _free      = space._free;
+            _precious  = space._precious;
+            _removable = space._removable;
+            _lru       = space._lru;
+            _gap       = space._gap;
+            _breakEven = space._breakEven;
+        }
+
         public void setParameter( double breakEven , long gap ){
            _breakEven = breakEven ;
            _gap       = gap ;
@@ -62,6 +62,15 @@ public class MoverInfoMessage extends PnfsFileInfoMessage
         return _connectionTime;
     }
 
+    /**
+     * Returns the average throughput of the transfer in bytes per second,
+     * or zero if no time was spent transferring data.
+     */
+    public long getThroughput()
+    {
+        return (_connectionTime > 0) ? _dataTransferred * 1000 / _connectionTime : 0;
+    }
+
     public boolean isFileCreated()
     {
         return _fileCreated;
@@ -24,6 +24,7 @@ public class PnfsMessage extends Message {
     private Restriction _restriction = Restrictions.none();
 
     private Set<AccessMask> _mask = Collections.emptySet();
+    private boolean _isLagTolerant;
 
     private static final long serialVersionUID = -3686370854772807059L;
 
@@ -69,6 +70,21 @@ public class PnfsMessage extends Message {
         return _restriction;
     }
 
+    /**
+     * Marks a request that does not modify the name space as tolerating
+     * results that lag behind recent modifications. PnfsManager may serve
+     * such requests from a read replica of the name space database.
+     */
+    public void setLagTolerant(boolean isLagTolerant)
+    {
+        _isLagTolerant = isLagTolerant;
+    }
+
+    public boolean isLagTolerant()
+    {
+        return _isLagTolerant;
+    }
+
     @Override
     public String toString(){
         return _pnfsId==null?
@@ -0,0 +1,55 @@
+package org.dcache.vehicles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PnfsMessage;
+
+/**
+ * Vehicle carrying several requests to PnfsManager, which are processed
+ * together. Requests that only differ in the file they apply to, such as
+ * adding the same cache location to many files, are executed as a single
+ * name space operation.
+ *
+ * All requests are processed on behalf of the subject and restriction of
+ * the batch. Each request carries its own return code and result; the
+ * return code of the batch only reflects failures of the batch as a whole.
+ * Requests in a batch are not ordered with respect to other messages sent
+ * to PnfsManager.
+ */
+public class PnfsBatchMessage extends PnfsMessage
+{
+    private static final long serialVersionUID = 4203648129734419267L;
+
+    private final List<PnfsMessage> _messages;
+
+    public PnfsBatchMessage(List<? extends PnfsMessage> messages)
+    {
+        _messages = new ArrayList<>(messages);
+        setReplyRequired(true);
+    }
+
+    public List<PnfsMessage> getMessages()
+    {
+        return _messages;
+    }
+
+    @Override
+    public boolean invalidates(Message message)
+    {
+        return _messages.stream().anyMatch(m -> m.invalidates(message));
+    }
+
+    @Override
+    public boolean fold(Message message)
+    {
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Batch of " + _messages.size() + " requests";
+    }
+}
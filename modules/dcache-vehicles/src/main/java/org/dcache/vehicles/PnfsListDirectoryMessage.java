@@ -37,6 +37,15 @@ public class PnfsListDirectoryMessage extends PnfsMessage
     private final Set<FileAttribute> _requestedAttributes;
     private Collection<DirectoryEntry> _entries = new ArrayList<>();
 
+    /**
+     * For listing a directory page by page: the name after which to
+     * continue, the maximum number of entries of the page, and the
+     * cookie for the next page provided with the final reply.
+     */
+    private String _cookie;
+    private int _limit;
+    private String _nextCookie;
+
     /**
      * The last message has the following field set to true and a non-zero
      * message count;
@@ -94,6 +103,58 @@ public class PnfsListDirectoryMessage extends PnfsMessage
         }
     }
 
+    /**
+     * Requests a single page of the directory listing. Entries are ordered
+     * by name and the listing continues after the entry identified by the
+     * cookie. The final reply provides the cookie for the next page.
+     *
+     * @param cookie Cookie of the previous page, or null for the first page
+     * @param limit Maximum number of entries of the page
+     */
+    public void setPage(String cookie, int limit)
+    {
+        _cookie = cookie;
+        _limit = limit;
+    }
+
+    /** Returns the cookie identifying where to continue listing. */
+    public String getCookie()
+    {
+        return _cookie;
+    }
+
+    /**
+     * Returns the maximum number of entries of the page, or zero if the
+     * complete directory is to be listed.
+     */
+    public int getLimit()
+    {
+        return _limit;
+    }
+
+    public boolean isPaged()
+    {
+        return _limit > 0;
+    }
+
+    /**
+     * Sets the cookie for listing the next page, or null if the listing
+     * is complete.
+     */
+    public void setNextCookie(String cookie)
+    {
+        _nextCookie = cookie;
+    }
+
+    /**
+     * Returns the cookie for listing the next page, or null if the listing
+     * is complete.
+     */
+    public String getNextCookie()
+    {
+        return _nextCookie;
+    }
+
     /** True if and only if the reply should include file meta data. */
     public Set<FileAttribute> getRequestedAttributes()
     {
@@ -428,6 +428,7 @@ public class DcacheResourceFactory
     public void setPnfsStub(CellStub stub)
     {
         _pnfs = new PnfsHandler(stub);
+        _pnfs.setLagTolerant(true);
     }
 
     /**
@@ -5,12 +5,20 @@ import com.google.common.collect.Range;
 import javax.annotation.Nullable;
 import javax.security.auth.Subject;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 import diskCacheV111.util.AccessLatency;
 import diskCacheV111.util.CacheException;
+import diskCacheV111.util.FileNotFoundCacheException;
 import diskCacheV111.util.FsPath;
+import diskCacheV111.util.PermissionDeniedCacheException;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.util.RetentionPolicy;
 
@@ -193,6 +201,85 @@ public interface NameSpaceProvider
                                      Set<FileAttribute> attr)
         throws CacheException;
 
+    /**
+     * Add a cache location to several files. The default implementation
+     * adds the location to one file at a time; implementations may add it
+     * to all files in a single operation.
+     *
+     * @param subject Subject of user who invoked this method.
+     * @param pnfsIds of the files
+     * @param cacheLocation the new location
+     * @return the files that do not exist
+     * @throws CacheException
+     */
+    default Collection<PnfsId> addCacheLocation(Subject subject, Collection<PnfsId> pnfsIds,
+                                                String cacheLocation)
+        throws CacheException
+    {
+        List<PnfsId> missing = new ArrayList<>();
+        for (PnfsId pnfsId : pnfsIds) {
+            try {
+                addCacheLocation(subject, pnfsId, cacheLocation);
+            } catch (FileNotFoundCacheException e) {
+                missing.add(pnfsId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Clear a cache location of several files. The default implementation
+     * clears the location of one file at a time; implementations may clear
+     * it from all files in a single operation.
+     *
+     * @param subject Subject of user who invoked this method.
+     * @param pnfsIds of the files
+     * @param cacheLocation the location to remove
+     * @param removeIfLast remove entry from namespace if last known location is removed
+     * @return the files that do not exist
+     * @throws CacheException
+     */
+    default Collection<PnfsId> clearCacheLocation(Subject subject, Collection<PnfsId> pnfsIds,
+                                                  String cacheLocation, boolean removeIfLast)
+        throws CacheException
+    {
+        List<PnfsId> missing = new ArrayList<>();
+        for (PnfsId pnfsId : pnfsIds) {
+            try {
+                clearCacheLocation(subject, pnfsId, cacheLocation, removeIfLast);
+            } catch (FileNotFoundCacheException e) {
+                missing.add(pnfsId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Get the attributes defined by <code>attr</code> of several files. Files
+     * that do not exist or whose attributes the subject is not allowed to
+     * read are absent from the result; callers query them individually to
+     * learn the reason. The default implementation queries one file at a
+     * time; implementations may query all files in a single operation.
+     *
+     * @param subject Subject of user who invoked this method.
+     * @param pnfsIds of the files
+     * @param attr array of requested attributes
+     * @return the attributes of the files
+     */
+    default Map<PnfsId, FileAttributes> getFileAttributes(Subject subject, Collection<PnfsId> pnfsIds,
+                                                          Set<FileAttribute> attr)
+        throws CacheException
+    {
+        Map<PnfsId, FileAttributes> attributes = new HashMap<>();
+        for (PnfsId pnfsId : pnfsIds) {
+            try {
+                attributes.put(pnfsId, getFileAttributes(subject, pnfsId, attr));
+            } catch (FileNotFoundCacheException | PermissionDeniedCacheException ignored) {
+            }
+        }
+        return attributes;
+    }
+
     /**
      * Set files attributes defined by <code>attr</code>.
      *
@@ -237,6 +324,46 @@ public interface NameSpaceProvider
               Set<FileAttribute> attrs, ListHandler handler)
         throws CacheException;
 
+    /**
+     * Lists a page of a directory. Entries are ordered by name and the
+     * listing continues after the entry identified by the cookie. Unlike
+     * ranges, cookies are stable under concurrent modifications of the
+     * directory: listing all pages covers every entry that existed for the
+     * whole duration of the listing.
+     *
+     * The default implementation lists the complete directory and keeps
+     * the entries of the page in memory.
+     *
+     * @param subject Subject of user who invoked this method
+     * @param path Path to directory to list
+     * @param glob Pattern to limit the result set; may be null
+     * @param cookie Cookie returned for the previous page, or null for the first page
+     * @param limit Maximum number of entries of the page
+     * @param attrs The file attributes to query for each entry
+     * @param handler Handler called for each entry
+     * @return the cookie for the next page, or null if the listing is complete
+     */
+    default String list(Subject subject, String path, Glob glob, String cookie, int limit,
+                        Set<FileAttribute> attrs, ListHandler handler)
+        throws CacheException
+    {
+        NavigableMap<String, FileAttributes> page = new TreeMap<>();
+        boolean[] isTruncated = new boolean[1];
+        list(subject, path, glob, Range.all(), attrs, (name, attributes) -> {
+            if (cookie == null || name.compareTo(cookie) > 0) {
+                page.put(name, attributes);
+                if (page.size() > limit) {
+                    page.pollLastEntry();
+                    isTruncated[0] = true;
+                }
+            }
+        });
+        for (Map.Entry<String, FileAttributes> entry : page.entrySet()) {
+            handler.addEntry(entry.getKey(), entry.getValue());
+        }
+        return isTruncated[0] ? page.lastKey() : null;
+    }
+
     /**
      * Set up a temporary upload location for a file.
      *
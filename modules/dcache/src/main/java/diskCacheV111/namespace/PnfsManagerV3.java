@@ -3,6 +3,10 @@ package diskCacheV111.namespace;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -12,29 +16,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.Iterator;
+import java.util.Formatter;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.security.auth.Subject;
 
+import diskCacheV111.namespace.PnfsRequestQueue.RequestClass;
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.ChecksumFactory;
 import diskCacheV111.util.FileNotFoundCacheException;
@@ -83,6 +91,7 @@ import org.dcache.auth.attributes.Activity;
 import org.dcache.auth.attributes.Restriction;
 import org.dcache.cells.CellStub;
 import org.dcache.chimera.UnixPermission;
+import org.dcache.commons.stats.LatencyHistogram;
 import org.dcache.commons.stats.RequestCounters;
 import org.dcache.commons.stats.RequestExecutionTimeGauges;
 import org.dcache.namespace.FileAttribute;
@@ -95,6 +104,7 @@ import org.dcache.util.ChecksumType;
 import org.dcache.util.MathUtils;
 import org.dcache.util.PrefixMap;
 import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsBatchMessage;
 import org.dcache.vehicles.PnfsCreateSymLinkMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 import org.dcache.vehicles.PnfsListDirectoryMessage;
@@ -102,6 +112,7 @@ import org.dcache.vehicles.PnfsRemoveChecksumMessage;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
 import static org.dcache.acl.enums.AccessType.*;
 import static org.dcache.auth.Subjects.ROOT;
 import static org.dcache.auth.attributes.Activity.*;
@@ -116,14 +127,22 @@ public class PnfsManagerV3
 
     private static final int THRESHOLD_DISABLED = 0;
 
-    private static final CellMessage SHUTDOWN_SENTINEL = new CellMessage();
-
     private final Random _random = new Random(System.currentTimeMillis());
 
     private final RequestExecutionTimeGauges<Class<? extends PnfsMessage>> _gauges =
         new RequestExecutionTimeGauges<>("PnfsManagerV3");
     private final RequestCounters<Class<?>> _foldedCounters =
         new RequestCounters<>("PnfsManagerV3.Folded");
+    private final RequestCounters<Class<?>> _foldedOnArrivalCounters =
+        new RequestCounters<>("PnfsManagerV3.FoldedOnArrival");
+    private final RequestCounters<Class<?>> _foldableCounters =
+        new RequestCounters<>("PnfsManagerV3.Foldable");
+    private final Map<RequestClass, LatencyHistogram> _waitTimes = new EnumMap<>(RequestClass.class);
+    {
+        for (RequestClass requestClass : RequestClass.values()) {
+            _waitTimes.put(requestClass, new LatencyHistogram());
+        }
+    }
 
     /**
      * Cache of path prefix to database IDs mappings.
@@ -151,6 +170,8 @@ public class PnfsManagerV3
     private int _queueMaxSize;
     private int _listThreads;
     private long _logSlowThreshold;
+    private final Map<RequestClass, Long> _latencyTargets = new EnumMap<>(RequestClass.class);
+    private TimeUnit _latencyTargetUnit = TimeUnit.MILLISECONDS;
 
     /**
      * Whether to use folding.
@@ -161,13 +182,13 @@ public class PnfsManagerV3
      * Queues for list operations. There is one queue per thread
      * group.
      */
-    private BlockingQueue<CellMessage>[] _listQueues;
+    private PnfsRequestQueue[] _listQueues;
 
     /**
      * Tasks queues used for messages that do not operate on cache
      * locations.
      */
-    private BlockingQueue<CellMessage>[] _fifos;
+    private PnfsRequestQueue[] _fifos;
 
     /**
      * Executor for ProcessThread instances.
@@ -270,6 +291,31 @@ public class PnfsManagerV3
         return _nameSpaceProvider;
     }
 
+    public void setLookupLatencyTarget(long target)
+    {
+        _latencyTargets.put(RequestClass.LOOKUP, target);
+    }
+
+    public void setMutationLatencyTarget(long target)
+    {
+        _latencyTargets.put(RequestClass.MUTATION, target);
+    }
+
+    public void setListingLatencyTarget(long target)
+    {
+        _latencyTargets.put(RequestClass.LISTING, target);
+    }
+
+    public void setLatencyTargetUnit(TimeUnit unit)
+    {
+        _latencyTargetUnit = unit;
+    }
+
+    private long getLatencyTarget(RequestClass requestClass)
+    {
+        return _latencyTargetUnit.toMillis(_latencyTargets.getOrDefault(requestClass, 0L));
+    }
+
     @Required
     public void setQueueMaxSize(int maxSize)
     {
@@ -307,14 +353,10 @@ public class PnfsManagerV3
     {
         _stub = new CellStub(getCellEndpoint());
 
-        _fifos = new BlockingQueue[_threads * _threadGroups];
+        _fifos = new PnfsRequestQueue[_threads * _threadGroups];
         _log.info("Starting {} threads", _fifos.length);
         for (int i = 0; i < _fifos.length; i++) {
-            if (_queueMaxSize > 0) {
-                _fifos[i] = new LinkedBlockingQueue<>(_queueMaxSize);
-            } else {
-                _fifos[i] = new LinkedBlockingQueue<>();
-            }
+            _fifos[i] = new PnfsRequestQueue(_queueMaxSize, _canFold, this::getLatencyTarget);
             executor.execute(new ProcessThread(_fifos[i]));
         }
 
@@ -323,9 +365,9 @@ public class PnfsManagerV3
          * list operations are read only and thus there is no need
          * to serialize the operations.
          */
-        _listQueues = new BlockingQueue[_threadGroups];
+        _listQueues = new PnfsRequestQueue[_threadGroups];
         for (int i = 0; i < _threadGroups; i++) {
-            _listQueues[i] = new LinkedBlockingQueue<>();
+            _listQueues[i] = new PnfsRequestQueue(0, false, this::getLatencyTarget);
             for (int j = 0; j < _listThreads; j++) {
                 executor.execute(new ProcessThread(_listQueues[i]));
             }
@@ -339,11 +381,12 @@ public class PnfsManagerV3
         MoreExecutors.shutdownAndAwaitTermination(executor, 1, TimeUnit.SECONDS);
     }
 
-    private void drainQueues(BlockingQueue<CellMessage>[] queues)
+    private void drainQueues(PnfsRequestQueue[] queues)
     {
         String error = "Name space is shutting down.";
 
-        for (BlockingQueue<CellMessage> queue : queues) {
+        for (PnfsRequestQueue queue : queues) {
+            queue.close();
             ArrayList<CellMessage> drained = new ArrayList<>();
             queue.drainTo(drained);
             for (CellMessage envelope : drained) {
@@ -354,7 +397,6 @@ public class PnfsManagerV3
                     sendMessage(envelope);
                 }
             }
-            queue.offer(SHUTDOWN_SENTINEL);
         }
     }
 
@@ -390,6 +432,46 @@ public class PnfsManagerV3
         pw.println( "Statistics:" ) ;
         pw.println(_gauges.toString());
         pw.println(_foldedCounters.toString());
+        pw.println(getFoldingHitRates());
+        pw.println(getWaitTimes());
+    }
+
+    private String getWaitTimes()
+    {
+        StringBuilder sb = new StringBuilder();
+        try (Formatter formatter = new Formatter(sb)) {
+            formatter.format("%-24s %9s %9s %9s %9s %9s %9s", "PnfsManagerV3.QueueWait", "target", "requests",
+                             "50%", "90%", "99%", "max");
+            for (RequestClass requestClass : RequestClass.values()) {
+                LatencyHistogram histogram = _waitTimes.get(requestClass);
+                formatter.format("\n  %-22s %9s %9d %9s %9s %9s %9s", requestClass.name().toLowerCase(),
+                                 getLatencyTarget(requestClass) + " ms",
+                                 histogram.getCount(),
+                                 histogram.getPercentile(50) + " ms", histogram.getPercentile(90) + " ms",
+                                 histogram.getPercentile(99) + " ms", histogram.getMax() + " ms");
+            }
+        }
+        return sb.toString();
+    }
+
+    private String getFoldingHitRates()
+    {
+        StringBuilder sb = new StringBuilder();
+        try (Formatter formatter = new Formatter(sb)) {
+            formatter.format("%-36s %9s %9s %9s", "PnfsManagerV3.FoldingHitRate", "foldable", "arrival", "hit rate");
+            List<Class<?>> types;
+            synchronized (_foldableCounters) {
+                types = Ordering.usingToString().sortedCopy(_foldableCounters.keySet());
+            }
+            for (Class<?> type : types) {
+                int foldable = _foldableCounters.getCounterRequests(type);
+                int folded = _foldedCounters.getCounterRequests(type);
+                int onArrival = _foldedOnArrivalCounters.getCounterRequests(type);
+                formatter.format("\n  %-34s %9d %9d %8.1f%%", type.getSimpleName(), foldable, onArrival,
+                                 (foldable == 0) ? 0.0 : 100.0 * folded / foldable);
+            }
+        }
+        return sb.toString();
     }
 
     @Command(name = "pnfsidof",
@@ -973,8 +1055,8 @@ public class PnfsManagerV3
         if (queueId < 0 || queueId >= _fifos.length) {
             throw new IllegalArgumentException(" illegal queue #" + queueId);
         }
-        BlockingQueue<CellMessage> fifo = _fifos[queueId];
-        Object[] fifoContent = fifo.toArray();
+        PnfsRequestQueue fifo = _fifos[queueId];
+        Object[] fifoContent = fifo.toList().toArray();
 
         _log.warn("PnfsManager thread #" + queueId + " queue dump (" +fifoContent.length+ "):");
 
@@ -1155,6 +1237,191 @@ public class PnfsManagerV3
 
     }
 
+    /**
+     * Processes the requests of a batch. Requests to add or clear cache
+     * locations and to get file attributes by PNFS ID are grouped by their
+     * arguments and each group is executed as a single name space operation.
+     * Other requests are processed one at a time.
+     *
+     * The batch is not processed in a transaction of its own. Instead every
+     * group and every other request is processed in a separate transaction,
+     * such that a failing request does not roll back the others.
+     */
+    private void processBatch(CellMessage envelope, PnfsBatchMessage batch)
+    {
+        ListMultimap<String, PnfsAddCacheLocationMessage> adds = ArrayListMultimap.create();
+        ListMultimap<String, PnfsClearCacheLocationMessage> clears = ArrayListMultimap.create();
+        ListMultimap<String, PnfsClearCacheLocationMessage> clearsIfLast = ArrayListMultimap.create();
+        ListMultimap<Set<FileAttribute>, PnfsGetFileAttributes> gets = ArrayListMultimap.create();
+
+        for (PnfsMessage message : batch.getMessages()) {
+            message.setSubject(batch.getSubject());
+            message.setRestriction(batch.getRestriction());
+            try {
+                if (message instanceof PnfsListDirectoryMessage ||
+                        message instanceof PoolFileFlushedMessage ||
+                        message instanceof PnfsBatchMessage) {
+                    message.setFailed(CacheException.INVALID_ARGS,
+                                      message.getClass().getSimpleName() + " is not supported in a batch");
+                } else if (message.getPnfsId() == null) {
+                    processBatchedMessage(envelope, message);
+                } else if (message instanceof PnfsAddCacheLocationMessage) {
+                    checkMask(message);
+                    checkRestriction(message, UPDATE_METADATA);
+                    PnfsAddCacheLocationMessage add = (PnfsAddCacheLocationMessage) message;
+                    adds.put(add.getPoolName(), add);
+                } else if (message instanceof PnfsClearCacheLocationMessage) {
+                    checkMask(message);
+                    checkRestriction(message, UPDATE_METADATA);
+                    PnfsClearCacheLocationMessage clear = (PnfsClearCacheLocationMessage) message;
+                    (clear.removeIfLast() ? clearsIfLast : clears).put(clear.getPoolName(), clear);
+                } else if (message instanceof PnfsGetFileAttributes) {
+                    checkMask(message);
+                    checkRestriction(message, READ_METADATA);
+                    PnfsGetFileAttributes get = (PnfsGetFileAttributes) message;
+                    gets.put(requestedAttributes(get), get);
+                } else {
+                    processBatchedMessage(envelope, message);
+                }
+            } catch (CacheException e) {
+                message.setFailed(e.getRc(), e.getMessage());
+            }
+        }
+
+        Subject subject = batch.getSubject();
+        adds.asMap().forEach((pool, messages) ->
+                processBatchedGroup(envelope, messages, group -> addCacheLocation(subject, pool, group)));
+        clears.asMap().forEach((pool, messages) ->
+                processBatchedGroup(envelope, messages, group -> clearCacheLocation(subject, pool, false, group)));
+        clearsIfLast.asMap().forEach((pool, messages) ->
+                processBatchedGroup(envelope, messages, group -> clearCacheLocation(subject, pool, true, group)));
+        gets.asMap().forEach((requested, messages) ->
+                processBatchedGroup(envelope, messages, group -> getFileAttributes(subject, requested, group)));
+    }
+
+    /**
+     * Processes a group of batched requests in a single transaction. Should
+     * the transaction fail, e.g. because one of the requests caused it to be
+     * rolled back, then the requests are processed again one at a time.
+     */
+    private <T extends PnfsMessage> void processBatchedGroup(CellMessage envelope, Collection<T> messages,
+                                                             Consumer<Collection<T>> operation)
+    {
+        try {
+            processGroupTransactionally(messages, operation);
+        } catch (TransactionException e) {
+            _log.warn("Name space transaction for {} batched requests failed, retrying individually: {}",
+                      messages.size(), e.getMessage());
+            for (T message : messages) {
+                message.setSucceeded();
+                processBatchedMessage(envelope, message);
+            }
+        }
+    }
+
+    @Transactional
+    private <T extends PnfsMessage> void processGroupTransactionally(Collection<T> messages,
+                                                                     Consumer<Collection<T>> operation)
+    {
+        operation.accept(messages);
+    }
+
+    private void processBatchedMessage(CellMessage envelope, PnfsMessage message)
+    {
+        try {
+            if (!processMessageTransactionally(envelope, message)) {
+                message.setFailed(CacheException.INVALID_ARGS,
+                                  message.getClass().getSimpleName() + " is not supported");
+            }
+        } catch (TransactionException e) {
+            if (message.getReturnCode() == 0) {
+                _log.error("Name space transaction failed: {}", e.getMessage());
+                message.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Name space transaction failed.");
+            }
+        }
+    }
+
+    private void addCacheLocation(Subject subject, String pool, Collection<PnfsAddCacheLocationMessage> messages)
+    {
+        _log.info("addCacheLocation : {} for {} files", pool, messages.size());
+        try {
+            Collection<PnfsId> missing =
+                    new HashSet<>(_nameSpaceProvider.addCacheLocation(subject, pnfsIdsOf(messages), pool));
+            setFailedIfMissing(messages, missing);
+        } catch (CacheException e) {
+            _log.warn("Exception in addCacheLocation: " + e);
+            setFailed(messages, e.getRc(), e.getMessage());
+        } catch (RuntimeException e) {
+            _log.error("Exception in addCacheLocation", e);
+            setFailed(messages, CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Exception in addCacheLocation");
+        }
+    }
+
+    private void clearCacheLocation(Subject subject, String pool, boolean removeIfLast,
+                                    Collection<PnfsClearCacheLocationMessage> messages)
+    {
+        _log.info("clearCacheLocation : {} for {} files", pool, messages.size());
+        try {
+            Collection<PnfsId> missing =
+                    new HashSet<>(_nameSpaceProvider.clearCacheLocation(subject, pnfsIdsOf(messages), pool, removeIfLast));
+            setFailedIfMissing(messages, missing);
+        } catch (CacheException e) {
+            _log.warn("Exception in clearCacheLocation: " + e);
+            setFailed(messages, e.getRc(), e.getMessage());
+        } catch (RuntimeException e) {
+            _log.error("Exception in clearCacheLocation", e);
+            setFailed(messages, CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e.getMessage());
+        }
+    }
+
+    private void getFileAttributes(Subject subject, Set<FileAttribute> requested,
+                                   Collection<PnfsGetFileAttributes> messages)
+    {
+        try {
+            Map<PnfsId, FileAttributes> attributes =
+                    _nameSpaceProvider.getFileAttributes(subject, pnfsIdsOf(messages), requested);
+            for (PnfsGetFileAttributes message : messages) {
+                FileAttributes attrs = attributes.get(message.getPnfsId());
+                if (attrs == null) {
+                    /* Missing or not accessible. The individual request reports why. */
+                    getFileAttributes(message);
+                } else {
+                    try {
+                        completeGetFileAttributes(message, attrs);
+                    } catch (CacheException e) {
+                        _log.warn("Error while retrieving file attributes: " + e.getMessage());
+                        message.setFailed(e.getRc(), e);
+                    }
+                }
+            }
+        } catch (CacheException e) {
+            _log.warn("Error while retrieving file attributes: " + e.getMessage());
+            setFailed(messages, e.getRc(), e);
+        } catch (RuntimeException e) {
+            _log.error("Error while retrieving file attributes: " + e.getMessage(), e);
+            setFailed(messages, CacheException.UNEXPECTED_SYSTEM_EXCEPTION, e);
+        }
+    }
+
+    private static List<PnfsId> pnfsIdsOf(Collection<? extends PnfsMessage> messages)
+    {
+        return messages.stream().map(PnfsMessage::getPnfsId).collect(toList());
+    }
+
+    private static void setFailedIfMissing(Collection<? extends PnfsMessage> messages, Collection<PnfsId> missing)
+    {
+        for (PnfsMessage message : messages) {
+            if (missing.contains(message.getPnfsId())) {
+                message.setFailed(CacheException.FILE_NOT_FOUND, "No such file: " + message.getPnfsId());
+            }
+        }
+    }
+
+    private static void setFailed(Collection<? extends PnfsMessage> messages, int rc, Serializable error)
+    {
+        messages.forEach(m -> m.setFailed(rc, error));
+    }
+
     public void getCacheLocations(PnfsGetCacheLocationsMessage pnfsMessage){
         Subject subject = pnfsMessage.getSubject();
         try {
@@ -1571,11 +1838,23 @@ public class PnfsManagerV3
             ListHandlerImpl handler =
                 new ListHandlerImpl(source, envelope.getUOID(),
                                     msg, initialDelay, delay);
-            _nameSpaceProvider.list(msg.getSubject(), path,
-                                    msg.getPattern(),
-                                    msg.getRange(),
-                                    msg.getRequestedAttributes(),
-                                    handler);
+            if (msg.isPaged()) {
+                if (!msg.getRange().equals(Range.all())) {
+                    throw new InvalidMessageCacheException("Paged listing cannot be combined with a range");
+                }
+                msg.setNextCookie(_nameSpaceProvider.list(msg.getSubject(), path,
+                                                          msg.getPattern(),
+                                                          msg.getCookie(),
+                                                          msg.getLimit(),
+                                                          msg.getRequestedAttributes(),
+                                                          handler));
+            } else {
+                _nameSpaceProvider.list(msg.getSubject(), path,
+                                        msg.getPattern(),
+                                        msg.getRange(),
+                                        msg.getRequestedAttributes(),
+                                        handler);
+            }
             msg.setSucceeded(handler.getMessageCount() + 1);
         } catch (FileNotFoundCacheException | NotDirCacheException e) {
             msg.setFailed(e.getRc(), e.getMessage());
@@ -1591,9 +1870,9 @@ public class PnfsManagerV3
 
     private class ProcessThread implements Runnable
     {
-        private final BlockingQueue<CellMessage> _fifo ;
+        private final PnfsRequestQueue _fifo;
 
-        private ProcessThread(BlockingQueue<CellMessage> fifo)
+        private ProcessThread(PnfsRequestQueue fifo)
         {
             _fifo = fifo;
         }
@@ -1602,59 +1881,102 @@ public class PnfsManagerV3
         public void run()
         {
             try {
-                for (CellMessage message = _fifo.take(); message != SHUTDOWN_SENTINEL; message = _fifo.take()) {
-                    CDC.setMessageContext(message);
-                    try {
-                        /* Discard messages if we are close to their
-                         * timeout (within 10% of the TTL or 10 seconds,
-                         * whatever is smaller)
-                         */
-                        PnfsMessage pnfs = (PnfsMessage) message.getMessageObject();
-                        if (message.getLocalAge() > message.getAdjustedTtl() && useEarlyDiscard(pnfs)) {
-                            _log.warn("Discarding {} because its time to live has been exceeded.",
-                                      pnfs.getClass().getSimpleName());
-                            sendTimeout(message, "TTL exceeded");
-                            continue;
-                        }
-
-                        processPnfsMessage(message, pnfs);
-                        fold(pnfs);
-                    } catch (Throwable e) {
-                        _log.warn("processPnfsMessage: {} : {}", Thread.currentThread().getName(), e);
-                    } finally {
-                        CDC.clearMessageContext();
-                    }
+                for (PnfsRequestQueue.Request request = _fifo.take(); request != null; request = _fifo.take()) {
+                    process(request.getEnvelopes(), null);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
 
-        protected void fold(PnfsMessage message)
+        /**
+         * Processes equal requests in order. A request is answered with the
+         * reply of the preceding request if it can be folded into it.
+         *
+         * @param envelopes requests to process
+         * @param previous processed message preceding the first request, or null
+         */
+        private void process(List<CellMessage> envelopes, PnfsMessage previous)
         {
-            if (_canFold && message.getReturnCode() == 0) {
-                Iterator<CellMessage> i = _fifo.iterator();
-                while (i.hasNext()) {
-                    CellMessage envelope = i.next();
-                    PnfsMessage other =
-                        (PnfsMessage) envelope.getMessageObject();
-
-                    if (other.invalidates(message)) {
-                        break;
-                    }
+            for (CellMessage envelope : envelopes) {
+                PnfsMessage pnfs = (PnfsMessage) envelope.getMessageObject();
+                if (previous != null && previous.getReturnCode() == 0 && pnfs.fold(previous)) {
+                    _foldedOnArrivalCounters.incrementRequests(pnfs.getClass());
+                    folded(envelope, pnfs);
+                } else {
+                    process(envelope, pnfs);
+                    previous = pnfs;
+                }
+            }
+        }
 
-                    if (other.fold(message)) {
-                        _log.info("Folded {}", other.getClass().getSimpleName());
-                        _foldedCounters.incrementRequests(message.getClass());
+        private void process(CellMessage message, PnfsMessage pnfs)
+        {
+            dispatched(message, pnfs);
+            CDC.setMessageContext(message);
+            try {
+                /* The queue serves requests earliest deadline first, and
+                 * no deadline is later than the end of the time to live.
+                 * A request whose time to live ran out while it was
+                 * queued is discarded as the requester gave up on it.
+                 */
+                if (discardIfExpired(message, pnfs)) {
+                    return;
+                }
 
-                        i.remove();
-                        envelope.revertDirection();
+                processPnfsMessage(message, pnfs);
+                fold(pnfs);
+            } catch (Throwable e) {
+                _log.warn("processPnfsMessage: {} : {}", Thread.currentThread().getName(), e);
+            } finally {
+                CDC.clearMessageContext();
+            }
+        }
 
-                        sendMessage(envelope);
-                    }
+        protected void fold(PnfsMessage message)
+        {
+            if (_canFold && message.getReturnCode() == 0) {
+                for (PnfsRequestQueue.Request request : _fifo.fold(message)) {
+                    List<CellMessage> envelopes = request.getEnvelopes();
+                    CellMessage envelope = envelopes.get(0);
+                    PnfsMessage other = (PnfsMessage) envelope.getMessageObject();
+                    folded(envelope, other);
+                    process(envelopes.subList(1, envelopes.size()), other);
                 }
             }
         }
+
+        private void folded(CellMessage envelope, PnfsMessage message)
+        {
+            dispatched(envelope, message);
+            _log.info("Folded {}", message.getClass().getSimpleName());
+            _foldedCounters.incrementRequests(message.getClass());
+            envelope.revertDirection();
+            sendMessage(envelope);
+        }
+
+        private void dispatched(CellMessage envelope, PnfsMessage message)
+        {
+            _waitTimes.get(RequestClass.of(message)).update(envelope.getLocalAge());
+        }
+    }
+
+    /**
+     * Discards a request if its time to live has been exceeded. Called both
+     * when a request arrives and when it is dispatched from a queue, as
+     * requests may expire while waiting for their deadline to come up.
+     *
+     * @return true if the request was discarded, false otherwise
+     */
+    private boolean discardIfExpired(CellMessage envelope, PnfsMessage message)
+    {
+        if (envelope.getLocalAge() > envelope.getAdjustedTtl() && useEarlyDiscard(message)) {
+            _log.warn("Discarding {} because its time to live has been exceeded.",
+                      message.getClass().getSimpleName());
+            sendTimeout(envelope, "TTL exceeded");
+            return true;
+        }
+        return false;
     }
 
     public void messageArrived(CellMessage envelope, PnfsListDirectoryMessage message)
@@ -1664,6 +1986,9 @@ public class PnfsManagerV3
         if (path == null) {
             throw new InvalidMessageCacheException("Missing PNFS id and path");
         }
+        if (discardIfExpired(envelope, message)) {
+            return;
+        }
         int group = pathToThreadGroup(path);
         _log.info("Using list queue [{}] {}", path, group);
         if (!_listQueues[group].offer(envelope)) {
@@ -1674,6 +1999,10 @@ public class PnfsManagerV3
     public void messageArrived(CellMessage envelope, PnfsMessage message)
         throws CacheException
     {
+        if (discardIfExpired(envelope, message)) {
+            return;
+        }
+
         PnfsId pnfsId = message.getPnfsId();
         String path = message.getPnfsPath();
 
@@ -1700,6 +2029,9 @@ public class PnfsManagerV3
         if (!_fifos[index].offer(envelope)) {
             throw new MissingResourceCacheException("PnfsManager queue limit exceeded");
         }
+        if (_canFold && PnfsRequestQueue.isSideEffectFree(message)) {
+            _foldableCounters.incrementRequests(message.getClass());
+        }
     }
 
     @VisibleForTesting
@@ -1707,7 +2039,14 @@ public class PnfsManagerV3
     {
         long ctime = System.currentTimeMillis();
         try {
-            if (!processMessageTransactionally(message, pnfsMessage)) {
+            if (pnfsMessage instanceof PnfsBatchMessage) {
+                /* Batches are split into several transactions. */
+                processBatch(message, (PnfsBatchMessage) pnfsMessage);
+            } else if (isLagTolerant(pnfsMessage)) {
+                if (!processMessageLagTolerantly(message, pnfsMessage)) {
+                    return;
+                }
+            } else if (!processMessageTransactionally(message, pnfsMessage)) {
                 return;
             }
         } catch (TransactionException e) {
@@ -1733,8 +2072,33 @@ public class PnfsManagerV3
         postProcessMessage(message, pnfsMessage);
     }
 
+    /**
+     * Whether a request may be answered with results that lag behind recent
+     * modifications. Only honoured for requests without side effects.
+     */
+    private static boolean isLagTolerant(PnfsMessage message)
+    {
+        return message.isLagTolerant() && PnfsRequestQueue.isSideEffectFree(message) &&
+               !(message instanceof PnfsGetFileAttributes && ((PnfsGetFileAttributes) message).getUpdateAtime());
+    }
+
     @Transactional
     private boolean processMessageTransactionally(CellMessage message, PnfsMessage pnfsMessage)
+    {
+        return processMessage(message, pnfsMessage);
+    }
+
+    /**
+     * Processes a request outside of a transaction, but demarcated as read-only.
+     * This allows the name space provider to use a read replica.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    private boolean processMessageLagTolerantly(CellMessage message, PnfsMessage pnfsMessage)
+    {
+        return processMessage(message, pnfsMessage);
+    }
+
+    private boolean processMessage(CellMessage message, PnfsMessage pnfsMessage)
     {
         if (pnfsMessage instanceof PnfsAddCacheLocationMessage) {
             addCacheLocation((PnfsAddCacheLocationMessage) pnfsMessage);
@@ -1861,8 +2225,16 @@ public class PnfsManagerV3
             envelope.revertDirection();
             sendMessage(envelope);
         }
+        relayLocationModification(message);
+    }
 
-        if (message instanceof PnfsAddCacheLocationMessage) {
+    private void relayLocationModification(PnfsMessage message)
+    {
+        if (message instanceof PnfsBatchMessage) {
+            ((PnfsBatchMessage) message).getMessages().stream()
+                    .filter(m -> m.getReturnCode() == 0)
+                    .forEach(this::relayLocationModification);
+        } else if (message instanceof PnfsAddCacheLocationMessage) {
             PnfsMessage msg = new PnfsAddCacheLocationMessage(message.getPnfsId(),
                             ((PnfsAddCacheLocationMessage) message).getPoolName());
             sendMessage(new CellMessage(_cacheModificationRelay, msg));
@@ -2047,50 +2419,11 @@ public class PnfsManagerV3
             PnfsId pnfsId = populatePnfsId(message);
             checkMask(message);
             checkRestriction(message, READ_METADATA);
-            Set<FileAttribute> requested = message.getRequestedAttributes();
-            if (message.getUpdateAtime() && _atimeGap >= 0) {
-                requested.add(ACCESS_TIME);
-            }
-            if(requested.contains(FileAttribute.STORAGEINFO)) {
-                /*
-                 * TODO: The 'classic' result of getFileAttributes was a
-                 * cobination of fileMetadata + storageInfo. This was
-                 * used to add the owner and group information into
-                 * storageInfo's internal Map. Uid and Gid are used by the
-                 * HSM flush scripts.
-                 *
-                 * This atavism will have to be cut out when HSM
-                 * interface will undestand Subject or FileAttributes
-                 * will be passed to HSM interface.
-                 */
-                requested = EnumSet.copyOf(requested);
-                requested.add(FileAttribute.OWNER);
-                requested.add(FileAttribute.OWNER_GROUP);
-            }
             FileAttributes attrs =
                 _nameSpaceProvider.getFileAttributes(subject,
                                                      pnfsId,
-                                                     requested);
-
-            if (attrs.isDefined(FileAttribute.STORAGEINFO)) {
-                StorageInfo storageInfo = attrs.getStorageInfo();
-                if (storageInfo.getKey("path") == null) {
-                    storageInfo.setKey("path", message.getPnfsPath());
-                }
-                storageInfo.setKey("uid", Integer.toString(attrs.getOwner()));
-                storageInfo.setKey("gid", Integer.toString(attrs.getGroup()));
-            }
-
-            message.setFileAttributes(attrs);
-            message.setSucceeded();
-            if (message.getUpdateAtime() && _atimeGap >= 0) {
-                long now = System.currentTimeMillis();
-                if (attrs.getFileType() == FileType.REGULAR && Math.abs(now - attrs.getAccessTime()) > _atimeGap) {
-                    FileAttributes atimeUpdateAttr = new FileAttributes();
-                    atimeUpdateAttr.setAccessTime(now);
-                    _nameSpaceProvider.setFileAttributes(Subjects.ROOT, pnfsId, atimeUpdateAttr, EnumSet.noneOf(FileAttribute.class));
-                }
-            }
+                                                     requestedAttributes(message));
+            completeGetFileAttributes(message, attrs);
         } catch (FileNotFoundCacheException e){
             message.setFailed(e.getRc(), e);
         } catch (CacheException e) {
@@ -2102,6 +2435,55 @@ public class PnfsManagerV3
         }
     }
 
+    private Set<FileAttribute> requestedAttributes(PnfsGetFileAttributes message)
+    {
+        Set<FileAttribute> requested = message.getRequestedAttributes();
+        if (message.getUpdateAtime() && _atimeGap >= 0) {
+            requested.add(ACCESS_TIME);
+        }
+        if(requested.contains(FileAttribute.STORAGEINFO)) {
+            /*
+             * TODO: The 'classic' result of getFileAttributes was a
+             * cobination of fileMetadata + storageInfo. This was
+             * used to add the owner and group information into
+             * storageInfo's internal Map. Uid and Gid are used by the
+             * HSM flush scripts.
+             *
+             * This atavism will have to be cut out when HSM
+             * interface will undestand Subject or FileAttributes
+             * will be passed to HSM interface.
+             */
+            requested = EnumSet.copyOf(requested);
+            requested.add(FileAttribute.OWNER);
+            requested.add(FileAttribute.OWNER_GROUP);
+        }
+        return requested;
+    }
+
+    private void completeGetFileAttributes(PnfsGetFileAttributes message, FileAttributes attrs)
+        throws CacheException
+    {
+        if (attrs.isDefined(FileAttribute.STORAGEINFO)) {
+            StorageInfo storageInfo = attrs.getStorageInfo();
+            if (storageInfo.getKey("path") == null) {
+                storageInfo.setKey("path", message.getPnfsPath());
+            }
+            storageInfo.setKey("uid", Integer.toString(attrs.getOwner()));
+            storageInfo.setKey("gid", Integer.toString(attrs.getGroup()));
+        }
+
+        message.setFileAttributes(attrs);
+        message.setSucceeded();
+        if (message.getUpdateAtime() && _atimeGap >= 0) {
+            long now = System.currentTimeMillis();
+            if (attrs.getFileType() == FileType.REGULAR && Math.abs(now - attrs.getAccessTime()) > _atimeGap) {
+                FileAttributes atimeUpdateAttr = new FileAttributes();
+                atimeUpdateAttr.setAccessTime(now);
+                _nameSpaceProvider.setFileAttributes(Subjects.ROOT, message.getPnfsId(), atimeUpdateAttr, EnumSet.noneOf(FileAttribute.class));
+            }
+        }
+    }
+
     public void setFileAttributes(PnfsSetFileAttributes message)
     {
         try {
@@ -0,0 +1,564 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.namespace;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import javax.security.auth.Subject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import dmg.cells.nucleus.CellMessage;
+
+import org.dcache.auth.attributes.Restriction;
+import org.dcache.namespace.FileAttribute;
+import org.dcache.vehicles.PnfsBatchMessage;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsListDirectoryMessage;
+
+/**
+ * Queue of PnfsManager requests served by one or more processing threads.
+ *
+ * Requests are scheduled earliest deadline first. The deadline of a request
+ * is its arrival time plus the latency target of its request class, or the
+ * end of its time to live if that is earlier. Lookups thus overtake
+ * mutations and listings that have not waited for long, while no class of
+ * requests is starved. With latency targets of zero, requests are served
+ * in order of arrival.
+ *
+ * A request is only dispatched once all earlier requests that it conflicts
+ * with have been dispatched. Two requests conflict if one invalidates the
+ * other, so mutations of a file are processed in order of arrival and
+ * are never reordered with lookups of the same file.
+ *
+ * The queue maintains indexes that allow requests to be folded without
+ * scanning the queue:
+ *
+ * On arrival, a side effect free request is attached to an equal queued
+ * request (same message type, file, subject, restriction and requested
+ * attributes) unless a request that invalidates it was queued in between.
+ * Attached requests are handed to the processing thread together with the
+ * request they are attached to, and can be answered with its reply.
+ *
+ * After a request has been processed, {@link #fold} finds the queued side
+ * effect free requests of the same file that can be answered with its reply
+ * and that do not wait for a conflicting request. The cost is proportional
+ * to the number of queued requests that may relate to the file rather than
+ * to the length of the queue.
+ *
+ * A request that does not invalidate a request lacking both PNFS ID and
+ * path is assumed not to invalidate any request, and thus to be free of
+ * side effects.
+ */
+class PnfsRequestQueue
+{
+    private static final PnfsMessage ANY_FILE = new PnfsMessage();
+
+    /**
+     * Classes of requests with individual latency targets.
+     */
+    enum RequestClass
+    {
+        LOOKUP, MUTATION, LISTING;
+
+        static RequestClass of(PnfsMessage message)
+        {
+            if (message instanceof PnfsListDirectoryMessage) {
+                return LISTING;
+            }
+            return isSideEffectFree(message) ? LOOKUP : MUTATION;
+        }
+    }
+
+    private static final Comparator<Request> BY_DEADLINE =
+            Comparator.<Request>comparingLong(r -> r._deadline).thenComparingLong(r -> r._sequence);
+
+    private final int _capacity;
+    private final boolean _canFold;
+    private final ToLongFunction<RequestClass> _latencyTargets;
+
+    /** Queued requests in order of arrival. */
+    private final Set<Request> _requests = new LinkedHashSet<>();
+
+    /** Queued requests not waiting for a conflicting request, by deadline. */
+    private final NavigableSet<Request> _ready = new TreeSet<>(BY_DEADLINE);
+
+    /** Queued requests that arriving equal requests may be attached to. */
+    private final Map<FoldKey, Request> _open = new HashMap<>();
+
+    /** Queued side effect free requests. */
+    private final FileIndex<Request> _readers = new FileIndex<>();
+
+    /** Queued requests invalidating other requests, by the file they apply to. */
+    private final FileIndex<Invalidator> _writers = new FileIndex<>();
+
+    private long _sequence;
+    private int _size;
+    private boolean _isClosed;
+
+    /**
+     * Creates a queue serving requests in order of arrival.
+     *
+     * @param capacity maximum number of queued requests, or zero for no limit
+     * @param canFold whether requests are attached to equal queued requests
+     */
+    PnfsRequestQueue(int capacity, boolean canFold)
+    {
+        this(capacity, canFold, c -> 0);
+    }
+
+    /**
+     * @param capacity maximum number of queued requests, or zero for no limit
+     * @param canFold whether requests are attached to equal queued requests
+     * @param latencyTargets latency target in milliseconds of each request class
+     */
+    PnfsRequestQueue(int capacity, boolean canFold, ToLongFunction<RequestClass> latencyTargets)
+    {
+        _capacity = capacity;
+        _canFold = canFold;
+        _latencyTargets = latencyTargets;
+    }
+
+    static boolean isSideEffectFree(PnfsMessage message)
+    {
+        return !message.invalidates(ANY_FILE);
+    }
+
+    /**
+     * Adds a request to the queue.
+     *
+     * @return false if the queue is full or closed, true otherwise
+     */
+    synchronized boolean offer(CellMessage envelope)
+    {
+        if (_isClosed || (_capacity > 0 && _size >= _capacity)) {
+            return false;
+        }
+
+        PnfsMessage message = (PnfsMessage) envelope.getMessageObject();
+        long deadline = deadlineOf(envelope, RequestClass.of(message));
+        if (isSideEffectFree(message)) {
+            FoldKey key = _canFold ? new FoldKey(message) : null;
+            Request open = (key == null) ? null : _open.get(key);
+            if (open != null) {
+                open._envelopes.add(envelope);
+                if (deadline < open._deadline) {
+                    boolean isReady = _ready.remove(open);
+                    open._deadline = deadline;
+                    if (isReady) {
+                        _ready.add(open);
+                    }
+                }
+            } else {
+                Request request = new Request(envelope, _sequence++, deadline, key);
+                for (Invalidator writer : _writers.related(message)) {
+                    if (writer._message.invalidates(message)) {
+                        writer._request.blocks(request);
+                    }
+                }
+                _readers.add(request);
+                if (key != null) {
+                    _open.put(key, request);
+                }
+                add(request);
+            }
+        } else {
+            Request request = new Request(envelope, _sequence++, deadline, null);
+            for (PnfsMessage invalidating : invalidatingMessagesOf(message)) {
+                for (Request reader : _readers.related(invalidating)) {
+                    if (invalidating.invalidates(reader._message)) {
+                        reader.blocks(request);
+                        if (reader._key != null) {
+                            _open.remove(reader._key, reader);
+                        }
+                    }
+                }
+                for (Invalidator writer : _writers.related(invalidating)) {
+                    if (writer._request != request && invalidating.invalidates(writer._message)) {
+                        writer._request.blocks(request);
+                    }
+                }
+                Invalidator invalidator = new Invalidator(invalidating, request);
+                request._invalidators.add(invalidator);
+                _writers.add(invalidator);
+            }
+            add(request);
+        }
+        _size++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Removes the request with the earliest deadline not waiting for a
+     * conflicting request from the queue, waiting for one to become
+     * available if necessary.
+     *
+     * @return the request, or null if the queue has been closed
+     */
+    synchronized Request take() throws InterruptedException
+    {
+        while (_ready.isEmpty()) {
+            if (_isClosed && _requests.isEmpty()) {
+                return null;
+            }
+            wait();
+        }
+        Request request = _ready.first();
+        remove(request);
+        return request;
+    }
+
+    /**
+     * Removes the queued requests that were folded into the given processed
+     * message. Only requests not waiting for a conflicting request are
+     * folded.
+     *
+     * @return the folded requests; their first envelope contains the folded
+     * message, while any other envelope still has to be answered
+     */
+    synchronized List<Request> fold(PnfsMessage message)
+    {
+        List<Request> candidates = new ArrayList<>(_readers.related(message));
+        candidates.sort(BY_DEADLINE);
+
+        List<Request> folded = new ArrayList<>();
+        for (Request request : candidates) {
+            if (request._blockers == 0 && request._message.fold(message)) {
+                remove(request);
+                folded.add(request);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Removes all requests from the queue and adds their envelopes to the
+     * given collection.
+     */
+    synchronized void drainTo(Collection<CellMessage> envelopes)
+    {
+        _requests.forEach(r -> envelopes.addAll(r._envelopes));
+        _requests.clear();
+        _ready.clear();
+        _open.clear();
+        _readers.clear();
+        _writers.clear();
+        _size = 0;
+        notifyAll();
+    }
+
+    /**
+     * Closes the queue. Processing threads terminate once the queue is empty.
+     */
+    synchronized void close()
+    {
+        _isClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of queued requests, including requests attached to
+     * other requests.
+     */
+    synchronized int size()
+    {
+        return _size;
+    }
+
+    synchronized List<CellMessage> toList()
+    {
+        List<CellMessage> envelopes = new ArrayList<>(_size);
+        _requests.forEach(r -> envelopes.addAll(r._envelopes));
+        return envelopes;
+    }
+
+    private long deadlineOf(CellMessage envelope, RequestClass requestClass)
+    {
+        long ttl = envelope.getAdjustedTtl();
+        long remaining = (ttl == Long.MAX_VALUE) ? Long.MAX_VALUE : ttl - envelope.getLocalAge();
+        return System.currentTimeMillis() + Math.min(remaining, _latencyTargets.applyAsLong(requestClass));
+    }
+
+    private void add(Request request)
+    {
+        _requests.add(request);
+        if (request._blockers == 0) {
+            _ready.add(request);
+        }
+    }
+
+    private void remove(Request request)
+    {
+        _requests.remove(request);
+        _ready.remove(request);
+        if (request._key != null) {
+            _open.remove(request._key, request);
+        }
+        if (request._invalidators.isEmpty()) {
+            _readers.remove(request);
+        } else {
+            request._invalidators.forEach(_writers::remove);
+        }
+        for (Request dependent : request._dependents) {
+            if (--dependent._blockers == 0) {
+                _ready.add(dependent);
+            }
+        }
+        _size -= request._envelopes.size();
+    }
+
+    private static List<PnfsMessage> invalidatingMessagesOf(PnfsMessage message)
+    {
+        if (message instanceof PnfsBatchMessage) {
+            List<PnfsMessage> messages = new ArrayList<>();
+            for (PnfsMessage m : ((PnfsBatchMessage) message).getMessages()) {
+                messages.addAll(invalidatingMessagesOf(m));
+            }
+            return messages;
+        }
+        return isSideEffectFree(message) ? Collections.emptyList() : Collections.singletonList(message);
+    }
+
+    /**
+     * A queued request together with the equal requests attached to it.
+     */
+    static class Request extends FileEntry
+    {
+        private final List<CellMessage> _envelopes = new ArrayList<>(1);
+        private final PnfsMessage _message;
+        private final long _sequence;
+        private final FoldKey _key;
+        private final List<Invalidator> _invalidators = new ArrayList<>(0);
+
+        /** Later requests waiting for this request to be dispatched. */
+        private final Set<Request> _dependents = new LinkedHashSet<>(0);
+
+        /** Number of earlier requests this request waits for. */
+        private int _blockers;
+
+        private long _deadline;
+
+        private Request(CellMessage envelope, long sequence, long deadline, FoldKey key)
+        {
+            super((PnfsMessage) envelope.getMessageObject());
+            _envelopes.add(envelope);
+            _message = (PnfsMessage) envelope.getMessageObject();
+            _sequence = sequence;
+            _deadline = deadline;
+            _key = key;
+        }
+
+        private void blocks(Request dependent)
+        {
+            if (_dependents.add(dependent)) {
+                dependent._blockers++;
+            }
+        }
+
+        /**
+         * Returns the envelopes of the request in order of arrival. The
+         * first envelope is the one the request was queued with.
+         */
+        List<CellMessage> getEnvelopes()
+        {
+            return _envelopes;
+        }
+    }
+
+    private static class Invalidator extends FileEntry
+    {
+        private final PnfsMessage _message;
+        private final Request _request;
+
+        private Invalidator(PnfsMessage message, Request request)
+        {
+            super(message);
+            _message = message;
+            _request = request;
+        }
+    }
+
+    /**
+     * Identifies requests of which one can be answered with the reply of the
+     * other.
+     */
+    private static class FoldKey
+    {
+        private final Class<?> _type;
+        private final PnfsId _pnfsId;
+        private final String _path;
+        private final Subject _subject;
+        private final Restriction _restriction;
+        private final Set<FileAttribute> _attributes;
+
+        private FoldKey(PnfsMessage message)
+        {
+            _type = message.getClass();
+            _pnfsId = message.getPnfsId();
+            _path = message.getPnfsPath();
+            _subject = message.getSubject();
+            _restriction = message.getRestriction();
+            _attributes = (message instanceof PnfsGetFileAttributes)
+                          ? ((PnfsGetFileAttributes) message).getRequestedAttributes()
+                          : null;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FoldKey)) {
+                return false;
+            }
+            FoldKey other = (FoldKey) o;
+            return _type.equals(other._type) &&
+                   Objects.equals(_pnfsId, other._pnfsId) &&
+                   Objects.equals(_path, other._path) &&
+                   Objects.equals(_subject, other._subject) &&
+                   Objects.equals(_restriction, other._restriction) &&
+                   Objects.equals(_attributes, other._attributes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(_type, _pnfsId, _path, _attributes);
+        }
+    }
+
+    /**
+     * Entry of a file index. The PNFS ID and path are captured when the
+     * entry is created, as processing may later add them to the message.
+     */
+    private abstract static class FileEntry
+    {
+        final PnfsId _entryPnfsId;
+        final String _entryPath;
+
+        private FileEntry(PnfsMessage message)
+        {
+            _entryPnfsId = message.getPnfsId();
+            _entryPath = message.getPnfsPath();
+        }
+    }
+
+    /**
+     * Index of entries by the PNFS ID and path of the file they apply to.
+     */
+    private static class FileIndex<T extends FileEntry>
+    {
+        private final Multimap<PnfsId, T> _byPnfsId = HashMultimap.create();
+        private final Multimap<String, T> _byPath = HashMultimap.create();
+        private final Set<T> _withoutPath = new HashSet<>();
+        private final Set<T> _withoutPnfsId = new HashSet<>();
+        private final Set<T> _withoutFile = new HashSet<>();
+
+        void add(T entry)
+        {
+            if (entry._entryPnfsId != null) {
+                _byPnfsId.put(entry._entryPnfsId, entry);
+            }
+            if (entry._entryPath != null) {
+                _byPath.put(entry._entryPath, entry);
+            }
+            setOf(entry).ifPresent(s -> s.add(entry));
+        }
+
+        void remove(T entry)
+        {
+            if (entry._entryPnfsId != null) {
+                _byPnfsId.remove(entry._entryPnfsId, entry);
+            }
+            if (entry._entryPath != null) {
+                _byPath.remove(entry._entryPath, entry);
+            }
+            setOf(entry).ifPresent(s -> s.remove(entry));
+        }
+
+        void clear()
+        {
+            _byPnfsId.clear();
+            _byPath.clear();
+            _withoutPath.clear();
+            _withoutPnfsId.clear();
+            _withoutFile.clear();
+        }
+
+        /**
+         * Returns the entries whose file may be the file of the given
+         * message: entries with the same PNFS ID or path, and entries that
+         * cannot be compared to the message because one refers to the file
+         * by PNFS ID and the other by path.
+         */
+        Set<T> related(PnfsMessage message)
+        {
+            PnfsId pnfsId = message.getPnfsId();
+            String path = message.getPnfsPath();
+            Set<T> related = new HashSet<>();
+            if (pnfsId != null) {
+                related.addAll(_byPnfsId.get(pnfsId));
+            }
+            if (path != null) {
+                related.addAll(_byPath.get(path));
+            }
+            if (pnfsId == null && path == null) {
+                related.addAll(_byPnfsId.values());
+                related.addAll(_byPath.values());
+            } else if (pnfsId == null) {
+                related.addAll(_withoutPath);
+            } else if (path == null) {
+                related.addAll(_withoutPnfsId);
+            }
+            related.addAll(_withoutFile);
+            return related;
+        }
+
+        private Optional<Set<T>> setOf(T entry)
+        {
+            if (entry._entryPnfsId == null && entry._entryPath == null) {
+                return Optional.of(_withoutFile);
+            } else if (entry._entryPath == null) {
+                return Optional.of(_withoutPath);
+            } else if (entry._entryPnfsId == null) {
+                return Optional.of(_withoutPnfsId);
+            }
+            return Optional.empty();
+        }
+    }
+}
@@ -8,14 +8,21 @@ import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import diskCacheV111.pools.CostCalculatable;
@@ -47,6 +54,16 @@ import org.dcache.poolmanager.PoolInfo;
 import org.dcache.util.Args;
 import org.dcache.vehicles.FileAttributes;
 
+/**
+ * Cost module maintaining the cost of pools from pool heartbeats and from
+ * predictions based on the messages pool manager sends and receives.
+ *
+ * The module does not lock. The information about a pool is never modified
+ * once published: updates replace the entry of the pool atomically with an
+ * updated copy, such that readers always observe consistent cost
+ * information. Entries are additionally kept ordered by performance cost,
+ * allowing percentile costs to be determined without sorting all pools.
+ */
 public class CostModuleV1
     implements Serializable,
                CostModule,
@@ -59,16 +76,43 @@ public class CostModuleV1
 
     private static final long serialVersionUID = -267023006449629909L;
 
-    private final Map<String, Entry> _hash = new HashMap<>() ;
-    private boolean _cachedPercentileCostCutIsValid;
-    private double _cachedPercentileCostCut;
-    private double _cachedPercentileFraction;
+    private static final Comparator<Entry> COST_ORDER =
+            Comparator.comparingDouble(Entry::getPerformanceCost)
+                    .thenComparing(e -> e.getPoolCostInfo().getPoolName());
+
+    /**
+     * Entries by pool name. Always a ConcurrentHashMap, as entries are replaced
+     * by atomic compute operations.
+     */
+    private Map<String, Entry> _hash = new ConcurrentHashMap<>();
+
+    /**
+     * Entries of _hash ordered by performance cost. The entry of a pool is
+     * only replaced while holding the lock of its mapping in _hash.
+     */
+    private transient NavigableSet<Entry> _byCost = new ConcurrentSkipListSet<>(COST_ORDER);
+
+    /**
+     * The cached percentile cost cut is valid as long as its generation
+     * matches the current generation. The generation is advanced whenever
+     * a pool is added or removed, or when the cost of a pool crosses the
+     * cached cut.
+     */
+    private transient volatile CostCut _cachedPercentileCostCut;
+    private transient AtomicLong _generation = new AtomicLong();
+
     private transient CellMessageDispatcher _handlers =
         new CellMessageDispatcher("messageToForward");
 
+    /**
+     * Names of pools whose information changed since the last call to
+     * takeModifiedPools.
+     */
+    private transient Set<String> _modified = ConcurrentHashMap.newKeySet();
 
     /**
-     * Information about some specific pool.
+     * Information about some specific pool. The cost information is not
+     * modified after the entry has been added to the cost module.
      */
    private static class Entry implements Serializable
    {
@@ -76,19 +120,47 @@ public class CostModuleV1
 
        private final long timestamp;
        private final PoolCostInfo _info;
-       private double _fakeCpu = -1.0;
+       private transient double _performanceCost;
+       private volatile double _fakeCpu = -1.0;
        private final ImmutableMap<String,String> _tagMap;
        private final CellAddressCore _address;
 
        public Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap)
        {
-           timestamp = System.currentTimeMillis();
+           this(System.currentTimeMillis(), address, info,
+                (tagMap == null)
+                ? ImmutableMap.<String,String>of()
+                : ImmutableMap.copyOf(tagMap));
+       }
+
+       private Entry(long timestamp, CellAddressCore address, PoolCostInfo info,
+                     ImmutableMap<String,String> tagMap)
+       {
+           this.timestamp = timestamp;
            _address = address;
            _info = info;
-           _tagMap =
-               (tagMap == null)
-               ? ImmutableMap.<String,String>of()
-               : ImmutableMap.copyOf(tagMap);
+           _tagMap = tagMap;
+           _performanceCost = CostModuleV1.getPerformanceCost(info);
+       }
+
+       /**
+        * Returns a copy of this entry with the cost information modified
+        * by {@code modification}. This entry is left unmodified.
+        */
+       public Entry modify(Consumer<PoolCostInfo> modification)
+       {
+           PoolCostInfo info = new PoolCostInfo(_info);
+           modification.accept(info);
+           Entry entry = new Entry(timestamp, _address, info, _tagMap);
+           entry._fakeCpu = _fakeCpu;
+           return entry;
+       }
+
+       private void readObject(ObjectInputStream in)
+           throws IOException, ClassNotFoundException
+       {
+           in.defaultReadObject();
+           _performanceCost = CostModuleV1.getPerformanceCost(_info);
        }
 
        public boolean isValid()
@@ -101,6 +173,11 @@ public class CostModuleV1
            return _info;
        }
 
+       public double getPerformanceCost()
+       {
+           return _performanceCost;
+       }
+
        public ImmutableMap<String, String> getTagMap()
        {
            return _tagMap;
@@ -112,58 +189,77 @@ public class CostModuleV1
        }
    }
 
+    private static class CostCut
+    {
+        private final double fraction;
+        private final long generation;
+        private final double cost;
+
+        private CostCut(double fraction, long generation, double cost)
+        {
+            this.fraction = fraction;
+            this.generation = generation;
+            this.cost = cost;
+        }
+    }
+
     public CostModuleV1()
     {
         _handlers.addMessageListener(this);
     }
 
-    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
+    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
     {
         CellAddressCore poolAddress = envelope.getSourceAddress();
         String poolName = msg.getPoolName();
         PoolV2Mode poolMode = msg.getPoolMode();
         PoolCostInfo newInfo = msg.getPoolCostInfo();
-        Entry poolEntry = _hash.get(poolName);
-        boolean isNewPool = poolEntry == null;
 
         /* Whether the pool mentioned in the message should be removed */
         boolean shouldRemovePool = poolMode.getMode() == PoolV2Mode.DISABLED ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT) ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_DEAD);
 
-        if( isNewPool || shouldRemovePool) {
-            _cachedPercentileCostCutIsValid = false;
-        } else {
-            PoolCostInfo currentInfo = poolEntry.getPoolCostInfo();
-            considerInvalidatingCache(currentInfo, newInfo);
-        }
-
         if (shouldRemovePool) {
-            _hash.remove(poolName);
+            _hash.computeIfPresent(poolName, (name, entry) -> replace(name, entry, null));
         } else if (newInfo != null) {
-            _hash.put(poolName, new Entry(poolAddress, newInfo, msg.getTagMap()));
+            Entry newEntry = new Entry(poolAddress, newInfo, msg.getTagMap());
+            _hash.compute(poolName, (name, entry) -> replace(name, entry, newEntry));
         }
     }
 
-    private void considerInvalidatingCache(PoolCostInfo currentInfo, PoolCostInfo newInfo)
+    /**
+     * Replaces the entry of a pool in the cost order. Must only be called
+     * from compute operations on _hash, as these serialize the updates of
+     * any one pool.
+     *
+     * @return the new entry
+     */
+    @Nullable
+    private Entry replace(String poolName, @Nullable Entry oldEntry, @Nullable Entry newEntry)
     {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
+        if (oldEntry != null) {
+            _byCost.remove(oldEntry);
         }
-
-        double currentCost = getPerformanceCost(currentInfo);
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+        if (newEntry != null) {
+            _byCost.add(newEntry);
+        }
+        if (oldEntry == null || newEntry == null) {
+            _generation.incrementAndGet();
+        } else {
+            considerInvalidatingCache(oldEntry.getPerformanceCost(), newEntry.getPerformanceCost());
+        }
+        _modified.add(poolName);
+        return newEntry;
     }
 
-    private void considerInvalidatingCache(double currentCost, PoolCostInfo newInfo)
+    /**
+     * Atomically replaces the cost information of a pool with a modified
+     * copy. Does nothing if the pool is unknown.
+     */
+    private void modify(String poolName, Consumer<PoolCostInfo> modification)
     {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
-        }
-
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+        _hash.computeIfPresent(poolName, (name, entry) -> replace(name, entry, entry.modify(modification)));
     }
 
     /* Check whether we should invalidate the cached.  We must do this when
@@ -174,51 +270,45 @@ public class CostModuleV1
      *                  than the cached value.
      *       o  a pool with cost equal to the cached value assumes a cost less
      *                  than or greater than the cached value.
+     *
+     * The generation is also advanced while no valid cut is cached, as a cut
+     * may currently be calculated from the cost order as it was before this
+     * update.
      */
     private void considerInvalidatingCache(double currentCost, double newCost)
     {
-        if( Math.signum(currentCost-_cachedPercentileCostCut) !=
-            Math.signum(newCost-_cachedPercentileCostCut)) {
-            _cachedPercentileCostCutIsValid = false;
+        CostCut cut = _cachedPercentileCostCut;
+        if (cut == null || cut.generation != _generation.get() ||
+            Math.signum(currentCost - cut.cost) != Math.signum(newCost - cut.cost)) {
+            _generation.incrementAndGet();
         }
     }
 
-    private double getPerformanceCost(PoolCostInfo info)
+    private static double getPerformanceCost(PoolCostInfo info)
     {
         CostCalculatable cost = new CostCalculationV5(info);
         cost.recalculate();
         return cost.getPerformanceCost();
     }
 
-    public synchronized void messageToForward(PoolIoFileMessage msg)
+    private static PoolCostInfo.PoolQueueInfo getMoverQueue(PoolCostInfo costInfo, String requestedQueueName)
     {
-        String poolName = msg.getPoolName();
-        Entry e = _hash.get(poolName);
-        if (e == null) {
-            return;
+        Map<String, NamedPoolQueueInfo> map = costInfo.getExtendedMoverHash();
+        if (map == null) {
+            return costInfo.getMoverQueue();
         }
+        String queueName =
+            (requestedQueueName == null || map.get(requestedQueueName) == null)
+            ? costInfo.getDefaultQueueName()
+            : requestedQueueName;
+        return map.get(queueName);
+    }
 
+    public void messageToForward(PoolIoFileMessage msg)
+    {
+        String poolName = msg.getPoolName();
         String requestedQueueName = msg.getIoQueueName();
 
-        PoolCostInfo costInfo = e.getPoolCostInfo();
-        double currentPerformanceCost = getPerformanceCost(costInfo);
-        Map<String, NamedPoolQueueInfo> map =
-            costInfo.getExtendedMoverHash();
-
-        PoolCostInfo.PoolQueueInfo queue;
-        PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-        if (map == null) {
-            queue = costInfo.getMoverQueue();
-        } else {
-            requestedQueueName =
-                (requestedQueueName == null ||
-                 map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-            queue = map.get(requestedQueueName);
-        }
-
         int diff = 0;
         long pinned = 0;
         FileAttributes attributes = msg.getFileAttributes();
@@ -229,69 +319,41 @@ public class CostModuleV1
             }
         }
 
-        queue.modifyQueue(diff);
-        spaceInfo.modifyPinnedSpace(pinned);
-
-        considerInvalidatingCache(currentPerformanceCost, costInfo);
+        if (diff != 0 || pinned != 0) {
+            int queueDiff = diff;
+            long pinnedDiff = pinned;
+            modify(poolName, costInfo -> {
+                getMoverQueue(costInfo, requestedQueueName).modifyQueue(queueDiff);
+                costInfo.getSpaceInfo().modifyPinnedSpace(pinnedDiff);
+            });
+        }
 
         LOGGER.trace("CostModuleV1 : Mover{} queue of {} modified by {}/{} due to {}",
                      (requestedQueueName == null ? "" : ("(" + requestedQueueName + ")")),
                      poolName, diff, pinned, ((Object) msg).getClass().getName());
     }
 
-    public synchronized void messageToForward(DoorTransferFinishedMessage msg)
+    public void messageToForward(DoorTransferFinishedMessage msg)
     {
         String poolName = msg.getPoolName();
-        Entry e = _hash.get(poolName);
-        if (e == null) {
-            return;
-        }
-
-        PoolCostInfo costInfo = e.getPoolCostInfo();
-        double currentPerformanceCost = getPerformanceCost(costInfo);
         String requestedQueueName = msg.getIoQueueName();
 
-        Map<String, NamedPoolQueueInfo> map =
-            costInfo.getExtendedMoverHash();
-        PoolCostInfo.PoolQueueInfo queue;
-
-        if (map == null) {
-            queue = costInfo.getMoverQueue();
-        } else {
-            requestedQueueName =
-                (requestedQueueName == null) ||
-                (map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-
-            queue = map.get(requestedQueueName);
-        }
-
         int diff = -1;
         long pinned = 0;
 
-        queue.modifyQueue(diff);
-        considerInvalidatingCache(currentPerformanceCost, costInfo);
+        modify(poolName, costInfo -> getMoverQueue(costInfo, requestedQueueName).modifyQueue(diff));
+
         LOGGER.trace("CostModuleV1 : Mover{} queue of {} modified by {}/{} due to {}",
                      (requestedQueueName == null ? "" : ("(" + requestedQueueName + ")")),
                      poolName, diff, pinned, ((Object) msg).getClass().getName());
     }
 
-    public synchronized void messageToForward(PoolFetchFileMessage msg)
+    public void messageToForward(PoolFetchFileMessage msg)
     {
-         String poolName = msg.getPoolName();
-         Entry e = _hash.get(poolName);
-         if (e == null) {
-             return;
-         }
-
-         PoolCostInfo costInfo = e.getPoolCostInfo();
-         double currentPerformanceCost = getPerformanceCost(costInfo);
-         PoolCostInfo.PoolQueueInfo queue = costInfo.getRestoreQueue();
-         PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-         int diff;
-         long pinned;
+        String poolName = msg.getPoolName();
+
+        int diff;
+        long pinned;
         if (msg.isReply()) {
             diff = -1;
             pinned = 0;
@@ -304,93 +366,65 @@ public class CostModuleV1
                 pinned = 0;
             }
         }
-        queue.modifyQueue(diff);
-         spaceInfo.modifyPinnedSpace(pinned);
-         considerInvalidatingCache(currentPerformanceCost, costInfo);
+
+        modify(poolName, costInfo -> {
+            costInfo.getRestoreQueue().modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        });
+
         LOGGER.trace("CostModuleV1 : Restore queue of {} modified by {}/{} due to {}",
                      poolName, diff, pinned, ((Object) msg).getClass().getName());
     }
 
-    public synchronized void messageToForward(PoolMgrSelectPoolMsg msg)
+    public void messageToForward(PoolMgrSelectPoolMsg msg)
     {
-         if (!msg.isReply()) {
-             return;
-         }
-         String poolName = msg.getPoolName();
-         Entry e = _hash.get(poolName);
-         if (e == null) {
-             return;
-         }
-
-         String requestedQueueName = msg.getIoQueueName();
-
-         PoolCostInfo costInfo = e.getPoolCostInfo();
-         double currentPerformanceCost = getPerformanceCost(costInfo);
-         Map<String, NamedPoolQueueInfo> map =
-             costInfo.getExtendedMoverHash();
-         PoolCostInfo.PoolQueueInfo queue;
-         PoolCostInfo.PoolSpaceInfo spaceInfo = costInfo.getSpaceInfo();
-
-         if (map == null) {
-            queue = costInfo.getMoverQueue();
-         } else {
-            requestedQueueName =
-                (requestedQueueName == null) ||
-                (map.get(requestedQueueName) == null)
-                ? costInfo.getDefaultQueueName()
-                : requestedQueueName;
-            queue = map.get(requestedQueueName);
-         }
-
-         int diff = 1;
-         long pinned =
-             (msg instanceof PoolMgrSelectWritePoolMsg) ? ((PoolMgrSelectWritePoolMsg) msg).getPreallocated() : 0;
-         queue.modifyQueue(diff);
-         spaceInfo.modifyPinnedSpace(pinned);
-         considerInvalidatingCache(currentPerformanceCost, costInfo);
-        LOGGER.trace("CostModuleV1 : Mover{} queue of {} modified by {}/{} due to {}",
-                     (requestedQueueName == null ? "" : ("(" + requestedQueueName + ")")),
-                     poolName, diff, pinned, ((Object) msg).getClass().getName());
+        if (!msg.isReply()) {
+            return;
+        }
+        long pinned =
+            (msg instanceof PoolMgrSelectWritePoolMsg) ? ((PoolMgrSelectWritePoolMsg) msg).getPreallocated() : 0;
+        addSelectedTransfer(msg.getPoolName(), msg.getIoQueueName(), pinned);
     }
 
-    public synchronized void messageToForward(Pool2PoolTransferMsg msg)
+    /**
+     * Predicts the cost of a transfer about to be started on a pool as the
+     * result of a pool selection.
+     *
+     * @param poolName the selected pool
+     * @param requestedQueueName the mover queue of the transfer, or null for
+     *                           the default queue
+     * @param pinned space in bytes preallocated to the transfer
+     */
+    public void addSelectedTransfer(String poolName, @Nullable String requestedQueueName, long pinned)
     {
-        String sourceName = msg.getSourcePoolName();
-        Entry source = _hash.get(sourceName);
-        if (source == null) {
-            return;
-        }
+        int diff = 1;
 
-        PoolCostInfo sourceCostInfo = source.getPoolCostInfo();
-        double currentSourcePerformanceCost = getPerformanceCost(sourceCostInfo);
+        modify(poolName, costInfo -> {
+            getMoverQueue(costInfo, requestedQueueName).modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        });
 
-        PoolCostInfo.PoolQueueInfo sourceQueue = sourceCostInfo.getP2pQueue();
+        LOGGER.trace("CostModuleV1 : Mover{} queue of {} modified by {}/{} due to pool selection",
+                     (requestedQueueName == null ? "" : ("(" + requestedQueueName + ")")),
+                     poolName, diff, pinned);
+    }
 
+    public void messageToForward(Pool2PoolTransferMsg msg)
+    {
+        String sourceName = msg.getSourcePoolName();
         String destinationName = msg.getDestinationPoolName();
-        Entry destination = _hash.get(destinationName);
-        if (destination == null) {
+        if (!_hash.containsKey(sourceName) || !_hash.containsKey(destinationName)) {
             return;
         }
 
-        PoolCostInfo destinationCostInfo = destination.getPoolCostInfo();
-        double currentDestinationPerformanceCost =
-            getPerformanceCost(destinationCostInfo);
-
-        PoolCostInfo.PoolQueueInfo destinationQueue =
-            destinationCostInfo.getP2pClientQueue();
-        PoolCostInfo.PoolSpaceInfo destinationSpaceInfo =
-            destinationCostInfo.getSpaceInfo();
-
         int diff = msg.isReply() ? -1 : 1;
         long pinned = msg.getFileAttributes().getSizeIfPresent().or(0L);
 
-        sourceQueue.modifyQueue(diff);
-        destinationQueue.modifyQueue(diff);
-        destinationSpaceInfo.modifyPinnedSpace(pinned);
-
-        considerInvalidatingCache(currentSourcePerformanceCost, sourceCostInfo);
-        considerInvalidatingCache(currentDestinationPerformanceCost,
-                destinationCostInfo);
+        modify(sourceName, costInfo -> costInfo.getP2pQueue().modifyQueue(diff));
+        modify(destinationName, costInfo -> {
+            costInfo.getP2pClientQueue().modifyQueue(diff);
+            costInfo.getSpaceInfo().modifyPinnedSpace(pinned);
+        });
 
         LOGGER.trace("CostModuleV1 : P2P client queue of {} modified by {}/{} due to {}",
                      destinationName, diff, pinned, ((Object) msg).getClass().getName());
@@ -409,43 +443,52 @@ public class CostModuleV1
     }
 
    @Override
-   public synchronized double getPoolsPercentilePerformanceCost(double fraction) {
+   public double getPoolsPercentilePerformanceCost(double fraction) {
 
        if( fraction <= 0 || fraction >= 1) {
            throw new IllegalArgumentException("supplied fraction (" + Double.toString( fraction) +") not between 0 and 1");
        }
 
-       if( !_cachedPercentileCostCutIsValid || _cachedPercentileFraction != fraction) {
-           _cachedPercentileCostCut = calculatePercentileCostCut(fraction);
-           _cachedPercentileFraction = fraction;
-           _cachedPercentileCostCutIsValid = true;
+       CostCut cut = _cachedPercentileCostCut;
+       if (cut == null || cut.fraction != fraction || cut.generation != _generation.get()) {
+           long generation = _generation.get();
+           cut = new CostCut(fraction, generation, calculatePercentileCostCut(fraction));
+           _cachedPercentileCostCut = cut;
        }
 
-       return _cachedPercentileCostCut;
+       return cut.cost;
    }
 
    private double calculatePercentileCostCut(double fraction)
    {
-       if( _hash.isEmpty()) {
+       int size = _hash.size();
+       if (size == 0) {
            LOGGER.debug("no pools available");
            return 0;
        }
 
-       LOGGER.debug("{} pools available", _hash.size());
-
-       double poolCosts[] = new double[_hash.size()];
-
-       int idx=0;
-       for( Entry poolInfo : _hash.values()) {
-           poolCosts[idx] = getPerformanceCost(poolInfo.getPoolCostInfo());
-           idx++;
+       LOGGER.debug("{} pools available", size);
+
+       /* Walk the cost order from whichever end is closer to the percentile. */
+       int index = (int) Math.floor(fraction * size);
+       Iterator<Entry> entries;
+       int steps;
+       if (index < size / 2) {
+           entries = _byCost.iterator();
+           steps = index;
+       } else {
+           entries = _byCost.descendingIterator();
+           steps = size - 1 - index;
        }
 
-       Arrays.sort(poolCosts);
-
-       return poolCosts [ (int) Math.floor(fraction * _hash.size())];
+       double cost = 0;
+       for (int i = 0; i <= steps && entries.hasNext(); i++) {
+           cost = entries.next().getPerformanceCost();
+       }
+       return cost;
    }
 
+
     @Command(name = "cm set debug")
     @Deprecated
     public class SetDebugCommand implements Callable<String>
@@ -503,7 +546,7 @@ public class CostModuleV1
     }
 
    public static final String hh_cm_fake = "<poolName> [off] | [-cpu=<cpuCost>|off]" ;
-   public synchronized String ac_cm_fake_$_1_2( Args args ){
+   public String ac_cm_fake_$_1_2( Args args ){
       String poolName = args.argv(0) ;
       Entry e = _hash.get(poolName);
       if( e == null ) {
@@ -529,7 +572,7 @@ public class CostModuleV1
    }
 
    public static final String hh_xcm_ls = "";
-   public synchronized Object ac_xcm_ls_$_0(Args args)
+   public Object ac_xcm_ls_$_0(Args args)
    {
        CostModulePoolInfoTable reply = new CostModulePoolInfoTable();
        for (Entry e : _hash.values() ){
@@ -539,7 +582,7 @@ public class CostModuleV1
    }
 
    public static final String hh_cm_ls = " -t | -r <pattern> # list all pools";
-   public synchronized String ac_cm_ls_$_0_1(Args args)
+   public String ac_cm_ls_$_0_1(Args args)
    {
        StringBuilder sb = new StringBuilder();
        boolean useTime   = args.hasOption("t");
@@ -555,7 +598,7 @@ public class CostModuleV1
                    if (e.getTagMap() != null) {
                        sb.append("Tag={").append(e.getTagMap()).append("};");
                    }
-                   sb.append(";CC=").append(getPerformanceCost(pool)).append(";");
+                   sb.append(";CC=").append(e.getPerformanceCost()).append(";");
                    sb.append("}").append("\n");
                }
                if (useTime) {
@@ -569,8 +612,9 @@ public class CostModuleV1
        return sb.toString();
    }
 
+
     @Override
-    public synchronized Collection<PoolCostInfo> getPoolCostInfos()
+    public Collection<PoolCostInfo> getPoolCostInfos()
     {
         Collection<PoolCostInfo> costInfos = new ArrayList<>();
         for (Entry entry: _hash.values()) {
@@ -582,7 +626,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolCostInfo getPoolCostInfo(String poolName)
+    public PoolCostInfo getPoolCostInfo(String poolName)
     {
         Entry entry = _hash.get(poolName);
         if (entry != null && entry.isValid()) {
@@ -592,7 +636,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolInfo getPoolInfo(String pool)
+    public PoolInfo getPoolInfo(String pool)
     {
         Entry entry = _hash.get(pool);
         if (entry != null && entry.isValid()) {
@@ -602,8 +646,7 @@ public class CostModuleV1
     }
 
     @Override
-    public synchronized
-        Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
+    public Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
     {
         Map<String,PoolInfo> map = new HashMap<>();
         for (String pool: pools) {
@@ -615,16 +658,44 @@ public class CostModuleV1
         return map;
     }
 
+    /**
+     * Replaces the information about a pool, or removes the pool if
+     * {@code info} is null. Used to apply updates published by pool manager.
+     */
+    public void setPoolInfo(String pool, @Nullable PoolInfo info)
+    {
+        if (info == null) {
+            _hash.computeIfPresent(pool, (name, entry) -> replace(name, entry, null));
+        } else {
+            Entry newEntry = new Entry(info.getAddress(), info.getCostInfo(), info.getTags());
+            _hash.compute(pool, (name, entry) -> replace(name, entry, newEntry));
+        }
+    }
+
+    /**
+     * Returns the names of the pools whose information changed since the
+     * previous call, including pools that were removed.
+     */
+    public Set<String> takeModifiedPools()
+    {
+        Set<String> modified = new HashSet<>();
+        for (String pool : _modified) {
+            _modified.remove(pool);
+            modified.add(pool);
+        }
+        return modified;
+    }
+
     private void readObject(ObjectInputStream in)
         throws IOException, ClassNotFoundException
     {
         in.defaultReadObject();
+        _hash = new ConcurrentHashMap<>(_hash);
+        _byCost = new ConcurrentSkipListSet<>(COST_ORDER);
+        _byCost.addAll(_hash.values());
+        _generation = new AtomicLong();
+        _modified = ConcurrentHashMap.newKeySet();
         _handlers = new CellMessageDispatcher("messageToForward");
         _handlers.addMessageListener(this);
     }
-
-    private synchronized void writeObject(ObjectOutputStream stream) throws IOException
-    {
-        stream.defaultWriteObject();
-    }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package diskCacheV111.poolManager;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.net.Inet4Address;
@@ -8,6 +10,12 @@ import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Registry of network units.
+ *
+ * Units are kept in one map per prefix length, which is also the serialized
+ * form, and in a prefix trie per address family used for matching addresses.
+ */
 class NetHandler implements Serializable {
     private static final long serialVersionUID = 8911153851483100573L;
     final Map<Long, NetUnit>[] _netList = new HashMap[33];
@@ -16,6 +24,8 @@ class NetHandler implements Serializable {
     final Map<BigInteger, NetUnit>[] _netListV6 = new HashMap[129];
     private final String[] _maskStringsV6 = new String[129];
     private final BigInteger[] _masksV6 = new BigInteger[129];
+    private transient NetPrefixTrie _trie = new NetPrefixTrie(32);
+    private transient NetPrefixTrie _trieV6 = new NetPrefixTrie(128);
 
     NetHandler() {
         long mask = 0;
@@ -55,6 +65,34 @@ class NetHandler implements Serializable {
                 netMap.clear();
             }
         }
+        _trie.clear();
+        _trieV6.clear();
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException
+    {
+        stream.defaultReadObject();
+        _trie = new NetPrefixTrie(32);
+        _trieV6 = new NetPrefixTrie(128);
+        for (Map<Long, NetUnit> netMap : _netList) {
+            if (netMap != null) {
+                netMap.values().forEach(this::addToTrie);
+            }
+        }
+        for (Map<BigInteger, NetUnit> netMap : _netListV6) {
+            if (netMap != null) {
+                netMap.values().forEach(this::addToTrie);
+            }
+        }
+    }
+
+    private void addToTrie(NetUnit net) {
+        InetAddress address = net.getHostAddress();
+        if (address instanceof Inet4Address) {
+            _trie.put(address.getAddress(), 32 - net.getHostBits(), net);
+        } else {
+            _trieV6.put(address.getAddress(), 128 - net.getHostBits(), net);
+        }
     }
 
     private BigInteger inetAddressToBigInteger(InetAddress address) {
@@ -88,6 +126,7 @@ class NetHandler implements Serializable {
             BigInteger addr = inetAddressToBigInteger(net.getHostAddress());
             _netListV6[bit].put(addr.and(_masksV6[bit]), net);
         }
+        addToTrie(net);
     }
 
     void remove(NetUnit net) {
@@ -111,58 +150,34 @@ class NetHandler implements Serializable {
                 _netListV6[bit] = null;
             }
         }
+        InetAddress address = net.getHostAddress();
+        if (address instanceof Inet4Address) {
+            _trie.remove(address.getAddress(), 32 - bit);
+        } else {
+            _trieV6.remove(address.getAddress(), 128 - bit);
+        }
     }
 
     NetUnit find(NetUnit net) {
-        int bit = net.getHostBits();
-        NetUnit result = null;
-        if (_netListV6[bit] != null) {
-           BigInteger addr = inetAddressToBigInteger(net.getHostAddress());
-           result = _netListV6[bit].get(addr.and(_masksV6[bit]));
-        }
-        if (result == null && _netList[bit] != null) {
-            long addr = inetAddressToLong(net.getHostAddress());
-            result = _netList[bit].get(addr & _masks[bit]);
+        InetAddress address = net.getHostAddress();
+        if (address instanceof Inet4Address) {
+            return _trie.get(address.getAddress(), 32 - net.getHostBits());
+        } else {
+            return _trieV6.get(address.getAddress(), 128 - net.getHostBits());
         }
-        return result;
     }
 
+    /**
+     * Returns the net unit with the longest prefix matching the address, or
+     * null if no unit matches.
+     */
     NetUnit match(String inetAddress) throws UnknownHostException {
         InetAddress address = InetAddress.getByName(inetAddress);
         if (address instanceof Inet4Address) {
-            long addr = inetAddressToLong(address);
-            long mask = 0;
-            long cursor = 1;
-            NetUnit unit;
-            for (Map<Long, NetUnit> map : _netList) {
-                if (map != null) {
-                    Long l = addr & ~mask;
-                    unit = map.get(l);
-                    if (unit != null) {
-                        return unit;
-                    }
-                }
-                mask |= cursor;
-                cursor <<= 1;
-            }
+            return _trie.match(address.getAddress());
         } else {
-           BigInteger addr = inetAddressToBigInteger(address);
-           BigInteger mask = BigInteger.ZERO;
-           BigInteger cursor = BigInteger.ONE;
-           NetUnit unit;
-           for (Map<BigInteger, NetUnit> map : _netListV6) {
-               if (map != null) {
-                   BigInteger l = addr.and(mask.not());
-                   unit = map.get(l);
-                   if (unit != null) {
-                       return unit;
-                   }
-               }
-               mask = mask.or(cursor);
-               cursor = cursor.shiftLeft(1);
-           }
+            return _trieV6.match(address.getAddress());
         }
-        return null;
     }
 
     String bitsToString(int bits) {
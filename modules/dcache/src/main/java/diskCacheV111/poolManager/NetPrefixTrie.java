@@ -0,0 +1,166 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.poolManager;
+
+import java.util.Arrays;
+
+/**
+ * Binary trie of network prefixes supporting longest prefix matching.
+ *
+ * Nodes are stored in parallel arrays indexed by node number, with node 0
+ * being the root. As the root is never the child of another node, a child
+ * index of 0 denotes a missing child. Looking up an address walks at most
+ * one node per address bit and does not allocate.
+ *
+ * Removing a prefix leaves its nodes in place; the trie is compacted when
+ * cleared. The trie is not thread safe.
+ */
+class NetPrefixTrie
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int _addressBits;
+
+    private int[] _zero = new int[INITIAL_CAPACITY];
+    private int[] _one = new int[INITIAL_CAPACITY];
+    private NetUnit[] _units = new NetUnit[INITIAL_CAPACITY];
+    private int _size = 1;
+
+    /**
+     * @param addressBits the length of addresses in bits
+     */
+    NetPrefixTrie(int addressBits)
+    {
+        _addressBits = addressBits;
+    }
+
+    void clear()
+    {
+        _zero = new int[INITIAL_CAPACITY];
+        _one = new int[INITIAL_CAPACITY];
+        _units = new NetUnit[INITIAL_CAPACITY];
+        _size = 1;
+    }
+
+    /**
+     * Associates a unit with the first {@code prefixLength} bits of {@code address}.
+     */
+    void put(byte[] address, int prefixLength, NetUnit unit)
+    {
+        checkPrefixLength(prefixLength);
+        int node = 0;
+        for (int i = 0; i < prefixLength; i++) {
+            int next = bit(address, i) == 0 ? _zero[node] : _one[node];
+            if (next == 0) {
+                next = newNode();
+                if (bit(address, i) == 0) {
+                    _zero[node] = next;
+                } else {
+                    _one[node] = next;
+                }
+            }
+            node = next;
+        }
+        _units[node] = unit;
+    }
+
+    /**
+     * Returns the unit associated with exactly the given prefix, or null.
+     */
+    NetUnit get(byte[] address, int prefixLength)
+    {
+        checkPrefixLength(prefixLength);
+        int node = 0;
+        for (int i = 0; i < prefixLength && node >= 0; i++) {
+            node = child(node, bit(address, i));
+        }
+        return node < 0 ? null : _units[node];
+    }
+
+    /**
+     * Removes and returns the unit associated with exactly the given prefix,
+     * or null if there is no such unit.
+     */
+    NetUnit remove(byte[] address, int prefixLength)
+    {
+        checkPrefixLength(prefixLength);
+        int node = 0;
+        for (int i = 0; i < prefixLength && node >= 0; i++) {
+            node = child(node, bit(address, i));
+        }
+        if (node < 0) {
+            return null;
+        }
+        NetUnit unit = _units[node];
+        _units[node] = null;
+        return unit;
+    }
+
+    /**
+     * Returns the unit with the longest prefix matching the address, or
+     * null if no prefix matches.
+     */
+    NetUnit match(byte[] address)
+    {
+        NetUnit best = _units[0];
+        int node = 0;
+        for (int i = 0; i < _addressBits; i++) {
+            node = (bit(address, i) == 0) ? _zero[node] : _one[node];
+            if (node == 0) {
+                break;
+            }
+            NetUnit unit = _units[node];
+            if (unit != null) {
+                best = unit;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the index of a child node, or -1 if the child does not exist.
+     */
+    private int child(int node, int bit)
+    {
+        int next = (bit == 0) ? _zero[node] : _one[node];
+        return (next == 0) ? -1 : next;
+    }
+
+    private int newNode()
+    {
+        if (_size == _units.length) {
+            int capacity = _units.length * 2;
+            _zero = Arrays.copyOf(_zero, capacity);
+            _one = Arrays.copyOf(_one, capacity);
+            _units = Arrays.copyOf(_units, capacity);
+        }
+        return _size++;
+    }
+
+    private void checkPrefixLength(int prefixLength)
+    {
+        if (prefixLength < 0 || prefixLength > _addressBits) {
+            throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+        }
+    }
+
+    private static int bit(byte[] address, int i)
+    {
+        return (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+    }
+}
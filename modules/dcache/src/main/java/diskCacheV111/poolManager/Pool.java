@@ -2,9 +2,13 @@ package diskCacheV111.poolManager;
 
 import com.google.common.collect.ImmutableSet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -21,10 +25,22 @@ public class Pool extends PoolCore implements SelectionPool {
     private boolean _enabled = true;
     private volatile long _active;
     private boolean _ping = true;
-    private long _serialId;
     private boolean _rdOnly;
-    private ImmutableSet<String> _hsmInstances = ImmutableSet.of();
-    private PoolV2Mode _mode = new PoolV2Mode(PoolV2Mode.DISABLED);
+
+    /* The state reported by the pool is updated on every heartbeat without
+     * holding the lock of the pool selection unit. It is kept in an immutable
+     * object that is replaced as a whole, such that pool selection observes
+     * updates without locking and never sees a partially updated state.
+     */
+    private transient volatile ReportedState _state =
+            new ReportedState(null, 0, new PoolV2Mode(PoolV2Mode.DISABLED), ImmutableSet.of());
+
+    /* Serialized form of the reported state. Only valid while serializing
+     * and deserializing the pool.
+     */
+    private long _serialId;
+    private ImmutableSet<String> _hsmInstances;
+    private PoolV2Mode _mode;
     private CellAddressCore _address;
 
     public Pool(String name) {
@@ -75,7 +91,8 @@ public class Pool extends PoolCore implements SelectionPool {
      */
     @Override
     public boolean canRead() {
-        return isEnabled() && _mode.getMode() != PoolV2Mode.DISABLED && !_mode.isDisabled(PoolV2Mode.DISABLED_FETCH) && !_mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
+        PoolV2Mode mode = _state.mode;
+        return isEnabled() && mode.getMode() != PoolV2Mode.DISABLED && !mode.isDisabled(PoolV2Mode.DISABLED_FETCH) && !mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
     }
 
     /**
@@ -86,7 +103,8 @@ public class Pool extends PoolCore implements SelectionPool {
      */
     @Override
     public boolean canWrite() {
-        return isEnabled() && !isReadOnly() && _mode.getMode() != PoolV2Mode.DISABLED && !_mode.isDisabled(PoolV2Mode.DISABLED_STORE) && !_mode.isDisabled(PoolV2Mode.DISABLED_DEAD) && !_mode.isDisabled(PoolV2Mode.DISABLED_P2P_SERVER);
+        PoolV2Mode mode = _state.mode;
+        return isEnabled() && !isReadOnly() && mode.getMode() != PoolV2Mode.DISABLED && !mode.isDisabled(PoolV2Mode.DISABLED_STORE) && !mode.isDisabled(PoolV2Mode.DISABLED_DEAD) && !mode.isDisabled(PoolV2Mode.DISABLED_P2P_SERVER);
     }
 
     /**
@@ -94,7 +112,8 @@ public class Pool extends PoolCore implements SelectionPool {
      */
     @Override
     public boolean canReadFromTape() {
-        return isEnabled() && !isReadOnly() && _mode.getMode() != PoolV2Mode.DISABLED && !_mode.isDisabled(PoolV2Mode.DISABLED_STAGE) && !_mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
+        PoolV2Mode mode = _state.mode;
+        return isEnabled() && !isReadOnly() && mode.getMode() != PoolV2Mode.DISABLED && !mode.isDisabled(PoolV2Mode.DISABLED_STAGE) && !mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
     }
 
     /**
@@ -103,7 +122,8 @@ public class Pool extends PoolCore implements SelectionPool {
      */
     @Override
     public boolean canReadForP2P() {
-        return isEnabled() && _mode.getMode() != PoolV2Mode.DISABLED && !_mode.isDisabled(PoolV2Mode.DISABLED_P2P_SERVER) && !_mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
+        PoolV2Mode mode = _state.mode;
+        return isEnabled() && mode.getMode() != PoolV2Mode.DISABLED && !mode.isDisabled(PoolV2Mode.DISABLED_P2P_SERVER) && !mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
     }
 
     /**
@@ -111,7 +131,8 @@ public class Pool extends PoolCore implements SelectionPool {
      * operations.
      */
     public boolean canWriteForP2P() {
-        return isEnabled() && !isReadOnly() && _mode.getMode() != PoolV2Mode.DISABLED && !_mode.isDisabled(PoolV2Mode.DISABLED_P2P_CLIENT) && !_mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
+        PoolV2Mode mode = _state.mode;
+        return isEnabled() && !isReadOnly() && mode.getMode() != PoolV2Mode.DISABLED && !mode.isDisabled(PoolV2Mode.DISABLED_P2P_CLIENT) && !mode.isDisabled(PoolV2Mode.DISABLED_DEAD);
     }
 
     public void setEnabled(boolean enabled) {
@@ -133,57 +154,133 @@ public class Pool extends PoolCore implements SelectionPool {
 
     @Override
     public String toString() {
-        return getName() + "  (enabled=" + _enabled + ";active=" + (_active > 0 ? (getActive() / 1000) : "no") + ";rdOnly=" + isReadOnly() + ";links=" + _linkList.size() + ";pgroups=" + _pGroupList.size() + ";hsm=" + _hsmInstances.toString() + ";mode=" + _mode + ")";
+        return getName() + "  (enabled=" + _enabled + ";active=" + (_active > 0 ? (getActive() / 1000) : "no") + ";rdOnly=" + isReadOnly() + ";links=" + _linkList.size() + ";pgroups=" + _pGroupList.size() + ";hsm=" + getHsmInstances() + ";mode=" + getPoolMode() + ")";
     }
 
     @Override
-    public boolean setSerialId(long serialId) {
-        if (serialId == _serialId) {
+    public synchronized boolean setSerialId(long serialId) {
+        ReportedState state = _state;
+        if (serialId == state.serialId) {
             return false;
         }
-        _serialId = serialId;
+        _state = new ReportedState(state.address, serialId, state.mode, state.hsmInstances);
         return true;
     }
 
     @Override
     public long getSerialId()
     {
-        return _serialId;
+        return _state.serialId;
     }
 
     @Override
-    public void setPoolMode(PoolV2Mode mode) {
-        _mode = mode;
+    public synchronized void setPoolMode(PoolV2Mode mode) {
+        ReportedState state = _state;
+        _state = new ReportedState(state.address, state.serialId, mode, state.hsmInstances);
     }
 
     @Override
     public PoolV2Mode getPoolMode() {
-        return _mode;
+        return _state.mode;
     }
 
     @Override
     public ImmutableSet<String> getHsmInstances() {
-        return _hsmInstances;
+        return _state.hsmInstances;
     }
 
     @Override
-    public void setHsmInstances(Set<String> hsmInstances) {
-        if (hsmInstances == null) {
-            _hsmInstances = ImmutableSet.of();
-        } else {
-            _hsmInstances = ImmutableSet.copyOf(hsmInstances);
+    public synchronized void setHsmInstances(Set<String> hsmInstances) {
+        ReportedState state = _state;
+        _state = new ReportedState(state.address, state.serialId, state.mode, toImmutableSet(hsmInstances));
+    }
+
+    /**
+     * Updates the state reported by the pool and refreshes the heartbeat.
+     *
+     * Updates of the same pool are serialized. Readers observe either the
+     * old or the new address, serial id, mode and HSM instances, but the
+     * heartbeat is updated separately.
+     *
+     * @return true if anything but the heartbeat changed
+     */
+    synchronized boolean update(CellAddressCore address, long serialId, PoolV2Mode mode,
+                                Set<String> hsmInstances, boolean active)
+    {
+        ReportedState state = _state;
+        boolean changed =
+                serialId != state.serialId
+                || isActive() != active
+                || (mode.getMode() != state.mode.getMode())
+                || !Objects.equals(state.hsmInstances, hsmInstances)
+                || !Objects.equals(state.address, address);
+        if (changed) {
+            _state = new ReportedState(address, serialId, mode, toImmutableSet(hsmInstances));
         }
+        setActive(active);
+        return changed;
+    }
+
+    /**
+     * Replaces the state reported by the pool as a whole.
+     */
+    synchronized void setReportedState(CellAddressCore address, long serialId, PoolV2Mode mode,
+                                       Set<String> hsmInstances)
+    {
+        _state = new ReportedState(address, serialId, mode, toImmutableSet(hsmInstances));
     }
 
     @Override
     public CellAddressCore getAddress()
     {
-        return _address;
+        return _state.address;
     }
 
     @Override
-    public void setAddress(CellAddressCore address)
+    public synchronized void setAddress(CellAddressCore address)
     {
-        _address = address;
+        ReportedState state = _state;
+        _state = new ReportedState(address, state.serialId, state.mode, state.hsmInstances);
+    }
+
+    private static ImmutableSet<String> toImmutableSet(Set<String> hsmInstances)
+    {
+        return (hsmInstances == null) ? ImmutableSet.of() : ImmutableSet.copyOf(hsmInstances);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException
+    {
+        ReportedState state = _state;
+        _address = state.address;
+        _serialId = state.serialId;
+        _mode = state.mode;
+        _hsmInstances = state.hsmInstances;
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        _state = new ReportedState(_address, _serialId, _mode, toImmutableSet(_hsmInstances));
+    }
+
+    /**
+     * Address, serial id, mode and HSM instances reported by the pool.
+     */
+    private static final class ReportedState
+    {
+        final CellAddressCore address;
+        final long serialId;
+        final PoolV2Mode mode;
+        final ImmutableSet<String> hsmInstances;
+
+        ReportedState(CellAddressCore address, long serialId, PoolV2Mode mode,
+                      ImmutableSet<String> hsmInstances)
+        {
+            this.address = address;
+            this.serialId = serialId;
+            this.mode = mode;
+            this.hsmInstances = hsmInstances;
+        }
     }
 }
@@ -13,16 +13,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
 import diskCacheV111.pools.CostCalculationV5;
@@ -41,6 +45,7 @@ import diskCacheV111.vehicles.PoolManagerGetPoolsByPoolGroupMessage;
 import diskCacheV111.vehicles.PoolManagerPoolInformation;
 import diskCacheV111.vehicles.PoolManagerPoolModeMessage;
 import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+import diskCacheV111.vehicles.PoolMgrBulkSelectPoolMsg;
 import diskCacheV111.vehicles.PoolMgrGetPoolByLink;
 import diskCacheV111.vehicles.PoolMgrQueryPoolsMsg;
 import diskCacheV111.vehicles.PoolMgrSelectReadPoolMsg;
@@ -64,6 +69,7 @@ import org.dcache.cells.CellStub;
 import org.dcache.poolmanager.Partition;
 import org.dcache.poolmanager.PoolInfo;
 import org.dcache.poolmanager.PoolLinkGroupInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.poolmanager.SerializablePoolMonitor;
 import org.dcache.poolmanager.Utils;
@@ -89,7 +95,7 @@ public class PoolManagerV5
     private PoolSelectionUnit _selectionUnit ;
     private SerializablePoolMonitor _poolMonitor;
 
-    private CostModule   _costModule  ;
+    private CostModuleV1 _costModule  ;
     private CellStub _poolStatusTopic;
     private CellStub _poolMonitorTopic;
     private PnfsHandler _pnfsHandler;
@@ -111,13 +117,22 @@ public class PoolManagerV5
     private long _poolMonitorUpdatePeriod;
     private TimeUnit _poolMonitorUpdatePeriodUnit;
     private double _poolMonitorMaxUpdatesPerSecond;
+    private boolean _poolMonitorDeltaUpdatesEnabled;
+    private long _poolMonitorSnapshotPeriod;
+    private TimeUnit _poolMonitorSnapshotPeriodUnit;
+
+    /**
+     * Pools whose state in the pool selection unit changed since the last
+     * pool monitor update was published.
+     */
+    private final Set<String> _changedPools = ConcurrentHashMap.newKeySet();
 
     public void setPoolSelectionUnit(PoolSelectionUnit selectionUnit)
     {
         _selectionUnit = selectionUnit;
     }
 
-    public void setCostModule(CostModule costModule)
+    public void setCostModule(CostModuleV1 costModule)
     {
         _costModule = costModule;
     }
@@ -173,6 +188,21 @@ public class PoolManagerV5
         _poolMonitorMaxUpdatesPerSecond = maxUpdatesPerSecond;
     }
 
+    public void setPoolMonitorDeltaUpdatesEnabled(boolean enabled)
+    {
+        _poolMonitorDeltaUpdatesEnabled = enabled;
+    }
+
+    public void setPoolMonitorSnapshotPeriod(long period)
+    {
+        _poolMonitorSnapshotPeriod = period;
+    }
+
+    public void setPoolMonitorSnapshotPeriodUnit(TimeUnit unit)
+    {
+        _poolMonitorSnapshotPeriodUnit = unit;
+    }
+
     public void init()
     {
         String watchdogParam = getArgs().getOpt("watchdog");
@@ -295,32 +325,108 @@ public class PoolManagerV5
         }
     }
 
+    private void poolChanged(String pool)
+    {
+        _changedPools.add(pool);
+        _poolMonitorThread.onPoolChange();
+    }
+
+    /**
+     * Publishes the pool monitor on the pool monitor topic.
+     *
+     * By default a snapshot of the complete pool monitor is published
+     * periodically and whenever the configuration changes. If delta updates
+     * are enabled, only the state of the pools that changed since the
+     * previous update is published periodically and whenever pools change
+     * state, while snapshots are published at the longer snapshot period,
+     * whenever the configuration changes, and when pools are added.
+     * Subscribers detect missed updates from the version stamped on each
+     * update, and fetch a snapshot when they do.
+     */
     private class PoolMonitorThread extends Thread
     {
         private boolean isChanged;
+        private boolean isPoolChanged;
+        private long nextSnapshot;
 
         private final RateLimiter limiter = RateLimiter.create(_poolMonitorMaxUpdatesPerSecond);
 
+        /* Identifies this instance of pool manager, such that subscribers
+         * can tell its updates from those of a previous instance. Zero is
+         * reserved for snapshots without a version.
+         */
+        private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        private long version;
+
         @Override
         public void run()
         {
             try {
                 limiter.acquire();
+                publishSnapshot();
                 while (!Thread.interrupted()) {
-                    _poolMonitorTopic.notify(_poolMonitor);
-                    waitUntilNextUpdate();
+                    boolean isSnapshotRequired = waitUntilNextUpdate();
                     limiter.acquire();
+                    if (isSnapshotRequired) {
+                        publishSnapshot();
+                    } else {
+                        publishDelta();
+                    }
                 }
             } catch (InterruptedException ignored) {
             }
         }
 
-        protected synchronized void waitUntilNextUpdate() throws InterruptedException
+        private Set<String> takeChangedPools()
+        {
+            Set<String> pools = new HashSet<>(_costModule.takeModifiedPools());
+            for (String pool : _changedPools) {
+                _changedPools.remove(pool);
+                pools.add(pool);
+            }
+            return pools;
+        }
+
+        private void publishSnapshot()
         {
-            if (!isChanged) {
+            takeChangedPools();
+            _poolMonitor.setVersion(epoch, ++version);
+            _poolMonitorTopic.notify(_poolMonitor);
+            if (_poolMonitorDeltaUpdatesEnabled) {
+                nextSnapshot = System.currentTimeMillis() +
+                               _poolMonitorSnapshotPeriodUnit.toMillis(_poolMonitorSnapshotPeriod);
+            }
+        }
+
+        private void publishDelta()
+        {
+            List<PoolMonitorDelta.PoolState> pools = new ArrayList<>();
+            for (String name : takeChangedPools()) {
+                PoolSelectionUnit.SelectionPool pool = _selectionUnit.getPool(name);
+                if (pool != null) {
+                    pools.add(new PoolMonitorDelta.PoolState(pool, _costModule.getPoolInfo(name)));
+                }
+            }
+            if (!pools.isEmpty()) {
+                _poolMonitor.setVersion(epoch, ++version);
+                _poolMonitorTopic.notify(new PoolMonitorDelta(epoch, version, pools));
+            }
+        }
+
+        /**
+         * Waits until the next update is due and returns whether it
+         * has to be a snapshot.
+         */
+        protected synchronized boolean waitUntilNextUpdate() throws InterruptedException
+        {
+            if (!isChanged && !isPoolChanged) {
                 _poolMonitorUpdatePeriodUnit.timedWait(this, _poolMonitorUpdatePeriod);
             }
+            boolean isSnapshotRequired = isChanged || !_poolMonitorDeltaUpdatesEnabled ||
+                                         System.currentTimeMillis() >= nextSnapshot;
             isChanged = false;
+            isPoolChanged = false;
+            return isSnapshotRequired;
         }
 
         public synchronized void onChange()
@@ -328,6 +434,14 @@ public class PoolManagerV5
             isChanged = true;
             notifyAll();
         }
+
+        public synchronized void onPoolChange()
+        {
+            if (_poolMonitorDeltaUpdatesEnabled) {
+                isPoolChanged = true;
+                notifyAll();
+            }
+        }
     }
 
     public PoolManagerPoolModeMessage
@@ -347,6 +461,7 @@ public class PoolManagerV5
             // set pool mode
             //
             pool.setReadOnly((msg.getPoolMode() & PoolManagerPoolModeMessage.WRITE) == 0);
+            poolChanged(msg.getPoolName());
         }
 
         msg.setSucceeded();
@@ -360,6 +475,7 @@ public class PoolManagerV5
             if (pool != null) {
                 if (pool.getActive() > deathDetectedTimer
                     && pool.setSerialId(0L)) {
+                    poolChanged(name);
                     _requestContainer.poolStatusChanged(name, PoolStatusChangedMessage.DOWN);
                     sendPoolStatusRelay(name, PoolStatusChangedMessage.DOWN,
                                         null, 666, "DEAD");
@@ -419,6 +535,7 @@ public class PoolManagerV5
 
         _counterPoolUp.increment();
 
+        boolean isNewPool = _selectionUnit.getPool(poolName) == null;
         boolean changed = _selectionUnit.updatePool(poolName, poolAddress, poolSerialId, poolMode, poolHsmInstances);
 
         /* Notify others in case the pool status has changed. Due to
@@ -427,7 +544,11 @@ public class PoolManagerV5
          * mode has changed.
          */
         if (changed) {
-            _poolMonitorThread.onChange();
+            if (_poolMonitorDeltaUpdatesEnabled && !isNewPool) {
+                poolChanged(poolName);
+            } else {
+                _poolMonitorThread.onChange();
+            }
 
             /* For compatibility with previous versions of dCache, a pool
              * marked DISABLED, but without any other DISABLED_ flags set
@@ -798,6 +919,95 @@ public class PoolManagerV5
         }
     }
 
+    ///////////////////////////////////////////////////////////////
+    //
+    // the bulk selection handler
+    //
+    public DelayedReply messageArrived(PoolMgrBulkSelectPoolMsg msg)
+    {
+        BulkSelectionHandler handler = new BulkSelectionHandler(msg);
+        _executor.execute(handler);
+        return handler;
+    }
+
+    public class BulkSelectionHandler extends DelayedReply implements Runnable
+    {
+        private final PoolMgrBulkSelectPoolMsg _request;
+
+        public BulkSelectionHandler(PoolMgrBulkSelectPoolMsg msg)
+        {
+            _request = msg;
+        }
+
+        @Override
+        public void run()
+        {
+            List<PoolMgrBulkSelectPoolMsg.Selection> selections = _request.getSelections();
+            _log.info("bulk {} selection of {} files started", _request.getAccessType(), selections.size());
+            long started = System.currentTimeMillis();
+
+            /* Selectors share the results of PSU matches for files of the
+             * same storage unit.
+             */
+            Function<FileAttributes, PoolSelector> selectors =
+                    _poolMonitor.getPoolSelectors(_request.getProtocolInfo(), _request.getLinkGroup());
+            int failed = 0;
+            for (PoolMgrBulkSelectPoolMsg.Selection selection : selections) {
+                if (!select(selectors, selection)) {
+                    failed++;
+                }
+            }
+
+            _log.info("bulk {} selection of {} files completed with {} failures after {} ms",
+                      _request.getAccessType(), selections.size(), failed,
+                      System.currentTimeMillis() - started);
+            if (failed > 0 && failed == selections.size()) {
+                PoolMgrBulkSelectPoolMsg.Selection first = selections.get(0);
+                _request.setFailed(first.getReturnCode(), first.getErrorObject());
+            } else {
+                _request.setSucceeded();
+            }
+            reply(_request);
+        }
+
+        private boolean select(Function<FileAttributes, PoolSelector> selectors,
+                               PoolMgrBulkSelectPoolMsg.Selection selection)
+        {
+            FileAttributes fileAttributes = selection.getFileAttributes();
+            boolean isWrite = _request.getAccessType() == DirectionType.WRITE;
+
+            if (isWrite && _quotasEnabled && quotasExceeded(fileAttributes)) {
+                selection.setFailed(55, "Quotas Exceeded for StorageClass : " + fileAttributes.getStorageClass());
+                return false;
+            }
+
+            PoolInfo pool;
+            try {
+                PoolSelector selector = selectors.apply(fileAttributes);
+                pool = isWrite
+                       ? selector.selectWritePool(selection.getPreallocated())
+                       : selector.selectReadPool();
+            } catch (CacheException e) {
+                selection.setFailed(e.getRc(), e.getMessage());
+                return false;
+            } catch (RuntimeException e) {
+                selection.setFailed(17, e.getMessage());
+                return false;
+            }
+
+            selection.setSucceeded(pool.getName(), pool.getAddress());
+
+            /* Later selections of the same request must see the predicted
+             * cost of the transfer.
+             */
+            if (!_request.getSkipCostUpdate()) {
+                _costModule.addSelectedTransfer(pool.getName(), _request.getIoQueueName(),
+                                                isWrite ? selection.getPreallocated() : 0);
+            }
+            return true;
+        }
+    }
+
     public String ac_free_$_0(Args args) {
 
 
@@ -8,15 +8,19 @@ import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
@@ -37,10 +41,12 @@ import org.dcache.namespace.FileType;
 import org.dcache.poolmanager.Partition;
 import org.dcache.poolmanager.PartitionManager;
 import org.dcache.poolmanager.PoolInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.poolmanager.SerializablePoolMonitor;
 import org.dcache.vehicles.FileAttributes;
 
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.nullToEmpty;
 import static java.util.stream.Collectors.toList;
 import static org.dcache.namespace.FileAttribute.*;
@@ -95,6 +101,34 @@ public class PoolMonitorV5
         _costModule.messageArrived(cellMessage);
     }
 
+    @Override
+    public boolean apply(PoolMonitorDelta delta)
+    {
+        checkState(_costModule instanceof CostModuleV1,
+                   "Cannot apply updates to cost module %s", _costModule.getClass().getName());
+        CostModuleV1 costModule = (CostModuleV1) _costModule;
+        List<Pool> pools = new ArrayList<>(delta.getPools().size());
+        for (PoolMonitorDelta.PoolState state : delta.getPools()) {
+            PoolSelectionUnit.SelectionPool pool = _selectionUnit.getPool(state.getName());
+            if (pool == null) {
+                /* Adding pools changes the configuration of the selection unit. */
+                return false;
+            }
+            checkState(pool instanceof Pool, "Cannot apply updates to pool %s", pool.getClass().getName());
+            pools.add((Pool) pool);
+        }
+        for (int i = 0; i < pools.size(); i++) {
+            PoolMonitorDelta.PoolState state = delta.getPools().get(i);
+            Pool pool = pools.get(i);
+            pool.setReportedState(state.getAddress(), state.getSerialId(), state.getMode(),
+                                  state.getHsmInstances());
+            pool.setReadOnly(state.isReadOnly());
+            pool.setActive(state.isActive());
+            costModule.setPoolInfo(state.getName(), state.getInfo());
+        }
+        return true;
+    }
+
     @Override
     public PoolSelector getPoolSelector(FileAttributes fileAttributes,
                                         ProtocolInfo protocolInfo,
@@ -103,6 +137,64 @@ public class PoolMonitorV5
         return new PnfsFileLocation(fileAttributes, protocolInfo, linkGroup);
     }
 
+    /**
+     * Returns a source of pool selectors sharing the results of PSU matches.
+     * The selection unit is consulted once per distinct storage unit, cache
+     * class and storage info map of the files. The source is not thread
+     * safe and should be discarded once the files have been processed.
+     */
+    @Override
+    public Function<FileAttributes, PoolSelector> getPoolSelectors(ProtocolInfo protocolInfo,
+                                                                   String linkGroup)
+    {
+        Map<MatchKey, PoolPreferenceLevel[]> matches = new HashMap<>();
+        return fileAttributes -> new PnfsFileLocation(fileAttributes, protocolInfo, linkGroup, matches);
+    }
+
+    /**
+     * The properties of a file the result of a PSU match depends on.
+     */
+    private static class MatchKey
+    {
+        private final DirectionType direction;
+        private final String storageClass;
+        private final String hsm;
+        private final String cacheClass;
+        private final Map<String, String> variables;
+
+        MatchKey(DirectionType direction, FileAttributes fileAttributes)
+        {
+            this.direction = direction;
+            this.storageClass = fileAttributes.getStorageClass();
+            this.hsm = fileAttributes.getHsm();
+            this.cacheClass = fileAttributes.getCacheClass();
+            this.variables = fileAttributes.getStorageInfo().getMap();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey that = (MatchKey) o;
+            return direction == that.direction &&
+                   Objects.equals(storageClass, that.storageClass) &&
+                   Objects.equals(hsm, that.hsm) &&
+                   Objects.equals(cacheClass, that.cacheClass) &&
+                   Objects.equals(variables, that.variables);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(direction, storageClass, hsm, cacheClass, variables);
+        }
+    }
+
     public class PnfsFileLocation implements PoolSelector
     {
         private Partition _partition;
@@ -110,14 +202,24 @@ public class PoolMonitorV5
         private final FileAttributes _fileAttributes;
         private final ProtocolInfo _protocolInfo;
         private final String _linkGroup;
+        private final Map<MatchKey, PoolPreferenceLevel[]> _matches;
 
         public PnfsFileLocation(FileAttributes fileAttributes,
                                 ProtocolInfo protocolInfo,
                                 String linkGroup)
+        {
+            this(fileAttributes, protocolInfo, linkGroup, null);
+        }
+
+        private PnfsFileLocation(FileAttributes fileAttributes,
+                                 ProtocolInfo protocolInfo,
+                                 String linkGroup,
+                                 @Nullable Map<MatchKey, PoolPreferenceLevel[]> matches)
         {
             _fileAttributes = fileAttributes;
             _protocolInfo = protocolInfo;
             _linkGroup    = linkGroup;
+            _matches      = matches;
         }
 
 
@@ -132,13 +234,19 @@ public class PoolMonitorV5
          */
         private PoolPreferenceLevel[] match(DirectionType direction)
         {
-            String hostName = getHostName();
-            String protocol = getProtocol();
-            return _selectionUnit.match(direction,
-                                        hostName,
-                                        protocol,
-                                        _fileAttributes,
-                                        _linkGroup);
+            if (_matches == null) {
+                return _selectionUnit.match(direction,
+                                            getHostName(),
+                                            getProtocol(),
+                                            _fileAttributes,
+                                            _linkGroup);
+            }
+            return _matches.computeIfAbsent(new MatchKey(direction, _fileAttributes),
+                                            key -> _selectionUnit.match(direction,
+                                                                        getHostName(),
+                                                                        getProtocol(),
+                                                                        _fileAttributes,
+                                                                        _linkGroup));
         }
 
         @Override
@@ -158,11 +266,7 @@ public class PoolMonitorV5
         {
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] levels = _selectionUnit.match(DirectionType.WRITE,
-                    hostName,
-                    protocol,
-                    _fileAttributes,
-                    _linkGroup);
+            PoolPreferenceLevel[] levels = match(DirectionType.WRITE);
 
             if (levels.length == 0) {
                 throw new CacheException(CacheException.NO_POOL_CONFIGURED,
@@ -232,11 +336,7 @@ public class PoolMonitorV5
              */
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] level = _selectionUnit.match(DirectionType.READ,
-                    hostName,
-                    protocol,
-                    _fileAttributes,
-                    _linkGroup);
+            PoolPreferenceLevel[] level = match(DirectionType.READ);
 
             /* An empty array indicates that no links were found that
              * could serve the request. No reason to try any further;
@@ -435,11 +535,7 @@ public class PoolMonitorV5
             boolean isRequestSatisfiable = false;
             String hostName = getHostName();
             String protocol = getProtocol();
-            PoolPreferenceLevel[] levels = _selectionUnit.match(DirectionType.READ,
-                                                                hostName,
-                                                                protocol,
-                                                                _fileAttributes,
-                                                                _linkGroup);
+            PoolPreferenceLevel[] levels = match(DirectionType.READ);
             for (PoolPreferenceLevel level: levels) {
                 List<String> pools = level.getPoolList();
                 if (!pools.isEmpty()) {
@@ -3,6 +3,8 @@ package diskCacheV111.poolManager;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -18,6 +20,7 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -32,6 +35,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Stream;
 
 import diskCacheV111.pools.PoolV2Mode;
@@ -61,6 +65,11 @@ public class PoolSelectionUnitV2
     private static final Logger _log = LoggerFactory.getLogger(PoolSelectionUnitV2.class);
     private static final String NO_NET = "<no net>";
 
+    /**
+     * Upper bound on the number of cached unit and link resolutions.
+     */
+    private static final int MAX_CACHED_MATCHES = 10000;
+
     @Override
     public String getVersion() {
         return __version;
@@ -95,6 +104,12 @@ public class PoolSelectionUnitV2
 
     private final NetHandler _netHandler = new NetHandler();
 
+    /**
+     * Index used by match. Discarded whenever the write lock is released and
+     * rebuilt on demand. Only accessed with the read or write lock held.
+     */
+    private transient volatile SelectionIndex _selectionIndex;
+
     @Override
     public Map<String, SelectionLink> getLinks() {
         rlock();
@@ -221,7 +236,8 @@ public class PoolSelectionUnitV2
                     pool.setSerialId(p.getSerialId());
                 });
         _poolsFromBeforeSetup = null;
-        wunlock();
+        _selectionIndex = new SelectionIndex();
+        _psuWriteLock.unlock();
     }
 
     @Override
@@ -376,14 +392,14 @@ public class PoolSelectionUnitV2
     }
 
     public void setActive(String poolName, boolean active) {
-        wlock();
+        rlock();
         try {
             Pool pool = _pools.get(poolName);
             if (pool != null) {
                 pool.setActive(active);
             }
         } finally {
-            wunlock();
+            runlock();
         }
     }
 
@@ -465,79 +481,47 @@ public class PoolSelectionUnitV2
          */
         long newSerialId = disabled ? 0 : serialId;
 
-        /* The update is done in two steps; most of the time an update will not change anything except
-         * refresh the heartbeat timestamp. We do this under a read lock.
+        /* Pool state is not part of the selection configuration: it is updated
+         * without the write lock such that heartbeats never stall pool selection.
+         * The write lock is only needed to add a pool we have not seen before.
          */
+        Pool pool;
         rlock();
         try {
-            Pool pool = _pools.get(poolName);
-            if (pool != null) {
-                /* Any change in the kind of operations a pool might be able
-                 * to perform has to be propagated to a number of other
-                 * components.
-                 *
-                 * Notice that calling setSerialId has a side-effect, which is
-                 * why we call it first.
-                 */
-                boolean changed =
-                        pool.getSerialId() != newSerialId
-                        || pool.isActive() == disabled
-                        || (mode.getMode() != pool.getPoolMode().getMode())
-                        || !Objects.equals(pool.getHsmInstances(), hsmInstances)
-                        || !Objects.equals(pool.getAddress(), address);
-                if (!changed) {
-                    pool.setActive(!disabled);
-                    return false;
-                }
-            }
+            pool = _pools.get(poolName);
         } finally {
             runlock();
         }
 
-        /* We detected that something changed and fall through to a full update under a write lock.
-         */
-        wlock();
-        try {
-            Pool pool = _pools.get(poolName);
-            if (pool == null) {
-                pool = new Pool(poolName);
-                _pools.put(pool.getName(), pool);
-                PGroup group = _pGroups.get("default");
-                if (group == null) {
-                    throw new IllegalArgumentException("Not found : " + "default");
+        if (pool == null) {
+            wlock();
+            try {
+                pool = _pools.get(poolName);
+                if (pool == null) {
+                    pool = new Pool(poolName);
+                    _pools.put(pool.getName(), pool);
+                    PGroup group = _pGroups.get("default");
+                    if (group == null) {
+                        throw new IllegalArgumentException("Not found : " + "default");
+                    }
+                    pool._pGroupList.put(group.getName(), group);
+                    group._poolList.put(pool.getName(), pool);
                 }
-                pool._pGroupList.put(group.getName(), group);
-                group._poolList.put(pool.getName(), pool);
-            }
-
-            PoolV2Mode oldMode = pool.getPoolMode();
-
-            /* Any change in the kind of operations a pool might be able
-             * to perform has to be propagated to a number of other
-             * components.
-             *
-             * Notice that calling setSerialId has a side-effect, which is
-             * why we call it first.
-             */
-            boolean changed =
-                    pool.setSerialId(newSerialId)
-                    || pool.isActive() == disabled
-                    || (mode.getMode() != oldMode.getMode())
-                    || !Objects.equals(pool.getHsmInstances(), hsmInstances)
-                    || !Objects.equals(pool.getAddress(), address);
-
-            if (mode.getMode() != oldMode.getMode()) {
-                _log.warn("Pool {} changed from mode {}  to {}.", poolName, oldMode, mode);
+            } finally {
+                wunlock();
             }
+        }
 
-            pool.setAddress(address);
-            pool.setPoolMode(mode);
-            pool.setHsmInstances(hsmInstances);
-            pool.setActive(!disabled);
-            return changed;
-        } finally {
-            wunlock();
+        /* Any change in the kind of operations a pool might be able
+         * to perform has to be propagated to a number of other
+         * components.
+         */
+        PoolV2Mode oldMode = pool.getPoolMode();
+        boolean changed = pool.update(address, newSerialId, mode, hsmInstances, !disabled);
+        if (mode.getMode() != oldMode.getMode()) {
+            _log.warn("Pool {} changed from mode {}  to {}.", poolName, oldMode, mode);
         }
+        return changed;
     }
 
     public Map<String, Link> match(Map<String, Link> map, Unit unit,
@@ -570,242 +554,91 @@ public class PoolSelectionUnitV2
     public PoolPreferenceLevel[] match(DirectionType type,  String netUnitName, String protocolUnitName,
                     FileAttributes fileAttributes, String linkGroupName) {
 
-        String storeUnitName = fileAttributes.getStorageClass()+"@"+fileAttributes.getHsm();
+        String storageClass = fileAttributes.getStorageClass();
+        String hsm = fileAttributes.getHsm();
         String dCacheUnitName = fileAttributes.getCacheClass();
         StorageInfo storageInfo = fileAttributes.getStorageInfo();
 
         Map<String, String> variableMap = storageInfo.getMap();
 
-        _log.debug("running match: type={} store={} dCacheUnit={} net={} protocol={} keys={} locations={} linkGroup={}",
-                        type, storeUnitName, dCacheUnitName, netUnitName, protocolUnitName,
-                        variableMap, storageInfo.locations(), linkGroupName);
-
+        if (_log.isDebugEnabled()) {
+            _log.debug("running match: type={} store={}@{} dCacheUnit={} net={} protocol={} keys={} locations={} linkGroup={}",
+                       type, storageClass, hsm, dCacheUnitName, netUnitName, protocolUnitName,
+                       variableMap, storageInfo.locations(), linkGroupName);
+        }
 
         PoolPreferenceLevel[] result = null;
         rlock();
         try {
+            SelectionIndex index = getSelectionIndex();
+
             //
-            // resolve the unit from the unitname (or net unit mask)
-            //
-            // regexp code added by rw2 12/5/02
-            // original code is in the else
+            // resolve the units from the unit names (or net unit mask)
             //
-            List<Unit> list = new ArrayList<>();
-            if (_useRegex) {
-                Unit universalCoverage = null;
-                Unit classCoverage = null;
-
-                for (Unit unit : _units.values()) {
-                    if (unit.getType() != STORE) {
-                        continue;
-                    }
-
-                    if (unit.getName().equals("*@*")) {
-                        universalCoverage = unit;
-                    } else if (unit.getName().equals("*@" + storeUnitName)) {
-                        classCoverage = unit;
-                    } else {
-                        if (Pattern.matches(unit.getName(), storeUnitName)) {
-                            list.add(unit);
-                            break;
-                        }
-                    }
-                }
-                //
-                // If a pattern matches then use it, fail over to a class,
-                // then universal. If nothing, throw exception
-                //
-                if (list.isEmpty()) {
-                    if (classCoverage != null) {
-                        list.add(classCoverage);
-                    } else if (universalCoverage != null) {
-                        list.add(universalCoverage);
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "Unit not found : " + storeUnitName);
-                    }
-                }
+            Unit storeUnit = index.getStoreUnit(storageClass, hsm);
+            _log.debug("matching storage unit found: {}", storeUnit);
 
-            } else {
-                Unit unit = _units.get(storeUnitName);
-                if (unit == null) {
-                    int ind = storeUnitName.lastIndexOf("@");
-                    if ((ind > 0) && (ind < (storeUnitName.length() - 1))) {
-                        String template = "*@"
-                                        + storeUnitName.substring(ind + 1);
-                        if ((unit = _units.get(template)) == null) {
-
-                            if ((unit = _units.get("*@*")) == null) {
-                                _log.debug("no matching storage unit found for: {}", storeUnitName);
-                                throw new IllegalArgumentException(
-                                                "Unit not found : " + storeUnitName);
-                            }
-                        }
-                    } else {
-                        throw new IllegalArgumentException(
-                                        "IllegalUnitFormat : " + storeUnitName);
-                    }
-                }
-                _log.debug("matching storage unit found for: {}", storeUnitName);
-                list.add(unit);
-            }
+            Unit protocolUnit = null;
             if (protocolUnitName != null) {
-
-                Unit unit = findProtocolUnit(protocolUnitName);
-                //
-                if (unit == null){
+                protocolUnit = findProtocolUnit(protocolUnitName);
+                if (protocolUnit == null) {
                     _log.debug("no matching protocol unit found for: {}", protocolUnitName);
                     throw new IllegalArgumentException("Unit not found : "
                                     + protocolUnitName);
                 }
-                _log.debug("matching protocol unit found: {}", unit);
-                list.add(unit);
+                _log.debug("matching protocol unit found: {}", protocolUnit);
             }
+
+            Unit dCacheUnit = null;
             if (dCacheUnitName != null) {
-                Unit unit = _units.get(dCacheUnitName);
-                if (unit == null) {
+                dCacheUnit = _units.get(dCacheUnitName);
+                if (dCacheUnit == null) {
                     _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
                     throw new IllegalArgumentException("Unit not found : "
                                     + dCacheUnitName);
                 }
-                _log.debug("matching dCache unit found: {}", unit);
-                list.add(unit);
+                _log.debug("matching dCache unit found: {}", dCacheUnit);
             }
+
+            Unit netUnit = null;
             if (netUnitName != null) {
                 try {
-                    Unit unit = _netHandler.match(netUnitName);
-                    if (unit == null) {
+                    netUnit = _netHandler.match(netUnitName);
+                    if (netUnit == null) {
                         _log.debug("no matching net unit found for: {}", netUnitName);
                         throw new IllegalArgumentException(
                                         "Unit not matched : " + netUnitName);
                     }
-                    _log.debug("matching net unit found: {}" + unit);
-                    list.add(unit);
+                    _log.debug("matching net unit found: {}", netUnit);
                 } catch (UnknownHostException uhe) {
                     throw new IllegalArgumentException(
                                     "NetUnit not resolved : " + netUnitName);
                 }
             }
-            //
-            // match the requests ( logical AND )
-            //
-            //
-            // Map map = null ;
-            // while( units.hasNext() )map = match( map , (Unit)units.next() ) ;
-            // Iterator links = map.values().iterator() ;
-            //
 
-            //
-            // i) sort according to the type (read,write,cache)
-            // ii) the and is only OK if we have at least as many
-            // units (from the arguments) as required by the
-            // number of uGroupList(s).
-            // iii) check for the hashtable if required.
-            //
-            int fitCount = list.size();
-            Set<Link> sortedSet = new TreeSet<>(new LinkComparator(type));
-
-            //
-            // use subset on links if it's defined
-            //
-
-            LinkGroup linkGroup = null;
-            if (linkGroupName != null) {
-                linkGroup = _linkGroups.get(linkGroupName);
-                if (linkGroup == null) {
-                    _log.debug("LinkGroup not found : {}", linkGroupName );
-                    throw new IllegalArgumentException("LinkGroup not found : "
-                                    + linkGroupName);
-                }
-            }
+            Link[][] levels = index.getLinks(type, storeUnit, protocolUnit, dCacheUnit, netUnit, linkGroupName);
 
-            //
-            // find all links that matches the specified list of units
-            //
-
-            LinkMap matchingLinks = new LinkMap();
-            for (Unit unit : list) {
-                matchingLinks = match(matchingLinks, unit, linkGroup, type);
-            }
-
-            Iterator<Link> linkIterator = matchingLinks.iterator();
-            while (linkIterator.hasNext()) {
-
-                Link link = linkIterator.next();
-                if ((link._uGroupList.size() <= fitCount)
-                                && ((variableMap == null) || link.exec(variableMap))) {
-
-                    sortedSet.add(link);
-                }
-            }
-            int pref = -1;
-            List<List<Link>> listList = new ArrayList<>();
-            List<Link> current = null;
-
-            switch (type) {
-
-                case READ:
-                    for (Link link : sortedSet) {
-                        if (link.getReadPref() < 1) {
-                            continue;
-                        }
-                        if (link.getReadPref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getReadPref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case CACHE:
-                    for (Link link : sortedSet) {
-                        if (link.getCachePref() < 1) {
-                            continue;
-                        }
-                        if (link.getCachePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getCachePref();
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case P2P:
-                    for (Link link : sortedSet) {
-                        int tmpPref = link.getP2pPref() < 0 ? link.getReadPref()
-                                        : link.getP2pPref();
-                        if (tmpPref < 1) {
-                            continue;
-                        }
-                        if (tmpPref != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = tmpPref;
-                        }
-                        current.add(link);
-                    }
-                    break;
-                case WRITE:
-                    for (Link link : sortedSet) {
-                        if (link.getWritePref() < 1) {
-                            continue;
-                        }
-                        if (link.getWritePref() != pref) {
-                            listList.add(current = new ArrayList<>());
-                            pref = link.getWritePref();
-                        }
-                        current.add(link);
-                    }
-            }
-            List<Link>[] x = listList.toArray(new List[listList.size()]);
-            result = new PoolPreferenceLevel[x.length];
             //
             // resolve the links to the pools
             //
-            for (int i = 0; i < x.length; i++) {
+            // The cached levels are not filtered by the storage info of
+            // the file. A level none of whose links accept the file is
+            // dropped, as it would not have been formed had the links
+            // been filtered before grouping them.
+            //
+            List<PoolPreferenceLevel> resultLevels = new ArrayList<>(levels.length);
+            for (Link[] level : levels) {
 
-                List<Link> linkList = x[i];
                 List<String> resultList = new ArrayList<>();
                 String tag = null;
+                boolean isMatched = false;
+
+                for (Link link : level) {
+                    if (variableMap != null && !link.exec(variableMap)) {
+                        continue;
+                    }
+                    isMatched = true;
 
-                for (Link link : linkList) {
                     //
                     // get the link if available
                     //
@@ -840,8 +673,11 @@ public class PoolSelectionUnitV2
                         }
                     }
                 }
-                result[i] = new PoolPreferenceLevel(resultList, tag);
+                if (isMatched) {
+                    resultLevels.add(new PoolPreferenceLevel(resultList, tag));
+                }
             }
+            result = resultLevels.toArray(new PoolPreferenceLevel[resultLevels.size()]);
 
         } finally {
             runlock();
@@ -862,6 +698,274 @@ public class PoolSelectionUnitV2
         return result;
     }
 
+    /**
+     * Returns the links matching a set of units, grouped by preference in
+     * descending order. Links with a preference of zero for the given
+     * direction are not included.
+     */
+    private Link[][] matchLinks(DirectionType type, List<Unit> units, String linkGroupName)
+    {
+        //
+        // i) sort according to the type (read,write,cache)
+        // ii) the and is only OK if we have at least as many
+        // units (from the arguments) as required by the
+        // number of uGroupList(s).
+        //
+        int fitCount = units.size();
+        Set<Link> sortedSet = new TreeSet<>(new LinkComparator(type));
+
+        //
+        // use subset on links if it's defined
+        //
+
+        LinkGroup linkGroup = null;
+        if (linkGroupName != null) {
+            linkGroup = _linkGroups.get(linkGroupName);
+            if (linkGroup == null) {
+                _log.debug("LinkGroup not found : {}", linkGroupName );
+                throw new IllegalArgumentException("LinkGroup not found : "
+                                + linkGroupName);
+            }
+        }
+
+        //
+        // find all links that matches the specified list of units
+        //
+
+        LinkMap matchingLinks = new LinkMap();
+        for (Unit unit : units) {
+            matchingLinks = match(matchingLinks, unit, linkGroup, type);
+        }
+
+        Iterator<Link> linkIterator = matchingLinks.iterator();
+        while (linkIterator.hasNext()) {
+            Link link = linkIterator.next();
+            if (link._uGroupList.size() <= fitCount) {
+                sortedSet.add(link);
+            }
+        }
+
+        int pref = -1;
+        List<List<Link>> listList = new ArrayList<>();
+        List<Link> current = null;
+        for (Link link : sortedSet) {
+            int linkPref;
+            switch (type) {
+            case READ:
+                linkPref = link.getReadPref();
+                break;
+            case CACHE:
+                linkPref = link.getCachePref();
+                break;
+            case P2P:
+                linkPref = link.getP2pPref() < 0 ? link.getReadPref() : link.getP2pPref();
+                break;
+            case WRITE:
+                linkPref = link.getWritePref();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown direction: " + type);
+            }
+            if (linkPref < 1) {
+                continue;
+            }
+            if (linkPref != pref) {
+                listList.add(current = new ArrayList<>());
+                pref = linkPref;
+            }
+            current.add(link);
+        }
+
+        Link[][] levels = new Link[listList.size()][];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = listList.get(i).toArray(new Link[listList.get(i).size()]);
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the selection index for the current setup, building it if
+     * necessary. Must be called with the read or write lock held.
+     */
+    private SelectionIndex getSelectionIndex()
+    {
+        SelectionIndex index = _selectionIndex;
+        if (index == null) {
+            index = new SelectionIndex();
+            _selectionIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Precompiled form of the storage units together with a cache of
+     * link resolutions. Only valid for the setup it was built from: any
+     * modification of the setup discards the index.
+     *
+     * Resolved links rather than pools are cached, as which pools of a
+     * link are eligible depends on the state of the pools and, for
+     * staging, on the file.
+     */
+    private class SelectionIndex
+    {
+        private final Unit _universalStoreUnit;
+
+        /**
+         * Storage units in the order in which they are tried when regular
+         * expressions are enabled. Null if regular expressions are disabled.
+         */
+        private final List<StoreUnitPattern> _patterns;
+
+        private final Cache<List<String>, Unit> _storeUnits =
+                CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MATCHES).build();
+
+        private final Cache<List<Object>, Link[][]> _links =
+                CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MATCHES).build();
+
+        SelectionIndex()
+        {
+            Unit universal = null;
+            List<StoreUnitPattern> patterns = null;
+            if (_useRegex) {
+                patterns = new ArrayList<>();
+                for (Unit unit : _units.values()) {
+                    if (unit.getType() == STORE) {
+                        if (unit.getName().equals("*@*")) {
+                            universal = unit;
+                        } else {
+                            patterns.add(new StoreUnitPattern(unit));
+                        }
+                    }
+                }
+            }
+            _universalStoreUnit = universal;
+            _patterns = patterns;
+        }
+
+        Unit getStoreUnit(String storageClass, String hsm)
+        {
+            List<String> key = Arrays.asList(storageClass, hsm);
+            Unit unit = _storeUnits.getIfPresent(key);
+            if (unit == null) {
+                unit = (_patterns == null) ? findStoreUnit(storageClass + "@" + hsm)
+                                           : matchStoreUnit(storageClass + "@" + hsm);
+                _storeUnits.put(key, unit);
+            }
+            return unit;
+        }
+
+        Link[][] getLinks(DirectionType type, Unit storeUnit, Unit protocolUnit,
+                          Unit dCacheUnit, Unit netUnit, String linkGroupName)
+        {
+            List<Object> key = Arrays.asList(type, storeUnit, protocolUnit, dCacheUnit, netUnit, linkGroupName);
+            Link[][] links = _links.getIfPresent(key);
+            if (links == null) {
+                List<Unit> units = new ArrayList<>(4);
+                units.add(storeUnit);
+                if (protocolUnit != null) {
+                    units.add(protocolUnit);
+                }
+                if (dCacheUnit != null) {
+                    units.add(dCacheUnit);
+                }
+                if (netUnit != null) {
+                    units.add(netUnit);
+                }
+                links = matchLinks(type, units, linkGroupName);
+                _links.put(key, links);
+            }
+            return links;
+        }
+
+        private Unit findStoreUnit(String storeUnitName)
+        {
+            Unit unit = _units.get(storeUnitName);
+            if (unit == null) {
+                int ind = storeUnitName.lastIndexOf("@");
+                if ((ind > 0) && (ind < (storeUnitName.length() - 1))) {
+                    String template = "*@"
+                                    + storeUnitName.substring(ind + 1);
+                    if ((unit = _units.get(template)) == null) {
+
+                        if ((unit = _units.get("*@*")) == null) {
+                            _log.debug("no matching storage unit found for: {}", storeUnitName);
+                            throw new IllegalArgumentException(
+                                            "Unit not found : " + storeUnitName);
+                        }
+                    }
+                } else {
+                    throw new IllegalArgumentException(
+                                    "IllegalUnitFormat : " + storeUnitName);
+                }
+            }
+            return unit;
+        }
+
+        /**
+         * If a pattern matches then use it, fail over to a class,
+         * then universal. If nothing, throw exception.
+         */
+        private Unit matchStoreUnit(String storeUnitName)
+        {
+            String classCoverageName = "*@" + storeUnitName;
+            Unit classCoverage = null;
+            for (StoreUnitPattern pattern : _patterns) {
+                if (pattern.getName().equals(classCoverageName)) {
+                    classCoverage = pattern.getUnit();
+                } else if (pattern.matches(storeUnitName)) {
+                    return pattern.getUnit();
+                }
+            }
+            if (classCoverage != null) {
+                return classCoverage;
+            }
+            if (_universalStoreUnit != null) {
+                return _universalStoreUnit;
+            }
+            throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+        }
+    }
+
+    /**
+     * A storage unit with its name compiled as a regular expression.
+     */
+    private static class StoreUnitPattern
+    {
+        private final Unit _unit;
+        private final Pattern _pattern;
+
+        StoreUnitPattern(Unit unit)
+        {
+            _unit = unit;
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(unit.getName());
+            } catch (PatternSyntaxException e) {
+                pattern = null;
+            }
+            _pattern = pattern;
+        }
+
+        Unit getUnit()
+        {
+            return _unit;
+        }
+
+        String getName()
+        {
+            return _unit.getName();
+        }
+
+        boolean matches(String storeUnitName)
+        {
+            if (_pattern == null) {
+                /* Fails with the same error as before the name was precompiled. */
+                return Pattern.matches(_unit.getName(), storeUnitName);
+            }
+            return _pattern.matcher(storeUnitName).matches();
+        }
+    }
+
     @Override
     public String getProtocolUnit(String protocolUnitName) {
         Unit unit = findProtocolUnit(protocolUnitName);
@@ -1130,18 +1234,23 @@ public class PoolSelectionUnitV2
 
     public String setRegex(String onOff) {
         String retVal;
-        switch (onOff) {
-            case "on":
-                _useRegex = true;
-                retVal = "regex turned on";
-                break;
-            case "off":
-                _useRegex = false;
-                retVal = "regex turned off";
-                break;
-            default:
-                throw new IllegalArgumentException(
-                                "please set regex either on or off");
+        wlock();
+        try {
+            switch (onOff) {
+                case "on":
+                    _useRegex = true;
+                    retVal = "regex turned on";
+                    break;
+                case "off":
+                    _useRegex = false;
+                    retVal = "regex turned off";
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                                    "please set regex either on or off");
+            }
+        } finally {
+            wunlock();
         }
         return retVal;
     }
@@ -2243,7 +2352,7 @@ public class PoolSelectionUnitV2
     }
 
     public void setPoolActive(String poolName, boolean active) {
-        wlock();
+        rlock();
         try {
             if (poolName.equals("*")) {
                 for (Pool pool : _pools.values()) {
@@ -2259,7 +2368,7 @@ public class PoolSelectionUnitV2
             }
 
         } finally {
-            wunlock();
+            runlock();
         }
     }
 
@@ -2453,6 +2562,7 @@ public class PoolSelectionUnitV2
 
     protected void wunlock()
     {
+        _selectionIndex = null;
         _psuWriteLock.unlock();
     }
 
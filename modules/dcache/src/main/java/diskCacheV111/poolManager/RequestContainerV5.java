@@ -16,14 +16,17 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -93,8 +96,14 @@ public class RequestContainerV5
 
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("MM.dd HH:mm:ss");
 
-    private final Map<UOID, PoolRequestHandler>     _messageHash   = new HashMap<>() ;
-    private final Map<String, PoolRequestHandler>   _handlerHash   = new HashMap<>() ;
+    /**
+     * Stands in for null in the mailbox of a request handler, which does
+     * not accept null elements.
+     */
+    private static final Object NO_INPUT = new Object();
+
+    private final Map<UOID, PoolRequestHandler>     _messageHash   = new ConcurrentHashMap<>() ;
+    private final Map<String, PoolRequestHandler>   _handlerHash   = new ConcurrentHashMap<>() ;
 
     private CellStub _billing;
     private CellStub _poolStub;
@@ -119,7 +128,7 @@ public class RequestContainerV5
     private PnfsHandler        _pnfsHandler;
 
     private Executor _executor;
-    private final Map<PnfsId, CacheException>            _selections       = new HashMap<>() ;
+    private final Map<PnfsId, CacheException>            _selections       = new ConcurrentHashMap<>() ;
     private PartitionManager   _partitionManager ;
     private volatile long               _checkFilePingTimer = 10 * 60 * 1000 ;
     /** value in milliseconds */
@@ -207,17 +216,10 @@ public class RequestContainerV5
 
     public void messageArrived(CellMessage envelope, Object message)
     {
-        UOID uoid = envelope.getLastUOID();
-        PoolRequestHandler handler;
-
-        synchronized (_messageHash) {
-            handler = _messageHash.remove(uoid);
-            if (handler == null) {
-                return;
-            }
+        PoolRequestHandler handler = _messageHash.remove(envelope.getLastUOID());
+        if (handler != null) {
+            handler.mailForYou(message);
         }
-
-        handler.mailForYou(message);
     }
 
     @Override
@@ -227,14 +229,8 @@ public class RequestContainerV5
             try {
                 Thread.sleep(_ticketInterval) ;
 
-                List<PoolRequestHandler> list;
-                synchronized (_handlerHash) {
-                    list = new ArrayList<>(_handlerHash.values());
-                }
-                for (PoolRequestHandler handler: list) {
-                    if (handler != null) {
-                        handler.alive();
-                    }
+                for (PoolRequestHandler handler: _handlerHash.values()) {
+                    handler.alive();
                 }
             } catch (InterruptedException e) {
                 break;
@@ -251,18 +247,7 @@ public class RequestContainerV5
     public void poolStatusChanged(String poolName, int poolStatus) {
         _log.info("Restore Manager : got 'poolRestarted' for " + poolName);
         try {
-            List<PoolRequestHandler> list;
-            synchronized (_handlerHash) {
-                list = new ArrayList<>(_handlerHash.values());
-            }
-
-            for (PoolRequestHandler rph : list) {
-
-                if (rph == null) {
-                    continue;
-                }
-
-
+            for (PoolRequestHandler rph : _handlerHash.values()) {
                 switch( poolStatus ) {
                     case PoolStatusChangedMessage.UP:
                         /*
@@ -367,30 +352,28 @@ public class RequestContainerV5
     public static final String hh_rc_select = "[<pnfsId> [<errorNumber> [<errorMessage>]] [-remove]]" ;
     public String ac_rc_select_$_0_3( Args args ){
 
-       synchronized( _selections ){
-          if( args.argc() == 0 ){
-             StringBuilder sb = new StringBuilder() ;
-             for( Map.Entry<PnfsId, CacheException > entry: _selections.entrySet() ){
-
-                sb.append(entry.getKey().toString()).
-                   append("  ").
-                   append(entry.getValue().toString()).
-                   append("\n");
-             }
-             return sb.toString() ;
-          }
-          boolean remove = args.hasOption("remove") ;
-          PnfsId  pnfsId = new PnfsId(args.argv(0));
+       if( args.argc() == 0 ){
+          StringBuilder sb = new StringBuilder() ;
+          for( Map.Entry<PnfsId, CacheException > entry: _selections.entrySet() ){
 
-          if( remove ){
-             _selections.remove( pnfsId ) ;
-             return "" ;
+             sb.append(entry.getKey().toString()).
+                append("  ").
+                append(entry.getValue().toString()).
+                append("\n");
           }
-          int    errorNumber  = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1 ;
-          String errorMessage = args.argc() > 2 ? args.argv(2) : ("Failed-"+errorNumber);
+          return sb.toString() ;
+       }
+       boolean remove = args.hasOption("remove") ;
+       PnfsId  pnfsId = new PnfsId(args.argv(0));
 
-          _selections.put( pnfsId , new CacheException(errorNumber,errorMessage) ) ;
+       if( remove ){
+          _selections.remove( pnfsId ) ;
+          return "" ;
        }
+       int    errorNumber  = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1 ;
+       String errorMessage = args.argc() > 2 ? args.argv(2) : ("Failed-"+errorNumber);
+
+       _selections.put( pnfsId , new CacheException(errorNumber,errorMessage) ) ;
        return "" ;
     }
     public static final String hh_rc_set_warning_path = " # obsolete";
@@ -487,28 +470,17 @@ public class RequestContainerV5
     {
        boolean forceAll = args.hasOption("force-all") ;
        if( args.argv(0).equals("*") ){
-          List<PoolRequestHandler> all;
-          //
-          // Remember : we are not allowed to call 'retry' as long
-          // as we  are holding the _handlerHash lock.
-          //
-          synchronized( _handlerHash ){
-             all = new ArrayList<>( _handlerHash.values() ) ;
-          }
-          for (PoolRequestHandler rph : all) {
+          for (PoolRequestHandler rph : _handlerHash.values()) {
               if( forceAll || ( rph._currentRc != 0 ) ) {
                   rph.retry();
               }
           }
        }else{
-          PoolRequestHandler rph;
-          synchronized( _handlerHash ){
-             rph = _handlerHash.get(args.argv(0));
-             if( rph == null ) {
-                 throw new
-                         IllegalArgumentException("Not found : " + args
-                         .argv(0));
-             }
+          PoolRequestHandler rph = _handlerHash.get(args.argv(0));
+          if( rph == null ) {
+              throw new
+                      IllegalArgumentException("Not found : " + args
+                      .argv(0));
           }
           rph.retry() ;
        }
@@ -520,14 +492,10 @@ public class RequestContainerV5
        int    errorNumber = args.argc() > 1 ? Integer.parseInt(args.argv(1)) : 1;
        String errorString = args.argc() > 2 ? args.argv(2) : "Operator Intervention" ;
 
-       PoolRequestHandler rph;
-
-       synchronized( _handlerHash ){
-          rph = _handlerHash.get(args.argv(0));
-          if( rph == null ) {
-              throw new
-                      IllegalArgumentException("Not found : " + args.argv(0));
-          }
+       PoolRequestHandler rph = _handlerHash.get(args.argv(0));
+       if( rph == null ) {
+           throw new
+                   IllegalArgumentException("Not found : " + args.argv(0));
        }
        rph.failed(errorNumber,errorString) ;
        return "" ;
@@ -541,16 +509,7 @@ public class RequestContainerV5
        boolean isLongListing = args.hasOption("l");
 
        if( !args.hasOption("w") ){
-          List<PoolRequestHandler>    allRequestHandlers;
-          synchronized( _handlerHash ){
-              allRequestHandlers = new ArrayList<>( _handlerHash.values() ) ;
-          }
-
-          for( PoolRequestHandler h : allRequestHandlers ){
-
-              if( h == null ) {
-                  continue;
-              }
+          for( PoolRequestHandler h : _handlerHash.values() ){
               String line = h.toString() ;
               if( ( pattern == null ) || pattern.matcher(line).matches() ) {
                   sb.append(line).append("\n");
@@ -565,19 +524,11 @@ public class RequestContainerV5
           }
        }else{
 
-           Map<UOID, PoolRequestHandler>  allPendingRequestHandlers   = new HashMap<>() ;
-          synchronized(_messageHash){
-              allPendingRequestHandlers.putAll( _messageHash ) ;
-          }
-
-          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : allPendingRequestHandlers.entrySet()) {
+          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : _messageHash.entrySet()) {
 
                 UOID uoid = requestHandler.getKey();
                 PoolRequestHandler h = requestHandler.getValue();
 
-                if (h == null) {
-                    continue;
-                }
                 String line = uoid.toString() + " " + h.toString();
                 if ((pattern == null) || pattern.matcher(line).matches()) {
                     sb.append(line).append("\n");
@@ -590,17 +541,9 @@ public class RequestContainerV5
     public static final String hh_xrc_ls = " # lists pending requests (binary)" ;
     public Object ac_xrc_ls( Args args ){
 
-       List<PoolRequestHandler> all;
-       synchronized( _handlerHash ){
-          all = new ArrayList<>( _handlerHash.values() ) ;
-       }
-
        List<RestoreHandlerInfo>          list = new ArrayList<>() ;
 
-       for( PoolRequestHandler h: all  ){
-          if( h  == null ) {
-              continue;
-          }
+       for( PoolRequestHandler h: _handlerHash.values()  ){
           list.add( h.getRestoreHandlerInfo() ) ;
        }
        return list.toArray( new RestoreHandlerInfo[list.size()] ) ;
@@ -641,11 +584,24 @@ public class RequestContainerV5
         String canonicalName = pnfsId +"@"+netName+"-"+protocolName+(enforceP2P?"-p2p":"")  ;
         //
         //
-        PoolRequestHandler handler;
         _log.info( "Adding request for : "+canonicalName ) ;
-        synchronized( _handlerHash ){
-           handler = _handlerHash.computeIfAbsent(canonicalName, n -> new PoolRequestHandler(pnfsId, n, allowedStates));
+        //
+        // Adding the request is atomic with respect to the handler
+        // removing itself from _handlerHash once it is done, thus a
+        // request is never added to a handler that already answered.
+        // The state engine of a new handler is started outside of the
+        // update, as it may run in this thread and remove the handler.
+        //
+        PoolRequestHandler[] created = new PoolRequestHandler[1];
+        _handlerHash.compute(canonicalName, (n, handler) -> {
+           if( handler == null ){
+              handler = created[0] = new PoolRequestHandler(pnfsId, n, allowedStates);
+           }
            handler.addRequest(envelope) ;
+           return handler;
+        });
+        if( created[0] != null ){
+           created[0].start();
         }
     }
 
@@ -686,7 +642,7 @@ public class RequestContainerV5
     private class PoolRequestHandler  {
 
         protected final PnfsId       _pnfsId;
-        protected final List<CellMessage>    _messages = new ArrayList<>() ;
+        protected final Queue<CellMessage>   _messages = new ConcurrentLinkedQueue<>() ;
         protected int _retryCounter;
         private final CDC _cdc = new CDC();
 
@@ -765,7 +721,7 @@ public class RequestContainerV5
          * Indicates the next time a TTL of a request message will be
          * exceeded.
          */
-        private long _nextTtlTimeout = Long.MAX_VALUE;
+        private final AtomicLong _nextTtlTimeout = new AtomicLong(Long.MAX_VALUE);
 
         public PoolRequestHandler(PnfsId pnfsId, String canonicalName,
                                   Collection<RequestState> allowedStates)
@@ -780,7 +736,8 @@ public class RequestContainerV5
         // at any time.
         //...........................................................
         //
-        // add request is assumed to be synchronized by a higher level.
+        // add request is called within the update of the _handlerHash
+        // entry of this handler, which serializes concurrent calls.
         //
         public void addRequest( CellMessage message ){
 
@@ -790,7 +747,7 @@ public class RequestContainerV5
            long ttl = message.getTtl();
            if (ttl < Long.MAX_VALUE) {
                long timeout = System.currentTimeMillis() + ttl;
-               _nextTtlTimeout = Math.min(_nextTtlTimeout, timeout);
+               _nextTtlTimeout.accumulateAndGet(timeout, Math::min);
            }
 
            if (_poolSelector != null) {
@@ -820,16 +777,15 @@ public class RequestContainerV5
                _poolMonitor.getPoolSelector(_fileAttributes,
                        _protocolInfo,
                        _linkGroup);
-           //
-           //
-           //
+        }
+
+        private void start()
+        {
            add(null) ;
         }
 
         public List<CellMessage> getMessages() {
-            synchronized( _handlerHash ){
-                return new ArrayList<>(_messages);
-            }
+            return new ArrayList<>(_messages);
         }
 
         public String getPoolCandidate()
@@ -926,9 +882,7 @@ public class RequestContainerV5
         //
         private void clearSteering() {
             if (_waitingFor != null) {
-                synchronized (_messageHash) {
-                  _messageHash.remove(_waitingFor);
-                }
+                _messageHash.remove(_waitingFor);
                 _waitingFor = null;
             }
         }
@@ -945,19 +899,21 @@ public class RequestContainerV5
                                         pool.getName(),
                                         _fileAttributes)
                                 );
-            synchronized( _messageHash ){
-                if( ( _maxRestore >=0 ) &&
-                    ( _messageHash.size() >= _maxRestore ) ) {
-                    return false;
-                }
-                sendMessage( cellMessage );
-                if( _waitingFor != null ) {
-                    _messageHash.remove(_waitingFor);
-                }
-                _poolMonitor.messageToCostModule( cellMessage ) ;
-                _messageHash.put( _waitingFor = cellMessage.getUOID() , this ) ;
-                _status = "Staging "+ LocalDateTime.now().format(DATE_TIME_FORMAT);
+            //
+            // The limit is not enforced atomically; concurrent handlers
+            // may exceed it by a few requests.
+            //
+            if( ( _maxRestore >=0 ) &&
+                ( _messageHash.size() >= _maxRestore ) ) {
+                return false;
             }
+            //
+            // Register before sending, as the reply may arrive at once.
+            //
+            expectReply(cellMessage);
+            _status = "Staging "+ LocalDateTime.now().format(DATE_TIME_FORMAT);
+            _poolMonitor.messageToCostModule( cellMessage ) ;
+            sendMessage( cellMessage );
             return true ;
 	}
 	private void sendPool2PoolRequest(PoolInfo sourcePool, PoolInfo destPool)
@@ -969,17 +925,20 @@ public class RequestContainerV5
 	    CellMessage cellMessage =
                 new CellMessage(new CellPath(destPool.getAddress()), pool2pool);
 
-            synchronized( _messageHash ){
-                sendMessage( cellMessage );
-                _poolMonitor.messageToCostModule( cellMessage ) ;
-                if( _waitingFor != null ) {
-                    _messageHash.remove(_waitingFor);
-                }
-                _messageHash.put( _waitingFor = cellMessage.getUOID() , this ) ;
-                _status = "[P2P "+ LocalDateTime.now().format(DATE_TIME_FORMAT) +"]" ;
-            }
+            expectReply(cellMessage);
+            _status = "[P2P "+ LocalDateTime.now().format(DATE_TIME_FORMAT) +"]" ;
+            _poolMonitor.messageToCostModule( cellMessage ) ;
+            sendMessage( cellMessage );
 	}
 
+        private void expectReply(CellMessage cellMessage)
+        {
+            if( _waitingFor != null ) {
+                _messageHash.remove(_waitingFor);
+            }
+            _messageHash.put( _waitingFor = cellMessage.getUOID() , this ) ;
+        }
+
         /**
          * Removes request messages who's time to live has been
          * exceeded. Messages are dropped; no reply is sent to the
@@ -988,25 +947,24 @@ public class RequestContainerV5
          */
         private void expireRequests()
         {
-            /* Access to _messages is controlled by a lock on
-             * _handlerHash.
+            /* Requests may be added concurrently. Their timeout is
+             * either seen by the iteration below or merged into
+             * _nextTtlTimeout after it has been reset.
              */
-            synchronized (_handlerHash) {
-                long now = System.currentTimeMillis();
-                _nextTtlTimeout = Long.MAX_VALUE;
-
-                Iterator<CellMessage> i = _messages.iterator();
-                while (i.hasNext()) {
-                    CellMessage message = i.next();
-                    long ttl = message.getTtl();
-                    if (message.getLocalAge() >= ttl) {
-                        _log.info("Discarding request from "
-                                  + message.getSourcePath().getCellName()
-                                  + " because its time to live has been exceeded.");
-                        i.remove();
-                    } else if (ttl < Long.MAX_VALUE) {
-                        _nextTtlTimeout = Math.min(_nextTtlTimeout, now + ttl);
-                    }
+            long now = System.currentTimeMillis();
+            _nextTtlTimeout.set(Long.MAX_VALUE);
+
+            Iterator<CellMessage> i = _messages.iterator();
+            while (i.hasNext()) {
+                CellMessage message = i.next();
+                long ttl = message.getTtl();
+                if (message.getLocalAge() >= ttl) {
+                    _log.info("Discarding request from "
+                              + message.getSourcePath().getCellName()
+                              + " because its time to live has been exceeded.");
+                    i.remove();
+                } else if (ttl < Long.MAX_VALUE) {
+                    _nextTtlTimeout.accumulateAndGet(now + ttl, Math::min);
                 }
             }
         }
@@ -1059,8 +1017,12 @@ public class RequestContainerV5
         private static final int CONTINUE        = 0 ;
         private static final int WAIT            = 1 ;
 
-        private final Deque<Object> _fifo              = new LinkedList<>() ;
-        private boolean    _stateEngineActive;
+        //
+        // The mailbox of the state engine. Any thread may add to it, but
+        // only the thread that set _stateEngineActive runs the engine.
+        //
+        private final Queue<Object> _fifo              = new ConcurrentLinkedQueue<>() ;
+        private final AtomicBoolean _stateEngineActive = new AtomicBoolean();
         private boolean    _forceContinue;
         private boolean    _overwriteCost;
 
@@ -1069,18 +1031,15 @@ public class RequestContainerV5
            public void run(){
               try (CDC ignored = _cdc.restore()) {
                  stateLoop() ;
-              }finally{
-                 synchronized( _fifo ){
-                   _stateEngineActive = false ;
-                 }
+              } catch (RuntimeException | Error e) {
+                 _stateEngineActive.set(false);
+                 throw e;
               }
            }
 
            @Override
            public void runFailed(){
-              synchronized( _fifo ){
-                   _stateEngineActive = false ;
-              }
+              _stateEngineActive.set(false);
            }
 
            @Override
@@ -1089,20 +1048,17 @@ public class RequestContainerV5
            }
         }
         private void add( Object obj ){
-           synchronized( _fifo ){
-               _log.info( "Adding Object : "+obj ) ;
-               _fifo.addFirst(obj) ;
-               if( _stateEngineActive ) {
-                   return;
-               }
-               _log.info( "Starting Engine" ) ;
-               _stateEngineActive = true ;
-               try {
-                   _executor.execute(new FireAndForgetTask(new RunEngine()));
-               } catch (RuntimeException e) {
-                   _stateEngineActive = false;
-                   throw e;
-               }
+           _log.info( "Adding Object : "+obj ) ;
+           _fifo.add(obj == null ? NO_INPUT : obj) ;
+           if( !_stateEngineActive.compareAndSet(false, true) ) {
+               return;
+           }
+           _log.info( "Starting Engine" ) ;
+           try {
+               _executor.execute(new FireAndForgetTask(new RunEngine()));
+           } catch (RuntimeException e) {
+               _stateEngineActive.set(false);
+               throw e;
            }
         }
         private void stateLoop(){
@@ -1114,12 +1070,20 @@ public class RequestContainerV5
 
               if( ! _forceContinue ){
 
-                 synchronized( _fifo ){
-                    if( _fifo.size() == 0 ){
-                       _stateEngineActive = false ;
+                 inputObject = _fifo.poll() ;
+                 if( inputObject == null ){
+                    _stateEngineActive.set(false) ;
+                    //
+                    // An object added after the poll may have found the
+                    // engine active and not started another one.
+                    //
+                    if( _fifo.isEmpty() || !_stateEngineActive.compareAndSet(false, true) ){
                        return ;
                     }
-                    inputObject = _fifo.removeLast() ;
+                    continue ;
+                 }
+                 if( inputObject == NO_INPUT ){
+                    inputObject = null ;
                  }
               }else{
                  inputObject = null ;
@@ -1145,6 +1109,7 @@ public class RequestContainerV5
                   _log.error("Unexpected Exception in state loop for " + _pnfsId, e);
               }
            }
+           _stateEngineActive.set(false) ;
         }
 
         private boolean canStage()
@@ -1331,15 +1296,11 @@ public class RequestContainerV5
 
               case ST_INIT :
                  _log.debug( "stateEngine: case ST_INIT");
-                 synchronized( _selections ){
-
-                    CacheException ce = _selections.get(_pnfsId) ;
-                    if( ce != null ){
-                       setError(ce.getRc(),ce.getMessage());
-                       nextStep(RequestState.ST_DONE , CONTINUE ) ;
-                       return ;
-                    }
-
+                 CacheException ce = _selections.get(_pnfsId) ;
+                 if( ce != null ){
+                    setError(ce.getRc(),ce.getMessage());
+                    nextStep(RequestState.ST_DONE , CONTINUE ) ;
+                    return ;
                  }
 
 
@@ -1653,12 +1614,15 @@ public class RequestContainerV5
 
                     clearSteering();
                     //
-                    // it is essential that we are not within any other
-                    // lock when trying to get the handlerHash lock.
+                    // Removal is atomic with respect to the
+                    // _handlerHash.compute in messageArrived(CellMessage,
+                    // PoolMgrSelectReadPoolMsg), which adds requests to
+                    // handlers: requests added before are answered below,
+                    // later ones get a new handler. No other thread runs
+                    // this code concurrently, as only the thread that set
+                    // _stateEngineActive drains _fifo into stateEngine.
                     //
-                    synchronized (_handlerHash) {
-                        _handlerHash.remove(_name);
-                    }
+                    _handlerHash.remove(_name, this);
                     while (answerRequest(MAX_REQUEST_CLUMPING)) {
                         setError(CacheException.OUT_OF_DATE,
                                  "Request clumping limit reached");
@@ -1689,7 +1653,7 @@ public class RequestContainerV5
 
             case "alive":
                 long now = System.currentTimeMillis();
-                if (now > _nextTtlTimeout) {
+                if (now > _nextTtlTimeout.get()) {
                     expireRequests();
                 }
                 break;
@@ -2080,13 +2044,9 @@ public class RequestContainerV5
                         long now = System.currentTimeMillis();
 
                         // Determine which pools to query
-                        List<PoolRequestHandler> list;
-                        synchronized (_handlerHash) {
-                            list = new ArrayList<>(_handlerHash.values());
-                        }
                         Multimap<CellAddressCore, PoolRequestHandler> p2pRequests = ArrayListMultimap.create();
                         Multimap<CellAddressCore, PoolRequestHandler> stageRequests = ArrayListMultimap.create();
-                        for (PoolRequestHandler handler : list) {
+                        for (PoolRequestHandler handler : _handlerHash.values()) {
                             if (handler._started < now - _checkFilePingTimer) {
                                 PoolInfo pool;
                                 switch (handler._state) {
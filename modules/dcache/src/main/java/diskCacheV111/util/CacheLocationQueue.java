@@ -0,0 +1,380 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.util;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsClearCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.cells.CellStub;
+import org.dcache.util.CacheExceptionFactory;
+import org.dcache.vehicles.PnfsBatchMessage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Coalesces cache location updates of a pool into batches sent to
+ * PnfsManager as a single {@link PnfsBatchMessage}.
+ *
+ * Updates are queued until either the maximum batch size is reached or
+ * the oldest queued update has waited for the maximum delay. At most one
+ * update per file is queued: a later update for the same file replaces the
+ * earlier one, as only the last update determines whether the file has a
+ * location on the pool. A replaced add request completes once the update
+ * replacing it has been sent.
+ *
+ * The number of batches awaiting a reply from PnfsManager is limited, so
+ * that a pool registering its complete inventory cannot flood PnfsManager.
+ *
+ * PnfsManager may process concurrent requests for the same file out of
+ * order. Updates of a file are therefore not sent while an earlier request
+ * for that file awaits a reply; they stay queued until it completed.
+ */
+public class CacheLocationQueue implements CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheLocationQueue.class);
+
+    private static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+    private final CellStub _stub;
+
+    private final ScheduledExecutorService _executor =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("cache-location-queue").setDaemon(true).build());
+
+    private final Semaphore _inFlight = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+
+    /** Queued updates in order of arrival. Guarded by this. */
+    private final Map<PnfsId, Update> _queue = new LinkedHashMap<>();
+
+    /**
+     * Completion of the requests awaiting a reply from PnfsManager, by the
+     * file they update. The futures never fail. Guarded by this.
+     */
+    private final Map<PnfsId, ListenableFuture<?>> _sent = new HashMap<>();
+
+    /** Delayed flush of the queue. Guarded by this. */
+    private ScheduledFuture<?> _flushTask;
+
+    private volatile int _maxBatchSize = 500;
+    private volatile long _maxDelay = 100;
+    private volatile TimeUnit _maxDelayUnit = TimeUnit.MILLISECONDS;
+
+    private final LongAdder _updates = new LongAdder();
+    private final LongAdder _replaced = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+    private final LongAdder _batchedUpdates = new LongAdder();
+    private final LongAdder _failedBatches = new LongAdder();
+    private final AtomicInteger _largestBatch = new AtomicInteger();
+
+    public CacheLocationQueue(CellStub stub)
+    {
+        _stub = stub;
+    }
+
+    public void setMaxBatchSize(int size)
+    {
+        checkArgument(size > 0, "Batch size must be positive");
+        _maxBatchSize = size;
+    }
+
+    public void setMaxDelay(long delay)
+    {
+        checkArgument(delay >= 0, "Delay must not be negative");
+        _maxDelay = delay;
+    }
+
+    public void setMaxDelayUnit(TimeUnit unit)
+    {
+        _maxDelayUnit = unit;
+    }
+
+    /**
+     * Sends queued updates and stops the queue.
+     */
+    public void shutdown()
+    {
+        _executor.execute(this::flush);
+        _executor.shutdown();
+    }
+
+    /**
+     * Queues a request to add a cache location. The returned future
+     * completes when PnfsManager replied to the batch containing the request.
+     */
+    public ListenableFuture<PnfsAddCacheLocationMessage> add(PnfsAddCacheLocationMessage message)
+    {
+        SettableFuture<PnfsAddCacheLocationMessage> future = SettableFuture.create();
+        enqueue(new Update(message, future));
+        return future;
+    }
+
+    /**
+     * Queues a request to clear a cache location.
+     */
+    public void clear(PnfsClearCacheLocationMessage message)
+    {
+        enqueue(new Update(message, null));
+    }
+
+    /**
+     * Sends a request to add a cache location without delay. A queued
+     * update of the same file is discarded, as it is superseded by this
+     * request. If an earlier update of the file awaits a reply, the request
+     * is sent once that reply arrived.
+     */
+    public ListenableFuture<PnfsAddCacheLocationMessage> addNow(PnfsAddCacheLocationMessage message)
+    {
+        message.setReplyRequired(true);
+        PnfsId pnfsId = message.getPnfsId();
+        Update replaced;
+        ListenableFuture<PnfsAddCacheLocationMessage> future;
+        synchronized (this) {
+            replaced = _queue.remove(pnfsId);
+            ListenableFuture<?> earlier = _sent.get(pnfsId);
+            if (earlier == null) {
+                future = _stub.send(message);
+            } else {
+                SettableFuture<PnfsAddCacheLocationMessage> delayed = SettableFuture.create();
+                earlier.addListener(() -> delayed.setFuture(_stub.send(message)), directExecutor());
+                future = delayed;
+            }
+            SettableFuture<Void> done = SettableFuture.create();
+            future.addListener(() -> done.set(null), directExecutor());
+            sent(pnfsId, done);
+        }
+        if (replaced != null) {
+            _replaced.increment();
+            replaced.replacedBy(future);
+        }
+        return future;
+    }
+
+    private void enqueue(Update update)
+    {
+        Update replaced;
+        synchronized (this) {
+            replaced = _queue.remove(update.getPnfsId());
+            _queue.put(update.getPnfsId(), update);
+            if (_queue.size() == _maxBatchSize) {
+                _executor.execute(this::flush);
+            } else if (_flushTask == null) {
+                _flushTask = _executor.schedule(this::flush, _maxDelay, _maxDelayUnit);
+            }
+        }
+        _updates.increment();
+        if (replaced != null) {
+            _replaced.increment();
+            replaced.replacedBy(update._future);
+        }
+    }
+
+    /**
+     * Sends all queued updates in batches of at most the maximum batch size.
+     */
+    private void flush()
+    {
+        synchronized (this) {
+            if (_flushTask != null) {
+                _flushTask.cancel(false);
+                _flushTask = null;
+            }
+        }
+        try {
+            while (true) {
+                _inFlight.acquire();
+                SettableFuture<Void> done = SettableFuture.create();
+                List<Update> batch = take(done);
+                if (batch.isEmpty()) {
+                    _inFlight.release();
+                    break;
+                }
+                send(batch, done);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes up to the maximum batch size of updates from the queue, skipping
+     * files with a request awaiting a reply. The files of the removed updates
+     * are recorded as sent until {@code done} completes.
+     */
+    private synchronized List<Update> take(ListenableFuture<?> done)
+    {
+        List<Update> batch = new ArrayList<>(Math.min(_queue.size(), _maxBatchSize));
+        Iterator<Update> i = _queue.values().iterator();
+        while (i.hasNext() && batch.size() < _maxBatchSize) {
+            Update update = i.next();
+            if (!_sent.containsKey(update.getPnfsId())) {
+                batch.add(update);
+                i.remove();
+            }
+        }
+        batch.forEach(update -> sent(update.getPnfsId(), done));
+        return batch;
+    }
+
+    private synchronized void sent(PnfsId pnfsId, ListenableFuture<?> done)
+    {
+        _sent.put(pnfsId, done);
+        done.addListener(() -> completed(pnfsId, done), directExecutor());
+    }
+
+    /**
+     * Called when a request for a file completed. Flushes updates of the file
+     * that were held back.
+     */
+    private synchronized void completed(PnfsId pnfsId, ListenableFuture<?> done)
+    {
+        _sent.remove(pnfsId, done);
+        if (_queue.containsKey(pnfsId) && _flushTask == null && !_executor.isShutdown()) {
+            _flushTask = _executor.schedule(this::flush, _maxDelay, _maxDelayUnit);
+        }
+    }
+
+    private void send(List<Update> batch, SettableFuture<Void> done)
+    {
+        _batches.increment();
+        _batchedUpdates.add(batch.size());
+        _largestBatch.accumulateAndGet(batch.size(), Math::max);
+
+        PnfsBatchMessage message = new PnfsBatchMessage(batch.stream().map(u -> u._message).collect(toList()));
+        Futures.addCallback(_stub.send(message), new FutureCallback<PnfsBatchMessage>()
+        {
+            @Override
+            public void onSuccess(PnfsBatchMessage reply)
+            {
+                _inFlight.release();
+                List<PnfsMessage> replies = reply.getMessages();
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).completed(replies.get(i));
+                }
+                done.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                _inFlight.release();
+                _failedBatches.increment();
+                LOGGER.warn("Failed to update {} cache locations: {}", batch.size(), t.getMessage());
+                batch.forEach(u -> u.failed(t));
+                done.set(null);
+            }
+        });
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        int queued;
+        synchronized (this) {
+            queued = _queue.size();
+        }
+        long batches = _batches.sum();
+        pw.println("Cache location updates");
+        pw.println("   Queued            : " + queued);
+        pw.println("   Batches in flight : " + (MAX_BATCHES_IN_FLIGHT - _inFlight.availablePermits()));
+        pw.println("   Updates           : " + _updates.sum() + " (" + _replaced.sum() + " replaced)");
+        pw.println("   Batches           : " + batches + " (" + _failedBatches.sum() + " failed)");
+        pw.println(String.format("   Batch size        : %.1f average, %d largest, %d maximum",
+                                 (batches == 0) ? 0.0 : (double) _batchedUpdates.sum() / batches,
+                                 _largestBatch.get(), _maxBatchSize));
+        pw.println("   Maximum delay     : " + _maxDelay + " " + _maxDelayUnit.name().toLowerCase());
+    }
+
+    private static class Update
+    {
+        private final PnfsMessage _message;
+        private final SettableFuture<PnfsAddCacheLocationMessage> _future;
+
+        Update(PnfsMessage message, SettableFuture<PnfsAddCacheLocationMessage> future)
+        {
+            _message = message;
+            _future = future;
+        }
+
+        PnfsId getPnfsId()
+        {
+            return _message.getPnfsId();
+        }
+
+        void completed(PnfsMessage reply)
+        {
+            if (_future != null) {
+                if (reply.getReturnCode() == 0) {
+                    _future.set((PnfsAddCacheLocationMessage) reply);
+                } else {
+                    _future.setException(CacheExceptionFactory.exceptionOf(reply));
+                }
+            }
+        }
+
+        void failed(Throwable t)
+        {
+            if (_future != null) {
+                _future.setException(t);
+            }
+        }
+
+        /**
+         * Completes the update once the update replacing it completed. If the
+         * replacing update clears the location, the replaced add request is
+         * considered successful.
+         */
+        void replacedBy(ListenableFuture<PnfsAddCacheLocationMessage> future)
+        {
+            if (_future != null) {
+                if (future != null) {
+                    _future.setFuture(future);
+                } else {
+                    _future.set((PnfsAddCacheLocationMessage) _message);
+                }
+            }
+        }
+    }
+}
@@ -53,6 +53,8 @@ public class PnfsHandler
 
     private Subject _subject;
     private Restriction _restriction;
+    private CacheLocationQueue _cacheLocationQueue;
+    private boolean _isLagTolerant;
 
     private static final Logger _logNameSpace =
                     LoggerFactory.getLogger("logger.org.dcache.namespace."
@@ -106,6 +108,7 @@ public class PnfsHandler
         _cellStub = handler._cellStub;
         _subject = subject;
         _restriction = restriction;
+        _isLagTolerant = handler._isLagTolerant;
     }
 
     @Override
@@ -122,6 +125,28 @@ public class PnfsHandler
         _restriction = restriction;
     }
 
+    /**
+     * Marks all requests sent through this handler as tolerating results
+     * that lag behind recent modifications of the name space. PnfsManager
+     * only honours the mark for requests without side effects and may serve
+     * those from a read replica. Session specific copies of this handler
+     * inherit the setting.
+     */
+    public void setLagTolerant(boolean isLagTolerant)
+    {
+        _isLagTolerant = isLagTolerant;
+    }
+
+    /**
+     * Sets a queue through which cache location updates are sent to
+     * PnfsManager in batches. Session specific copies of this handler
+     * do not inherit the queue.
+     */
+    public void setCacheLocationQueue(CacheLocationQueue queue)
+    {
+        _cacheLocationQueue = queue;
+    }
+
     /**
      * Sends a PnfsMessage to PnfsManager.
      */
@@ -138,6 +163,10 @@ public class PnfsHandler
             msg.setRestriction(_restriction);
         }
 
+        if (_isLagTolerant) {
+            msg.setLagTolerant(true);
+        }
+
         _cellStub.notify(msg);
     }
 
@@ -159,7 +188,13 @@ public class PnfsHandler
 
    public void clearCacheLocation(PnfsId id, boolean removeIfLast)
    {
-       notify(new PnfsClearCacheLocationMessage(id, _poolName, removeIfLast));
+       PnfsClearCacheLocationMessage msg = new PnfsClearCacheLocationMessage(id, _poolName, removeIfLast);
+       if (_cacheLocationQueue != null) {
+           msg.setReplyRequired(false);
+           _cacheLocationQueue.clear(msg);
+       } else {
+           notify(msg);
+       }
    }
 
    public void addCacheLocation(PnfsId id) throws CacheException
@@ -169,9 +204,34 @@ public class PnfsHandler
 
    public void addCacheLocation(PnfsId id, String pool) throws CacheException
    {
-       request(new PnfsAddCacheLocationMessage(id, pool));
+       PnfsAddCacheLocationMessage msg = new PnfsAddCacheLocationMessage(id, pool);
+       if (_cacheLocationQueue != null) {
+           try {
+               CellStub.getMessage(_cacheLocationQueue.addNow(msg));
+           } catch (InterruptedException e) {
+               throw new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
+                                        "Sending message to " + _cellStub.getDestinationPath() + " interrupted");
+           }
+       } else {
+           request(msg);
+       }
    }
 
+    /**
+     * Adds the cache location of this pool to a file. If a cache location
+     * queue is set, the request is sent in a batch with other cache
+     * location updates.
+     */
+    public ListenableFuture<PnfsAddCacheLocationMessage> addCacheLocationAsync(PnfsId id)
+    {
+        PnfsAddCacheLocationMessage msg = new PnfsAddCacheLocationMessage(id, _poolName);
+        if (_cacheLocationQueue != null) {
+            msg.setReplyRequired(true);
+            return _cacheLocationQueue.add(msg);
+        }
+        return requestAsync(msg);
+    }
+
    public List<String> getCacheLocations( PnfsId pnfsId )throws CacheException {
       PnfsGetCacheLocationsMessage pnfsMessage = new PnfsGetCacheLocationsMessage(pnfsId) ;
       pnfsMessage = request(pnfsMessage) ;
@@ -234,6 +294,9 @@ public class PnfsHandler
         if (_subject != null) {
             msg.setSubject(_subject);
         }
+        if (_isLagTolerant) {
+            msg.setLagTolerant(true);
+        }
         return _cellStub.send(msg, timeout);
     }
 
@@ -0,0 +1,252 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.vehicles;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Requests pool manager to select read or write pools for many files at
+ * once. All files share the same protocol, and thus the same net unit, and
+ * the same link group. Pool manager matches the files against the selection
+ * unit once per distinct storage unit and replies with a selection for
+ * each file.
+ *
+ * Read pools are only selected among the pools that already hold a file.
+ * Files that would have to be staged or copied between pools are reported
+ * as failed with the error of the selection, and must be requested
+ * individually with a PoolMgrSelectReadPoolMsg.
+ *
+ * The message as a whole succeeds even if the selection fails for some of
+ * the files. It only fails if none of the files could be processed at all.
+ */
+public class PoolMgrBulkSelectPoolMsg extends PoolManagerMessage
+{
+    private static final long serialVersionUID = -1541826451713283524L;
+
+    private final DirectionType _accessType;
+    private final ProtocolInfo _protocolInfo;
+    private final List<Selection> _selections = new ArrayList<>();
+    private String _linkGroup;
+    private String _ioQueueName;
+    private boolean _skipCostUpdate;
+
+    /**
+     * The selection of a pool for a single file.
+     */
+    public static class Selection implements Serializable
+    {
+        private static final long serialVersionUID = 3926617893006545410L;
+
+        private final FileAttributes _fileAttributes;
+        private final long _preallocated;
+        private String _poolName;
+        private CellAddressCore _poolAddress;
+        private int _returnCode;
+        private Serializable _errorObject;
+
+        private Selection(FileAttributes fileAttributes, long preallocated)
+        {
+            _fileAttributes = fileAttributes;
+            _preallocated = preallocated;
+        }
+
+        @Nonnull
+        public FileAttributes getFileAttributes()
+        {
+            return _fileAttributes;
+        }
+
+        @Nonnull
+        public PnfsId getPnfsId()
+        {
+            return _fileAttributes.getPnfsId();
+        }
+
+        /**
+         * Space in bytes preallocated to the file, or zero if no space is
+         * preallocated. Only used when selecting write pools.
+         */
+        public long getPreallocated()
+        {
+            return _preallocated;
+        }
+
+        public String getPoolName()
+        {
+            return _poolName;
+        }
+
+        public CellAddressCore getPoolAddress()
+        {
+            return _poolAddress;
+        }
+
+        public int getReturnCode()
+        {
+            return _returnCode;
+        }
+
+        public Serializable getErrorObject()
+        {
+            return _errorObject;
+        }
+
+        public boolean isSucceeded()
+        {
+            return _poolName != null && _returnCode == 0;
+        }
+
+        public void setSucceeded(String poolName, CellAddressCore poolAddress)
+        {
+            _poolName = checkNotNull(poolName);
+            _poolAddress = poolAddress;
+            _returnCode = 0;
+            _errorObject = null;
+        }
+
+        public void setFailed(int returnCode, Serializable errorObject)
+        {
+            _poolName = null;
+            _poolAddress = null;
+            _returnCode = returnCode;
+            _errorObject = errorObject;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getPnfsId() + ((_returnCode == 0)
+                                  ? ((_poolName == null) ? "" : ";PoolName=" + _poolName)
+                                  : ";(" + _returnCode + ")=" + _errorObject);
+        }
+    }
+
+    /**
+     * @param accessType either READ or WRITE
+     * @param protocolInfo ProtocolInfo describing the transfers
+     */
+    public PoolMgrBulkSelectPoolMsg(DirectionType accessType, ProtocolInfo protocolInfo)
+    {
+        checkArgument(accessType == DirectionType.READ || accessType == DirectionType.WRITE,
+                      "Only read and write pools can be selected in bulk.");
+        _accessType = accessType;
+        _protocolInfo = checkNotNull(protocolInfo);
+        setReplyRequired(true);
+    }
+
+    /**
+     * Adds a file to read, or to write without preallocated space.
+     */
+    public void addFile(FileAttributes fileAttributes)
+    {
+        addFile(fileAttributes,
+                (_accessType == DirectionType.WRITE && fileAttributes.isDefined(FileAttribute.SIZE))
+                ? fileAttributes.getSize()
+                : 0);
+    }
+
+    /**
+     * Adds a file to the request.
+     *
+     * @param fileAttributes FileAttributes of the file
+     * @param preallocated Space in bytes preallocated to the file, or zero
+     *                     if no space is preallocated
+     */
+    public void addFile(FileAttributes fileAttributes, long preallocated)
+    {
+        checkArgument(fileAttributes.isDefined(PoolMgrGetPoolMsg.getRequiredAttributes()),
+                      "Required attributes are missing.");
+        checkArgument(_accessType == DirectionType.WRITE ||
+                      fileAttributes.isDefined(FileAttribute.LOCATIONS),
+                      "Locations are required to select read pools.");
+        _selections.add(new Selection(fileAttributes, preallocated));
+    }
+
+    @Nonnull
+    public DirectionType getAccessType()
+    {
+        return _accessType;
+    }
+
+    @Nonnull
+    public ProtocolInfo getProtocolInfo()
+    {
+        return _protocolInfo;
+    }
+
+    @Nonnull
+    public List<Selection> getSelections()
+    {
+        return Collections.unmodifiableList(_selections);
+    }
+
+    public void setLinkGroup(@Nullable String linkGroup)
+    {
+        _linkGroup = linkGroup;
+    }
+
+    @Nullable
+    public String getLinkGroup()
+    {
+        return _linkGroup;
+    }
+
+    public void setIoQueueName(@Nullable String ioQueueName)
+    {
+        _ioQueueName = ioQueueName;
+    }
+
+    @Nullable
+    public String getIoQueueName()
+    {
+        return _ioQueueName;
+    }
+
+    public void setSkipCostUpdate(boolean value)
+    {
+        _skipCostUpdate = value;
+    }
+
+    public boolean getSkipCostUpdate()
+    {
+        return _skipCostUpdate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _accessType + ";Files=" + _selections.size() + ";" + super.toString();
+    }
+}
@@ -73,6 +73,7 @@ public class StringTemplateInfoMessageVisitor implements InfoMessageVisitor
         acceptFileInfoMessage(message);
         template.add("transferred", message.getDataTransferred());
         template.add("connectionTime", message.getConnectionTime());
+        template.add("throughput", message.getThroughput());
         template.add("created", message.isFileCreated());
         template.add("protocol", message.getProtocolInfo());
         template.add("initiator", message.getInitiator());
@@ -5,6 +5,7 @@ package org.dcache.pool.classic;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
@@ -21,6 +22,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -46,6 +48,7 @@ import diskCacheV111.util.PnfsHandler;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.DCapProtocolInfo;
 import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
 import diskCacheV111.vehicles.Pool2PoolTransferMsg;
 import diskCacheV111.vehicles.PoolAcceptFileMessage;
 import diskCacheV111.vehicles.PoolCheckFreeSpaceMessage;
@@ -1578,30 +1581,51 @@ public class PoolV4
     //
     private class HybridInventory implements Runnable
     {
+        /**
+         * Maximum number of registrations awaiting a reply.
+         */
+        private static final int REGISTRATION_WINDOW = 1000;
+
         private boolean _activate = true;
 
+        private final Map<PnfsId, ListenableFuture<PnfsAddCacheLocationMessage>> _registrations =
+                new LinkedHashMap<>();
+
         public HybridInventory(boolean activate)
         {
             _activate = activate;
             new Thread(this, "HybridInventory").start();
         }
 
-        private void addCacheLocation(PnfsId id)
+        private void addCacheLocation(PnfsId id) throws InterruptedException
         {
-            try {
-                _pnfs.addCacheLocation(id);
-            } catch (FileNotFoundCacheException e) {
+            _registrations.put(id, _pnfs.addCacheLocationAsync(id));
+            if (_registrations.size() >= REGISTRATION_WINDOW) {
+                awaitRegistrations();
+            }
+        }
+
+        private void awaitRegistrations() throws InterruptedException
+        {
+            for (Map.Entry<PnfsId, ListenableFuture<PnfsAddCacheLocationMessage>> registration :
+                    _registrations.entrySet()) {
+                PnfsId id = registration.getKey();
                 try {
-                    _repository.setState(id, ReplicaState.REMOVED);
-                    _log.info("File not found in PNFS; removed " + id);
-                } catch (InterruptedException | CacheException f) {
-                    _log.error("File not found in PNFS, but failed to remove "
-                               + id + ": " + f);
+                    CellStub.getMessage(registration.getValue());
+                } catch (FileNotFoundCacheException e) {
+                    try {
+                        _repository.setState(id, ReplicaState.REMOVED);
+                        _log.info("File not found in PNFS; removed " + id);
+                    } catch (CacheException f) {
+                        _log.error("File not found in PNFS, but failed to remove "
+                                   + id + ": " + f);
+                    }
+                } catch (CacheException e) {
+                    _log.error("Cache location was not registered for "
+                               + id + ": " + e.getMessage());
                 }
-            } catch (CacheException e) {
-                _log.error("Cache location was not registered for "
-                           + id + ": " + e.getMessage());
             }
+            _registrations.clear();
         }
 
         private void clearCacheLocation(PnfsId id)
@@ -1644,9 +1668,15 @@ public class PoolV4
                 } catch (CacheException e) {
                     _log.warn(e.getMessage());
                 } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     break;
                 }
             }
+            try {
+                awaitRegistrations();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             stopTime = System.currentTimeMillis();
             synchronized (_hybridInventoryLock) {
                 _hybridInventoryActive = false;
@@ -0,0 +1,341 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic;
+
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Approximate LRU queue partitioned into independent shards.
+ *
+ * Each shard implements the clock (second chance) algorithm: keys are kept
+ * in a ring in the order they were added and an access merely marks the key
+ * as referenced. The eviction hand skips referenced keys once, moving them
+ * to the end of the ring. Adding, removing and touching keys thus never
+ * reorders any shared structure and does not block.
+ *
+ * Eviction candidates are selected by merging the shards: of the keys under
+ * the hand of each shard, the one with the oldest access time is taken.
+ * Candidates are taken off the ring, but remain in the queue until removed;
+ * candidates that could not be evicted must be {@link #requeue requeued}.
+ *
+ * Removing a key leaves a stale node in the ring of its shard. Stale nodes
+ * are dropped when they reach the hand, or when the ring is compacted after
+ * the number of stale nodes exceeds the number of live keys in the shard.
+ * The number of stale nodes is derived from the size of the ring, which is
+ * only reduced when a node is actually taken off the ring. Keys removed
+ * while their node is off the ring as a candidate thus are not counted.
+ */
+class ShardedLruQueue<K>
+{
+    private static final int MIN_STALE_FOR_COMPACTION = 1024;
+
+    private final Shard<K>[] _shards;
+    private final int _mask;
+
+    @SuppressWarnings("unchecked")
+    ShardedLruQueue(int shards)
+    {
+        checkArgument(shards > 0 && Integer.bitCount(shards) == 1, "Number of shards must be a power of two.");
+        _shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            _shards[i] = new Shard<>();
+        }
+        _mask = shards - 1;
+    }
+
+    int getShardCount()
+    {
+        return _shards.length;
+    }
+
+    /**
+     * Adds a key unless it is already in the queue.
+     *
+     * @return true if the key was added
+     */
+    boolean add(K key, long size, long accessTime)
+    {
+        return shard(key).add(new Node<>(key, size, accessTime));
+    }
+
+    /**
+     * Removes a key from the queue.
+     *
+     * @return true if the key was in the queue
+     */
+    boolean remove(K key)
+    {
+        return shard(key).remove(key);
+    }
+
+    /**
+     * Records an access to a key.
+     *
+     * @return true if the key is in the queue
+     */
+    boolean touch(K key, long accessTime)
+    {
+        Node<K> node = shard(key)._index.get(key);
+        if (node == null) {
+            return false;
+        }
+        node._accessTime = accessTime;
+        node._referenced = true;
+        return true;
+    }
+
+    boolean contains(K key)
+    {
+        return shard(key)._index.containsKey(key);
+    }
+
+    int size()
+    {
+        int size = 0;
+        for (Shard<K> shard : _shards) {
+            size += shard._index.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the access time of the oldest key under the hand of any
+     * shard, or 0 if the queue is empty.
+     */
+    long getTimeOfLeastRecentlyUsedElement()
+    {
+        long time = Long.MAX_VALUE;
+        for (Shard<K> shard : _shards) {
+            Node<K> node = shard.head();
+            if (node != null) {
+                time = Math.min(time, node._accessTime);
+            }
+        }
+        return (time == Long.MAX_VALUE) ? 0 : time;
+    }
+
+    /**
+     * Takes eviction candidates off the queue until either {@code max}
+     * candidates have been selected or their total size reaches {@code bytes}.
+     */
+    List<Node<K>> poll(int max, long bytes)
+    {
+        List<Node<K>> candidates = new ArrayList<>();
+        long total = 0;
+        while (candidates.size() < max && total < bytes) {
+            Shard<K> oldest = null;
+            Node<K> candidate = null;
+            for (Shard<K> shard : _shards) {
+                Node<K> node = shard.head();
+                if (node != null && (candidate == null || node._accessTime < candidate._accessTime)) {
+                    oldest = shard;
+                    candidate = node;
+                }
+            }
+            if (candidate == null) {
+                break;
+            }
+            if (oldest.poll(candidate)) {
+                candidates.add(candidate);
+                total += candidate._size;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Puts a candidate that was not evicted back into the queue. Has no
+     * effect if the key has been removed in the meantime.
+     */
+    void requeue(Node<K> node)
+    {
+        shard(node._key).requeue(node);
+    }
+
+    /**
+     * Returns all keys ordered by access time.
+     *
+     * Access times change concurrently, so they are copied before sorting
+     * to keep the order consistent.
+     */
+    List<K> values()
+    {
+        List<Map.Entry<K, Long>> entries = new ArrayList<>();
+        for (Shard<K> shard : _shards) {
+            for (Node<K> node : shard._index.values()) {
+                entries.add(Maps.immutableEntry(node._key, node._accessTime));
+            }
+        }
+        entries.sort(Map.Entry.comparingByValue());
+        List<K> keys = new ArrayList<>(entries.size());
+        for (Map.Entry<K, Long> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    private Shard<K> shard(K key)
+    {
+        int h = key.hashCode();
+        return _shards[(h ^ (h >>> 16)) & _mask];
+    }
+
+    static class Node<K>
+    {
+        private final K _key;
+        private final long _size;
+        private volatile long _accessTime;
+        private volatile boolean _referenced;
+
+        Node(K key, long size, long accessTime)
+        {
+            _key = key;
+            _size = size;
+            _accessTime = accessTime;
+        }
+
+        K getKey()
+        {
+            return _key;
+        }
+
+        long getSize()
+        {
+            return _size;
+        }
+
+        long getAccessTime()
+        {
+            return _accessTime;
+        }
+    }
+
+    private static class Shard<K>
+    {
+        private final ConcurrentHashMap<K, Node<K>> _index = new ConcurrentHashMap<>();
+        private final Queue<Node<K>> _ring = new ConcurrentLinkedQueue<>();
+        /** Number of nodes in the ring, live or stale. */
+        private final AtomicInteger _ringSize = new AtomicInteger();
+
+        /**
+         * Serializes movements of the hand and compaction of the ring.
+         */
+        private final ReentrantLock _handLock = new ReentrantLock();
+
+        boolean add(Node<K> node)
+        {
+            if (_index.putIfAbsent(node._key, node) != null) {
+                return false;
+            }
+            _ringSize.incrementAndGet();
+            _ring.add(node);
+            return true;
+        }
+
+        boolean remove(K key)
+        {
+            if (_index.remove(key) == null) {
+                return false;
+            }
+            int live = _index.size();
+            if (_ringSize.get() - live > Math.max(live, MIN_STALE_FOR_COMPACTION) && _handLock.tryLock()) {
+                try {
+                    _ring.removeIf(n -> {
+                        if (isLive(n)) {
+                            return false;
+                        }
+                        _ringSize.decrementAndGet();
+                        return true;
+                    });
+                } finally {
+                    _handLock.unlock();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Advances the hand to the next unreferenced live node and returns
+         * it without removing it from the ring.
+         */
+        Node<K> head()
+        {
+            _handLock.lock();
+            try {
+                Node<K> node;
+                while ((node = _ring.peek()) != null) {
+                    if (!isLive(node)) {
+                        _ring.poll();
+                        _ringSize.decrementAndGet();
+                    } else if (node._referenced) {
+                        node._referenced = false;
+                        _ring.poll();
+                        _ring.add(node);
+                    } else {
+                        break;
+                    }
+                }
+                return node;
+            } finally {
+                _handLock.unlock();
+            }
+        }
+
+        /**
+         * Removes the node from the ring if it is still under the hand.
+         */
+        boolean poll(Node<K> node)
+        {
+            _handLock.lock();
+            try {
+                if (_ring.peek() != node) {
+                    return false;
+                }
+                _ring.poll();
+                _ringSize.decrementAndGet();
+                return true;
+            } finally {
+                _handLock.unlock();
+            }
+        }
+
+        void requeue(Node<K> node)
+        {
+            if (isLive(node)) {
+                _ringSize.incrementAndGet();
+                _ring.add(node);
+            }
+        }
+
+        private boolean isLive(Node<K> node)
+        {
+            return _index.get(node._key) == node;
+        }
+    }
+}
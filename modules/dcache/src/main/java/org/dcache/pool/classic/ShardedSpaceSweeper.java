@@ -0,0 +1,482 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.FileNotInCacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellCommandListener;
+import dmg.cells.nucleus.CellInfoProvider;
+import dmg.cells.nucleus.EnvironmentAware;
+import dmg.util.command.Argument;
+import dmg.util.command.Command;
+import dmg.util.command.DelayedCommand;
+import dmg.util.command.Option;
+
+import org.dcache.pool.repository.Account;
+import org.dcache.pool.repository.CacheEntry;
+import org.dcache.pool.repository.EntryChangeEvent;
+import org.dcache.pool.repository.IllegalTransitionException;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.Repository;
+import org.dcache.pool.repository.SpaceSweeperPolicy;
+import org.dcache.pool.repository.StateChangeEvent;
+import org.dcache.pool.repository.StateChangeListener;
+import org.dcache.pool.repository.StickyChangeEvent;
+import org.dcache.util.ConfigurationMapFactoryBean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Space sweeper using an approximate LRU order.
+ *
+ * Unlike SpaceSweeper2, which keeps removable replicas in a single
+ * ordered queue guarded by one lock, this sweeper keeps them in a
+ * {@link ShardedLruQueue}. Repository events, in particular access
+ * time updates on pools with heavy read traffic, neither block nor
+ * reorder a shared structure. The price is that eviction follows the
+ * LRU order only approximately.
+ *
+ * Space is reclaimed in batches: candidates are selected until their
+ * total size covers the shortage or the batch size is reached, and are
+ * then removed from the repository.
+ *
+ * The number of shards and the batch size are configured through the
+ * pool.plugins.sweeper.sharded prefix.
+ */
+public class ShardedSpaceSweeper
+    implements Runnable, CellCommandListener, CellInfoProvider,
+               StateChangeListener, SpaceSweeperPolicy, EnvironmentAware
+{
+    private static final Logger _log = LoggerFactory.getLogger(ShardedSpaceSweeper.class);
+
+    private static final int DEFAULT_SHARDS = 16;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    private ShardedLruQueue<PnfsId> _queue = new ShardedLruQueue<>(DEFAULT_SHARDS);
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+
+    private Repository _repository;
+    private Account _account;
+    private Thread _thread;
+
+    private final Object _idleLock = new Object();
+    private volatile boolean _idle;
+
+    private final LongAdder _evictedFiles = new LongAdder();
+    private final LongAdder _evictedBytes = new LongAdder();
+    private final LongAdder _reclaimTime = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+    private final LongAdder _selectionTime = new LongAdder();
+    private volatile long _longestSelection;
+
+    public void setShards(int shards)
+    {
+        _queue = new ShardedLruQueue<>(shards);
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        checkArgument(batchSize > 0, "Batch size must be positive.");
+        _batchSize = batchSize;
+    }
+
+    @Override
+    public void setEnvironment(Map<String, Object> environment)
+    {
+        ConfigurationMapFactoryBean factory = new ConfigurationMapFactoryBean();
+        factory.setEnvironment(environment);
+        factory.setPrefix("pool.plugins.sweeper.sharded");
+        factory.buildMap();
+        Map<String, String> properties = factory.getObject();
+        String shards = properties.get("shards");
+        if (shards != null) {
+            setShards(Integer.parseInt(shards));
+        }
+        String batchSize = properties.get("batch-size");
+        if (batchSize != null) {
+            setBatchSize(Integer.parseInt(batchSize));
+        }
+    }
+
+    public void setRepository(Repository repository)
+    {
+        _repository = repository;
+        _repository.addListener(this);
+    }
+
+    public void setAccount(Account account)
+    {
+        _account = account;
+    }
+
+    public void start()
+    {
+        _thread = new Thread(this, "sweeper");
+        _thread.start();
+    }
+
+    public void stop() throws InterruptedException
+    {
+        _thread.interrupt();
+        _thread.join(1000);
+    }
+
+    /**
+     * Returns true if this file is removable. This is the case if the
+     * file is not sticky and is cached (which under normal
+     * circumstances implies that it is ready and not precious).
+     */
+    @Override
+    public boolean isRemovable(CacheEntry entry)
+    {
+        return entry.getState() == ReplicaState.CACHED && !entry.isSticky();
+    }
+
+    @Override
+    public long getLru()
+    {
+        return _queue.getTimeOfLeastRecentlyUsedElement();
+    }
+
+    private void add(CacheEntry entry)
+    {
+        PnfsId id = entry.getPnfsId();
+        if (_queue.add(id, entry.getReplicaSize(), entry.getLastAccessTime())) {
+            _log.debug("Added {} to sweeper", id);
+            /* The sweeper thread may be waiting for more files to
+             * delete.
+             */
+            if (_idle) {
+                synchronized (_idleLock) {
+                    _idleLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void remove(CacheEntry entry)
+    {
+        PnfsId id = entry.getPnfsId();
+        if (_queue.remove(id)) {
+            _log.debug("Removed {} from sweeper", id);
+        }
+    }
+
+    @Override
+    public void stateChanged(StateChangeEvent event)
+    {
+        CacheEntry entry = event.getNewEntry();
+        switch (event.getNewState()) {
+        case REMOVED:
+        case DESTROYED:
+            remove(entry);
+            break;
+
+        default:
+            if (isRemovable(entry)) {
+                add(entry);
+            } else {
+                remove(entry);
+            }
+            break;
+        }
+    }
+
+    @Override
+    public void stickyChanged(StickyChangeEvent event)
+    {
+        CacheEntry entry = event.getNewEntry();
+        if (isRemovable(entry)) {
+            add(entry);
+        } else {
+            remove(entry);
+        }
+    }
+
+    @Override
+    public void accessTimeChanged(EntryChangeEvent event)
+    {
+        CacheEntry entry = event.getNewEntry();
+        _queue.touch(entry.getPnfsId(), entry.getLastAccessTime());
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long files = _evictedFiles.sum();
+        long bytes = _evictedBytes.sum();
+        double seconds = _reclaimTime.sum() / 1e9;
+        long batches = _batches.sum();
+        pw.println("Removable replicas  : " + _queue.size() + " in " + _queue.getShardCount() + " shards");
+        pw.println("Batch size          : " + _batchSize);
+        pw.println("Evicted             : " + files + " files (" + bytes + " bytes)");
+        if (seconds > 0) {
+            pw.println(String.format("Eviction rate       : %.1f files/s (%.0f bytes/s) while reclaiming",
+                                     files / seconds, bytes / seconds));
+        }
+        if (batches > 0) {
+            pw.println(String.format("Candidate selection : %d batches, mean %d us, max %d us",
+                                     batches,
+                                     TimeUnit.NANOSECONDS.toMicros(_selectionTime.sum() / batches),
+                                     TimeUnit.NANOSECONDS.toMicros(_longestSelection)));
+        }
+    }
+
+    private long reclaim(long amount)
+        throws InterruptedException
+    {
+        _log.debug("Sweeper tries to reclaim {} bytes.", amount);
+
+        /* Candidates that cannot be evicted are requeued. To not cycle
+         * through them, at most one revolution of the queue is made.
+         */
+        long start = System.nanoTime();
+        long remaining = _queue.size();
+        long deleted = 0;
+        try {
+            while (deleted < amount && remaining > 0) {
+                long selectionStart = System.nanoTime();
+                List<ShardedLruQueue.Node<PnfsId>> candidates = _queue.poll(_batchSize, amount - deleted);
+                long selectionTime = System.nanoTime() - selectionStart;
+                if (candidates.isEmpty()) {
+                    break;
+                }
+                _batches.increment();
+                _selectionTime.add(selectionTime);
+                if (selectionTime > _longestSelection) {
+                    _longestSelection = selectionTime;
+                }
+
+                remaining -= candidates.size();
+                deleted += evict(candidates);
+            }
+        } finally {
+            _reclaimTime.add(System.nanoTime() - start);
+        }
+        return deleted;
+    }
+
+    private long evict(List<ShardedLruQueue.Node<PnfsId>> candidates)
+        throws InterruptedException
+    {
+        long deleted = 0;
+        int i = 0;
+        try {
+            for (; i < candidates.size(); i++) {
+                ShardedLruQueue.Node<PnfsId> candidate = candidates.get(i);
+                long size = evict(candidate);
+                if (size >= 0) {
+                    deleted += size;
+                    _evictedFiles.increment();
+                    _evictedBytes.add(size);
+                }
+            }
+        } finally {
+            /* Candidates not processed due to interruption or an
+             * unexpected exception; the current one has been requeued
+             * by evict(Node) already.
+             */
+            for (int j = i + 1; j < candidates.size(); j++) {
+                _queue.requeue(candidates.get(j));
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Removes a candidate from the repository. Unless the replica was
+     * removed, the candidate is put back into the queue, including when
+     * an exception is thrown.
+     *
+     * @return the number of bytes freed, or -1 if the replica was not removed
+     */
+    private long evict(ShardedLruQueue.Node<PnfsId> candidate)
+        throws InterruptedException
+    {
+        PnfsId id = candidate.getKey();
+        boolean isRemoved = false;
+        try {
+            CacheEntry entry = _repository.getEntry(id);
+
+            // Removing an open file will not free space until
+            // the file is closed, so we skip it this time around.
+            if (entry.getLinkCount() > 0) {
+                _log.debug("File skipped by sweeper (in use): {}", entry);
+                return -1;
+            }
+            if (!isRemovable(entry)) {
+                _log.debug("File skipped by sweeper (not removable): {}", entry);
+                return -1;
+            }
+
+            long size = entry.getReplicaSize();
+            _log.debug("Sweeper removes {}.", id);
+            _repository.setState(id, ReplicaState.REMOVED);
+            isRemoved = true;
+            return size;
+        } catch (IllegalTransitionException | FileNotInCacheException e) {
+            /* Normal if file got removed just as we wanted to
+             * remove it ourselves.
+             */
+            return -1;
+        } catch (CacheException e) {
+            _log.error(e.getMessage());
+            return -1;
+        } finally {
+            if (!isRemoved) {
+                _queue.requeue(candidate);
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (true) {
+                if (reclaim(_account.awaitShortage()) == 0) {
+                    /* The queue maintained by the sweeper is imperfect
+                     * in the sense that it can contain locked entries
+                     * or entries in use. To avoid a busy wait loop we
+                     * sleep for up to 10 seconds or until a new entry
+                     * is added.
+                     */
+                    synchronized (_idleLock) {
+                        _idle = true;
+                        try {
+                            _idleLock.wait(10000);
+                        } finally {
+                            _idle = false;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            /* Signals that the sweeper should quit.
+             */
+        } finally {
+            _repository.removeListener(this);
+        }
+    }
+
+    @Command(name = "sweeper purge", hint = "Purges all removable files from pool",
+            description = "Initiate a sweeper thread (in this pool) to delete " +
+                    "all marked removable files from the pool. Note that, if a " +
+                    "file is currently in used, this file will not be deleted " +
+                    "even if it has been marked for removal.")
+    public class SweeperPurgeCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            new Thread("sweeper-purge") {
+                @Override
+                public void run()
+                {
+                    try {
+                        long bytes = reclaim(Long.MAX_VALUE);
+                        _log.info("'sweeper purge' reclaimed {} bytes.", bytes);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }.start();
+            return "Purging all removable files from pool.";
+        }
+    }
+
+    @Command(name = "sweeper free", hint = "reclaim space",
+            description = "A sweeper thread is created to reclaim the specified " +
+                    "number of bytes by deleting removable files.")
+    public class SweeperFreeCommand implements Callable<String>
+    {
+        @Argument(usage = "Specify amount of space in bytes.")
+        long bytesToFree;
+
+        @Override
+        public String call()
+        {
+            new Thread("sweeper-free") {
+                @Override
+                public void run()
+                {
+                    try {
+                        long bytes = reclaim(bytesToFree);
+                        _log.info("'sweeper free {}' reclaimed {} bytes.", bytesToFree, bytes);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }.start();
+
+            return String.format("Reclaiming %d bytes", bytesToFree);
+        }
+    }
+
+    @Command(name = "sweeper ls", hint = "list sweeper queue",
+            description = "Lists removable files ordered by last access time. " +
+                    "Eviction follows this order only approximately.")
+    public class SweeperLsCommand extends DelayedCommand<String>
+    {
+        @Override
+        protected String execute()
+                throws CacheException, InterruptedException
+        {
+            StringBuilder sb = new StringBuilder();
+            for (PnfsId id : _queue.values()) {
+                try {
+                    sb.append(_repository.getEntry(id)).append("\n");
+                } catch (FileNotInCacheException e) {
+                    // Ignored
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    @Command(name = "sweeper get lru", hint = "get lru file time",
+            description = "Return last access time (in seconds) of the least recently " +
+                    "used (lsu) file on the pool.")
+    public class SweeperGetLruCommand implements Callable<String>
+    {
+        @Option(name = "f", usage = "Show a returned time in this format: day hour:minutes:seconds")
+        boolean f;
+
+        @Override
+        public String call()
+        {
+            long lru = Math.max(0, (System.currentTimeMillis() - getLru()) / 1000L);
+            if (!f) {
+                return String.valueOf(lru);
+            }
+            long days = TimeUnit.SECONDS.toDays(lru);
+            String time = String.format("%02d:%02d:%02d", (lru / 3600) % 24, (lru / 60) % 60, lru % 60);
+            return (days > 0) ? days + " d " + time : time;
+        }
+    }
+}
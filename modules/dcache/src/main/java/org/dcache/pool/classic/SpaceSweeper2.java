@@ -381,14 +381,7 @@ public class SpaceSweeper2
     public long waitForRequests()
         throws InterruptedException
     {
-        Account account = _account;
-        synchronized (account) {
-            while (account.getRequested() <= account.getFree() ||
-                   account.getRemovable() == 0) {
-                account.wait();
-            }
-            return account.getRequested() - account.getFree();
-        }
+        return _account.awaitShortage();
     }
 
     @Override
@@ -26,13 +26,16 @@ import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.CacheFileAvailable;
@@ -62,12 +65,15 @@ import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.pool.repository.StickyRecord;
 import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
 import org.dcache.util.FireAndForgetTask;
 import org.dcache.util.Version;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.dcache.util.ByteUnit.BYTES;
+import static org.dcache.util.ByteUnit.MiB;
 
 /**
  * Encapsulates the tasks to be performed on the destination of a pool
@@ -75,6 +81,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * The companion will submit an HTTP download request to the source
  * pool, wait for the reply and then download the file through HTTP.
+ * The file is either downloaded with a single GET request, or with
+ * ranged GET requests over several parallel connections.
  *
  * The code is driven by a state machine, Companion.sm. Most of the
  * logic is encapsulated in the state machine.
@@ -84,7 +92,7 @@ class Companion
     private static final Logger _log = LoggerFactory.getLogger(Companion.class);
 
     private static final long PING_PERIOD = TimeUnit.MINUTES.toMillis(5);
-    private static final int BUFFER_SIZE = 65536;
+    private static final long STREAM_BLOCK_SIZE = MiB.toBytes(64L);
     private static final String PROTOCOL_INFO_NAME = "Http";
     private static final int PROTOCOL_INFO_MAJOR_VERSION = 1;
     private static final int PROTOCOL_INFO_MINOR_VERSION = 1;
@@ -105,11 +113,15 @@ class Companion
     private final List<StickyRecord> _stickyRecords;
     private final CacheFileAvailable _callback;
     private final ScheduledExecutorService _executor;
+    private final ExecutorService _streamExecutor;
     private final CellStub _pnfs;
     private final CellStub _pool;
     private final boolean _forceSourceMode;
     private final PnfsId _pnfsId;
 
+    /** Number of parallel connections used to download the file. */
+    private final int _streams;
+
     /** State machine driving the transfer. */
     private final CompanionContext _fsm;
 
@@ -133,12 +145,23 @@ class Companion
 
     /** ID of the mover on the source pool. */
     private int _moverId;
+
     private HttpGet _request;
 
+    /** Parallel download of the ongoing transfer, if any. */
+    private volatile ParallelDownload _download;
+
+    private final AtomicLong _bytesTransferred = new AtomicLong();
+    private volatile long _transferStarted;
+    private volatile long _transferEnded;
+
     /**
      * Creates a new instance.
      *
      * @param executor    Executor used for state machine callbacks
+     * @param streamExecutor Executor running the additional streams of
+     *                    a multi-stream transfer. May be null if streams
+     *                    is 1.
      * @param address     Expected interface to connect to source pool
      * @param repository  Repository in which the replica is created
      * @param checksumModule Checksum module used to verify and
@@ -154,8 +177,10 @@ class Companion
      * @param callback    Callback to which success or failure is reported
      * @param forceSourceMode Ignores disabled state of pools
      * @param atime       Last access time for the new replica
+     * @param streams     Number of parallel connections to the source pool
      */
     Companion(ScheduledExecutorService executor,
+              ExecutorService streamExecutor,
               InetAddress address,
               Repository repository,
               ChecksumModule checksumModule,
@@ -169,11 +194,13 @@ class Companion
               List<StickyRecord> stickyRecords,
               CacheFileAvailable callback,
               boolean forceSourceMode,
-              Long atime)
+              Long atime,
+              int streams)
     {
         _fsm = new CompanionContext(this);
 
         _executor = executor;
+        _streamExecutor = streamExecutor;
         _address = address;
         _repository = repository;
         _checksumModule = checksumModule;
@@ -196,6 +223,7 @@ class Companion
         _atime = atime;
         _targetState = targetState;
         _stickyRecords = new ArrayList<>(stickyRecords);
+        _streams = streams;
 
         _id = _nextId.getAndIncrement();
 
@@ -225,6 +253,38 @@ class Companion
         return PING_PERIOD;
     }
 
+    /**
+     * Returns the number of bytes received from the source pool.
+     */
+    public long getBytesTransferred()
+    {
+        ParallelDownload download = _download;
+        return (download != null) ? download.getBytesTransferred() : _bytesTransferred.get();
+    }
+
+    /**
+     * Returns the time in milliseconds spent downloading the file, or zero
+     * if the download has not started.
+     */
+    public long getTransferTime()
+    {
+        long started = _transferStarted;
+        if (started == 0) {
+            return 0;
+        }
+        long ended = _transferEnded;
+        return ((ended == 0) ? System.currentTimeMillis() : ended) - started;
+    }
+
+    /**
+     * Returns the average throughput of the download in bytes per second.
+     */
+    public double getThroughput()
+    {
+        long time = getTransferTime();
+        return (time == 0) ? 0 : getBytesTransferred() * 1000.0 / time;
+    }
+
     /**
      * Cancels the transfer. Returns true unless the transfer is
      * already completed.
@@ -239,12 +299,16 @@ class Companion
     {
         // Unsynchronized access to the fsm state means we may show an old value, but it
         // avoids blocking in toString().
-        return ""
+        String s = ""
                + _id
                + " "
                + _pnfsId
                + " "
                + _fsm.getState();
+        if (_transferStarted != 0) {
+            s += String.format(" %d bytes %.1f MiB/s", getBytesTransferred(), BYTES.toMiB(getThroughput()));
+        }
+        return s;
     }
 
     /**
@@ -280,6 +344,26 @@ class Companion
         _request = request;
     }
 
+    /**
+     * Sets the parallel download of the file transfer. The download is
+     * aborted right away if the transfer has already been interrupted.
+     */
+    private synchronized void setDownload(ParallelDownload download)
+    {
+        _download = download;
+        if (_thread != null && _thread.isInterrupted()) {
+            download.abort();
+        }
+    }
+
+    private static RequestConfig createRequestConfig()
+    {
+        return RequestConfig.custom()
+                .setConnectTimeout((int) CONNECT_TIMEOUT)
+                .setSocketTimeout((int) READ_TIMEOUT)
+                .build();
+    }
+
     private void transfer(String uri)
     {
         ReplicaDescriptor handle;
@@ -301,7 +385,32 @@ class Companion
             try {
                 handle.allocate(handle.getFileAttributes().getSize());
                 ChecksumFactory checksumFactory = _checksumModule.getPreferredChecksumFactory(handle);
-                Set<Checksum> actualChecksums = copy(uri, handle, checksumFactory);
+                _transferStarted = System.currentTimeMillis();
+                Set<Checksum> actualChecksums;
+                /* Empty files are copied with a single request, as the
+                 * source mover only completes after the file has been
+                 * requested.
+                 */
+                long size = _fileAttributes.getSize();
+                if (_streams > 1 && size > 0) {
+                    long blocks = (size + STREAM_BLOCK_SIZE - 1) / STREAM_BLOCK_SIZE;
+                    boolean isAdler32 = checksumFactory.getType() == ChecksumType.ADLER32;
+                    ParallelDownload download;
+                    try {
+                        download = copyInParallel(uri, handle, (int) Math.min(_streams, blocks), isAdler32);
+                    } finally {
+                        _transferEnded = System.currentTimeMillis();
+                    }
+                    actualChecksums = isAdler32
+                            ? Collections.singleton(checksumFactory.create(String.format("%08x", download.getAdler32())))
+                            : computeChecksum(handle, checksumFactory);
+                } else {
+                    try {
+                        actualChecksums = copy(uri, handle, checksumFactory);
+                    } finally {
+                        _transferEnded = System.currentTimeMillis();
+                    }
+                }
                 _checksumModule.enforcePostTransferPolicy(handle, actualChecksums);
             } finally {
                 setThread(null);
@@ -329,10 +438,7 @@ class Companion
 
             HttpGet get = new HttpGet(uri);
             get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
-            get.setConfig(RequestConfig.custom()
-                                  .setConnectTimeout((int) CONNECT_TIMEOUT)
-                                  .setSocketTimeout((int) READ_TIMEOUT)
-                                  .build());
+            get.setConfig(createRequestConfig());
             setRequest(get);
 
             try (CloseableHttpClient client = HttpClients.custom().setUserAgent(USER_AGENT).build();
@@ -354,7 +460,7 @@ class Companion
                     throw new EOFException("Received file does not match expected file size.");
                 }
 
-                ByteStreams.copy(entity.getContent(), Channels.newOutputStream(checksumChannel));
+                _bytesTransferred.set(ByteStreams.copy(entity.getContent(), Channels.newOutputStream(checksumChannel)));
 
                 try {
                     checksumChannel.sync();
@@ -373,6 +479,54 @@ class Companion
         }
     }
 
+    /**
+     * Downloads the file with ranged GET requests over several parallel
+     * connections. See ParallelDownload.
+     *
+     * The blocks arrive out of order, thus the data is written to the
+     * replica without digesting it on the fly. A ChecksumChannel would
+     * serialize all streams and read back every block written ahead of
+     * the preceding data while holding its lock. Instead, if {@code
+     * computeAdler32} is true, every stream computes the Adler-32 of its
+     * blocks, which are combined once the download is complete. Other
+     * checksum types cannot be combined and have to be computed with
+     * computeChecksum after the download.
+     */
+    private ParallelDownload copyInParallel(String uri, ReplicaDescriptor handle, int streams,
+                                            boolean computeAdler32)
+            throws IOException
+    {
+        ParallelDownload download =
+                new ParallelDownload(uri, _fileAttributes.getSize(), STREAM_BLOCK_SIZE, streams,
+                                     computeAdler32, _streamExecutor, USER_AGENT, createRequestConfig());
+        setDownload(download);
+        try (RepositoryChannel channel = handle.createChannel()) {
+            download.copyTo(channel);
+
+            try {
+                channel.sync();
+            } catch (SyncFailedException e) {
+                /* Data is not guaranteed to be on disk. Not a fatal
+                 * problem, but better generate a warning.
+                 */
+                _log.warn("Failed to synchronize file with storage device: {}",
+                          e.getMessage());
+            }
+        }
+        return download;
+    }
+
+    /**
+     * Computes the checksum of the replica by reading it sequentially.
+     */
+    private Set<Checksum> computeChecksum(ReplicaDescriptor handle, ChecksumFactory checksumFactory)
+            throws IOException, InterruptedException
+    {
+        try (RepositoryChannel channel = handle.createChannel()) {
+            return Collections.singleton(checksumFactory.computeChecksum(channel));
+        }
+    }
+
     private ReplicaDescriptor createReplicaEntry()
         throws CacheException
     {
@@ -580,7 +734,8 @@ class Companion
                 _log.error(String.format("P2P for %s failed: %s", _pnfsId, _error));
             }
         } else {
-            _log.info(String.format("P2P for %s completed", _pnfsId));
+            _log.info(String.format("P2P for %s completed: %d bytes, %.1f MiB/s", _pnfsId,
+                                    getBytesTransferred(), BYTES.toMiB(getThroughput())));
         }
 
         if (_callback != null) {
@@ -612,6 +767,9 @@ class Companion
         if (_request != null) {
             _request.abort();
         }
+        if (_download != null) {
+            _download.abort();
+        }
     }
 
     /**
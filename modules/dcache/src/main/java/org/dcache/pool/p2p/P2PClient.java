@@ -3,6 +3,8 @@
 package org.dcache.pool.p2p;
 
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
@@ -12,6 +14,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import diskCacheV111.util.CacheException;
@@ -34,6 +38,7 @@ import org.dcache.pool.classic.ChecksumModule;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.StickyRecord;
+import org.dcache.util.CDCExecutorServiceDecorator;
 import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -45,10 +50,13 @@ public class P2PClient
 {
     private final Map<Integer, Companion> _companions = new HashMap<>();
     private ScheduledExecutorService _executor;
+    /** Runs the additional streams of multi-stream transfers. Created on first use. */
+    private ExecutorService _streamExecutor;
     private Repository _repository;
     private ChecksumModule _checksumModule;
 
     private int _maxActive;
+    private int _streams = 1;
 
     private CellStub _pnfs;
     private CellStub _pool;
@@ -249,7 +257,8 @@ public class P2PClient
         Callback cb = new Callback(callback);
 
         Companion companion =
-            new Companion(_executor, _interface, _repository,
+            new Companion(_executor, (_streams > 1) ? getStreamExecutor() : null,
+                          _interface, _repository,
                           _checksumModule,
                           _pnfs, _pool,
                           fileAttributes,
@@ -258,7 +267,7 @@ public class P2PClient
                           getCellDomainName(),
                           targetState, stickyRecords,
                           cb, forceSourceMode,
-                          atime);
+                          atime, _streams);
 
         int id = addCompanion(companion);
         cb.setId(id);
@@ -288,6 +297,18 @@ public class P2PClient
         while (!_companions.isEmpty()) {
             wait();
         }
+        if (_streamExecutor != null) {
+            _streamExecutor.shutdown();
+        }
+    }
+
+    private synchronized ExecutorService getStreamExecutor()
+    {
+        if (_streamExecutor == null) {
+            _streamExecutor = new CDCExecutorServiceDecorator<>(Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("p2p-stream-%d").build()));
+        }
+        return _streamExecutor;
     }
 
     @Override
@@ -297,6 +318,7 @@ public class P2PClient
             pw.println("  Interface  : " + _interface);
         }
         pw.println("  Max Active : " + _maxActive);
+        pw.println("  Streams    : " + _streams);
     }
 
     @Override
@@ -304,6 +326,7 @@ public class P2PClient
     {
         pw.println("#\n#  Pool to Pool (P2P)\n#");
         pw.println("pp set max active " + _maxActive);
+        pw.println("pp set streams " + _streams);
         if (_interface != null) {
             pw.println("pp interface " + _interface.getHostAddress());
         }
@@ -348,6 +371,31 @@ public class P2PClient
         }
     }
 
+    @AffectsSetup
+    @Command(name = "pp set streams",
+            hint = "set the number of connections per pool-to-pool client transfer",
+            description = "Set the number of parallel connections used to download " +
+                    "a file from the source pool. With a single connection the file " +
+                    "is downloaded in one request. With several connections the file " +
+                    "is divided into blocks that are downloaded with ranged requests, " +
+                    "reusing each connection for subsequent blocks. Changes only " +
+                    "affect transfers started afterwards.")
+    public class PpSetStreamsCommand implements Callable<String>
+    {
+        @Argument(usage = "Specify the number of connections per transfer.")
+        int streams;
+
+        @Override
+        public String call() throws IllegalArgumentException
+        {
+            synchronized (P2PClient.this) {
+                checkArgument(streams > 0, "This value must be a positive integer.");
+                _streams = streams;
+                return "";
+            }
+        }
+    }
+
     @Command(name = "pp set listen",
             hint = "Obsolete Command",
             description = "The command is Obsolete. Use 'pp interface' instead.")
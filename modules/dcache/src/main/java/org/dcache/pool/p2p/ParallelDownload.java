@@ -0,0 +1,317 @@
+package org.dcache.pool.p2p;
+
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Adler32;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Downloads a file with ranged GET requests over several parallel
+ * connections.
+ *
+ * The file is divided into blocks that the streams request in order,
+ * reusing their connection for subsequent blocks. Every block is written
+ * directly at its position in the target channel. The first stream runs
+ * in the calling thread, the others on the given executor. The first
+ * failing stream aborts all others.
+ *
+ * Optionally, every stream computes the Adler-32 of the blocks it
+ * receives. The checksums of the blocks are combined into the Adler-32
+ * of the file, thus the file doesn't have to be read back.
+ */
+class ParallelDownload
+{
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Largest prime smaller than 65536, the modulus of Adler-32. */
+    private static final long ADLER32_BASE = 65521;
+
+    private final String _uri;
+    private final long _size;
+    private final long _blockSize;
+    private final int _streams;
+    private final ExecutorService _executor;
+    private final String _userAgent;
+    private final RequestConfig _requestConfig;
+
+    private final AtomicLong _nextBlock = new AtomicLong();
+    private final AtomicLong _bytesTransferred = new AtomicLong();
+    private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+
+    /**
+     * Adler-32 of every block, or null if not computed. Every element is
+     * written by the stream that downloaded the block; copyTo returns only
+     * after all streams have ended.
+     */
+    private final long[] _adler32;
+
+    /** Requests of the ongoing download. */
+    private final List<HttpGet> _requests = new ArrayList<>();
+
+    /** Whether the download has been aborted. */
+    private boolean _isAborted;
+
+    ParallelDownload(String uri, long size, long blockSize, int streams, boolean computeAdler32,
+                     ExecutorService executor, String userAgent, RequestConfig requestConfig)
+    {
+        checkArgument(size > 0, "Size must be positive");
+        checkArgument(blockSize > 0, "Block size must be positive");
+        checkArgument(streams > 0, "Number of streams must be positive");
+        _adler32 = computeAdler32 ? new long[Ints.checkedCast((size + blockSize - 1) / blockSize)] : null;
+        _uri = uri;
+        _size = size;
+        _blockSize = blockSize;
+        _streams = streams;
+        _executor = executor;
+        _userAgent = userAgent;
+        _requestConfig = requestConfig;
+    }
+
+    /**
+     * Returns the number of bytes received so far.
+     */
+    public long getBytesTransferred()
+    {
+        return _bytesTransferred.get();
+    }
+
+    /**
+     * Returns the Adler-32 of the downloaded file. Must only be called
+     * after copyTo completed successfully.
+     *
+     * @throws IllegalStateException if the download does not compute the
+     * Adler-32
+     */
+    public long getAdler32()
+    {
+        checkState(_adler32 != null, "Adler-32 is not computed by this download");
+        long adler32 = 1;
+        for (int i = 0; i < _adler32.length; i++) {
+            long length = Math.min(_blockSize, _size - i * _blockSize);
+            adler32 = combineAdler32(adler32, _adler32[i], length);
+        }
+        return adler32;
+    }
+
+    /**
+     * Returns the Adler-32 of the concatenation of two byte sequences given
+     * their Adler-32 and the length of the second sequence. Same as
+     * adler32_combine of zlib.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2)
+    {
+        long rem = length2 % ADLER32_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % ADLER32_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER32_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER32_BASE - rem;
+        if (sum1 >= ADLER32_BASE) {
+            sum1 -= ADLER32_BASE;
+        }
+        if (sum1 >= ADLER32_BASE) {
+            sum1 -= ADLER32_BASE;
+        }
+        if (sum2 >= 2 * ADLER32_BASE) {
+            sum2 -= 2 * ADLER32_BASE;
+        }
+        if (sum2 >= ADLER32_BASE) {
+            sum2 -= ADLER32_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Aborts all current and future requests of the download.
+     */
+    public synchronized void abort()
+    {
+        _isAborted = true;
+        for (HttpGet request : _requests) {
+            request.abort();
+        }
+    }
+
+    private synchronized boolean isAborted()
+    {
+        return _isAborted;
+    }
+
+    private synchronized void addRequest(HttpGet request)
+    {
+        _requests.add(request);
+        if (_isAborted) {
+            request.abort();
+        }
+    }
+
+    private synchronized void removeRequest(HttpGet request)
+    {
+        _requests.remove(request);
+    }
+
+    private void fail(Throwable t)
+    {
+        if (_failure.compareAndSet(null, t)) {
+            abort();
+        }
+    }
+
+    /**
+     * Downloads the file into {@code channel}. Returns once all streams
+     * have ended, i.e. no stream writes to the channel afterwards.
+     *
+     * @throws IOException the first failure of any stream
+     */
+    public void copyTo(RepositoryChannel channel) throws IOException
+    {
+        int streams = (int) Math.min(_streams, (_size + _blockSize - 1) / _blockSize);
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setUserAgent(_userAgent)
+                .setMaxConnPerRoute(streams)
+                .setMaxConnTotal(streams)
+                .build()) {
+            Callable<Void> stream = () -> {
+                try {
+                    copyBlocks(client, channel);
+                } catch (IOException | RuntimeException | Error e) {
+                    fail(e);
+                    throw e;
+                }
+                return null;
+            };
+
+            List<Future<Void>> others = new ArrayList<>(streams - 1);
+            try {
+                for (int i = 1; i < streams; i++) {
+                    others.add(_executor.submit(stream));
+                }
+                stream.call();
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            } catch (Exception | Error ignored) {
+                // Recorded as the failure of the download
+            }
+
+            /* The channel must not be closed while any stream may still
+             * write to it.
+             */
+            for (Future<Void> other : others) {
+                try {
+                    Uninterruptibles.getUninterruptibly(other);
+                } catch (ExecutionException ignored) {
+                    // Recorded as the failure of the download
+                }
+            }
+
+            Throwable t = _failure.get();
+            if (t != null) {
+                Throwables.propagateIfPossible(t, IOException.class);
+                throw new IOException(t);
+            }
+        }
+    }
+
+    /**
+     * Downloads blocks of the file until all blocks have been taken or the
+     * download has been aborted.
+     */
+    private void copyBlocks(CloseableHttpClient client, RepositoryChannel channel)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        Adler32 adler32 = new Adler32();
+        long offset;
+        while ((offset = _nextBlock.getAndIncrement() * _blockSize) < _size) {
+            if (isAborted()) {
+                throw new InterruptedIOException("Transfer was aborted");
+            }
+            long end = Math.min(offset + _blockSize, _size) - 1;
+
+            HttpGet get = new HttpGet(_uri);
+            get.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-" + end);
+            get.setConfig(_requestConfig);
+            addRequest(get);
+
+            try (CloseableHttpResponse response = client.execute(get)) {
+                StatusLine statusLine = response.getStatusLine();
+                if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+                    throw new ClientProtocolException("Source pool does not support ranged requests");
+                }
+                if (statusLine.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+                }
+
+                HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    throw new ClientProtocolException("Response contains no content");
+                }
+                if (entity.getContentLength() != end - offset + 1) {
+                    throw new EOFException("Received block does not match requested range.");
+                }
+
+                /* Fully reading and closing the content releases the
+                 * connection for the next block.
+                 */
+                adler32.reset();
+                try (ReadableByteChannel in = Channels.newChannel(entity.getContent())) {
+                    long position = offset;
+                    while (position <= end) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+                        if (in.read(buffer) < 0) {
+                            throw new EOFException("Received block is shorter than requested range.");
+                        }
+                        buffer.flip();
+                        if (_adler32 != null) {
+                            buffer.mark();
+                            adler32.update(buffer);
+                            buffer.reset();
+                        }
+                        while (buffer.hasRemaining()) {
+                            int written = channel.write(buffer, position);
+                            position += written;
+                            _bytesTransferred.addAndGet(written);
+                        }
+                    }
+                }
+                if (_adler32 != null) {
+                    _adler32[(int) (offset / _blockSize)] = adler32.getValue();
+                }
+            } finally {
+                removeRequest(get);
+            }
+        }
+    }
+}
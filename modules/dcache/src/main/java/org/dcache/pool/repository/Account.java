@@ -1,82 +1,120 @@
 package org.dcache.pool.repository;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Encapsulation of space accounting information for a
  * repository.
  *
- * Used as a synchronisation point between several repository
- * components. The object is thread safe and external synchronisations
- * are allowed. Any modification of the object triggers a call to
- * notifyAll on the object.
+ * The object is thread safe and does not use locks. The space
+ * counters are kept in an immutable state object that is replaced
+ * atomically on every modification, hence the values returned by
+ * {@link #getSpaceRecord} are always mutually consistent. Allocations
+ * that can be served from free space never block.
+ *
+ * Threads waiting for space, and the sweeper waiting for space
+ * shortage, are parked in a waiter queue and are woken up whenever
+ * the amount of free, removable or requested space changes.
  */
 public class Account
 {
-    private long _total;
-    private long _used;
-    private long _precious;
-    private long _removable;
-    private long _requested;
-    private long _timeOfLastFree;
+    private final AtomicReference<State> _state = new AtomicReference<>(new State(0, 0, 0, 0));
+    private final AtomicLong _requested = new AtomicLong();
+    private final Queue<Thread> _waiters = new ConcurrentLinkedQueue<>();
+    private volatile long _timeOfLastFree;
 
-    public synchronized long getTotal()
+    public long getTotal()
     {
-        return _total;
+        return _state.get().total;
     }
 
-    public synchronized long getUsed()
+    public long getUsed()
     {
-        return _used;
+        return _state.get().used;
     }
 
-    public synchronized long getFree()
+    public long getFree()
     {
-        return _total - _used;
+        return _state.get().getFree();
     }
 
-    public synchronized long getRemovable()
+    public long getRemovable()
     {
-        return _removable;
+        return _state.get().removable;
     }
 
-    public synchronized long getPrecious()
+    public long getPrecious()
     {
-        return _precious;
+        return _state.get().precious;
     }
 
-    public synchronized long getRequested()
+    public long getRequested()
     {
-        return _requested;
+        return _requested.get();
     }
 
-    public synchronized long getTimeOfLastFree()
+    public long getTimeOfLastFree()
     {
         return _timeOfLastFree;
     }
 
-    public synchronized void setTotal(long total)
+    public void setTotal(long total)
+    {
+        update(state -> {
+            if (total < state.used) {
+                throw new IllegalArgumentException("Cannot set repository size below amount of used space.");
+            }
+            return new State(total, state.used, state.precious, state.removable);
+        });
+    }
+
+    /**
+     * Sets the repository size to {@code total} or to the amount of used
+     * space, whichever is larger.
+     *
+     * @return the new repository size
+     */
+    public long resize(long total)
+    {
+        return update(state -> new State(Math.max(total, state.used), state.used,
+                                         state.precious, state.removable)).total;
+    }
+
+    /**
+     * Reduces the repository size by up to <code>space</code> bytes. The
+     * size is never reduced below the amount of used space.
+     *
+     * @return the new repository size
+     */
+    public long shrink(long space)
     {
-        if (total < _used) {
-            throw new IllegalArgumentException("Cannot set repository size below amount of used space.");
+        if (space < 0) {
+            throw new IllegalArgumentException("Cannot shrink by negative space.");
         }
-        _total = total;
-        notifyAll();
+        return update(state -> new State(Math.max(state.total - space, state.used), state.used,
+                                         state.precious, state.removable)).total;
     }
 
     /**
      * Moves <code>space</code> bytes from used to free space.
      */
-    public synchronized void free(long space)
+    public void free(long space)
     {
         if (space < 0) {
             throw new IllegalArgumentException("Cannot free negative space.");
         }
-        if (_used < space) {
-            throw new IllegalArgumentException("Cannot set used space to a negative value.");
-        }
-
-        notifyAll();
-        _used -= space;
+        update(state -> {
+            if (state.used < space) {
+                throw new IllegalArgumentException("Cannot set used space to a negative value.");
+            }
+            return new State(state.total, state.used - space, state.precious, state.removable);
+        });
         _timeOfLastFree = System.currentTimeMillis();
     }
 
@@ -84,29 +122,40 @@ public class Account
      * Allocates up to <code>request</code> bytes. If less space is
      * free, then nothing is allocated.
      *
+     * If the request cannot be served from free space, but could be
+     * served once removable space has been reclaimed, the call blocks
+     * until the sweeper has reclaimed enough space or no longer can.
+     *
      * @return true if and only if the request was served
      */
-    public synchronized boolean allocateNow(long request)
+    public boolean allocateNow(long request)
              throws InterruptedException
     {
         if (request < 0) {
             throw new IllegalArgumentException("Cannot allocate negative space.");
         }
-        _requested += request;
+        if (tryAllocate(request)) {
+            return true;
+        }
+        _requested.addAndGet(request);
         try {
-            while (request > getFree() && request <= getFree() + getRemovable()) {
-                notifyAll();
-                wait();
+            signal();
+            while (true) {
+                State state = _state.get();
+                if (request > state.getFree() + state.removable) {
+                    return false;
+                }
+                if (tryAllocate(request)) {
+                    return true;
+                }
+                await(() -> {
+                    State current = _state.get();
+                    return request <= current.getFree() || request > current.getFree() + current.removable;
+                });
             }
-            if (request > getFree()) {
-                return false;
-            }
-            _used += request;
-            notifyAll();
         } finally {
-            _requested -= request;
+            _requested.addAndGet(-request);
         }
-        return true;
     }
 
     /**
@@ -115,78 +164,187 @@ public class Account
      * call blocks. Space is not allocated until the complete request
      * can be served. For this reason, large requests can starve.
      */
-    public synchronized void allocate(long request)
+    public void allocate(long request)
         throws InterruptedException
     {
         if (request < 0) {
             throw new IllegalArgumentException("Cannot allocate negative space.");
         }
-        _requested += request;
+        if (tryAllocate(request)) {
+            return;
+        }
+        _requested.addAndGet(request);
         try {
-            while (request > getFree()) {
-                notifyAll();
-                wait();
+            signal();
+            while (!tryAllocate(request)) {
+                await(() -> request <= getFree());
             }
-            _used += request;
-            notifyAll();
         } finally {
-            _requested -= request;
+            _requested.addAndGet(-request);
         }
     }
 
-    public synchronized void growTotalAndUsed(long delta)
+    /**
+     * Blocks until the requested space is larger than the free space
+     * and removable space exists. Returns the number of requested
+     * bytes exceeding the amount of free space.
+     */
+    public long awaitShortage()
+        throws InterruptedException
+    {
+        while (true) {
+            long requested = _requested.get();
+            State state = _state.get();
+            if (requested > state.getFree() && state.removable > 0) {
+                return requested - state.getFree();
+            }
+            await(() -> {
+                State current = _state.get();
+                return _requested.get() > current.getFree() && current.removable > 0;
+            });
+        }
+    }
+
+    public void growTotalAndUsed(long delta)
     {
         if (delta < 0) {
             throw new IllegalArgumentException("Argument must be non-negative.");
         }
-        long used = _used + delta;
-        long total = _total + delta;
-        if (used < 0) {
-            throw new IllegalArgumentException("Negative used space is not allowed.");
-        }
-        if (total < 0) {
-            throw new IllegalArgumentException("Negative total space is not allowed.");
-        }
-        if (_removable > total) {
-            throw new IllegalArgumentException("Removable space would exceed repository size.");
-        }
-        if (_precious > total) {
-            throw new IllegalArgumentException("Precious space would exceed repository size.");
-        }
+        update(state -> {
+            long used = state.used + delta;
+            long total = state.total + delta;
+            if (used < 0) {
+                throw new IllegalArgumentException("Negative used space is not allowed.");
+            }
+            if (total < 0) {
+                throw new IllegalArgumentException("Negative total space is not allowed.");
+            }
+            if (state.removable > total) {
+                throw new IllegalArgumentException("Removable space would exceed repository size.");
+            }
+            if (state.precious > total) {
+                throw new IllegalArgumentException("Precious space would exceed repository size.");
+            }
+            return new State(total, used, state.precious, state.removable);
+        });
+    }
 
-        _total = total;
-        _used = used;
-        notifyAll();
+    public void adjustRemovable(long delta)
+    {
+        update(state -> {
+            long removable = state.removable + delta;
+            if (removable < 0) {
+                throw new IllegalArgumentException("Negative removable space is not allowed.");
+            }
+            if (removable > state.total) {
+                throw new IllegalArgumentException("Removable space would exceed repository size.");
+            }
+            return new State(state.total, state.used, state.precious, removable);
+        });
     }
 
-    public synchronized void adjustRemovable(long delta)
+    public void adjustPrecious(long delta)
     {
-        long removable = _removable + delta;
-        if (removable < 0) {
-            throw new IllegalArgumentException("Negative removable space is not allowed.");
-        }
-        if (removable > _total) {
-            throw new IllegalArgumentException("Removable space would exceed repository size.");
-        }
-        _removable = removable;
-        notifyAll();
+        update(state -> {
+            long precious = state.precious + delta;
+            if (precious < 0) {
+                throw new IllegalArgumentException("Negative precious space is not allowed.");
+            }
+            if (precious > state.total) {
+                throw new IllegalArgumentException("Precious space would exceed repository size.");
+            }
+            return new State(state.total, state.used, precious, state.removable);
+        });
+    }
+
+    public SpaceRecord getSpaceRecord()
+    {
+        State state = _state.get();
+        return new SpaceRecord(state.total, state.getFree(), state.precious, state.removable, 0);
+    }
+
+    private boolean tryAllocate(long request)
+    {
+        State state;
+        State next;
+        do {
+            state = _state.get();
+            if (request > state.getFree()) {
+                return false;
+            }
+            next = new State(state.total, state.used + request, state.precious, state.removable);
+        } while (!_state.compareAndSet(state, next));
+        signal();
+        return true;
     }
 
-    public synchronized void adjustPrecious(long delta)
+    private State update(UnaryOperator<State> operator)
     {
-        long precious = _precious + delta;
-        if (precious < 0) {
-            throw new IllegalArgumentException("Negative precious space is not allowed.");
+        State state;
+        State next;
+        do {
+            state = _state.get();
+            next = operator.apply(state);
+        } while (!_state.compareAndSet(state, next));
+        signal();
+        return next;
+    }
+
+    /**
+     * Wakes up all waiting threads to reevaluate their condition.
+     */
+    private void signal()
+    {
+        for (Thread waiter : _waiters) {
+            LockSupport.unpark(waiter);
         }
-        if (precious > _total) {
-            throw new IllegalArgumentException("Precious space would exceed repository size.");
+    }
+
+    /**
+     * Blocks until the condition is true or the thread is woken up.
+     *
+     * The thread registers in the waiter queue before evaluating the
+     * condition. Any modification of the state after that point unparks
+     * the thread, so a wakeup cannot be missed. The condition may be false
+     * when the method returns; callers have to evaluate it again.
+     */
+    private void await(BooleanSupplier condition) throws InterruptedException
+    {
+        Thread self = Thread.currentThread();
+        _waiters.add(self);
+        try {
+            if (!condition.getAsBoolean()) {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        } finally {
+            _waiters.remove(self);
         }
-        _precious = precious;
-        notifyAll();
     }
 
-    public synchronized SpaceRecord getSpaceRecord()
+    /**
+     * Immutable snapshot of the space counters.
+     */
+    private static final class State
     {
-        return new SpaceRecord(_total, getFree(), _precious, _removable, 0);
+        final long total;
+        final long used;
+        final long precious;
+        final long removable;
+
+        State(long total, long used, long precious, long removable)
+        {
+            this.total = total;
+            this.used = used;
+            this.precious = precious;
+            this.removable = removable;
+        }
+
+        long getFree()
+        {
+            return total - used;
+        }
     }
 }
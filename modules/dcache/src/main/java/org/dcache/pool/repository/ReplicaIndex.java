@@ -0,0 +1,476 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import diskCacheV111.util.PnfsId;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compact index of replica meta data.
+ *
+ * For each replica the index records the PNFS ID, the state, the size,
+ * the last access time and whether the replica is sticky. Records are
+ * packed into fixed size slots of open addressing hash tables held in
+ * direct byte buffers, i.e. outside the Java heap. No objects are
+ * allocated per replica, neither on insertion nor when iterating over
+ * the index.
+ *
+ * The index is partitioned into segments, each guarded by its own lock.
+ * Only the bytes of a PNFS ID are recorded, not its domain.
+ *
+ * The tables are sized for the number of replicas given at construction
+ * and grow on demand beyond that.
+ */
+public class ReplicaIndex
+{
+    /**
+     * Visitor for replicas in the index. The cursor passed to the visitor
+     * is only valid during the call and is reused for the next replica.
+     * The visitor is called on a copy of the segment of the replica and
+     * without any lock held, thus it may modify the index.
+     */
+    @FunctionalInterface
+    public interface Visitor
+    {
+        void visit(Cursor cursor);
+    }
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /* Layout of a slot. */
+    private static final int ID_LENGTH = 0;
+    private static final int ID = 1;
+    private static final int STATE = 19;
+    private static final int FLAGS = 20;
+    private static final int SIZE = 24;
+    private static final int ACCESS_TIME = 32;
+    private static final int SLOT_SIZE = 40;
+
+    private static final byte EMPTY = 0;
+    private static final byte DELETED = -1;
+    private static final byte STICKY = 1;
+
+    private static final ReplicaState[] STATES = ReplicaState.values();
+
+    private final Segment[] _segments = new Segment[SEGMENTS];
+
+    /**
+     * @param expectedReplicas the number of replicas the index is sized for
+     */
+    public ReplicaIndex(int expectedReplicas)
+    {
+        checkArgument(expectedReplicas >= 0, "Index size must not be negative.");
+        /* Segments are sized for a load factor of 2/3 at the expected
+         * number of replicas, leaving room for uneven hashing.
+         */
+        int capacity = Math.max(tableSize((int) Math.min((long) expectedReplicas / SEGMENTS * 3 / 2, 1 << 30)),
+                                INITIAL_CAPACITY);
+        for (int i = 0; i < SEGMENTS; i++) {
+            _segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Adds a replica to the index or updates an existing entry.
+     */
+    public void put(PnfsId id, ReplicaState state, long size, long accessTime, boolean sticky)
+    {
+        byte[] key = id.getBytes();
+        int hash = hash(key);
+        segment(hash).put(key, hash, state, size, accessTime, sticky);
+    }
+
+    /**
+     * Returns the state of a replica, or null if the replica is not in
+     * the index.
+     */
+    public ReplicaState getState(PnfsId id)
+    {
+        byte[] key = id.getBytes();
+        int hash = hash(key);
+        return segment(hash).getState(key, hash);
+    }
+
+    /**
+     * Updates the access time of a replica.
+     *
+     * @return false if the replica is not in the index
+     */
+    public boolean setAccessTime(PnfsId id, long accessTime)
+    {
+        byte[] key = id.getBytes();
+        int hash = hash(key);
+        return segment(hash).setAccessTime(key, hash, accessTime);
+    }
+
+    /**
+     * Removes a replica from the index.
+     *
+     * @return false if the replica was not in the index
+     */
+    public boolean remove(PnfsId id)
+    {
+        byte[] key = id.getBytes();
+        int hash = hash(key);
+        return segment(hash).remove(key, hash);
+    }
+
+    public boolean contains(PnfsId id)
+    {
+        byte[] key = id.getBytes();
+        int hash = hash(key);
+        return segment(hash).contains(key, hash);
+    }
+
+    /**
+     * Calls the visitor for every replica in the index. The replicas of
+     * one segment at a time are copied, thus the segment is only locked
+     * while copying. Replicas added, removed or updated concurrently may
+     * or may not be visited in their latest form.
+     */
+    public void forEach(Visitor visitor)
+    {
+        for (Segment segment : _segments) {
+            segment.forEach(visitor);
+        }
+    }
+
+    /**
+     * Returns an iterator over the PNFS IDs in the index. The IDs of one
+     * segment at a time are copied, thus replicas added or removed
+     * concurrently may or may not be returned.
+     */
+    public Iterator<PnfsId> ids()
+    {
+        return new Iterator<PnfsId>()
+        {
+            private int _segment;
+            private byte[] _keys = new byte[0];
+            private int _position;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (_position == _keys.length) {
+                    if (_segment == SEGMENTS) {
+                        return false;
+                    }
+                    _keys = _segments[_segment++].keys();
+                    _position = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public PnfsId next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] id = Arrays.copyOfRange(_keys, _position + 1, _position + 1 + _keys[_position]);
+                _position += 1 + id.length;
+                return new PnfsId(id);
+            }
+        };
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                size += segment._size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the index outside the heap.
+     */
+    public long getAllocatedMemory()
+    {
+        long memory = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                memory += (long) segment._capacity * SLOT_SIZE;
+            }
+        }
+        return memory;
+    }
+
+    private Segment segment(int hash)
+    {
+        return _segments[hash >>> 28];
+    }
+
+    /**
+     * Returns the smallest power of two not smaller than n.
+     */
+    private static int tableSize(int n)
+    {
+        return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int hash(byte[] key)
+    {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Read-only view of the replica in a slot.
+     */
+    public static final class Cursor
+    {
+        private ByteBuffer _table;
+        private int _offset;
+
+        private Cursor()
+        {
+        }
+
+        public PnfsId getPnfsId()
+        {
+            byte[] id = new byte[_table.get(_offset + ID_LENGTH)];
+            for (int i = 0; i < id.length; i++) {
+                id[i] = _table.get(_offset + ID + i);
+            }
+            return new PnfsId(id);
+        }
+
+        public ReplicaState getState()
+        {
+            return STATES[_table.get(_offset + STATE)];
+        }
+
+        public long getReplicaSize()
+        {
+            return _table.getLong(_offset + SIZE);
+        }
+
+        public long getLastAccessTime()
+        {
+            return _table.getLong(_offset + ACCESS_TIME);
+        }
+
+        public boolean isSticky()
+        {
+            return (_table.get(_offset + FLAGS) & STICKY) != 0;
+        }
+    }
+
+    /**
+     * Open addressing hash table with linear probing.
+     */
+    private static final class Segment
+    {
+        private ByteBuffer _table;
+        private int _capacity;
+        private int _size;
+
+        /** Number of slots that are not empty, including deleted slots. */
+        private int _occupied;
+
+        Segment(int capacity)
+        {
+            _table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            _capacity = capacity;
+        }
+
+        synchronized void put(byte[] key, int hash, ReplicaState state, long size, long accessTime, boolean sticky)
+        {
+            int offset = find(key, hash);
+            if (offset < 0) {
+                if (_occupied + 1 > _capacity / 4 * 3) {
+                    /* Doubles the table unless enough deleted slots can
+                     * be reclaimed by rehashing at the current capacity.
+                     */
+                    rehash(tableSize(Math.max((_size + 1) * 2, _capacity)));
+                }
+                offset = insert(_table, _capacity, key, hash);
+                _size++;
+            }
+            _table.put(offset + STATE, (byte) state.ordinal());
+            _table.put(offset + FLAGS, sticky ? STICKY : 0);
+            _table.putLong(offset + SIZE, size);
+            _table.putLong(offset + ACCESS_TIME, accessTime);
+        }
+
+        synchronized ReplicaState getState(byte[] key, int hash)
+        {
+            int offset = find(key, hash);
+            return (offset < 0) ? null : STATES[_table.get(offset + STATE)];
+        }
+
+        synchronized boolean setAccessTime(byte[] key, int hash, long accessTime)
+        {
+            int offset = find(key, hash);
+            if (offset < 0) {
+                return false;
+            }
+            _table.putLong(offset + ACCESS_TIME, accessTime);
+            return true;
+        }
+
+        synchronized boolean remove(byte[] key, int hash)
+        {
+            int offset = find(key, hash);
+            if (offset < 0) {
+                return false;
+            }
+            _table.put(offset + ID_LENGTH, DELETED);
+            _size--;
+            return true;
+        }
+
+        synchronized boolean contains(byte[] key, int hash)
+        {
+            return find(key, hash) >= 0;
+        }
+
+        /**
+         * Returns the keys of the segment, each preceded by its length.
+         */
+        synchronized byte[] keys()
+        {
+            ByteBuffer keys = ByteBuffer.allocate(_size * (1 + STATE - ID));
+            for (int slot = 0; slot < _capacity; slot++) {
+                int offset = slot * SLOT_SIZE;
+                byte length = _table.get(offset + ID_LENGTH);
+                if (length > 0) {
+                    keys.put(length);
+                    for (int i = 0; i < length; i++) {
+                        keys.put(_table.get(offset + ID + i));
+                    }
+                }
+            }
+            return Arrays.copyOf(keys.array(), keys.position());
+        }
+
+        void forEach(Visitor visitor)
+        {
+            Cursor cursor = new Cursor();
+            cursor._table = slots();
+            for (int offset = 0; offset < cursor._table.limit(); offset += SLOT_SIZE) {
+                cursor._offset = offset;
+                visitor.visit(cursor);
+            }
+        }
+
+        /**
+         * Returns a heap copy of the occupied slots of the segment.
+         */
+        synchronized ByteBuffer slots()
+        {
+            byte[] slots = new byte[_size * SLOT_SIZE];
+            ByteBuffer table = _table.duplicate();
+            int position = 0;
+            for (int slot = 0; slot < _capacity; slot++) {
+                int offset = slot * SLOT_SIZE;
+                if (_table.get(offset + ID_LENGTH) > 0) {
+                    table.limit(offset + SLOT_SIZE).position(offset);
+                    table.get(slots, position, SLOT_SIZE);
+                    position += SLOT_SIZE;
+                }
+            }
+            return ByteBuffer.wrap(slots);
+        }
+
+        /**
+         * Returns the offset of the slot holding the key, or -1.
+         */
+        private int find(byte[] key, int hash)
+        {
+            int mask = _capacity - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int offset = slot * SLOT_SIZE;
+                byte length = _table.get(offset + ID_LENGTH);
+                if (length == EMPTY) {
+                    return -1;
+                }
+                if (length == key.length && matches(offset, key)) {
+                    return offset;
+                }
+            }
+        }
+
+        private boolean matches(int offset, byte[] key)
+        {
+            for (int i = 0; i < key.length; i++) {
+                if (_table.get(offset + ID + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int insert(ByteBuffer table, int capacity, byte[] key, int hash)
+        {
+            int mask = capacity - 1;
+            int slot = hash & mask;
+            while (table.get(slot * SLOT_SIZE + ID_LENGTH) > 0) {
+                slot = (slot + 1) & mask;
+            }
+            int offset = slot * SLOT_SIZE;
+            if (table.get(offset + ID_LENGTH) == EMPTY) {
+                _occupied++;
+            }
+            table.put(offset + ID_LENGTH, (byte) key.length);
+            for (int i = 0; i < key.length; i++) {
+                table.put(offset + ID + i, key[i]);
+            }
+            return offset;
+        }
+
+        /**
+         * Moves all entries to a new table with the given capacity, dropping
+         * deleted slots. The capacity must be a power of two.
+         */
+        private void rehash(int capacity)
+        {
+            ByteBuffer table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            _occupied = 0;
+            byte[] key18 = new byte[18];
+            byte[] key12 = new byte[12];
+            for (int slot = 0; slot < _capacity; slot++) {
+                int from = slot * SLOT_SIZE;
+                byte length = _table.get(from + ID_LENGTH);
+                if (length > 0) {
+                    byte[] key = (length == key18.length) ? key18 : (length == key12.length) ? key12 : new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        key[i] = _table.get(from + ID + i);
+                    }
+                    int to = insert(table, capacity, key, hash(key));
+                    for (int i = STATE; i < SLOT_SIZE; i++) {
+                        table.put(to + i, _table.get(from + i));
+                    }
+                }
+            }
+            _table = table;
+            _capacity = capacity;
+        }
+    }
+}
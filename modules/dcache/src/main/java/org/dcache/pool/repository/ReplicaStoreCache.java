@@ -1,14 +1,21 @@
 package org.dcache.pool.repository;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Striped;
+
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.AbstractSet;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.DiskErrorCacheException;
@@ -34,8 +41,13 @@ import static org.dcache.pool.repository.ReplicaState.NEW;
  * concurrently invoke several methods of the inner ReplicaStore
  * using the same PNFS ID.
  *
+ * The set of replicas is kept in a {@link ReplicaIndex} outside the Java
+ * heap. ReplicaRecords are only held in memory while they are in use,
+ * recently used, or have a non-zero link count. Operations on a replica
+ * are serialized by a lock striped by PNFS ID.
+ *
  * The cache guarantees that it always returns the same ReplicaStore
- * instance for a given entry.
+ * instance for a given entry as long as the instance is referenced.
  *
  * The cache submits state change events to a StateChangeListener. The
  * listener is called from the thread making the modification and with
@@ -45,9 +57,31 @@ import static org.dcache.pool.repository.ReplicaState.NEW;
 public class ReplicaStoreCache
     implements ReplicaStore
 {
-    /** Map of cached ReplicaRecords.
+    private static final int STRIPES = 4096;
+
+    /** Locks serializing operations on the replica of a PNFS ID.
+     */
+    private final Striped<Lock> _locks = Striped.lock(STRIPES);
+
+    /** Map of ReplicaRecords in memory. Entries are dropped once the
+     * record is no longer referenced.
+     */
+    private final ConcurrentMap<PnfsId,Monitor> _entries = new MapMaker().weakValues().makeMap();
+
+    /** Recently used ReplicaRecords. Keeps them in {@code _entries}.
+     */
+    private final Cache<PnfsId,Monitor> _recent;
+
+    /** ReplicaRecords with a non-zero link count. The link count is not
+     * persistent, hence these must never be dropped.
      */
-    private final ConcurrentMap<PnfsId,Monitor> _entries;
+    private final ConcurrentMap<PnfsId,Monitor> _pinned = new ConcurrentHashMap<>();
+
+    /** Compact copy of the meta data of all replicas. A replica is known
+     * to the cache if and only if it is in the index. Replicas that have
+     * not been announced to listeners are in state NEW.
+     */
+    private final ReplicaIndex _index;
 
     private final ReplicaStore _inner;
     private final StateChangeListener _stateChangeListener;
@@ -57,13 +91,54 @@ public class ReplicaStoreCache
 
     /**
      * Constructs a new cache.
+     *
+     * @param index the index in which to keep the replicas of the store
+     * @param maxRecords the number of recently used records kept in memory
      */
-    public ReplicaStoreCache(ReplicaStore inner, StateChangeListener stateChangeListener, FaultListener faultListener)
+    public ReplicaStoreCache(ReplicaStore inner, StateChangeListener stateChangeListener, FaultListener faultListener,
+                             ReplicaIndex index, int maxRecords)
     {
         _inner = inner;
-        _stateChangeListener = stateChangeListener;
+        _index = index;
+        _stateChangeListener = new IndexingStateChangeListener(stateChangeListener);
         _faultListener = faultListener;
-        _entries = new ConcurrentHashMap<>();
+        _recent = CacheBuilder.newBuilder().maximumSize(maxRecords).build();
+    }
+
+    /**
+     * Returns the Monitor of a replica, loading its record from the inner
+     * store if necessary. Returns null if the replica does not exist. Must
+     * be called with the replica locked.
+     *
+     * A replica is announced to the state change listener when its record
+     * is loaded for the first time.
+     */
+    @GuardedBy("_locks")
+    private Monitor load(PnfsId id) throws CacheException, InterruptedException
+    {
+        Monitor monitor = _entries.get(id);
+        if (monitor == null) {
+            ReplicaRecord record = _inner.get(id);
+            if (record == null) {
+                _index.remove(id);
+                return null;
+            }
+            monitor = new Monitor(id, record);
+            _entries.put(id, monitor);
+
+            ReplicaState indexed = _index.getState(id);
+            if (indexed == null) {
+                _index.put(id, NEW, 0, 0, false);
+                indexed = NEW;
+            }
+            if (indexed == NEW && record.getState() != NEW) {
+                CacheEntry entry = new CacheEntryImpl(record);
+                _stateChangeListener.stateChanged(
+                        new StateChangeEvent(entry, entry, NEW, record.getState()));
+            }
+        }
+        _recent.put(id, monitor);
+        return monitor;
     }
 
     /**
@@ -71,85 +146,34 @@ public class ReplicaStoreCache
      * access to any particular record. The class delegates operations to
      * both the store and to the decorated ReplicaRecord.
      *
-     * Correctness follows by observing that
-     *
-     * 1. after an initial check it is guaranteed that
-     *
-     *        _entries[this._id] == this
-     *
-     *    it follows that for any given id, the condition can only be true
-     *    for one Monitor at a time
-     *
-     * 2. all the monitor methods are synchronized, thus ensuring that for any
-     *    given id only one thread at a time will get past the above check
-     *
-     * 3. all modifications of _entries or the Monitor happen from within
-     *    the Monitor itself, only after the above condition has been
-     *    established, and only the entry of this._id is modified, thus
-     *    ensuring that the condition stays true until the end of the method
-     *    or until the Monitor removes itself from _entries.
-     *
-     * The point from which the condition in item 1 is true is marked by
-     * assertions in the code.
+     * Operations that modify the record or the cache lock the replica.
+     * A Monitor is only created by {@code load} and {@code create} with
+     * the replica locked, and only while no other Monitor of the replica
+     * is reachable. Thus for any given id all callers share the same
+     * Monitor and record until the replica is destroyed or the cache is
+     * closed.
      */
     private class Monitor implements ReplicaRecord
     {
         private final PnfsId _id;
-        private ReplicaRecord _record;
+        private final ReplicaRecord _record;
 
-        private Monitor(PnfsId id)
+        private Monitor(PnfsId id, ReplicaRecord record)
         {
             _id = id;
+            _record = record;
         }
 
-        private synchronized ReplicaRecord get()
-                throws InterruptedException, CacheException
-        {
-            if (_entries.get(_id) != this) {
-                return null;
-            }
-            assert _entries.get(_id) == this;
-            if (_record == null) {
-                _record = _inner.get(_id);
-                if (_record == null) {
-                    _entries.remove(_id, this);
-                    return null;
-                }
-                CacheEntry entry = new CacheEntryImpl(_record);
-                _stateChangeListener.stateChanged(
-                        new StateChangeEvent(entry, entry, NEW, _record.getState()));
-            }
-            return this;
-        }
-
-        private synchronized ReplicaRecord create(Set<Repository.OpenFlags> flags)
-                throws CacheException
-        {
-            if (_entries.get(_id) != this || _record != null) {
-                throw new DuplicateEntryException(_id);
-            }
-            assert _entries.get(_id) == this;
-            try {
-                checkState(!_isClosed);
-                _record = _inner.create(_id, flags);
-            } catch (DuplicateEntryException e) {
-                throw e;
-            } catch (RuntimeException | CacheException e) {
-                _entries.remove(_id);
-                throw e;
-            }
-            return this;
-        }
-
-        @GuardedBy("this")
+        @GuardedBy("_locks")
         private void destroy()
         {
-            assert _entries.get(_id) == this;
             try {
                 CacheEntry entry = new CacheEntryImpl(_record);
                 _record.update(r -> r.setState(DESTROYED));
                 _inner.remove(_id);
-                _entries.remove(_id);
+                _entries.remove(_id, this);
+                _recent.invalidate(_id);
+                _pinned.remove(_id, this);
                 _stateChangeListener.stateChanged(
                         new StateChangeEvent(entry, entry, entry.getState(), DESTROYED));
             } catch (DiskErrorCacheException | RuntimeException e) {
@@ -161,11 +185,6 @@ public class ReplicaStoreCache
             }
         }
 
-        private synchronized void close()
-        {
-            _entries.remove(_id, this);
-        }
-
         @Override
         public PnfsId getPnfsId()
         {
@@ -255,6 +274,7 @@ public class ReplicaStoreCache
         {
             try {
                 _record.setLastAccessTime(time);
+                _index.setAccessTime(_id, time);
             } catch (IllegalArgumentException e) {
                 throw e;
             } catch (RuntimeException | DiskErrorCacheException e) {
@@ -265,24 +285,41 @@ public class ReplicaStoreCache
         }
 
         @Override
-        public synchronized int decrementLinkCount()
+        public int decrementLinkCount()
         {
-            int cnt = _record.decrementLinkCount();
-            if (cnt == 0 && _record.getState() == ReplicaState.REMOVED) {
-                destroy();
+            Lock lock = _locks.get(_id);
+            lock.lock();
+            try {
+                int cnt = _record.decrementLinkCount();
+                if (cnt == 0) {
+                    _pinned.remove(_id, this);
+                    if (_record.getState() == ReplicaState.REMOVED) {
+                        destroy();
+                    }
+                }
+                return cnt;
+            } finally {
+                lock.unlock();
             }
-            return cnt;
         }
 
         @Override
         public int incrementLinkCount()
         {
+            Lock lock = _locks.get(_id);
+            lock.lock();
             try {
-                return _record.incrementLinkCount();
+                int cnt = _record.incrementLinkCount();
+                if (cnt == 1) {
+                    _pinned.put(_id, this);
+                }
+                return cnt;
             } catch (RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
                 throw e;
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -311,8 +348,10 @@ public class ReplicaStoreCache
         }
 
         @Override
-        public synchronized Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
+        public Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
         {
+            Lock lock = _locks.get(_id);
+            lock.lock();
             try {
                 CacheEntry oldEntry = new CacheEntryImpl(_record);
                 Collection<StickyRecord> removed = _record.removeExpiredStickyFlags();
@@ -325,6 +364,8 @@ public class ReplicaStoreCache
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
                 throw e;
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -341,8 +382,10 @@ public class ReplicaStoreCache
         }
 
         @Override
-        public synchronized <T> T update(Update<T> update) throws CacheException
+        public <T> T update(Update<T> update) throws CacheException
         {
+            Lock lock = _locks.get(_id);
+            lock.lock();
             try {
                 return _record.update(
                         r -> update.apply(
@@ -408,31 +451,96 @@ public class ReplicaStoreCache
                 FaultEvent event = new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e);
                 _faultListener.faultOccurred(event);
                 throw e;
+            } finally {
+                lock.unlock();
             }
         }
     }
 
+    /**
+     * Keeps the replica index up to date with the state of replicas
+     * announced to the decorated listener.
+     */
+    private class IndexingStateChangeListener implements StateChangeListener
+    {
+        private final StateChangeListener _inner;
+
+        IndexingStateChangeListener(StateChangeListener inner)
+        {
+            _inner = inner;
+        }
+
+        @Override
+        public void stateChanged(StateChangeEvent event)
+        {
+            if (event.getNewState() == DESTROYED) {
+                _index.remove(event.getPnfsId());
+            } else {
+                index(event.getNewEntry());
+            }
+            _inner.stateChanged(event);
+        }
+
+        @Override
+        public void accessTimeChanged(EntryChangeEvent event)
+        {
+            index(event.getNewEntry());
+            _inner.accessTimeChanged(event);
+        }
+
+        @Override
+        public void stickyChanged(StickyChangeEvent event)
+        {
+            index(event.getNewEntry());
+            _inner.stickyChanged(event);
+        }
+
+        private void index(CacheEntry entry)
+        {
+            _index.put(entry.getPnfsId(), entry.getState(), entry.getReplicaSize(),
+                       entry.getLastAccessTime(), entry.isSticky());
+        }
+    }
+
     public ReplicaRecord get(PnfsId id)
             throws CacheException, InterruptedException
     {
+        Lock lock = _locks.get(id);
+        lock.lock();
         try {
-            return _entries.computeIfAbsent(id, Monitor::new).get();
+            return load(id);
         } catch (RuntimeException | DiskErrorCacheException e) {
             _faultListener.faultOccurred(
                     new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
             throw e;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public ReplicaRecord create(PnfsId id, Set<Repository.OpenFlags> flags) throws CacheException
     {
+        Lock lock = _locks.get(id);
+        lock.lock();
         try {
-            return _entries.computeIfAbsent(id, Monitor::new).create(flags);
+            if (_index.contains(id) || _entries.containsKey(id)) {
+                throw new DuplicateEntryException(id);
+            }
+            checkState(!_isClosed);
+            Monitor monitor = new Monitor(id, _inner.create(id, flags));
+            _entries.put(id, monitor);
+            _recent.put(id, monitor);
+            _index.put(id, NEW, 0, 0, false);
+            return monitor;
+        } catch (DuplicateEntryException e) {
+            throw e;
         } catch (RuntimeException | DiskErrorCacheException e) {
             _faultListener.faultOccurred(
                     new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
             throw e;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -449,14 +557,39 @@ public class ReplicaStoreCache
     public void init() throws CacheException
     {
         for (PnfsId id: _inner.index(IndexOption.ALLOW_REPAIR)) {
-            _entries.putIfAbsent(id, new Monitor(id));
+            if (!_index.contains(id)) {
+                _index.put(id, NEW, 0, 0, false);
+            }
         }
     }
 
+    /**
+     * Returns a view of the replicas in the index. Iterating over the
+     * view does not load any records.
+     */
     @Override
     public Set<PnfsId> index(IndexOption... options)
     {
-        return Collections.unmodifiableSet(_entries.keySet());
+        return new AbstractSet<PnfsId>()
+        {
+            @Override
+            public Iterator<PnfsId> iterator()
+            {
+                return _index.ids();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return o instanceof PnfsId && _index.contains((PnfsId) o);
+            }
+
+            @Override
+            public int size()
+            {
+                return _index.size();
+            }
+        };
     }
 
     @Override
@@ -469,9 +602,9 @@ public class ReplicaStoreCache
     public void close()
     {
         _isClosed = true;
-        for (Monitor monitor : _entries.values()) {
-            monitor.close();
-        }
+        _entries.clear();
+        _recent.invalidateAll();
+        _pinned.clear();
         _inner.close();
     }
 
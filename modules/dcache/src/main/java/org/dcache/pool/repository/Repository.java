@@ -147,6 +147,13 @@ public interface Repository
      */
     SpaceRecord getSpaceRecord();
 
+    /**
+     * Returns a compact index of the state, size, last access time and
+     * sticky status of all replicas. The index can be queried without
+     * loading replica records. The link count is not in the index.
+     */
+    ReplicaIndex getReplicaIndex();
+
     /**
      * Returns the state of an entry.
      *
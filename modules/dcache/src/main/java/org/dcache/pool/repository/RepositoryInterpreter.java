@@ -6,7 +6,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
@@ -251,8 +253,28 @@ public class RepositoryInterpreter
 
             Pattern siFilter = (si == null) ? null : si.toPattern();
 
+            /* The replica index allows skipping the records of replicas
+             * that cannot match. The link count is not in the index.
+             */
+            Iterable<PnfsId> ids = _repository;
+            ReplicaIndex index = _repository.getReplicaIndex();
+            if (format.length() > 0 && !used) {
+                List<PnfsId> candidates = new ArrayList<>();
+                index.forEach(cursor -> {
+                    ReplicaState state = cursor.getState();
+                    if ((notcached && state != ReplicaState.CACHED) ||
+                        (precious && state == ReplicaState.PRECIOUS) ||
+                        (sticky && cursor.isSticky()) ||
+                        (broken && state == ReplicaState.BROKEN) ||
+                        (cached && state == ReplicaState.CACHED)) {
+                        candidates.add(cursor.getPnfsId());
+                    }
+                });
+                ids = candidates;
+            }
+
             StringBuilder sb = new StringBuilder();
-            for (PnfsId id: _repository) {
+            for (PnfsId id: ids) {
                 try {
                     CacheEntry entry = _repository.getEntry(id);
                     ReplicaState state = entry.getState();
@@ -189,56 +189,57 @@ class CheckHealthTask implements Runnable
          *
          *      _replicaStore.getFreeSpace >= _account.getFree
          *
-         * Taking the monitor lock on the account object prevents
-         * anybody else from allocating space from the account. Hence
-         * throughout the period we have the lock, the file system
-         * must have at least as much free space as the account.
+         * The free space of the account is read before that of the file
+         * system. Space allocated in between is counted as used by the
+         * account, but may or may not be reflected in the free space of
+         * the file system. Shrinking the account by the difference thus
+         * errs on the safe side, and as the account is shrunk atomically,
+         * space allocated after the file system was inspected is taken
+         * into account too.
          */
         Account account = _account;
-        synchronized (account) {
-            /* It is not uncommon that file system free space asynchronously from
-             * file deletion. Thus after we delete a file, it may take a while
-             * before the free space is reported as such by the operating system.
-             * To compensate, we suppress this check for a grace period after the
-             * last delete.
-             */
-            if (account.getTimeOfLastFree() > System.currentTimeMillis() - GRACE_PERIOD_ON_FREE) {
-                long free = _replicaStore.getFreeSpace();
-                long total = _replicaStore.getTotalSpace();
-
-                if (total == 0) {
-                    LOGGER.debug("Java reported file system size as 0. Skipping file system size check.");
-                    return;
-                }
 
-                if (total < account.getTotal()) {
-                    LOGGER.warn(AlarmMarkerFactory.getMarker(
-                                        PredefinedAlarm.POOL_SIZE, _repository.getPoolName()),
-                                "The file system containing the data files "
-                                        + "appears to be smaller {} than the configured "
-                                        + "pool size {}.",
-                                String.format("(%,d bytes)", total),
-                                String.format("(%,d bytes)", _account.getTotal()));
-                }
+        /* It is not uncommon that file system free space asynchronously from
+         * file deletion. Thus after we delete a file, it may take a while
+         * before the free space is reported as such by the operating system.
+         * To compensate, we suppress this check for a grace period after the
+         * last delete.
+         */
+        if (account.getTimeOfLastFree() > System.currentTimeMillis() - GRACE_PERIOD_ON_FREE) {
+            long expectedFree = account.getFree();
+            long free = _replicaStore.getFreeSpace();
+            long total = _replicaStore.getTotalSpace();
+
+            if (total == 0) {
+                LOGGER.debug("Java reported file system size as 0. Skipping file system size check.");
+                return;
+            }
 
-                if (free < account.getFree()) {
-                    long newSize =
-                            account.getTotal() - (account.getFree() - free);
-                    LOGGER.warn(AlarmMarkerFactory.getMarker(
-                                        PredefinedAlarm.POOL_FREE_SPACE, _repository.getPoolName()),
-                                "The file system containing the data files "
-                                        + "appears to have less free space {} than "
-                                        + "expected {}; reducing the pool size to {} "
-                                        + "to compensate. Notice that this does not leave "
-                                        + "any space for the meta data. If such data is "
-                                        + "stored on the same file system, then it is "
-                                        + "paramount that the pool size is reconfigured "
-                                        + "to leave enough space for the meta data.",
-                                String.format("(%,d bytes)", free),
-                                String.format("(%,d bytes)", _account.getFree()),
-                                String.format("%,d bytes", newSize));
-                    account.setTotal(newSize);
-                }
+            if (total < account.getTotal()) {
+                LOGGER.warn(AlarmMarkerFactory.getMarker(
+                                    PredefinedAlarm.POOL_SIZE, _repository.getPoolName()),
+                            "The file system containing the data files "
+                                    + "appears to be smaller {} than the configured "
+                                    + "pool size {}.",
+                            String.format("(%,d bytes)", total),
+                            String.format("(%,d bytes)", account.getTotal()));
+            }
+
+            if (free < expectedFree) {
+                long newSize = account.shrink(expectedFree - free);
+                LOGGER.warn(AlarmMarkerFactory.getMarker(
+                                    PredefinedAlarm.POOL_FREE_SPACE, _repository.getPoolName()),
+                            "The file system containing the data files "
+                                    + "appears to have less free space {} than "
+                                    + "expected {}; reducing the pool size to {} "
+                                    + "to compensate. Notice that this does not leave "
+                                    + "any space for the meta data. If such data is "
+                                    + "stored on the same file system, then it is "
+                                    + "paramount that the pool size is reconfigured "
+                                    + "to leave enough space for the meta data.",
+                            String.format("(%,d bytes)", free),
+                            String.format("(%,d bytes)", expectedFree),
+                            String.format("%,d bytes", newSize));
             }
         }
     }
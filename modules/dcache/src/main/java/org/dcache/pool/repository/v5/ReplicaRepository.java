@@ -51,6 +51,7 @@ import org.dcache.pool.repository.DuplicateEntryException;
 import org.dcache.pool.repository.EntryChangeEvent;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.IllegalTransitionException;
+import org.dcache.pool.repository.ReplicaIndex;
 import org.dcache.pool.repository.ReplicaStoreCache;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaStore;
@@ -139,6 +140,16 @@ public class ReplicaRepository
     @GuardedBy("_stateLock")
     private ReplicaStore _store;
 
+    /**
+     * Index of the meta data of all replicas.
+     */
+    private final ReplicaIndex _index;
+
+    /**
+     * Number of recently used replica records kept in memory.
+     */
+    private final int _maxRecords;
+
     /**
      * Current state of the repository.
      */
@@ -206,6 +217,16 @@ public class ReplicaRepository
     @GuardedBy("_stateLock")
     private DiskSpace _gap = DiskSpace.UNSPECIFIED;
 
+    /**
+     * @param expectedReplicas the number of replicas the replica index is sized for
+     * @param maxRecords the number of recently used replica records kept in memory
+     */
+    public ReplicaRepository(int expectedReplicas, int maxRecords)
+    {
+        _index = new ReplicaIndex(expectedReplicas);
+        _maxRecords = maxRecords;
+    }
+
     /**
      * Throws an IllegalStateException if the repository has been
      * initialized.
@@ -409,7 +430,7 @@ public class ReplicaRepository
                         listener.faultOccurred(event);
                     }
                 }
-            });
+            }, _index, _maxRecords);
         } finally {
             _stateLock.readLock().unlock();
         }
@@ -730,6 +751,12 @@ public class ReplicaRepository
         }
     }
 
+    @Override
+    public ReplicaIndex getReplicaIndex()
+    {
+        return _index;
+    }
+
     @Override
     public SpaceRecord getSpaceRecord()
     {
@@ -879,6 +906,11 @@ public class ReplicaRepository
                 pw.println("Files : " + e.getMessage());
             }
 
+            int replicas = _index.size();
+            long memory = _index.getAllocatedMemory();
+            pw.println("Replica index : " + replicas + " replicas in " + memory + " bytes off-heap"
+                       + (replicas > 0 ? " (" + memory / replicas + " bytes per replica)" : ""));
+
             SpaceRecord space = getSpaceRecord();
             long total = space.getTotalSpace();
             long used = total - space.getFreeSpace();
@@ -1211,33 +1243,32 @@ public class ReplicaRepository
     private void updateAccountSize()
     {
         Account account = _account;
-        synchronized (account) {
-            DiskSpace configuredPoolSize = getConfiguredMaxSize();
-            long maxPoolSize = getFileSystemMaxSize();
-            long used = account.getUsed();
-
-            if (!isTotalSpaceReported()) {
-                LOGGER.warn("Java reported the file system size as 0. This typically happens on Solaris with a 32-bit JVM. Please use a 64-bit JVM.");
-                if (!configuredPoolSize.isSpecified()) {
-                    throw new IllegalStateException("Failed to determine file system size. A pool size must be configured.");
-                }
+        DiskSpace configuredPoolSize = getConfiguredMaxSize();
+        long maxPoolSize = getFileSystemMaxSize();
+        long used = account.getUsed();
+
+        if (!isTotalSpaceReported()) {
+            LOGGER.warn("Java reported the file system size as 0. This typically happens on Solaris with a 32-bit JVM. Please use a 64-bit JVM.");
+            if (!configuredPoolSize.isSpecified()) {
+                throw new IllegalStateException("Failed to determine file system size. A pool size must be configured.");
             }
+        }
 
-            long newSize;
-
-            if (configuredPoolSize.isLargerThan(maxPoolSize)) {
-                LOGGER.warn("Configured pool size ({}) is larger than what is available on disk ({}).",
-                            configuredPoolSize, maxPoolSize);
-            } else if (configuredPoolSize.isLessThan(used)) {
-                LOGGER.warn("Configured pool size ({}) is less than what is used already ({}).",
-                            configuredPoolSize, used);
-            }
+        if (configuredPoolSize.isLargerThan(maxPoolSize)) {
+            LOGGER.warn("Configured pool size ({}) is larger than what is available on disk ({}).",
+                        configuredPoolSize, maxPoolSize);
+        } else if (configuredPoolSize.isLessThan(used)) {
+            LOGGER.warn("Configured pool size ({}) is less than what is used already ({}).",
+                        configuredPoolSize, used);
+        }
 
-            newSize = Math.max(used, configuredPoolSize.orElse(maxPoolSize));
-            if (newSize != account.getTotal()) {
-                LOGGER.info("Adjusting pool size to {}", newSize);
-                account.setTotal(newSize);
-            }
+        /* Space may be allocated concurrently, so the size is never set below
+         * the amount of used space at the time of the update.
+         */
+        long oldSize = account.getTotal();
+        long newSize = account.resize(configuredPoolSize.orElse(maxPoolSize));
+        if (newSize != oldSize) {
+            LOGGER.info("Adjusting pool size to {}", newSize);
         }
     }
 }
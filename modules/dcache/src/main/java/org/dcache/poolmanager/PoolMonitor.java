@@ -1,6 +1,7 @@
 package org.dcache.poolmanager;
 
 import java.util.Collection;
+import java.util.function.Function;
 
 import diskCacheV111.poolManager.CostModule;
 import diskCacheV111.poolManager.PoolSelectionUnit;
@@ -30,6 +31,17 @@ public interface PoolMonitor
             ProtocolInfo protocolInfo,
             String linkGroup);
 
+    /**
+     * Returns a source of pool selectors for files transferred with the same
+     * protocol and link group. Implementations may share work between the
+     * selectors, such as matching the files against the selection unit.
+     */
+    default Function<FileAttributes, PoolSelector> getPoolSelectors(ProtocolInfo protocolInfo,
+                                                                    String linkGroup)
+    {
+        return fileAttributes -> getPoolSelector(fileAttributes, protocolInfo, linkGroup);
+    }
+
     Collection<PoolCostInfo> queryPoolsByLinkName(String linkName);
 
     FileLocality getFileLocality(FileAttributes attributes, String hostName);
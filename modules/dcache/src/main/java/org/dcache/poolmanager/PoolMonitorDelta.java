@@ -0,0 +1,156 @@
+/*
+ * dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Set;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.SelectionPool;
+import diskCacheV111.pools.PoolV2Mode;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+/**
+ * Incremental update of a pool monitor published by pool manager.
+ *
+ * A delta carries the current state of the pools that changed since the
+ * previous update, but no pool selection configuration. It can only be
+ * applied to a pool monitor of the same epoch stamped with the preceding
+ * version; a receiver observing any other version has missed an update
+ * and has to fetch a new snapshot.
+ */
+public class PoolMonitorDelta implements Serializable
+{
+    private static final long serialVersionUID = 2270431349271470357L;
+
+    private final long _epoch;
+    private final long _version;
+    private final ImmutableList<PoolState> _pools;
+
+    public PoolMonitorDelta(long epoch, long version, Collection<PoolState> pools)
+    {
+        _epoch = epoch;
+        _version = version;
+        _pools = ImmutableList.copyOf(pools);
+    }
+
+    public long getEpoch()
+    {
+        return _epoch;
+    }
+
+    public long getVersion()
+    {
+        return _version;
+    }
+
+    public ImmutableList<PoolState> getPools()
+    {
+        return _pools;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PoolMonitorDelta[epoch=" + _epoch + ",version=" + _version + ",pools=" + _pools.size() + "]";
+    }
+
+    /**
+     * State of a single pool as known to the pool selection unit and the
+     * cost module of pool manager.
+     */
+    public static class PoolState implements Serializable
+    {
+        private static final long serialVersionUID = -4195484532312744932L;
+
+        private final String _name;
+        private final CellAddressCore _address;
+        private final long _serialId;
+        private final PoolV2Mode _mode;
+        private final ImmutableSet<String> _hsmInstances;
+        private final boolean _isActive;
+        private final boolean _isReadOnly;
+        private final PoolInfo _info;
+
+        /**
+         * @param pool the pool as known to the pool selection unit
+         * @param info information from the cost module, or null if the
+         *             cost module does not know the pool
+         */
+        public PoolState(SelectionPool pool, @Nullable PoolInfo info)
+        {
+            _name = pool.getName();
+            _address = pool.getAddress();
+            _serialId = pool.getSerialId();
+            _mode = pool.getPoolMode();
+            Set<String> hsmInstances = pool.getHsmInstances();
+            _hsmInstances = (hsmInstances == null) ? ImmutableSet.of() : ImmutableSet.copyOf(hsmInstances);
+            _isActive = pool.isActive();
+            _isReadOnly = pool.isReadOnly();
+            _info = info;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        public CellAddressCore getAddress()
+        {
+            return _address;
+        }
+
+        public long getSerialId()
+        {
+            return _serialId;
+        }
+
+        public PoolV2Mode getMode()
+        {
+            return _mode;
+        }
+
+        public ImmutableSet<String> getHsmInstances()
+        {
+            return _hsmInstances;
+        }
+
+        public boolean isActive()
+        {
+            return _isActive;
+        }
+
+        public boolean isReadOnly()
+        {
+            return _isReadOnly;
+        }
+
+        @Nullable
+        public PoolInfo getInfo()
+        {
+            return _info;
+        }
+    }
+}
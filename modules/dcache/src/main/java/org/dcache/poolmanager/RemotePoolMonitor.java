@@ -28,6 +28,7 @@ import org.springframework.remoting.RemoteProxyFailureException;
 
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import diskCacheV111.poolManager.CostModule;
 import diskCacheV111.poolManager.PoolSelectionUnit;
@@ -52,6 +53,11 @@ import static org.dcache.util.MathUtils.subWithInfinity;
 
 /**
  * PoolMonitor that delegates to a PoolMonitor obtained from pool manager.
+ *
+ * Snapshots of the pool monitor are received from pool manager as well as
+ * incremental updates if pool manager publishes those. Updates are applied
+ * to the most recent snapshot in the order of their versions. If an update
+ * is missed, a new snapshot is requested from pool manager.
  */
 public class RemotePoolMonitor
         implements PoolMonitor, CellLifeCycleAware, CellMessageReceiver, CellEventListener
@@ -63,10 +69,12 @@ public class RemotePoolMonitor
         NONE, REQUEST_SUBMITTED, ROUTE_ADDED, NOROUTE
     }
 
-    private long lastRefreshTime;
+    private volatile long lastRefreshTime;
     private CellStub poolManagerStub;
-    private PoolMonitor poolMonitor;
+    private volatile SerializablePoolMonitor poolMonitor;
     private long refreshCount;
+    private long deltaCount;
+    private boolean isSnapshotRequested;
     private LastEvent lastEvent = LastEvent.NONE;
 
     @Required
@@ -164,6 +172,12 @@ public class RemotePoolMonitor
         return getPoolMonitor().getPoolSelector(fileAttributes, protocolInfo, linkGroup);
     }
 
+    @Override
+    public Function<FileAttributes, PoolSelector> getPoolSelectors(ProtocolInfo protocolInfo, String linkGroup)
+    {
+        return getPoolMonitor().getPoolSelectors(protocolInfo, linkGroup);
+    }
+
     @Override
     public Collection<PoolCostInfo> queryPoolsByLinkName(String linkName)
     {
@@ -176,6 +190,37 @@ public class RemotePoolMonitor
         return getPoolMonitor().getFileLocality(attributes, hostName);
     }
 
+    /**
+     * Requests a snapshot from pool manager unless a request is already
+     * outstanding.
+     */
+    private synchronized void requestSnapshot()
+    {
+        if (isSnapshotRequested) {
+            return;
+        }
+        isSnapshotRequested = true;
+        CellStub.addCallback(poolManagerStub.send(new PoolManagerGetPoolMonitor()),
+                             new AbstractMessageCallback<PoolManagerGetPoolMonitor>()
+                             {
+                                 @Override
+                                 public void success(PoolManagerGetPoolMonitor message)
+                                 {
+                                     messageArrived(message.getPoolMonitor());
+                                 }
+
+                                 @Override
+                                 public void failure(int rc, Object error)
+                                 {
+                                     LOGGER.warn("Failed to fetch pool monitor: {}", error);
+                                     synchronized (RemotePoolMonitor.this) {
+                                         isSnapshotRequested = false;
+                                     }
+                                 }
+                             },
+                             MoreExecutors.directExecutor());
+    }
+
     public void refresh() throws CacheException, InterruptedException
     {
         messageArrived(poolManagerStub.sendAndWait(new PoolManagerGetPoolMonitor()).getPoolMonitor());
@@ -186,6 +231,11 @@ public class RemotePoolMonitor
         return refreshCount;
     }
 
+    public synchronized long getDeltaCount()
+    {
+        return deltaCount;
+    }
+
     public synchronized long getLastRefreshTime()
     {
         return lastRefreshTime;
@@ -193,13 +243,57 @@ public class RemotePoolMonitor
 
     public synchronized void messageArrived(SerializablePoolMonitor monitor)
     {
+        isSnapshotRequested = false;
+        if (poolMonitor != null && monitor.getEpoch() == poolMonitor.getEpoch()
+                && monitor.getVersion() < poolMonitor.getVersion()) {
+            /* Updates newer than this snapshot have already been applied. */
+            return;
+        }
         poolMonitor = monitor;
         lastRefreshTime = System.currentTimeMillis();
         refreshCount++;
         notifyAll();
     }
 
-    private synchronized PoolMonitor getPoolMonitor()
+    public synchronized void messageArrived(PoolMonitorDelta delta)
+    {
+        SerializablePoolMonitor current = poolMonitor;
+        if (current == null) {
+            /* The initial snapshot has been requested on startup. */
+            return;
+        }
+        if (delta.getEpoch() == current.getEpoch()) {
+            if (delta.getVersion() <= current.getVersion()) {
+                return;
+            }
+            /* The update replaces the state of the affected pools in the current
+             * monitor. Readers do not lock the monitor, but observe the state of
+             * each pool either before or after the update. */
+            if (delta.getVersion() == current.getVersion() + 1 && current.apply(delta)) {
+                current.setVersion(delta.getEpoch(), delta.getVersion());
+                lastRefreshTime = System.currentTimeMillis();
+                deltaCount++;
+                return;
+            }
+        }
+        LOGGER.debug("Cannot apply {} to pool monitor version {}; fetching snapshot.",
+                     delta, current.getVersion());
+        requestSnapshot();
+    }
+
+    private PoolMonitor getPoolMonitor()
+    {
+        SerializablePoolMonitor monitor = poolMonitor;
+        if (monitor == null) {
+            monitor = awaitPoolMonitor();
+        }
+        if (lastRefreshTime < System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)) {
+            LOGGER.warn("Cached pool information is older than 5 minutes. Please check pool manager.");
+        }
+        return monitor;
+    }
+
+    private synchronized SerializablePoolMonitor awaitPoolMonitor()
     {
         try {
             if (poolMonitor == null) {
@@ -211,9 +305,6 @@ public class RemotePoolMonitor
                     throw new RemoteConnectFailureException("Cached pool information is not yet available.", null);
                 }
             }
-            if (lastRefreshTime < System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)) {
-                LOGGER.warn("Cached pool information is older than 5 minutes. Please check pool manager.");
-            }
             return poolMonitor;
         } catch (InterruptedException e) {
             throw new RemoteProxyFailureException("Failed to fetch pool monitor: " + e.getMessage(), e);
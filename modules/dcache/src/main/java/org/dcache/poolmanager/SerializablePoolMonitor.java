@@ -20,7 +20,49 @@ package org.dcache.poolmanager;
 
 import java.io.Serializable;
 
+/**
+ * PoolMonitor published by pool manager.
+ *
+ * Published snapshots are stamped with the epoch of the publishing pool
+ * manager instance and a version that increases with every snapshot and
+ * every {@link PoolMonitorDelta} published by that instance. Snapshots of
+ * pool managers not publishing deltas have epoch and version zero.
+ */
 public abstract class SerializablePoolMonitor implements PoolMonitor, Serializable
 {
     private static final long serialVersionUID = -3568502579459711629L;
+
+    private volatile long _epoch;
+    private volatile long _version;
+
+    public long getEpoch()
+    {
+        return _epoch;
+    }
+
+    public long getVersion()
+    {
+        return _version;
+    }
+
+    public void setVersion(long epoch, long version)
+    {
+        _epoch = epoch;
+        _version = version;
+    }
+
+    /**
+     * Applies an incremental update to this pool monitor. The caller is
+     * responsible for checking that the update follows on the version
+     * of this pool monitor.
+     *
+     * The update may be applied while the pool monitor is in use. The state
+     * of each pool is replaced atomically, but readers may observe some pools
+     * updated and others not. Updates must not be applied concurrently.
+     *
+     * @return false if the update cannot be applied and a new snapshot is
+     *         required, true otherwise. The pool monitor is not modified
+     *         if false is returned.
+     */
+    public abstract boolean apply(PoolMonitorDelta delta);
 }
@@ -9,8 +9,10 @@ import com.google.common.collect.Iterables;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -174,11 +176,13 @@ public class BillingParserBuilder
     /**
      * Returns a Pattern for matching the provided billing format.
      *
-     * Attributes are turned into named capturing groups.
+     * Attributes are turned into named capturing groups. An if-expression
+     * without an else branch is optional.
      */
     private static Pattern toPattern(String name, String format)
     {
         StringBuilder regex = new StringBuilder();
+        Deque<Boolean> hasElse = new ArrayDeque<>();
         Matcher matcher = ATTRIBUTE_PATTERN.matcher(format);
         int pos = 0;
         while (matcher.find()) {
@@ -188,10 +192,13 @@ public class BillingParserBuilder
             String expression = matcher.group(1);
             if (isIf(expression)) {
                 regex.append("(");
+                hasElse.push(false);
             } else if (isElse(expression)) {
                 regex.append("|");
+                hasElse.pop();
+                hasElse.push(true);
             } else if (isEndIf(expression)) {
-                regex.append(")");
+                regex.append(hasElse.pop() ? ")" : ")?");
             } else {
                 regex.append("(?<").append(toGroupName(expression)).append(">");
                 // This incomplete list of attribute patterns reduces the risk of false matches
@@ -205,6 +212,7 @@ public class BillingParserBuilder
                 case "filesize":
                 case "transferred":
                 case "connectionTime":
+                case "throughput":
                 case "transactionTime":
                 case "queuingTime":
                 case "transferTime":
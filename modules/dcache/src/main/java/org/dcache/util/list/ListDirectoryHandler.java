@@ -43,6 +43,13 @@ import org.dcache.vehicles.PnfsListDirectoryMessage;
  * thread. Any attempt to do so will cause the message thread to
  * block, as the replies cannot be delivered to the
  * ListDirectoryHandler.
+ *
+ * Unless a range is requested, directories are listed page by page. The
+ * next page is requested once all replies of the current page have been
+ * received and the consumer of the stream has started reading the last
+ * of them. Thus at most one page is buffered, and a slow consumer of a
+ * large directory does not cause an unbounded number of replies to pile
+ * up in the door.
  */
 public class ListDirectoryHandler
     implements CellMessageReceiver, DirectoryListSource
@@ -50,15 +57,32 @@ public class ListDirectoryHandler
     private static final Logger _log =
         LoggerFactory.getLogger(ListDirectoryHandler.class);
 
+    public static final int DEFAULT_PAGE_SIZE = 5000;
+
     private final PnfsHandler _pnfs;
     private final Map<UUID,Stream> _replies =
             new ConcurrentHashMap<>();
+    private int _pageSize = DEFAULT_PAGE_SIZE;
 
     public ListDirectoryHandler(PnfsHandler pnfs)
     {
         _pnfs = pnfs;
     }
 
+    /**
+     * Sets the maximum number of entries requested from PnfsManager at
+     * a time. Zero disables listing page by page.
+     */
+    public void setPageSize(int pageSize)
+    {
+        _pageSize = pageSize;
+    }
+
+    public int getPageSize()
+    {
+        return _pageSize;
+    }
+
     /**
      * Sends a directory list request to PnfsManager. The result is
      * provided as a stream of directory entries.
@@ -101,22 +125,17 @@ public class ListDirectoryHandler
                 throws InterruptedException, CacheException
     {
         String dir = path.toString();
-        PnfsListDirectoryMessage msg =
-            new PnfsListDirectoryMessage(dir, pattern, range, attributes);
-        UUID uuid = msg.getUUID();
+        int pageSize = range.equals(Range.all()) ? _pageSize : 0;
+        Stream stream = new Stream(dir, subject, restriction, pattern, range, attributes, pageSize);
         boolean success = false;
-        Stream stream = new Stream(dir, uuid);
         try {
-            msg.setSubject(subject);
-            msg.setRestriction(restriction);
-            _replies.put(uuid, stream);
-            _pnfs.send(msg);
+            stream.requestPage(null);
             stream.waitForMoreEntries();
             success = true;
             return stream;
         } finally {
             if (!success) {
-                _replies.remove(uuid);
+                stream.close();
             }
         }
     }
@@ -192,23 +211,63 @@ public class ListDirectoryHandler
     {
         private final BlockingQueue<PnfsListDirectoryMessage> _queue =
                 new LinkedBlockingQueue<>();
-        private final UUID _uuid;
         private final String _path;
+        private final Subject _subject;
+        private final Restriction _restriction;
+        private final Glob _pattern;
+        private final Range<Integer> _range;
+        private final Set<FileAttribute> _attributes;
+        private final int _pageSize;
+        private volatile UUID _uuid;
         private boolean _isFinal;
         private Iterator<DirectoryEntry> _iterator;
         private int _count;
         private int _total;
+        private String _nextCookie;
 
-        public Stream(String path, UUID uuid)
+        public Stream(String path, Subject subject, Restriction restriction, Glob pattern,
+                      Range<Integer> range, Set<FileAttribute> attributes, int pageSize)
         {
             _path = path;
-            _uuid = uuid;
+            _subject = subject;
+            _restriction = restriction;
+            _pattern = pattern;
+            _range = range;
+            _attributes = attributes;
+            _pageSize = pageSize;
         }
 
         @Override
         public void close()
         {
-            _replies.remove(_uuid);
+            UUID uuid = _uuid;
+            if (uuid != null) {
+                _replies.remove(uuid);
+            }
+        }
+
+        /**
+         * Sends the request for the page following the given cookie. Only
+         * called once all replies for the previous page have been received,
+         * so replies of different pages never interleave.
+         */
+        private void requestPage(String cookie)
+        {
+            PnfsListDirectoryMessage msg =
+                new PnfsListDirectoryMessage(_path, _pattern, _range, _attributes);
+            msg.setSubject(_subject);
+            msg.setRestriction(_restriction);
+            msg.setLagTolerant(true);
+            if (_pageSize > 0) {
+                msg.setPage(cookie, _pageSize);
+            }
+            close();
+            _uuid = msg.getUUID();
+            _replies.put(_uuid, this);
+            _count = 0;
+            _total = 0;
+            _nextCookie = null;
+            _pnfs.send(msg);
         }
 
         private void put(PnfsListDirectoryMessage msg)
@@ -232,16 +291,22 @@ public class ListDirectoryHandler
                                          "Timeout during directory listing.");
             }
 
+            if (msg.getReturnCode() != 0) {
+                _isFinal = true;
+                throw CacheExceptionFactory.exceptionOf(msg);
+            }
+
             if (msg.isFinal()) {
                 _total = msg.getMessageCount();
+                _nextCookie = msg.getNextCookie();
             }
             _count++;
             if (_count == _total) {
-                _isFinal = true;
-            }
-
-            if (msg.getReturnCode() != 0) {
-                throw CacheExceptionFactory.exceptionOf(msg);
+                if (_nextCookie != null) {
+                    requestPage(_nextCookie);
+                } else {
+                    _isFinal = true;
+                }
             }
 
             _iterator = msg.getEntries().iterator();
@@ -0,0 +1,212 @@
+package diskCacheV111.namespace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsClearCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+
+import org.dcache.auth.Subjects;
+import org.dcache.namespace.FileAttribute;
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsBatchMessage;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PnfsRequestQueueTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private PnfsRequestQueue _queue;
+
+    @Before
+    public void setUp()
+    {
+        _queue = new PnfsRequestQueue(0, true);
+    }
+
+    @Test
+    public void shouldAttachEqualRequestOnArrival() throws Exception
+    {
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage second = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage other = offer(getAttributes(ID2, FileAttribute.SIZE));
+
+        assertThat(_queue.size(), is(3));
+        assertThat(_queue.take().getEnvelopes(), contains(first, second));
+        assertThat(_queue.take().getEnvelopes(), contains(other));
+        assertThat(_queue.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotAttachRequestsWithDifferentAttributes() throws Exception
+    {
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage second = offer(getAttributes(ID1, FileAttribute.MODE));
+
+        assertThat(_queue.take().getEnvelopes(), contains(first));
+        assertThat(_queue.take().getEnvelopes(), contains(second));
+    }
+
+    @Test
+    public void shouldNotAttachAcrossInvalidatingRequest() throws Exception
+    {
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage clear = offer(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        CellMessage second = offer(getAttributes(ID1, FileAttribute.SIZE));
+
+        assertThat(_queue.take().getEnvelopes(), contains(first));
+        assertThat(_queue.take().getEnvelopes(), contains(clear));
+        assertThat(_queue.take().getEnvelopes(), contains(second));
+    }
+
+    @Test
+    public void shouldFoldQueuedRequestsIntoProcessedRequest() throws Exception
+    {
+        offer(getAttributes(ID1, FileAttribute.SIZE, FileAttribute.MODE));
+        CellMessage queued = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage unrelated = offer(getAttributes(ID2, FileAttribute.SIZE));
+
+        PnfsGetFileAttributes processed = (PnfsGetFileAttributes) takeMessage();
+        processed.setFileAttributes(new FileAttributes());
+
+        List<PnfsRequestQueue.Request> folded = _queue.fold(processed);
+        assertThat(folded.size(), is(1));
+        assertThat(folded.get(0).getEnvelopes(), contains(queued));
+        assertThat(_queue.take().getEnvelopes(), contains(unrelated));
+    }
+
+    @Test
+    public void shouldNotFoldRequestsBehindInvalidatingRequest() throws Exception
+    {
+        offer(getAttributes(ID1, FileAttribute.SIZE, FileAttribute.MODE));
+        CellMessage before = offer(getAttributes(ID1, FileAttribute.SIZE));
+        offer(new PnfsBatchMessage(singletonList(new PnfsClearCacheLocationMessage(ID1, "pool"))));
+        CellMessage behind = offer(getAttributes(ID1, FileAttribute.SIZE));
+
+        PnfsGetFileAttributes processed = (PnfsGetFileAttributes) takeMessage();
+        processed.setFileAttributes(new FileAttributes());
+
+        List<PnfsRequestQueue.Request> folded = _queue.fold(processed);
+        assertThat(folded.size(), is(1));
+        assertThat(folded.get(0).getEnvelopes(), contains(before));
+        assertThat(_queue.size(), is(2));
+        assertThat(takeMessage(), is(instanceOf(PnfsBatchMessage.class)));
+        assertThat(_queue.take().getEnvelopes(), contains(behind));
+    }
+
+    @Test
+    public void shouldNotFoldWhenDisabled() throws Exception
+    {
+        _queue = new PnfsRequestQueue(0, false);
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage second = offer(getAttributes(ID1, FileAttribute.SIZE));
+
+        assertThat(_queue.take().getEnvelopes(), contains(first));
+        assertThat(_queue.take().getEnvelopes(), contains(second));
+    }
+
+    @Test
+    public void shouldRejectRequestsWhenFull() throws Exception
+    {
+        _queue = new PnfsRequestQueue(1, true);
+        offer(getAttributes(ID1, FileAttribute.SIZE));
+
+        assertThat(_queue.offer(envelope(getAttributes(ID1, FileAttribute.SIZE))), is(false));
+    }
+
+    @Test
+    public void shouldReturnNullWhenClosedAndEmpty() throws Exception
+    {
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        _queue.close();
+
+        List<CellMessage> drained = new ArrayList<>();
+        _queue.drainTo(drained);
+
+        assertThat(drained, contains(first));
+        assertThat(_queue.take(), is(nullValue()));
+        assertThat(_queue.toList(), is(empty()));
+    }
+
+    @Test
+    public void shouldServeLookupsBeforeRecentMutations() throws Exception
+    {
+        _queue = new PnfsRequestQueue(0, true, c -> c == PnfsRequestQueue.RequestClass.LOOKUP ? 0 : 60000);
+        CellMessage clear = offer(new PnfsClearCacheLocationMessage(ID2, "pool"));
+        CellMessage lookup = offer(getAttributes(ID1, FileAttribute.SIZE));
+
+        assertThat(_queue.take().getEnvelopes(), contains(lookup));
+        assertThat(_queue.take().getEnvelopes(), contains(clear));
+    }
+
+    @Test
+    public void shouldServeRequestsWithShortTimeToLiveFirst() throws Exception
+    {
+        _queue = new PnfsRequestQueue(0, true, c -> 60000);
+        CellMessage first = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage urgent = envelope(getAttributes(ID2, FileAttribute.SIZE));
+        urgent.setTtl(1000);
+        assertThat(_queue.offer(urgent), is(true));
+
+        assertThat(_queue.take().getEnvelopes(), contains(urgent));
+        assertThat(_queue.take().getEnvelopes(), contains(first));
+    }
+
+    @Test
+    public void shouldNotReorderConflictingRequests() throws Exception
+    {
+        _queue = new PnfsRequestQueue(0, true, c -> c == PnfsRequestQueue.RequestClass.LOOKUP ? 0 : 60000);
+        CellMessage clear = offer(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        CellMessage add = envelope(new PnfsAddCacheLocationMessage(ID1, "pool"));
+        add.setTtl(1000);
+        assertThat(_queue.offer(add), is(true));
+        CellMessage lookup = offer(getAttributes(ID1, FileAttribute.SIZE));
+        CellMessage other = offer(getAttributes(ID2, FileAttribute.SIZE));
+
+        assertThat(_queue.take().getEnvelopes(), contains(other));
+        assertThat(_queue.take().getEnvelopes(), contains(clear));
+        assertThat(_queue.take().getEnvelopes(), contains(add));
+        assertThat(_queue.take().getEnvelopes(), contains(lookup));
+    }
+
+    private PnfsMessage takeMessage() throws InterruptedException
+    {
+        return (PnfsMessage) _queue.take().getEnvelopes().get(0).getMessageObject();
+    }
+
+    private CellMessage offer(PnfsMessage message)
+    {
+        CellMessage envelope = envelope(message);
+        assertThat(_queue.offer(envelope), is(true));
+        return envelope;
+    }
+
+    private static CellMessage envelope(PnfsMessage message)
+    {
+        message.setSubject(Subjects.ROOT);
+        return new CellMessage(new CellAddressCore("PnfsManager"), message);
+    }
+
+    private static PnfsGetFileAttributes getAttributes(PnfsId pnfsId, FileAttribute first, FileAttribute... rest)
+    {
+        return new PnfsGetFileAttributes(pnfsId, EnumSet.of(first, rest));
+    }
+}
@@ -0,0 +1,122 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.poolManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures matching client addresses against a site-sized set of net units:
+ * a few hundred IPv4 and IPv6 subnets of various prefix lengths plus the
+ * catch-all units. About half of the addresses fall into one of the specific
+ * subnets, the others only match a catch-all unit.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=diskCacheV111.poolManager.NetHandlerBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NetHandlerBenchmark
+{
+    private static final int ADDRESSES = 1024;
+
+    @Param({"ipv4", "ipv6"})
+    public String family;
+
+    private final NetHandler handler = new NetHandler();
+    private final String[] addresses = new String[ADDRESSES];
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+
+        handler.add(new NetUnit("0.0.0.0/0"));
+        for (int i = 0; i < 20; i++) {
+            handler.add(new NetUnit("131." + (160 + i) + ".0.0/16"));
+        }
+        for (int i = 0; i < 300; i++) {
+            handler.add(new NetUnit("131." + (160 + i % 20) + "." + (i / 20 * 8) + ".0/24"));
+        }
+        for (int i = 0; i < 60; i++) {
+            handler.add(new NetUnit("188.184." + i + "." + (i % 16 * 16) + "/28"));
+        }
+
+        handler.add(new NetUnit("::/0"));
+        for (int i = 0; i < 10; i++) {
+            handler.add(new NetUnit("2001:" + Integer.toHexString(0x600 + i) + "::/32"));
+        }
+        for (int i = 0; i < 100; i++) {
+            handler.add(new NetUnit("2001:" + Integer.toHexString(0x600 + i % 10) + ":" + Integer.toHexString(i) + "::/48"));
+        }
+        for (int i = 0; i < 100; i++) {
+            handler.add(new NetUnit("2001:" + Integer.toHexString(0x600 + i % 10) + ":" + Integer.toHexString(i) + ":"
+                                    + Integer.toHexString(i * 7) + "::/64"));
+        }
+
+        for (int i = 0; i < ADDRESSES; i++) {
+            boolean local = random.nextBoolean();
+            if (family.equals("ipv4")) {
+                addresses[i] = local
+                               ? "131." + (160 + random.nextInt(20)) + "." + random.nextInt(256) + "." + random.nextInt(256)
+                               : (1 + random.nextInt(126)) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            } else {
+                addresses[i] = local
+                               ? "2001:" + Integer.toHexString(0x600 + random.nextInt(10)) + ":" + Integer.toHexString(random.nextInt(100)) + ":"
+                                 + Integer.toHexString(random.nextInt(700)) + "::" + Integer.toHexString(random.nextInt(65536))
+                               : "2a00:" + Integer.toHexString(random.nextInt(65536)) + "::" + Integer.toHexString(random.nextInt(65536));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void match(Blackhole blackhole) throws UnknownHostException
+    {
+        for (String address : addresses) {
+            blackhole.consume(handler.match(address));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(NetHandlerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
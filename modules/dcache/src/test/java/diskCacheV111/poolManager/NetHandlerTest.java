@@ -7,6 +7,10 @@ package diskCacheV111.poolManager;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.UnknownHostException;
 
 import static org.junit.Assert.*;
@@ -121,6 +125,48 @@ public class NetHandlerTest {
         assertCIDRSubnetMatches("131.169.252.76/32", "131.169.252.76");
     }
 
+    @Test
+    public void testMatchPrefersLongestPrefix() throws UnknownHostException {
+        NetHandler nh = new NetHandler();
+        nh.add(new NetUnit("0.0.0.0/0"));
+        nh.add(new NetUnit("131.169.0.0/16"));
+        nh.add(new NetUnit("131.169.252.0/24"));
+        nh.add(new NetUnit("::/0"));
+        nh.add(new NetUnit("2001:638:700::/48"));
+        nh.add(new NetUnit("2001:638:700:1::/64"));
+
+        assertEquals(new NetUnit("131.169.252.0/24").getCanonicalName(), nh.match("131.169.252.76").getCanonicalName());
+        assertEquals(new NetUnit("131.169.0.0/16").getCanonicalName(), nh.match("131.169.10.1").getCanonicalName());
+        assertEquals(new NetUnit("0.0.0.0/0").getCanonicalName(), nh.match("188.184.9.234").getCanonicalName());
+        assertEquals(new NetUnit("2001:638:700:1::/64").getCanonicalName(), nh.match("2001:638:700:1::7").getCanonicalName());
+        assertEquals(new NetUnit("2001:638:700::/48").getCanonicalName(), nh.match("2001:638:700:2::7").getCanonicalName());
+        assertEquals(new NetUnit("::/0").getCanonicalName(), nh.match("2a00:1450::1").getCanonicalName());
+
+        nh.remove(new NetUnit("131.169.252.0/24"));
+        assertEquals(new NetUnit("131.169.0.0/16").getCanonicalName(), nh.match("131.169.252.76").getCanonicalName());
+    }
+
+    @Test
+    public void testMatchWithoutUnits() throws UnknownHostException {
+        NetHandler nh = new NetHandler();
+        nh.add(new NetUnit("131.169.0.0/16"));
+        assertNull(nh.match("188.184.9.234"));
+        assertNull(nh.match("2001:638:700::1"));
+    }
+
+    @Test
+    public void testMatchAfterDeserialization() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(netHandler);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            NetHandler copy = (NetHandler) in.readObject();
+            assertEquals(IPV4_MASKED_SUBNET, copy.match(IPV4_HOSTNAME_2).getCanonicalName());
+            assertEquals(IPV6_MASKED_SUBNET, copy.match(IPV6_HOSTNAME_2).getCanonicalName());
+        }
+    }
+
     private void assertCIDRSubnetMatches(String subnet, String ip)
     {
         NetHandler nh = new NetHandler();
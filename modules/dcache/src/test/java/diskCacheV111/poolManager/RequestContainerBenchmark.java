@@ -0,0 +1,257 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package diskCacheV111.poolManager;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.util.PnfsHandler;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.OSMStorageInfo;
+import diskCacheV111.vehicles.PoolFetchFileMessage;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+import diskCacheV111.vehicles.PoolMgrSelectReadPoolMsg;
+import diskCacheV111.vehicles.ProtocolInfo;
+import diskCacheV111.vehicles.StorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.poolmanager.PartitionManager;
+import org.dcache.tests.cells.MockCellEndpoint;
+import org.dcache.tests.poolmanager.PoolMonitorHelper;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Load test for read pool selection in RequestContainerV5, the component of
+ * PoolManagerV5 handling read requests. A synthetic mix of requests for
+ * files on disk and requests for files that have to be staged is submitted
+ * in batches, and the throughput is reported as selections per second.
+ * Pools answer stage requests from a separate thread without delay.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=diskCacheV111.poolManager.RequestContainerBenchmark}.
+ * Any JMH option may be passed in {@code -Dexec.args}, e.g. {@code -t 8}
+ * to submit requests from several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RequestContainerBenchmark
+{
+    private static final int REQUESTS = 1000;
+
+    @Param({"0", "10"})
+    public int stagePercentage;
+
+    @Param({"50"})
+    public int pools;
+
+    @Param({"16"})
+    public int engineThreads;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Map<PnfsId, CountDownLatch> pending = new ConcurrentHashMap<>();
+    private final ProtocolInfo protocolInfo =
+            new DCapProtocolInfo("DCap", 3, 0, new InetSocketAddress("127.0.0.1", 17));
+    private final List<String> poolNames = new ArrayList<>();
+
+    private ExecutorService engineExecutor;
+    private ExecutorService poolExecutor;
+    private CostModuleV1 costModule;
+    private RequestContainerV5 container;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        org.slf4j.Logger root = LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root instanceof Logger) {
+            ((Logger) root).setLevel(Level.WARN);
+        }
+
+        engineExecutor = Executors.newFixedThreadPool(engineThreads);
+        poolExecutor = Executors.newSingleThreadExecutor();
+
+        MockCellEndpoint endpoint = new MockCellEndpoint("PoolManager");
+        PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+        PartitionManager partitionManager = new PartitionManager();
+        partitionManager.setProperties(null, ImmutableMap.of("stage-allowed", "yes"));
+        costModule = new CostModuleV1();
+
+        PoolMonitorV5 poolMonitor = new PoolMonitorV5();
+        poolMonitor.setPoolSelectionUnit(psu);
+        poolMonitor.setCostModule(costModule);
+        poolMonitor.setPartitionManager(partitionManager);
+
+        for (int i = 0; i < pools; i++) {
+            poolNames.add("pool" + i);
+        }
+        PoolMonitorHelper.prepareSelectionUnit(psu, psu, poolNames);
+        for (String pool : poolNames) {
+            psu.getPool(pool).setHsmInstances(Collections.singleton("osm"));
+            endpoint.registerAction(pool, PoolFetchFileMessage.class,
+                                    envelope -> poolExecutor.execute(
+                                            () -> container.messageArrived(envelope, envelope.getMessageObject())));
+        }
+
+        endpoint.registerAction("door", PoolMgrSelectReadPoolMsg.class, envelope -> {
+            PoolMgrSelectReadPoolMsg reply = (PoolMgrSelectReadPoolMsg) envelope.getMessageObject();
+            if (reply.getReturnCode() != 0) {
+                failures.incrementAndGet();
+            }
+            CountDownLatch latch = pending.remove(reply.getPnfsId());
+            if (latch != null) {
+                latch.countDown();
+            }
+        });
+
+        PnfsHandler pnfsHandler = new PnfsHandler(new CellPath("PnfsManager"));
+        pnfsHandler.setCellEndpoint(endpoint);
+
+        container = new RequestContainerV5();
+        container.setPoolSelectionUnit(psu);
+        container.setPnfsHandler(pnfsHandler);
+        container.setPoolMonitor(poolMonitor);
+        container.setPartitionManager(partitionManager);
+        container.setExecutor(engineExecutor);
+        container.setCellEndpoint(endpoint);
+        container.setStageConfigurationFile(null);
+    }
+
+    /**
+     * Pools periodically report their cost, resetting the cost predicted
+     * from earlier selections.
+     */
+    @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+    public void sendPoolUpMessages()
+    {
+        PoolV2Mode mode = new PoolV2Mode(PoolV2Mode.ENABLED);
+        long serialId = System.currentTimeMillis();
+        for (String pool : poolNames) {
+            PoolCostInfo cost = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+            cost.setSpaceUsage(100, 20, 30, 50);
+            cost.setQueueSizes(0, 100, 0, 0, 100, 0);
+            cost.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, 0, 100, 0, 0, 0);
+
+            CellMessage envelope = new CellMessage(new CellAddressCore("PoolManager"), null);
+            envelope.addSourceAddress(new CellAddressCore(pool));
+            costModule.messageArrived(envelope, new PoolManagerPoolUpMessage(pool, serialId, mode, cost));
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.out.println(failures.get() + " selections failed");
+        container.shutdown();
+        engineExecutor.shutdown();
+        poolExecutor.shutdown();
+    }
+
+    private FileAttributes newFile(boolean isOnDisk) throws Exception
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        PnfsId pnfsId = new PnfsId(String.format("%036X", sequence.incrementAndGet()));
+
+        StorageInfo storageInfo = new OSMStorageInfo("h1", "rawd");
+        storageInfo.addLocation(new URI("osm://osm?"));
+        storageInfo.setIsNew(false);
+
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(storageInfo, attributes);
+        attributes.setPnfsId(pnfsId);
+        attributes.setLocations(isOnDisk
+                                ? Collections.singletonList(poolNames.get(random.nextInt(pools)))
+                                : Collections.emptyList());
+        attributes.setSize(5);
+        attributes.setAccessLatency(StorageInfo.DEFAULT_ACCESS_LATENCY);
+        attributes.setRetentionPolicy(StorageInfo.DEFAULT_RETENTION_POLICY);
+        attributes.setChecksums(Collections.emptySet());
+        return attributes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void select() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            boolean isOnDisk = ThreadLocalRandom.current().nextInt(100) >= stagePercentage;
+            PoolMgrSelectReadPoolMsg request =
+                    new PoolMgrSelectReadPoolMsg(newFile(isOnDisk), protocolInfo, null);
+            CellMessage envelope = new CellMessage(new CellAddressCore("PoolManager"), request);
+            envelope.getSourcePath().add(new CellAddressCore("door", "local"));
+            pending.put(request.getPnfsId(), latch);
+            container.messageArrived(envelope, request);
+        }
+        if (!latch.await(1, TimeUnit.MINUTES)) {
+            throw new TimeoutException(latch.getCount() + " selections did not complete");
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+                           .parent(new CommandLineOptions(args))
+                           .include(RequestContainerBenchmark.class.getSimpleName())
+                           .build()).run();
+    }
+}
@@ -0,0 +1,179 @@
+package diskCacheV111.util;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsClearCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import org.dcache.cells.CellStub;
+import org.dcache.vehicles.PnfsBatchMessage;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheLocationQueueTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+    private static final PnfsId ID3 = new PnfsId("000000000000000000000000000000000003");
+
+    private final BlockingQueue<PnfsBatchMessage> _sent = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PnfsAddCacheLocationMessage> _sentNow = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Runnable> _replies = new LinkedBlockingQueue<>();
+    private CacheLocationQueue _queue;
+    private int _rc;
+    private volatile boolean _isReplyDeferred;
+
+    @Before
+    public void setUp()
+    {
+        CellStub stub = mock(CellStub.class);
+        when(stub.send(any(PnfsBatchMessage.class))).thenAnswer(invocation -> {
+            PnfsBatchMessage batch = (PnfsBatchMessage) invocation.getArguments()[0];
+            if (_rc != 0) {
+                batch.getMessages().forEach(m -> m.setFailed(_rc, "failed"));
+            }
+            _sent.add(batch);
+            return reply(batch);
+        });
+        when(stub.send(any(PnfsAddCacheLocationMessage.class))).thenAnswer(invocation -> {
+            PnfsAddCacheLocationMessage message = (PnfsAddCacheLocationMessage) invocation.getArguments()[0];
+            _sentNow.add(message);
+            return reply(message);
+        });
+        _queue = new CacheLocationQueue(stub);
+        _queue.setMaxBatchSize(2);
+        _queue.setMaxDelay(1);
+        _queue.setMaxDelayUnit(TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _queue.shutdown();
+    }
+
+    @Test
+    public void shouldSendBatchWhenFull() throws Exception
+    {
+        _queue.clear(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        assertThat(_sent.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        _queue.clear(new PnfsClearCacheLocationMessage(ID2, "pool"));
+
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID1, ID2));
+    }
+
+    @Test
+    public void shouldSendBatchAfterDelay() throws Exception
+    {
+        _queue.setMaxDelay(10);
+        _queue.setMaxDelayUnit(TimeUnit.MILLISECONDS);
+
+        _queue.clear(new PnfsClearCacheLocationMessage(ID1, "pool"));
+
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID1));
+    }
+
+    @Test
+    public void shouldReplaceEarlierUpdateOfSameFile() throws Exception
+    {
+        ListenableFuture<PnfsAddCacheLocationMessage> add =
+                _queue.add(new PnfsAddCacheLocationMessage(ID1, "pool"));
+        _queue.clear(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        _queue.clear(new PnfsClearCacheLocationMessage(ID2, "pool"));
+
+        PnfsBatchMessage batch = _sent.poll(1, TimeUnit.SECONDS);
+        assertThat(idsOf(batch), contains(ID1, ID2));
+        assertThat(batch.getMessages().get(0), instanceOf(PnfsClearCacheLocationMessage.class));
+        assertThat(add.get(1, TimeUnit.SECONDS), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldFailAddWithReturnCodeOfReply() throws Exception
+    {
+        _rc = CacheException.FILE_NOT_FOUND;
+        ListenableFuture<PnfsAddCacheLocationMessage> add1 =
+                _queue.add(new PnfsAddCacheLocationMessage(ID1, "pool"));
+        _queue.add(new PnfsAddCacheLocationMessage(ID2, "pool"));
+
+        try {
+            CellStub.getMessage(add1);
+            fail("Expected FileNotFoundCacheException");
+        } catch (FileNotFoundCacheException expected) {
+        }
+    }
+
+    @Test
+    public void shouldDelayAddNowUntilEarlierUpdateOfSameFileCompleted() throws Exception
+    {
+        _isReplyDeferred = true;
+        _queue.clear(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        _queue.clear(new PnfsClearCacheLocationMessage(ID2, "pool"));
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID1, ID2));
+
+        ListenableFuture<PnfsAddCacheLocationMessage> add =
+                _queue.addNow(new PnfsAddCacheLocationMessage(ID1, "pool"));
+        assertThat(_sentNow.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        _replies.take().run();
+        assertThat(_sentNow.poll(1, TimeUnit.SECONDS).getPnfsId(), is(ID1));
+        _replies.take().run();
+        assertThat(add.get(1, TimeUnit.SECONDS), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldHoldBackUpdateOfFileAwaitingReply() throws Exception
+    {
+        _queue.setMaxDelay(10);
+        _queue.setMaxDelayUnit(TimeUnit.MILLISECONDS);
+        _isReplyDeferred = true;
+        _queue.clear(new PnfsClearCacheLocationMessage(ID1, "pool"));
+        _queue.clear(new PnfsClearCacheLocationMessage(ID2, "pool"));
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID1, ID2));
+
+        _queue.add(new PnfsAddCacheLocationMessage(ID1, "pool"));
+        _queue.add(new PnfsAddCacheLocationMessage(ID3, "pool"));
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID3));
+        assertThat(_sent.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        _replies.take().run();
+        assertThat(idsOf(_sent.poll(1, TimeUnit.SECONDS)), contains(ID1));
+    }
+
+    private <T> ListenableFuture<T> reply(T message)
+    {
+        if (!_isReplyDeferred) {
+            return Futures.immediateFuture(message);
+        }
+        SettableFuture<T> future = SettableFuture.create();
+        _replies.add(() -> future.set(message));
+        return future;
+    }
+
+    private static List<PnfsId> idsOf(PnfsBatchMessage batch)
+    {
+        assertThat(batch, is(notNullValue()));
+        return batch.getMessages().stream().map(PnfsMessage::getPnfsId).collect(toList());
+    }
+}
@@ -0,0 +1,127 @@
+package org.dcache.pool.classic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ShardedLruQueueTest
+{
+    private ShardedLruQueue<String> _queue;
+
+    @Before
+    public void setUp()
+    {
+        _queue = new ShardedLruQueue<>(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectShardCountNotPowerOfTwo()
+    {
+        new ShardedLruQueue<>(3);
+    }
+
+    @Test
+    public void shouldNotAddKeyTwice()
+    {
+        assertTrue(_queue.add("a", 1, 10));
+        assertFalse(_queue.add("a", 1, 20));
+        assertEquals(1, _queue.size());
+    }
+
+    @Test
+    public void shouldPollInAccessOrder()
+    {
+        _queue.add("c", 1, 30);
+        _queue.add("a", 1, 10);
+        _queue.add("d", 1, 40);
+        _queue.add("b", 1, 20);
+
+        assertThat(keys(_queue.poll(4, Long.MAX_VALUE)), contains("a", "b", "c", "d"));
+    }
+
+    @Test
+    public void shouldLimitBatchByCountAndSize()
+    {
+        for (int i = 0; i < 10; i++) {
+            _queue.add("k" + i, 100, i);
+        }
+
+        assertThat(_queue.poll(3, Long.MAX_VALUE).size(), is(3));
+        assertThat(_queue.poll(10, 150).size(), is(2));
+    }
+
+    @Test
+    public void shouldGiveTouchedKeysSecondChance()
+    {
+        ShardedLruQueue<String> queue = new ShardedLruQueue<>(1);
+        queue.add("a", 1, 10);
+        queue.add("b", 1, 20);
+        queue.touch("a", 30);
+
+        assertThat(keys(queue.poll(2, Long.MAX_VALUE)), contains("b", "a"));
+    }
+
+    @Test
+    public void shouldNotPollRemovedKeys()
+    {
+        _queue.add("a", 1, 10);
+        _queue.add("b", 1, 20);
+        assertTrue(_queue.remove("a"));
+        assertFalse(_queue.remove("a"));
+        assertFalse(_queue.touch("a", 30));
+
+        assertThat(keys(_queue.poll(2, Long.MAX_VALUE)), contains("b"));
+    }
+
+    @Test
+    public void shouldRequeueCandidates()
+    {
+        _queue.add("a", 1, 10);
+        _queue.add("b", 1, 20);
+
+        List<ShardedLruQueue.Node<String>> candidates = _queue.poll(2, Long.MAX_VALUE);
+        assertTrue(_queue.poll(2, Long.MAX_VALUE).isEmpty());
+        assertTrue(_queue.contains("a"));
+
+        _queue.remove("b");
+        candidates.forEach(_queue::requeue);
+
+        assertThat(keys(_queue.poll(2, Long.MAX_VALUE)), contains("a"));
+    }
+
+    @Test
+    public void shouldReportOldestAccessTime()
+    {
+        assertEquals(0, _queue.getTimeOfLeastRecentlyUsedElement());
+        _queue.add("b", 1, 20);
+        _queue.add("a", 1, 10);
+        assertEquals(10, _queue.getTimeOfLeastRecentlyUsedElement());
+    }
+
+    @Test
+    public void shouldCompactAfterManyRemovals()
+    {
+        for (int i = 0; i < 5000; i++) {
+            _queue.add("k" + i, 1, i);
+        }
+        for (int i = 0; i < 4990; i++) {
+            _queue.remove("k" + i);
+        }
+
+        assertEquals(10, _queue.size());
+        assertThat(_queue.values(), is(Arrays.asList("k4990", "k4991", "k4992", "k4993", "k4994",
+                                                     "k4995", "k4996", "k4997", "k4998", "k4999")));
+        assertThat(_queue.poll(100, Long.MAX_VALUE).size(), is(10));
+    }
+
+    private static List<String> keys(List<ShardedLruQueue.Node<String>> nodes)
+    {
+        return nodes.stream().map(ShardedLruQueue.Node::getKey).collect(Collectors.toList());
+    }
+}
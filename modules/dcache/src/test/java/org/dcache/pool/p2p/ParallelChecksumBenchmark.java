@@ -0,0 +1,173 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2016 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.p2p;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import diskCacheV111.util.ChecksumFactory;
+
+import org.dcache.pool.movers.ChecksumChannel;
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+/**
+ * Compares the two ways of checksumming a multi-stream pool to pool
+ * transfer: digesting the data on the fly with a ChecksumChannel, and
+ * writing the data directly to the replica and reading it back once
+ * the transfer is complete.
+ *
+ * Each stream writes whole blocks taken in file order in 64 KiB writes,
+ * like ParallelDownload does. The score is the time to receive and
+ * checksum the whole file; divide the size by it to get the throughput.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dcache.pool.p2p.ParallelChecksumBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelChecksumBenchmark
+{
+    private static final int BUFFER_SIZE = 65536;
+    private static final long BLOCK_SIZE = 64L * 1024 * 1024;
+
+    @Param({"1024"})
+    private int sizeInMiB;
+
+    @Param({"1", "4", "8"})
+    private int streams;
+
+    private final ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private ChecksumFactory factory;
+    private ExecutorService executor;
+    private Path file;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException
+    {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        data.put(bytes).flip();
+        factory = ChecksumFactory.getFactory(ChecksumType.ADLER32);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        executor.shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void createFile() throws IOException
+    {
+        file = Files.createTempFile("replica", null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteFile() throws IOException
+    {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Checksum checksumWhileWriting() throws Exception
+    {
+        try (RepositoryChannel channel = new FileRepositoryChannel(file, "rw");
+             ChecksumChannel checksumChannel = new ChecksumChannel(channel, factory)) {
+            write(checksumChannel);
+            return checksumChannel.getChecksum();
+        }
+    }
+
+    @Benchmark
+    public Checksum checksumAfterWriting() throws Exception
+    {
+        try (RepositoryChannel channel = new FileRepositoryChannel(file, "rw")) {
+            write(channel);
+            return factory.computeChecksum(channel);
+        }
+    }
+
+    private void write(RepositoryChannel channel) throws Exception
+    {
+        long size = sizeInMiB * 1024L * 1024L;
+        AtomicLong nextBlock = new AtomicLong();
+        List<Future<Void>> futures = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            futures.add(executor.submit(() -> {
+                ByteBuffer buffer = data.duplicate();
+                long offset;
+                while ((offset = nextBlock.getAndIncrement() * BLOCK_SIZE) < size) {
+                    long end = Math.min(offset + BLOCK_SIZE, size);
+                    for (long position = offset; position < end; ) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ParallelChecksumBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,245 @@
+package org.dcache.pool.p2p;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Adler32;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ParallelDownloadTest
+{
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final int BLOCK_SIZE = 1000;
+    private static final int STREAMS = 3;
+
+    private interface Responder
+    {
+        void respond(HttpExchange exchange, int offset, int end) throws IOException, InterruptedException;
+    }
+
+    private final byte[] data = new byte[10 * BLOCK_SIZE + 123];
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private volatile Responder responder;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService streamExecutor;
+    private ExecutorService callerExecutor;
+    private Path file;
+    private RepositoryChannel channel;
+    private ParallelDownload download;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        new Random(42).nextBytes(data);
+
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            try {
+                requests.incrementAndGet();
+                Matcher matcher = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+                assertTrue(matcher.matches());
+                responder.respond(exchange, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        streamExecutor = Executors.newCachedThreadPool();
+        callerExecutor = Executors.newSingleThreadExecutor();
+        file = Files.createTempFile("ParallelDownloadTest", ".tmp");
+        channel = new FileRepositoryChannel(file, "rw");
+
+        String uri = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/file";
+        RequestConfig config = RequestConfig.custom().setConnectTimeout(10000).setSocketTimeout(10000).build();
+        download = new ParallelDownload(uri, data.length, BLOCK_SIZE, STREAMS, true, streamExecutor, "test", config);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        release.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        streamExecutor.shutdownNow();
+        callerExecutor.shutdownNow();
+        channel.close();
+        Files.delete(file);
+    }
+
+    private void sendBlock(HttpExchange exchange, int offset, int end) throws IOException
+    {
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + end + "/" + data.length);
+        exchange.sendResponseHeaders(206, end - offset + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data, offset, end - offset + 1);
+        }
+    }
+
+    private void copy() throws Exception
+    {
+        Future<?> future = callerExecutor.submit(() -> {
+            download.copyTo(channel);
+            return null;
+        });
+        try {
+            future.get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Test
+    public void shouldDownloadAllBlocks() throws Exception
+    {
+        responder = this::sendBlock;
+
+        copy();
+
+        assertThat(requests.get(), is(11));
+        assertThat(download.getBytesTransferred(), is((long) data.length));
+        assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void shouldComputeAdler32OfFile() throws Exception
+    {
+        responder = this::sendBlock;
+
+        copy();
+
+        Adler32 adler32 = new Adler32();
+        adler32.update(data);
+        assertThat(download.getAdler32(), is(adler32.getValue()));
+    }
+
+    @Test
+    public void shouldCombineAdler32() throws Exception
+    {
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        for (int split : new int[] { 1, 7, BLOCK_SIZE, data.length - 1 }) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            assertThat(ParallelDownload.combineAdler32(first.getValue(), second.getValue(), data.length - split),
+                       is(whole.getValue()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnShortBlock() throws Exception
+    {
+        responder = (exchange, offset, end) -> {
+            if (offset == 5 * BLOCK_SIZE) {
+                exchange.sendResponseHeaders(206, end - offset + 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(data, offset, (end - offset + 1) / 2);
+                }
+            } else {
+                sendBlock(exchange, offset, end);
+            }
+        };
+
+        copy();
+    }
+
+    @Test(expected = ClientProtocolException.class)
+    public void shouldFailIfSourceIgnoresRange() throws Exception
+    {
+        responder = (exchange, offset, end) -> {
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        };
+
+        copy();
+    }
+
+    @Test
+    public void shouldAbortOtherStreamsOnFailure() throws Exception
+    {
+        responder = (exchange, offset, end) -> {
+            if (offset == 0) {
+                exchange.sendResponseHeaders(500, -1);
+            } else {
+                release.await();
+                sendBlock(exchange, offset, end);
+            }
+        };
+
+        try {
+            copy();
+            fail("Download did not fail");
+        } catch (HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(500));
+        }
+        assertThat(requests.get(), is(lessThanOrEqualTo(STREAMS)));
+    }
+
+    @Test
+    public void shouldFailWhenAborted() throws Exception
+    {
+        CountDownLatch received = new CountDownLatch(STREAMS);
+        responder = (exchange, offset, end) -> {
+            received.countDown();
+            release.await();
+            sendBlock(exchange, offset, end);
+        };
+
+        Future<?> future = callerExecutor.submit(() -> {
+            download.copyTo(channel);
+            return null;
+        });
+        assertTrue(received.await(30, TimeUnit.SECONDS));
+        download.abort();
+
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            fail("Download did not fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+        assertThat(requests.get(), is(STREAMS));
+    }
+}
@@ -0,0 +1,150 @@
+package org.dcache.pool.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.junit.Assert.*;
+
+public class ReplicaIndexTest
+{
+    private static final PnfsId ID1 = new PnfsId("0000D8C5A7B8C1E14BC0A82B8D3C6E1AE1A1");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000001234");
+
+    private ReplicaIndex _index;
+
+    @Before
+    public void setUp()
+    {
+        _index = new ReplicaIndex(0);
+    }
+
+    @Test
+    public void shouldStoreReplicaMetaData()
+    {
+        _index.put(ID1, ReplicaState.CACHED, 1024, 1000, true);
+        _index.put(ID2, ReplicaState.PRECIOUS, 2048, 2000, false);
+
+        Map<PnfsId, String> replicas = visit();
+        assertEquals(2, _index.size());
+        assertEquals("CACHED 1024 1000 true", replicas.get(ID1));
+        assertEquals("PRECIOUS 2048 2000 false", replicas.get(ID2));
+    }
+
+    @Test
+    public void shouldUpdateExistingReplica()
+    {
+        _index.put(ID1, ReplicaState.FROM_CLIENT, 0, 1000, false);
+        _index.put(ID1, ReplicaState.CACHED, 1024, 1500, false);
+        assertTrue(_index.setAccessTime(ID1, 3000));
+        assertFalse(_index.setAccessTime(ID2, 3000));
+
+        assertEquals(1, _index.size());
+        assertEquals("CACHED 1024 3000 false", visit().get(ID1));
+        assertEquals(ReplicaState.CACHED, _index.getState(ID1));
+        assertNull(_index.getState(ID2));
+    }
+
+    @Test
+    public void shouldRemoveReplica()
+    {
+        _index.put(ID1, ReplicaState.CACHED, 1024, 1000, false);
+        assertTrue(_index.remove(ID1));
+        assertFalse(_index.remove(ID1));
+        assertFalse(_index.contains(ID1));
+        assertEquals(0, _index.size());
+        assertTrue(visit().isEmpty());
+    }
+
+    @Test
+    public void shouldGrowAndReuseDeletedSlots()
+    {
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            _index.put(id(i), ReplicaState.CACHED, i, i, false);
+        }
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(_index.remove(id(i)));
+        }
+        for (int i = 0; i < count; i += 2) {
+            _index.put(id(i), ReplicaState.PRECIOUS, i, i, false);
+        }
+
+        assertEquals(count, _index.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(_index.contains(id(i)));
+        }
+        long[] sum = new long[1];
+        _index.forEach(cursor -> sum[0] += cursor.getReplicaSize());
+        assertEquals((long) count * (count - 1) / 2, sum[0]);
+        assertTrue(_index.getAllocatedMemory() / count < 128);
+    }
+
+    @Test
+    public void shouldGrowBeyondExpectedSize()
+    {
+        ReplicaIndex index = new ReplicaIndex(16 * 1024);
+        for (int i = 0; i < 100_000; i++) {
+            index.put(id(i), ReplicaState.CACHED, i, i, false);
+        }
+
+        assertEquals(100_000, index.size());
+        assertTrue(index.contains(id(99_999)));
+    }
+
+    @Test
+    public void shouldIterateOverAllReplicas()
+    {
+        Set<PnfsId> expected = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            _index.put(id(i), ReplicaState.CACHED, i, i, false);
+            expected.add(id(i));
+        }
+        _index.put(ID2, ReplicaState.CACHED, 0, 0, false);
+        expected.add(ID2);
+
+        Set<PnfsId> ids = new HashSet<>();
+        _index.ids().forEachRemaining(id -> assertTrue(ids.add(id)));
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void shouldNotBlockUpdatesWhileVisiting() throws Exception
+    {
+        _index.put(ID1, ReplicaState.CACHED, 1024, 1000, false);
+
+        _index.forEach(cursor -> {
+            try {
+                assertTrue(CompletableFuture.supplyAsync(() -> _index.setAccessTime(ID1, 2000))
+                                   .get(10, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                throw new AssertionError("Index is locked while visiting", e);
+            }
+            assertEquals(1000, cursor.getLastAccessTime());
+        });
+
+        assertEquals("CACHED 1024 2000 false", visit().get(ID1));
+    }
+
+    private Map<PnfsId, String> visit()
+    {
+        Map<PnfsId, String> replicas = new HashMap<>();
+        _index.forEach(cursor -> replicas.put(cursor.getPnfsId(),
+                                              cursor.getState() + " " + cursor.getReplicaSize() + " " +
+                                              cursor.getLastAccessTime() + " " + cursor.isSticky()));
+        return replicas;
+    }
+
+    private static PnfsId id(int i)
+    {
+        return new PnfsId(String.format("0000%032X", i));
+    }
+}
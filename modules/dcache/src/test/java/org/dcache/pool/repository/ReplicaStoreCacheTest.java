@@ -0,0 +1,145 @@
+package org.dcache.pool.repository;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.FaultListener;
+import org.dcache.tests.repository.ReplicaStoreHelper.CacheRepositoryEntryImpl;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.dcache.pool.repository.ReplicaState.*;
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+public class ReplicaStoreCacheTest
+{
+    private static final PnfsId PNFSID =
+        new PnfsId("000000000000000000000000000000000001");
+
+    private FlatFileStore _fileStore;
+    private ReplicaStore _inner;
+    private StateChangeListener _listener;
+
+    @Before
+    public void setup() throws Exception
+    {
+        _fileStore = new FlatFileStore(Jimfs.newFileSystem(Configuration.unix()).getPath("/"));
+        Files.write(_fileStore.get(PNFSID), new byte[17]);
+
+        /* Like a persistent store, the inner store returns a new record
+         * on every call and does not preserve the link count.
+         */
+        _inner = mock(ReplicaStore.class);
+        given(_inner.get(PNFSID)).willAnswer(invocation -> {
+            CacheRepositoryEntryImpl record = new CacheRepositoryEntryImpl(_fileStore, PNFSID);
+            FileAttributes attributes = new FileAttributes();
+            attributes.setPnfsId(PNFSID);
+            record.setFileAttributes(attributes);
+            record.setState(CACHED);
+            return record;
+        });
+        _listener = mock(StateChangeListener.class);
+    }
+
+    private ReplicaStoreCache createCache(int maxRecords)
+    {
+        return new ReplicaStoreCache(_inner, _listener, mock(FaultListener.class),
+                                     new ReplicaIndex(0), maxRecords);
+    }
+
+    @Test
+    public void shouldReturnSameRecordWhileReferenced() throws Exception
+    {
+        ReplicaStoreCache cache = createCache(0);
+
+        ReplicaRecord record = cache.get(PNFSID);
+        collectGarbage();
+
+        assertSame(record, cache.get(PNFSID));
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldReloadRecordOnceUnreferenced() throws Exception
+    {
+        ReplicaStoreCache cache = createCache(0);
+
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(cache.get(PNFSID));
+        collectGarbage(reference);
+
+        ReplicaRecord record = cache.get(PNFSID);
+
+        assertEquals(CACHED, record.getState());
+        verify(_inner, times(2)).get(PNFSID);
+        verify(_listener, times(1)).stateChanged(any(StateChangeEvent.class));
+    }
+
+    @Test
+    public void shouldKeepRecentlyUsedRecordWhenUnreferenced() throws Exception
+    {
+        ReplicaStoreCache cache = createCache(10);
+
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(cache.get(PNFSID));
+        collectGarbage();
+
+        assertSame(reference.get(), cache.get(PNFSID));
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldKeepRecordInUseWhenUnreferenced() throws Exception
+    {
+        ReplicaStoreCache cache = createCache(0);
+
+        cache.get(PNFSID).incrementLinkCount();
+        collectGarbage();
+
+        ReplicaRecord record = cache.get(PNFSID);
+        assertEquals(1, record.getLinkCount());
+        verify(_inner, times(1)).get(PNFSID);
+    }
+
+    @Test
+    public void shouldReloadRecordNoLongerInUse() throws Exception
+    {
+        ReplicaStoreCache cache = createCache(0);
+
+        ReplicaRecord record = cache.get(PNFSID);
+        record.incrementLinkCount();
+        record.decrementLinkCount();
+        WeakReference<ReplicaRecord> reference = new WeakReference<>(record);
+        record = null;
+        collectGarbage(reference);
+
+        assertEquals(0, cache.get(PNFSID).getLinkCount());
+        verify(_inner, times(2)).get(PNFSID);
+    }
+
+    /**
+     * Runs the garbage collector until an object only weakly reachable
+     * from this method has been collected.
+     */
+    private static void collectGarbage() throws InterruptedException
+    {
+        collectGarbage(new WeakReference<>(new Object()));
+    }
+
+    /**
+     * Runs the garbage collector until the referent has been collected.
+     */
+    private static void collectGarbage(WeakReference<?> reference) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Garbage was not collected", reference.get());
+    }
+}
@@ -16,7 +16,7 @@ public class BillingParserBuilderTest
 {
     private static final ImmutableMap<String,String> FORMATS =
             ImmutableMap.of(
-                    "mover-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transferred$ $connectionTime$ $created$ {$protocol$} [$initiator$] {$rc$:\"$message$\"}",
+                    "mover-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transferred$ $connectionTime$ $created$ {$protocol$} [$initiator$] {$rc$:\"$message$\"}$if(p2p)$ [throughput=$throughput$]$endif$",
                     "remove-file-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ {$rc$:\"$message$\"}",
                     "door-request-info-message", "$date$ [$cellType$:$cellName$:$type$] [\"$owner$\":$uid$:$gid$:$client$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transactionTime$ $queuingTime$ {$rc$:\"$message$\"}",
                     "storage-info-message", "$date$ [$cellType$:$cellName$:$type$] [$pnfsid$,$filesize$] [$path$] $if(storage)$$storage.storageClass$@$storage.hsm$$else$<Unknown>$endif$ $transferTime$ $queuingTime$ {$rc$:\"$message$\"}");
@@ -82,6 +82,21 @@ public class BillingParserBuilderTest
         assertThat(values, hasEntry("storage.hsm", "osm"));
         assertThat(values, hasEntry("rc", "0"));
         assertThat(values, hasEntry("message", ""));
+        assertThat(values, hasEntry("throughput", null));
+    }
+
+    @Test
+    public void testPoolToPoolMoverInfo()
+    {
+        Function<String,Map<String,String>> parser = builder.addAllAttributes().buildToMap();
+        Map<String, String> values = parser
+                .apply("09.30 00:00:00 [pool:pool_a@poolDomain:transfer] [00000F2490B964E44D55834C6ED03F8F45DD,256437] " +
+                        "[Unknown] atlas:default@osm 256437 2784 false {Http-1.1 127.0.0.1 0} " +
+                        "[pool:pool_b@poolDomain] {0:\"\"} [throughput=92111]");
+        assertThat(values, hasEntry("pnfsid", "00000F2490B964E44D55834C6ED03F8F45DD"));
+        assertThat(values, hasEntry("initiator", "pool:pool_b@poolDomain"));
+        assertThat(values, hasEntry("message", ""));
+        assertThat(values, hasEntry("throughput", "92111"));
     }
 
     @Test
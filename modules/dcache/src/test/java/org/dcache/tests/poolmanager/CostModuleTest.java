@@ -243,6 +243,56 @@ public class CostModuleTest {
         assertPercentileCost( FRACTION_JUST_BELOW_ONE, perfCost [2]);
     }
 
+    @Test
+    public void testPercentileFollowsPoolUpdates() {
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_2),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_2,
+                        100, 20, 30, 50,
+                        20, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        double idleCost = getPerformanceCostOfPercentileFile( POOL_NAME);
+        assertPercentileCost( FRACTION_JUST_ABOVE_ZERO, idleCost);
+
+        // The idle pool becomes the busiest pool
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        40, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        assertPercentileCost( FRACTION_JUST_ABOVE_ZERO, getPerformanceCostOfPercentileFile( POOL_NAME_2));
+        assertPercentileCost( FRACTION_JUST_BELOW_ONE, getPerformanceCostOfPercentileFile( POOL_NAME));
+
+        // Adding a third pool shifts the percentiles
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_3),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_3,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        assertPercentileCost( FRACTION_JUST_ABOVE_ZERO, idleCost);
+        assertPercentileCost( FRACTION_JUST_ABOVE_ONE_THIRD, getPerformanceCostOfPercentileFile( POOL_NAME_2));
+    }
+
     /*
      *  SUPPORT METHODS FOR BUILDING MESSAGES AND ASSERTING
      */
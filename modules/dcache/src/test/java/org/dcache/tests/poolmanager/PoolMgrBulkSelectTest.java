@@ -0,0 +1,195 @@
+package org.dcache.tests.poolmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import diskCacheV111.poolManager.CostModuleV1;
+import diskCacheV111.poolManager.PoolManagerV5;
+import diskCacheV111.poolManager.PoolMonitorV5;
+import diskCacheV111.poolManager.PoolSelectionUnit;
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnitV2;
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.OSMStorageInfo;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+import diskCacheV111.vehicles.PoolMgrBulkSelectPoolMsg;
+import diskCacheV111.vehicles.ProtocolInfo;
+import diskCacheV111.vehicles.StorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.poolmanager.PartitionManager;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.dcache.util.ByteUnit.GiB;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PoolMgrBulkSelectTest
+{
+    private final List<String> _pools = Arrays.asList("pool1", "pool2");
+    private final ProtocolInfo _protocolInfo =
+            new DCapProtocolInfo("DCap", 3, 0, new InetSocketAddress("127.0.0.1", 17));
+
+    private PoolSelectionUnit _selectionUnit;
+    private CostModuleV1 _costModule;
+    private PoolManagerV5 _poolManager;
+    private int _sequence;
+    private int _matches;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+        PoolMonitorHelper.prepareSelectionUnit(psu, psu, _pools);
+        _selectionUnit = (PoolSelectionUnit) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { PoolSelectionUnit.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("match")) {
+                        _matches++;
+                    }
+                    try {
+                        return method.invoke(psu, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        _costModule = new CostModuleV1();
+
+        PoolMonitorV5 poolMonitor = new PoolMonitorV5();
+        poolMonitor.setPoolSelectionUnit(_selectionUnit);
+        poolMonitor.setCostModule(_costModule);
+        poolMonitor.setPartitionManager(new PartitionManager());
+
+        _poolManager = new PoolManagerV5();
+        _poolManager.setPoolSelectionUnit(_selectionUnit);
+        _poolManager.setCostModule(_costModule);
+        _poolManager.setPoolMonitor(poolMonitor);
+
+        for (String pool : _pools) {
+            PoolCostInfo cost = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+            cost.setSpaceUsage(GiB.toBytes(100L), GiB.toBytes(50L), 0, 0);
+            cost.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, 0, 100, 0, 0, 0);
+            CellMessage envelope = new CellMessage(new CellAddressCore("PoolManager"), null);
+            envelope.addSourceAddress(new CellAddressCore(pool));
+            _costModule.messageArrived(envelope,
+                                       new PoolManagerPoolUpMessage(pool, 1, new PoolV2Mode(PoolV2Mode.ENABLED), cost));
+        }
+    }
+
+    private FileAttributes file(String storageClass, List<String> locations)
+    {
+        StorageInfo storageInfo = new OSMStorageInfo("h1", storageClass);
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(storageInfo, attributes);
+        attributes.setPnfsId(new PnfsId(String.format("%036X", ++_sequence)));
+        attributes.setLocations(locations);
+        attributes.setSize(5);
+        return attributes;
+    }
+
+    private PoolMgrBulkSelectPoolMsg select(PoolMgrBulkSelectPoolMsg msg)
+    {
+        _poolManager.new BulkSelectionHandler(msg).run();
+        return msg;
+    }
+
+    private int getActiveMovers()
+    {
+        int active = 0;
+        for (String pool : _pools) {
+            active += _costModule.getPoolCostInfo(pool).getExtendedMoverHash()
+                    .get(IoQueueManager.DEFAULT_QUEUE).getActive();
+        }
+        return active;
+    }
+
+    @Test
+    public void shouldSelectWritePoolForEachFile() throws Exception
+    {
+        PoolMgrBulkSelectPoolMsg msg = new PoolMgrBulkSelectPoolMsg(DirectionType.WRITE, _protocolInfo);
+        for (int i = 0; i < 4; i++) {
+            msg.addFile(file("rawd", Collections.emptyList()));
+        }
+
+        select(msg);
+
+        assertThat(msg.getReturnCode(), is(0));
+        for (PoolMgrBulkSelectPoolMsg.Selection selection : msg.getSelections()) {
+            assertThat(selection.isSucceeded(), is(true));
+            assertThat(selection.getPoolName(), isIn(_pools));
+        }
+        assertThat(getActiveMovers(), is(4));
+    }
+
+    @Test
+    public void shouldMatchOncePerStorageUnit() throws Exception
+    {
+        PoolMgrBulkSelectPoolMsg msg = new PoolMgrBulkSelectPoolMsg(DirectionType.WRITE, _protocolInfo);
+        msg.addFile(file("rawd", Collections.emptyList()));
+        msg.addFile(file("rawd", Collections.emptyList()));
+        msg.addFile(file("tape", Collections.emptyList()));
+        msg.addFile(file("rawd", Collections.emptyList()));
+
+        select(msg);
+
+        assertThat(_matches, is(2));
+    }
+
+    @Test
+    public void shouldReportFilesNotOnlineIndividually() throws Exception
+    {
+        PoolMgrBulkSelectPoolMsg msg = new PoolMgrBulkSelectPoolMsg(DirectionType.READ, _protocolInfo);
+        msg.addFile(file("rawd", Collections.singletonList("pool1")));
+        msg.addFile(file("rawd", Collections.emptyList()));
+
+        select(msg);
+
+        assertThat(msg.getReturnCode(), is(0));
+        PoolMgrBulkSelectPoolMsg.Selection online = msg.getSelections().get(0);
+        PoolMgrBulkSelectPoolMsg.Selection offline = msg.getSelections().get(1);
+        assertThat(online.isSucceeded(), is(true));
+        assertThat(online.getPoolName(), is("pool1"));
+        assertThat(offline.isSucceeded(), is(false));
+        assertThat(offline.getReturnCode(), is(not(0)));
+        assertThat(getActiveMovers(), is(1));
+    }
+
+    @Test
+    public void shouldFailIfNoFileCanBeSelected() throws Exception
+    {
+        PoolMgrBulkSelectPoolMsg msg = new PoolMgrBulkSelectPoolMsg(DirectionType.READ, _protocolInfo);
+        msg.addFile(file("rawd", Collections.emptyList()));
+
+        select(msg);
+
+        assertThat(msg.getReturnCode(), is(msg.getSelections().get(0).getReturnCode()));
+        assertThat(msg.getReturnCode(), is(not(0)));
+    }
+
+    @Test
+    public void shouldNotUpdateCostWhenSkipped() throws Exception
+    {
+        PoolMgrBulkSelectPoolMsg msg = new PoolMgrBulkSelectPoolMsg(DirectionType.WRITE, _protocolInfo);
+        msg.setSkipCostUpdate(true);
+        msg.addFile(file("rawd", Collections.emptyList()));
+
+        select(msg);
+
+        assertThat(msg.getSelections().get(0).isSucceeded(), is(true));
+        assertThat(getActiveMovers(), is(0));
+    }
+}
@@ -0,0 +1,190 @@
+package org.dcache.tests.poolmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.SerializationUtils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import diskCacheV111.poolManager.CostModuleV1;
+import diskCacheV111.poolManager.PoolMonitorV5;
+import diskCacheV111.poolManager.PoolSelectionUnit;
+import diskCacheV111.poolManager.PoolSelectionUnitV2;
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.DCapProtocolInfo;
+import diskCacheV111.vehicles.DoorTransferFinishedMessage;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellMessage;
+import dmg.util.CommandInterpreter;
+
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.poolmanager.PartitionManager;
+import org.dcache.poolmanager.PoolMonitorDelta;
+import org.dcache.util.Args;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PoolMonitorDeltaTest
+{
+    private final List<String> _pools = Arrays.asList("pool1", "pool2");
+
+    private PoolSelectionUnitV2 _selectionUnit;
+    private CostModuleV1 _costModule;
+    private PoolMonitorV5 _poolMonitor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _selectionUnit = new PoolSelectionUnitV2();
+        _costModule = new CostModuleV1();
+        _poolMonitor = new PoolMonitorV5();
+        _poolMonitor.setPoolSelectionUnit(_selectionUnit);
+        _poolMonitor.setCostModule(_costModule);
+        _poolMonitor.setPartitionManager(new PartitionManager());
+
+        PoolMonitorHelper.prepareSelectionUnit(_selectionUnit, _selectionUnit, _pools);
+        for (String pool : _pools) {
+            poolUp(pool, PoolV2Mode.ENABLED, 20);
+        }
+    }
+
+    private void poolUp(String pool, int mode, long free)
+    {
+        poolUp(pool, mode, free, 0);
+    }
+
+    private void poolUp(String pool, int mode, long free, int active)
+    {
+        PoolCostInfo cost = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, free, 30, 50);
+        cost.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, active, 100, 0, 0, 0);
+        PoolV2Mode poolMode = new PoolV2Mode(mode);
+        PoolManagerPoolUpMessage message = new PoolManagerPoolUpMessage(pool, 1, poolMode, cost);
+
+        CellAddressCore address = new CellAddressCore(pool);
+        CellMessage envelope = new CellMessage(new CellAddressCore("PoolManager"), null);
+        envelope.addSourceAddress(address);
+        _costModule.messageArrived(envelope, message);
+        _selectionUnit.updatePool(pool, address, 1, poolMode, Collections.emptySet());
+    }
+
+    private PoolMonitorDelta takeDelta(long version)
+    {
+        List<PoolMonitorDelta.PoolState> pools = new ArrayList<>();
+        for (String pool : _costModule.takeModifiedPools()) {
+            pools.add(new PoolMonitorDelta.PoolState(_selectionUnit.getPool(pool),
+                                                     _costModule.getPoolInfo(pool)));
+        }
+        return (PoolMonitorDelta) SerializationUtils.deserialize(
+                SerializationUtils.serialize(new PoolMonitorDelta(1, version, pools)));
+    }
+
+    private PoolMonitorV5 takeSnapshot(long version)
+    {
+        _costModule.takeModifiedPools();
+        _poolMonitor.setVersion(1, version);
+        return (PoolMonitorV5) SerializationUtils.deserialize(SerializationUtils.serialize(_poolMonitor));
+    }
+
+    @Test
+    public void shouldApplyCostChanges() throws Exception
+    {
+        PoolMonitorV5 copy = takeSnapshot(1);
+
+        poolUp("pool1", PoolV2Mode.ENABLED, 10);
+
+        assertThat(copy.apply(takeDelta(2)), is(true));
+        assertThat(copy.getCostModule().getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace(), is(10L));
+        assertThat(copy.getCostModule().getPoolCostInfo("pool2").getSpaceInfo().getFreeSpace(), is(20L));
+    }
+
+    @Test
+    public void shouldApplyPoolDown() throws Exception
+    {
+        PoolMonitorV5 copy = takeSnapshot(1);
+
+        poolUp("pool2", PoolV2Mode.DISABLED_STRICT, 20);
+
+        assertThat(copy.apply(takeDelta(2)), is(true));
+        assertThat(copy.getPoolSelectionUnit().getPool("pool2").canRead(), is(false));
+        assertThat(copy.getCostModule().getPoolCostInfo("pool2"), is(nullValue()));
+        assertThat(copy.getCostModule().getPoolCostInfo("pool1"), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldApplyDeltaWithoutCopyingMonitor() throws Exception
+    {
+        PoolMonitorV5 snapshot = takeSnapshot(1);
+        PoolSelectionUnit.SelectionPool pool = snapshot.getPoolSelectionUnit().getPool("pool2");
+        assertThat(pool.getAddress(), is(new CellAddressCore("pool2")));
+        assertThat(pool.getSerialId(), is(1L));
+
+        poolUp("pool2", PoolV2Mode.DISABLED_STRICT, 10);
+
+        assertThat(snapshot.apply(takeDelta(2)), is(true));
+        assertThat(snapshot.getPoolSelectionUnit().getPool("pool2"), is(sameInstance(pool)));
+        assertThat(pool.canRead(), is(false));
+        assertThat(pool.getSerialId(), is(0L));
+        assertThat(snapshot.getCostModule().getPoolCostInfo("pool2"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotModifyMonitorWhenDeltaCannotBeApplied() throws Exception
+    {
+        new CommandInterpreter(_selectionUnit).command(new Args("psu create pgroup default"));
+        PoolMonitorV5 snapshot = takeSnapshot(1);
+
+        poolUp("pool1", PoolV2Mode.DISABLED_STRICT, 10);
+        poolUp("pool3", PoolV2Mode.ENABLED, 20);
+
+        assertThat(snapshot.apply(takeDelta(2)), is(false));
+        assertThat(snapshot.getPoolSelectionUnit().getPool("pool1").canRead(), is(true));
+        assertThat(snapshot.getCostModule().getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace(), is(20L));
+    }
+
+    @Test
+    public void shouldNotApplyUpdatesOfUnknownPools() throws Exception
+    {
+        new CommandInterpreter(_selectionUnit).command(new Args("psu create pgroup default"));
+        PoolMonitorV5 copy = takeSnapshot(1);
+
+        poolUp("pool3", PoolV2Mode.ENABLED, 20);
+
+        assertThat(copy.apply(takeDelta(2)), is(false));
+    }
+
+    @Test
+    public void shouldNotShareCostWithPublisher() throws Exception
+    {
+        poolUp("pool1", PoolV2Mode.ENABLED, 20, 2);
+        PoolCostInfo published = _costModule.getPoolInfo("pool1").getCostInfo();
+
+        _costModule.messageToForward(
+                new DoorTransferFinishedMessage(1, new PnfsId("000000000000000000000000000000000001"),
+                                                new DCapProtocolInfo("DCap", 3, 0, new InetSocketAddress("127.0.0.1", 17)),
+                                                new FileAttributes(), "pool1", null));
+
+        assertThat(_costModule.getPoolCostInfo("pool1").getExtendedMoverHash()
+                           .get(IoQueueManager.DEFAULT_QUEUE).getActive(), is(1));
+        assertThat(published.getExtendedMoverHash().get(IoQueueManager.DEFAULT_QUEUE).getActive(), is(2));
+    }
+
+    @Test
+    public void shouldStampSnapshotWithVersion() throws Exception
+    {
+        PoolMonitorV5 copy = takeSnapshot(7);
+
+        assertThat(copy.getEpoch(), is(1L));
+        assertThat(copy.getVersion(), is(7L));
+    }
+}
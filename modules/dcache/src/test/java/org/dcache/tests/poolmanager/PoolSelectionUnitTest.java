@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -825,4 +826,94 @@ public class PoolSelectionUnitTest {
                       null); // linkGroup
         assertEquals(0, preference.length);
    }
+
+    @Test
+    public void testMatchReflectsSetupChanges() throws CommandException {
+
+        _ci.command("psu set allpoolsactive on");
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("h1:u1@osm", "*"), fileAttributes);
+
+        PoolPreferenceLevel[] preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(2, preference.length);
+        assertEquals("h1-write", preference[0].getPoolList().get(0));
+
+        _ci.command(new Args("psu set link h1-write-link -writepref=0"));
+
+        preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(1, preference.length);
+        assertEquals("default-write", preference[0].getPoolList().get(0));
+    }
+
+    @Test
+    public void testMatchReflectsPoolStateChanges() throws CommandException {
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("h1:u1@osm", "*"), fileAttributes);
+
+        _ci.command(new Args("psu set active h1-write"));
+        PoolPreferenceLevel[] preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(Arrays.asList("h1-write"), preference[0].getPoolList());
+
+        _ci.command(new Args("psu set active h1-write -no"));
+        preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertTrue(preference[0].getPoolList().isEmpty());
+    }
+
+    @Test
+    public void testRegexStoreUnit() throws CommandException {
+
+        _ci.command("psu set allpoolsactive on");
+        _ci.command("psu set regex on");
+        _ci.command(new Args("psu create unit -store zeus:.*@osm"));
+        _ci.command(new Args("psu addto ugroup all-zeus zeus:.*@osm"));
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("zeus:u3@osm", "*"), fileAttributes);
+
+        PoolPreferenceLevel[] preference = _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(1, preference.length);
+        assertEquals(Arrays.asList("zeus-read"), preference[0].getPoolList());
+
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("atlas:u1@osm", "*"), fileAttributes);
+        preference = _psu.match(DirectionType.READ, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(1, preference.length);
+        assertEquals(Arrays.asList("default-read"), preference[0].getPoolList());
+    }
+
+    @Test
+    public void testUpdatePoolReportsChanges() throws CommandException {
+
+        PoolV2Mode enabled = new PoolV2Mode(PoolV2Mode.ENABLED);
+        Set<String> hsm = new HashSet<>(Arrays.asList("osm"));
+
+        assertTrue(_psu.updatePool("h1-write", null, 1, enabled, hsm));
+        assertFalse(_psu.updatePool("h1-write", null, 1, enabled, hsm));
+        assertTrue(_psu.updatePool("h1-write", null, 2, enabled, hsm));
+        assertTrue(_psu.updatePool("h1-write", null, 2, enabled, new HashSet<>()));
+        assertTrue(_psu.updatePool("h1-write", null, 2, new PoolV2Mode(PoolV2Mode.DISABLED_STRICT), new HashSet<>()));
+        assertFalse(_psu.getPool("h1-write").isActive());
+        assertEquals(0, _psu.getPool("h1-write").getSerialId());
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("h1:u1@osm", "*"), fileAttributes);
+        PoolPreferenceLevel[] preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertTrue(preference[0].getPoolList().isEmpty());
+
+        assertTrue(_psu.updatePool("h1-write", null, 3, enabled, hsm));
+        preference = _psu.match(DirectionType.WRITE, "131.169.214.149", null, fileAttributes, null);
+        assertEquals(Arrays.asList("h1-write"), preference[0].getPoolList());
+    }
+
+    @Test
+    public void testUpdatePoolAddsUnknownPool() throws CommandException {
+
+        _ci.command(new Args("psu create pgroup default"));
+        assertNull(_psu.getPool("new-pool"));
+        assertTrue(_psu.updatePool("new-pool", null, 1, new PoolV2Mode(PoolV2Mode.ENABLED), null));
+        SelectionPool pool = _psu.getPool("new-pool");
+        assertNotNull(pool);
+        assertTrue(pool.isActive());
+        assertTrue(pool.canRead());
+    }
 }
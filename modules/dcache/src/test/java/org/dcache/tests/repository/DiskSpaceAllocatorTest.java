@@ -291,4 +291,92 @@ public class DiskSpaceAllocatorTest {
 
         account.free(4);
     }
+
+    @Test
+    public void testResizeNotBelowUsed() throws Exception {
+
+        final Account account = new Account();
+        account.setTotal(1000);
+        account.allocateNow(600);
+
+        assertEquals("resize to less than used", 600, account.resize(200));
+        assertEquals("total space not set to used space", 600, account.getTotal());
+        assertEquals("resize to more than used", 2000, account.resize(2000));
+        assertEquals("free space do not reflect new total space", 1400, account.getFree());
+    }
+
+    @Test
+    public void testShrinkNotBelowUsed() throws Exception {
+
+        final Account account = new Account();
+        account.setTotal(1000);
+        account.allocateNow(600);
+
+        assertEquals("shrink by less than free", 900, account.shrink(100));
+        assertEquals("shrink by more than free", 600, account.shrink(1000));
+        assertEquals("free space after shrinking", 0, account.getFree());
+    }
+
+    @Test(timeout=60_000)
+    public void testAllocateNowWaitsForRemovable() throws Exception {
+
+        final Account account = new Account();
+        account.setTotal(1000);
+        account.allocateNow(1000);
+        account.adjustRemovable(500);
+
+        assertFalse("allocated more than free and removable space", account.allocateNow(600));
+
+        // Imitates the sweeper removing a file
+        new Thread("DiskSpaceAllocationTestHelper") {
+            @Override
+            public void run() {
+                try {
+                    long shortage = account.awaitShortage();
+                    account.adjustRemovable(-shortage);
+                    account.free(shortage);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }.start();
+
+        assertTrue("failed to allocate removable space", account.allocateNow(400));
+        assertEquals("used space do not match allocated space", 1000, account.getUsed());
+        assertEquals("removable space not reclaimed", 100, account.getRemovable());
+        assertEquals("requested space not released", 0, account.getRequested());
+    }
+
+    @Test(timeout=60_000)
+    public void testConcurrentAllocateAndFree() throws Exception {
+
+        final int threads = 8;
+        final int allocations = 10_000;
+        final Account account = new Account();
+        account.setTotal(threads);
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread("DiskSpaceAllocationTestHelper") {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < allocations; j++) {
+                            account.allocate(2);
+                            account.free(2);
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals("used space after all space was freed", 0, account.getUsed());
+        assertEquals("requested space after all requests were served", 0, account.getRequested());
+    }
 }
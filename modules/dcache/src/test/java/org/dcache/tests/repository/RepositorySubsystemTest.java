@@ -192,7 +192,7 @@ public class RepositorySubsystemTest
 
         account = new Account();
         sweeper = new SpaceSweeper2();
-        repository = new ReplicaRepository();
+        repository = new ReplicaRepository(0, 1000);
 
         allocator.setAccount(account);
         repository.setCellEndpoint(cell);